@@ -900,14 +900,17 @@ public class HighlightInfo implements Segment {
                           @Nullable HighlightDisplayKey key) {
     if (action == null) return;
     if (fixRange == null) fixRange = new TextRange(startOffset, endOffset);
+    registerFix(new IntentionActionDescriptor(action, options, displayName, null, key, getProblemGroup()), fixRange);
+  }
+
+  void registerFix(@NotNull IntentionActionDescriptor desc, @NotNull TextRange fixRange) {
     if (quickFixActionRanges == null) {
       quickFixActionRanges = ContainerUtil.createLockFreeCopyOnWriteList();
     }
-    IntentionActionDescriptor desc = new IntentionActionDescriptor(action, options, displayName, null, key, getProblemGroup());
     quickFixActionRanges.add(Pair.create(desc, fixRange));
     fixStartOffset = Math.min (fixStartOffset, fixRange.getStartOffset());
     fixEndOffset = Math.max (fixEndOffset, fixRange.getEndOffset());
-    if (action instanceof HintAction) {
+    if (desc.getAction() instanceof HintAction) {
       setHint(true);
     }
   }
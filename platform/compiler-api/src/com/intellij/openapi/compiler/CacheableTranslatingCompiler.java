@@ -0,0 +1,58 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.compiler;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.util.Chunk;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * A translating compiler whose output may be taken from the local build cache (if it is enabled) instead of invoking the compiler,
+ * when the same files were already compiled with the same contents, options and dependencies.
+ * <p/>
+ * The compiler must produce the same output files for the same input. The state it keeps besides the output files reported to
+ * the {@link TranslatingCompiler.OutputSink} (e.g. the classes registered in its dependency cache) must
+ * be updated in {@link #outputRestored} for the cached output.
+ * <p/>
+ * The key of a cache entry hashes the compiled files, and the outputs of the modules the chunk depends on,
+ * so the cache pays off only for compilers whose work costs much more than that, not for ones copying their input.
+ */
+public interface CacheableTranslatingCompiler extends TranslatingCompiler {
+  /**
+   * @param context     the context for the current compile operation.
+   * @param moduleChunk modules the files are compiled for
+   * @return a string identifying all the options affecting the output of the compiler for the modules
+   *         (e.g. compiler version, target level, command line options)
+   */
+  @NotNull
+  String getOptionsFingerprint(@NotNull CompileContext context, @NotNull Chunk<Module> moduleChunk);
+
+  /**
+   * Called when the output of the compiler is restored from the cache instead of compiling the files, before the output is reported
+   * to the sink.
+   *
+   * @param context     the context for the current compile operation.
+   * @param moduleChunk modules the files are compiled for
+   * @param outputRoot  the output directory the items were restored to
+   * @param items       the restored output items
+   */
+  void outputRestored(@NotNull CompileContext context,
+                      @NotNull Chunk<Module> moduleChunk,
+                      @NotNull String outputRoot,
+                      @NotNull Collection<OutputItem> items);
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.compiler;
+
+/**
+ * A tag interface denoting that the translating compiler may compile several independent module chunks at the same time,
+ * i.e. its {@link #compile} keeps no state of its own between the calls and reports everything to the context and the sink it is passed.
+ * Other translating compilers are invoked for one chunk at a time when the chunks are compiled concurrently.
+ */
+public interface ConcurrentTranslatingCompiler extends TranslatingCompiler {
+}
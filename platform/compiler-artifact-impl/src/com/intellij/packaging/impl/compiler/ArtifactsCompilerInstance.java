@@ -382,7 +382,8 @@ public class ArtifactsCompilerInstance extends GenericCompilerInstance<ArtifactB
       File file = new File(FileUtil.toSystemDependentName(filePath));
       if (!deleted) {
       filesToRefresh.add(file);
-      deleted = FileUtil.delete(file);
+      // an archive which is still built is updated in place, its outdated entries are erased then
+      deleted = isJar && JarsBuilder.isUpdateInPlaceEnabled() && myBuilderContext.getJarInfo(filePath) != null || FileUtil.delete(file);
     }
 
       if (deleted) {
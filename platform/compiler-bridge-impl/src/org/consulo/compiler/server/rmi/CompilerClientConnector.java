@@ -20,6 +20,8 @@ import org.consulo.lombok.annotations.ProjectService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+
 /**
  * @author VISTALL
  * @since 15:50/19.08.13
@@ -30,6 +32,21 @@ public abstract class CompilerClientConnector {
 
   public abstract void addMessage(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum);
 
+  public void setProgress(@Nullable String text, @Nullable String text2, double fraction) {
+    // ignored
+  }
+
+  public void addOutputPaths(@NotNull Collection<String> paths) {
+    // ignored
+  }
+
+  /**
+   * Waits until all the events are delivered to the client
+   */
+  public void flush() {
+    // ignored
+  }
+
   public void showOrHide(boolean hide) {
     // ignored
   }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2013-2014 must-be.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.consulo.compiler.server.rmi;
+
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Events collected by the compiler server since the previous call of {@link CompilerClientInterface#processEvents(CompilerClientEvents)},
+ * sent to the client in one round-trip. Only the latest progress is kept.
+ */
+public class CompilerClientEvents implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final List<Message> myMessages = new ArrayList<Message>();
+  private final List<String> myOutputPaths = new ArrayList<String>();
+  private boolean myHasProgress;
+  private String myProgressText;
+  private String myProgressText2;
+  private double myProgressFraction;
+
+  public void addMessage(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum) {
+    myMessages.add(new Message(category, message, url, lineNum, columnNum));
+  }
+
+  public void setProgress(@Nullable String text, @Nullable String text2, double fraction) {
+    myHasProgress = true;
+    myProgressText = text;
+    myProgressText2 = text2;
+    myProgressFraction = fraction;
+  }
+
+  public void addOutputPaths(@NotNull Collection<String> paths) {
+    myOutputPaths.addAll(paths);
+  }
+
+  @NotNull
+  public List<Message> getMessages() {
+    return myMessages;
+  }
+
+  @NotNull
+  public List<String> getOutputPaths() {
+    return myOutputPaths;
+  }
+
+  public boolean hasProgress() {
+    return myHasProgress;
+  }
+
+  @Nullable
+  public String getProgressText() {
+    return myProgressText;
+  }
+
+  @Nullable
+  public String getProgressText2() {
+    return myProgressText2;
+  }
+
+  public double getProgressFraction() {
+    return myProgressFraction;
+  }
+
+  /**
+   * @return number of the messages and output paths
+   */
+  public int size() {
+    return myMessages.size() + myOutputPaths.size();
+  }
+
+  public boolean isEmpty() {
+    return myMessages.isEmpty() && myOutputPaths.isEmpty() && !myHasProgress;
+  }
+
+  public static class Message implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final CompilerMessageCategory myCategory;
+    private final String myMessage;
+    private final String myUrl;
+    private final int myLineNum;
+    private final int myColumnNum;
+
+    public Message(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum) {
+      myCategory = category;
+      myMessage = message;
+      myUrl = url;
+      myLineNum = lineNum;
+      myColumnNum = columnNum;
+    }
+
+    @NotNull
+    public CompilerMessageCategory getCategory() {
+      return myCategory;
+    }
+
+    public String getMessage() {
+      return myMessage;
+    }
+
+    public String getUrl() {
+      return myUrl;
+    }
+
+    public int getLineNum() {
+      return myLineNum;
+    }
+
+    public int getColumnNum() {
+      return myColumnNum;
+    }
+  }
+}
@@ -15,7 +15,6 @@
  */
 package org.consulo.compiler.server.rmi;
 
-import com.intellij.openapi.compiler.CompilerMessageCategory;
 import org.jetbrains.annotations.NotNull;
 
 import java.rmi.Remote;
@@ -26,7 +25,11 @@ import java.rmi.RemoteException;
  * @since 11:14/13.08.13
  */
 public interface CompilerClientInterface extends Remote {
-  void addMessage(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum) throws RemoteException;
+  /**
+   * Messages, progress and output files are sent in batches, to avoid a round-trip per compiler message.
+   * The server doesn't send the next batch until this call returns.
+   */
+  void processEvents(@NotNull CompilerClientEvents events) throws RemoteException;
 
   void compilationFinished(boolean aborted, int errors, int warnings) throws RemoteException;
 
@@ -80,8 +80,10 @@ import com.intellij.util.containers.MultiMap;
 import com.intellij.util.containers.OrderedSet;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntHashSet;
 import org.consulo.compiler.ModuleCompilerPathsManager;
+import org.consulo.compiler.server.rmi.CompilerClientConnector;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -101,7 +103,7 @@ import java.util.*;
  * Time: 1:42:26 PM
  */
 public class CompileDriver {
-  public static final int DEPENDENCY_FORMAT_VERSION = 55;
+  public static final int DEPENDENCY_FORMAT_VERSION = 56;
 
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.CompileDriver");
   // to be used in tests only for debug output
@@ -150,6 +152,17 @@ public class CompileDriver {
       return !SOURCE_PROCESSING_ONLY.value(compiler);
     }
   };
+  private static final Function<Chunk<Module>, String> CHUNK_PRESENTABLE_NAME = new Function<Chunk<Module>, String>() {
+    @Override
+    public String fun(Chunk<Module> chunk) {
+      final StringBuilder result = new StringBuilder();
+      for (Module module : chunk.getNodes()) {
+        if (result.length() > 0) result.append(", ");
+        result.append(module.getName());
+      }
+      return chunk.getNodes().size() > 1 ? "[" + result + "]" : result.toString();
+    }
+  };
 
   private Set<File> myAllOutputDirectories;
   private static final long ONE_MINUTE_MS = 60L /*sec*/ * 1000L /*millisec*/;
@@ -1053,11 +1066,9 @@ public class CompileDriver {
   private boolean translate(final CompileContextEx context,
                             final CompilerManager compilerManager,
                             final boolean forceCompile,
-                            boolean isRebuild,
+                            final boolean isRebuild,
                             final boolean onlyCheckStatus) throws ExitException {
 
-    boolean didSomething = false;
-
     final TranslatingCompiler[] original = compilerManager.getCompilers(TranslatingCompiler.class, myCompilerFilter);
 
     final List<Chunk<Module>> sortedChunks =
@@ -1069,230 +1080,327 @@ public class CompileDriver {
         }
       }));
 
-    final DumbService dumbService = DumbService.getInstance(myProject);
+    final TranslatingCompilerOutputCache outputCache = onlyCheckStatus ? null : TranslatingCompilerOutputCache.open(myProject);
+    final int workers = getChunkWorkersCount(context, isRebuild);
+    final boolean concurrently = workers > 1 && sortedChunks.size() > 1;
+    final TranslationState state = new TranslationState(sortedChunks, outputCache, context.getDependencyCache(), concurrently);
     try {
-      final Set<Module> processedModules = new HashSet<Module>();
-      VirtualFile[] snapshot = null;
-      final Map<Chunk<Module>, Collection<VirtualFile>> chunkMap = new HashMap<Chunk<Module>, Collection<VirtualFile>>();
-      int total = 0;
-      int processed = 0;
-      for (final Chunk<Module> currentChunk : sortedChunks) {
-        TranslatingCompiler[] translators = original.clone();
-        for (CompilerSorter compilerSorter : CompilerSorter.EP_NAME.getExtensions()) {
-          compilerSorter.sort(currentChunk, translators, TranslatingCompiler.class);
-        }
-        final TranslatorsOutputSink sink = new TranslatorsOutputSink(context, translators);
-        final Set<FileType> generatedTypes = new HashSet<FileType>();
-        Collection<VirtualFile> chunkFiles = chunkMap.get(currentChunk);
-        final Set<VirtualFile> filesToRecompile = new HashSet<VirtualFile>();
-        final Set<VirtualFile> allDependent = new HashSet<VirtualFile>();
-        try {
-          int round = 0;
-          boolean compiledSomethingForThisChunk = false;
-          Collection<VirtualFile> dependentFiles = Collections.emptyList();
-          final Function<Pair<int[], Set<VirtualFile>>, Pair<int[], Set<VirtualFile>>> dependencyFilter =
-            new DependentClassesCumulativeFilter();
-
-          do {
-            for (int currentCompiler = 0, translatorsLength = translators.length; currentCompiler < translatorsLength; currentCompiler++) {
-              sink.setCurrentCompilerIndex(currentCompiler);
-              final TranslatingCompiler compiler = translators[currentCompiler];
-              if (context.getProgressIndicator().isCanceled()) {
-                throw new ExitException(ExitStatus.CANCELLED);
-              }
-
-              dumbService.waitForSmartMode();
-
-              if (snapshot == null || ContainerUtil.intersects(generatedTypes, compilerManager.getRegisteredInputTypes(compiler))) {
-                // rescan snapshot if previously generated files may influence the input of this compiler
-                final Collection<VirtualFile> prevSnapshot =
-                  round > 0 && snapshot != null ? Arrays.asList(snapshot) : Collections.<VirtualFile>emptySet();
-                snapshot = ApplicationManager.getApplication().runReadAction(new Computable<VirtualFile[]>() {
-                  @Override
-                  public VirtualFile[] compute() {
-                    return context.getCompileScope().getFiles(null, true);
-                  }
-                });
-                recalculateChunkToFilesMap(context, sortedChunks, snapshot, chunkMap);
-                if (round == 0) {
-                  chunkFiles = chunkMap.get(currentChunk);
-                }
-                else {
-                  final Set<VirtualFile> newFiles = new HashSet<VirtualFile>(chunkMap.get(currentChunk));
-                  newFiles.removeAll(prevSnapshot);
-                  newFiles.removeAll(chunkFiles);
-                  if (!newFiles.isEmpty()) {
-                    final ArrayList<VirtualFile> merged = new ArrayList<VirtualFile>(chunkFiles.size() + newFiles.size());
-                    merged.addAll(chunkFiles);
-                    merged.addAll(newFiles);
-                    chunkFiles = merged;
-                  }
-                }
-                total = snapshot.length * translatorsLength;
-              }
-
-              final CompileContextEx _context;
-              if (compiler instanceof IntermediateOutputCompiler) {
-                // wrap compile context so that output goes into intermediate directories
-                final IntermediateOutputCompiler _compiler = (IntermediateOutputCompiler)compiler;
-                _context = new CompileContextExProxy(context) {
-                  @Override
-                  public VirtualFile getModuleOutputDirectory(final Module module) {
-                    return getGenerationOutputDir(_compiler, module, false);
-                  }
+      if (concurrently) {
+        new DependencyOrderedScheduler<Chunk<Module>>(sortedChunks, collectChunkDependencies(sortedChunks), CHUNK_PRESENTABLE_NAME,
+                                                      "module chunks", workers)
+          .run(new DependencyOrderedScheduler.Task<Chunk<Module>, ExitException>() {
+            @Override
+            public void run(@NotNull Chunk<Module> chunk) throws ExitException {
+              translateChunk(createChunkContext(context), compilerManager, original, chunk, state, forceCompile, isRebuild,
+                             onlyCheckStatus);
+            }
+          }, ExitException.class, context.getProgressIndicator());
+      }
+      else {
+        for (final Chunk<Module> currentChunk : sortedChunks) {
+          translateChunk(context, compilerManager, original, currentChunk, state, forceCompile, isRebuild, onlyCheckStatus);
+        }
+      }
+    }
+    catch (ProcessCanceledException e) {
+      ProgressManager.getInstance().executeNonCancelableSection(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final Collection<VirtualFile> deps = CacheUtils.findDependentFiles(context, Collections.<VirtualFile>emptySet(), null);
+            if (deps.size() > 0) {
+              TranslatingCompilerFilesMonitor.getInstance()
+                .update(context, null, Collections.<TranslatingCompiler.OutputItem>emptyList(), VfsUtilCore.toVirtualFileArray(deps));
+            }
+          }
+          catch (IOException ignored) {
+            LOG.info(ignored);
+          }
+          catch (CacheCorruptedException ignored) {
+            LOG.info(ignored);
+          }
+          catch (ExitException e1) {
+            LOG.info(e1);
+          }
+        }
+      });
+      throw e;
+    }
+    finally {
+      if (outputCache != null) {
+        outputCache.close();
+      }
+      dropDependencyCache(context);
+      if (state.isDidSomething()) {
+        TranslatingCompilerFilesMonitor.getInstance().updateOutputRootsLayout(myProject);
+      }
+    }
+    return state.isDidSomething();
+  }
 
-                  @Override
-                  public VirtualFile getModuleOutputDirectoryForTests(final Module module) {
-                    return getGenerationOutputDir(_compiler, module, true);
-                  }
-                };
-              }
-              else {
-                _context = context;
-              }
-              final boolean compiledSomething =
-                compileSources(_context, currentChunk, compiler, chunkFiles, round == 0 ? forceCompile : true, isRebuild, onlyCheckStatus,
-                               sink);
+  /**
+   * Independent chunks are compiled concurrently only on rebuild: the rounds of recompiling dependent files during make
+   * rely on the dependency caches being filled by one chunk at a time.
+   * The dependency caches must also be able to collect the state of each chunk separately.
+   */
+  private static int getChunkWorkersCount(CompileContextEx context, boolean isRebuild) {
+    return isRebuild && context.getDependencyCache().isConcurrent()
+           ? DependencyOrderedScheduler.getWorkersCount("compiler.parallel.chunks.workers")
+           : 1;
+  }
 
-              processed += chunkFiles.size();
-              _context.getProgressIndicator().setFraction(((double)processed) / total);
+  /**
+   * @return context of a chunk compiled concurrently, with its own dependency cache which is merged into the shared one when the chunk is done
+   */
+  private static CompileContextEx createChunkContext(final CompileContextEx context) {
+    final CompositeDependencyCache chunkCache = context.getDependencyCache().createChunkCache();
+    return new CompileContextExProxy(context) {
+      @Override
+      public CompositeDependencyCache getDependencyCache() {
+        return chunkCache;
+      }
+    };
+  }
 
-              if (compiledSomething) {
-                generatedTypes.addAll(compilerManager.getRegisteredOutputTypes(compiler));
+  @NotNull
+  private static Map<Chunk<Module>, Set<Chunk<Module>>> collectChunkDependencies(@NotNull final List<Chunk<Module>> chunks) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<Map<Chunk<Module>, Set<Chunk<Module>>>>() {
+      @Override
+      public Map<Chunk<Module>, Set<Chunk<Module>>> compute() {
+        final Map<Module, Chunk<Module>> moduleToChunk = new HashMap<Module, Chunk<Module>>();
+        for (Chunk<Module> chunk : chunks) {
+          for (Module module : chunk.getNodes()) {
+            moduleToChunk.put(module, chunk);
+          }
+        }
+
+        final Map<Chunk<Module>, Set<Chunk<Module>>> result = new HashMap<Chunk<Module>, Set<Chunk<Module>>>();
+        for (Chunk<Module> chunk : chunks) {
+          final Set<Chunk<Module>> dependencies = new HashSet<Chunk<Module>>();
+          for (Module module : chunk.getNodes()) {
+            for (Module dependency : ModuleCompilerUtil.getDependencies(module)) {
+              final Chunk<Module> dependencyChunk = moduleToChunk.get(dependency);
+              // chunks outside of the compile scope are not compiled, so there is nothing to wait for
+              if (dependencyChunk != null && dependencyChunk != chunk) {
+                dependencies.add(dependencyChunk);
               }
+            }
+          }
+          result.put(chunk, dependencies);
+        }
+        return result;
+      }
+    });
+  }
 
-              didSomething |= compiledSomething;
-              compiledSomethingForThisChunk |= didSomething;
-
-              if (_context.getMessageCount(CompilerMessageCategory.ERROR) > 0) {
-                break; // break the loop over compilers
+  private void translateChunk(final CompileContextEx context,
+                              final CompilerManager compilerManager,
+                              final TranslatingCompiler[] original,
+                              final Chunk<Module> currentChunk,
+                              final TranslationState state,
+                              final boolean forceCompile,
+                              final boolean isRebuild,
+                              final boolean onlyCheckStatus) throws ExitException {
+    final DumbService dumbService = DumbService.getInstance(myProject);
+    TranslatingCompiler[] translators = original.clone();
+    for (CompilerSorter compilerSorter : CompilerSorter.EP_NAME.getExtensions()) {
+      compilerSorter.sort(currentChunk, translators, TranslatingCompiler.class);
+    }
+    final TranslatorsOutputSink sink = new TranslatorsOutputSink(context, translators);
+    final Set<FileType> generatedTypes = new HashSet<FileType>();
+    Collection<VirtualFile> chunkFiles = state.getChunkFiles(currentChunk);
+    final Set<VirtualFile> filesToRecompile = new HashSet<VirtualFile>();
+    final Set<VirtualFile> allDependent = new HashSet<VirtualFile>();
+    try {
+      int round = 0;
+      boolean compiledSomethingForThisChunk = false;
+      Collection<VirtualFile> dependentFiles = Collections.emptyList();
+      final Function<Pair<int[], Set<VirtualFile>>, Pair<int[], Set<VirtualFile>>> dependencyFilter =
+        new DependentClassesCumulativeFilter();
+
+      do {
+        for (int currentCompiler = 0, translatorsLength = translators.length; currentCompiler < translatorsLength; currentCompiler++) {
+          sink.setCurrentCompilerIndex(currentCompiler);
+          final TranslatingCompiler compiler = translators[currentCompiler];
+          if (context.getProgressIndicator().isCanceled()) {
+            throw new ExitException(ExitStatus.CANCELLED);
+          }
+
+          dumbService.waitForSmartMode();
+
+          final VirtualFile[] prevSnapshot = state.getSnapshot();
+          if (prevSnapshot == null || ContainerUtil.intersects(generatedTypes, compilerManager.getRegisteredInputTypes(compiler))) {
+            // rescan snapshot if previously generated files may influence the input of this compiler
+            final VirtualFile[] snapshot = ApplicationManager.getApplication().runReadAction(new Computable<VirtualFile[]>() {
+              @Override
+              public VirtualFile[] compute() {
+                return context.getCompileScope().getFiles(null, true);
               }
+            });
+            final Collection<VirtualFile> rescannedFiles = state.setSnapshot(context, snapshot, currentChunk, translatorsLength);
+            if (round == 0) {
+              chunkFiles = rescannedFiles;
             }
-
-            final boolean hasUnprocessedTraverseRoots = context.getDependencyCache().hasUnprocessedTraverseRoots();
-            if (!isRebuild && (compiledSomethingForThisChunk || hasUnprocessedTraverseRoots)) {
-              final Set<VirtualFile> compiledWithErrors = CacheUtils.getFilesCompiledWithErrors(context);
-              filesToRecompile.removeAll(sink.getCompiledSources());
-              filesToRecompile.addAll(compiledWithErrors);
-
-              dependentFiles = CacheUtils.findDependentFiles(context, compiledWithErrors, dependencyFilter);
-              if (!processedModules.isEmpty()) {
-                for (Iterator<VirtualFile> it = dependentFiles.iterator(); it.hasNext(); ) {
-                  final VirtualFile next = it.next();
-                  final Module module = context.getModuleByFile(next);
-                  if (module != null && processedModules.contains(module)) {
-                    it.remove();
-                  }
-                }
+            else {
+              final Set<VirtualFile> newFiles = new HashSet<VirtualFile>(rescannedFiles);
+              if (prevSnapshot != null) {
+                newFiles.removeAll(Arrays.asList(prevSnapshot));
               }
-
-              if (ourDebugMode) {
-                if (!dependentFiles.isEmpty()) {
-                  for (VirtualFile dependentFile : dependentFiles) {
-                    System.out.println("FOUND TO RECOMPILE: " + dependentFile.getPresentableUrl());
-                  }
-                }
-                else {
-                  System.out.println("NO FILES TO RECOMPILE");
-                }
+              newFiles.removeAll(chunkFiles);
+              if (!newFiles.isEmpty()) {
+                final ArrayList<VirtualFile> merged = new ArrayList<VirtualFile>(chunkFiles.size() + newFiles.size());
+                merged.addAll(chunkFiles);
+                merged.addAll(newFiles);
+                chunkFiles = merged;
               }
+            }
+          }
 
-              if (!dependentFiles.isEmpty()) {
-                filesToRecompile.addAll(dependentFiles);
-                allDependent.addAll(dependentFiles);
-                if (context.getProgressIndicator().isCanceled() || context.getMessageCount(CompilerMessageCategory.ERROR) > 0) {
-                  break;
-                }
-                final List<VirtualFile> filesInScope = getFilesInScope(context, currentChunk, dependentFiles);
-                if (filesInScope.isEmpty()) {
-                  break;
-                }
-                context.getDependencyCache().clearTraverseRoots();
-                chunkFiles = filesInScope;
-                total += chunkFiles.size() * translators.length;
+          final CompileContextEx _context;
+          if (compiler instanceof IntermediateOutputCompiler) {
+            // wrap compile context so that output goes into intermediate directories
+            final IntermediateOutputCompiler _compiler = (IntermediateOutputCompiler)compiler;
+            _context = new CompileContextExProxy(context) {
+              @Override
+              public VirtualFile getModuleOutputDirectory(final Module module) {
+                return getGenerationOutputDir(_compiler, module, false);
               }
 
-              didSomething |= (hasUnprocessedTraverseRoots != context.getDependencyCache().hasUnprocessedTraverseRoots());
+              @Override
+              public VirtualFile getModuleOutputDirectoryForTests(final Module module) {
+                return getGenerationOutputDir(_compiler, module, true);
+              }
+            };
+          }
+          else {
+            _context = context;
+          }
+          final boolean compiledSomething;
+          if (state.concurrently && !(compiler instanceof ConcurrentTranslatingCompiler)) {
+            // the compiler may keep state between the calls, so it compiles one chunk at a time
+            synchronized (compiler) {
+              compiledSomething = compileSources(_context, currentChunk, compiler, chunkFiles, round == 0 ? forceCompile : true, isRebuild,
+                                                 onlyCheckStatus, sink, state.outputCache);
             }
+          }
+          else {
+            compiledSomething = compileSources(_context, currentChunk, compiler, chunkFiles, round == 0 ? forceCompile : true, isRebuild,
+                                               onlyCheckStatus, sink, state.outputCache);
+          }
 
-            round++;
+          _context.getProgressIndicator().setFraction(state.addProcessed(chunkFiles.size()));
+
+          if (compiledSomething) {
+            generatedTypes.addAll(compilerManager.getRegisteredOutputTypes(compiler));
+            state.setDidSomething();
           }
-          while (!dependentFiles.isEmpty() && context.getMessageCount(CompilerMessageCategory.ERROR) == 0);
 
-          if (CompilerManager.MAKE_ENABLED) {
-            if (!context.getProgressIndicator().isCanceled()) {
-              // when cancelled pretend nothing was compiled and next compile will compile everything from the scratch
-              final ProgressIndicator indicator = context.getProgressIndicator();
-              final DependencyCache cache = context.getDependencyCache();
+          compiledSomethingForThisChunk |= state.isDidSomething();
 
-              indicator.pushState();
-              indicator.setText(CompilerBundle.message("progress.updating.caches"));
-              indicator.setText2("");
+          if (_context.getMessageCount(CompilerMessageCategory.ERROR) > 0) {
+            break; // break the loop over compilers
+          }
+        }
 
-              cache.update();
+        final boolean hasUnprocessedTraverseRoots = context.getDependencyCache().hasUnprocessedTraverseRoots();
+        if (!isRebuild && (compiledSomethingForThisChunk || hasUnprocessedTraverseRoots)) {
+          final Set<VirtualFile> compiledWithErrors = CacheUtils.getFilesCompiledWithErrors(context);
+          filesToRecompile.removeAll(sink.getCompiledSources());
+          filesToRecompile.addAll(compiledWithErrors);
 
-              indicator.setText(CompilerBundle.message("progress.saving.caches"));
-              cache.resetState();
-              processedModules.addAll(currentChunk.getNodes());
-              indicator.popState();
+          dependentFiles = CacheUtils.findDependentFiles(context, compiledWithErrors, dependencyFilter);
+          if (!state.processedModules.isEmpty()) {
+            for (Iterator<VirtualFile> it = dependentFiles.iterator(); it.hasNext(); ) {
+              final VirtualFile next = it.next();
+              final Module module = context.getModuleByFile(next);
+              if (module != null && state.processedModules.contains(module)) {
+                it.remove();
+              }
             }
           }
 
-          if (context.getMessageCount(CompilerMessageCategory.ERROR) > 0) {
-            throw new ExitException(ExitStatus.ERRORS);
+          if (ourDebugMode) {
+            if (!dependentFiles.isEmpty()) {
+              for (VirtualFile dependentFile : dependentFiles) {
+                System.out.println("FOUND TO RECOMPILE: " + dependentFile.getPresentableUrl());
+              }
+            }
+            else {
+              System.out.println("NO FILES TO RECOMPILE");
+            }
           }
 
-        }
-        catch (CacheCorruptedException e) {
-          LOG.info(e);
-          context.requestRebuildNextTime(e.getMessage());
-        }
-        finally {
-          final int errorCount = context.getMessageCount(CompilerMessageCategory.ERROR);
-          if (errorCount != 0) {
-            filesToRecompile.addAll(allDependent);
-          }
-          if (filesToRecompile.size() > 0) {
-            sink.add(null, Collections.<TranslatingCompiler.OutputItem>emptyList(), VfsUtilCore.toVirtualFileArray(filesToRecompile));
+          if (!dependentFiles.isEmpty()) {
+            filesToRecompile.addAll(dependentFiles);
+            allDependent.addAll(dependentFiles);
+            if (context.getProgressIndicator().isCanceled() || context.getMessageCount(CompilerMessageCategory.ERROR) > 0) {
+              break;
+            }
+            final List<VirtualFile> filesInScope = getFilesInScope(context, currentChunk, dependentFiles);
+            if (filesInScope.isEmpty()) {
+              break;
+            }
+            context.getDependencyCache().clearTraverseRoots();
+            chunkFiles = filesInScope;
+            state.addTotal(chunkFiles.size() * translators.length);
           }
-          if (errorCount == 0) {
-            // perform update only if there were no errors, so it is guaranteed that the file was processd by all neccesary compilers
-            sink.flushPostponedItems();
+
+          if (hasUnprocessedTraverseRoots != context.getDependencyCache().hasUnprocessedTraverseRoots()) {
+            state.setDidSomething();
           }
         }
+
+        round++;
       }
-    }
-    catch (ProcessCanceledException e) {
-      ProgressManager.getInstance().executeNonCancelableSection(new Runnable() {
-        @Override
-        public void run() {
-          try {
-            final Collection<VirtualFile> deps = CacheUtils.findDependentFiles(context, Collections.<VirtualFile>emptySet(), null);
-            if (deps.size() > 0) {
-              TranslatingCompilerFilesMonitor.getInstance()
-                .update(context, null, Collections.<TranslatingCompiler.OutputItem>emptyList(), VfsUtilCore.toVirtualFileArray(deps));
+      while (!dependentFiles.isEmpty() && context.getMessageCount(CompilerMessageCategory.ERROR) == 0);
+
+      if (CompilerManager.MAKE_ENABLED) {
+        if (!context.getProgressIndicator().isCanceled()) {
+          // when cancelled pretend nothing was compiled and next compile will compile everything from the scratch
+          final ProgressIndicator indicator = context.getProgressIndicator();
+          final CompositeDependencyCache cache = state.dependencyCache;
+
+          // chunks compiled concurrently (on rebuild) collect their state separately and must not update the caches at the same time
+          synchronized (state.processedModules) {
+            indicator.pushState();
+            indicator.setText(CompilerBundle.message("progress.updating.caches"));
+            indicator.setText2("");
+
+            if (context.getDependencyCache() != cache) {
+              cache.mergeChunkCache(context.getDependencyCache());
             }
-          }
-          catch (IOException ignored) {
-            LOG.info(ignored);
-          }
-          catch (CacheCorruptedException ignored) {
-            LOG.info(ignored);
-          }
-          catch (ExitException e1) {
-            LOG.info(e1);
+            cache.update();
+
+            indicator.setText(CompilerBundle.message("progress.saving.caches"));
+            cache.resetState();
+            state.processedModules.addAll(currentChunk.getNodes());
+            indicator.popState();
           }
         }
-      });
-      throw e;
+      }
+
+      if (context.getMessageCount(CompilerMessageCategory.ERROR) > 0) {
+        throw new ExitException(ExitStatus.ERRORS);
+      }
+
+    }
+    catch (CacheCorruptedException e) {
+      LOG.info(e);
+      context.requestRebuildNextTime(e.getMessage());
     }
     finally {
-      dropDependencyCache(context);
-      if (didSomething) {
-        TranslatingCompilerFilesMonitor.getInstance().updateOutputRootsLayout(myProject);
+      final int errorCount = context.getMessageCount(CompilerMessageCategory.ERROR);
+      if (errorCount != 0) {
+        filesToRecompile.addAll(allDependent);
+      }
+      if (filesToRecompile.size() > 0) {
+        sink.add(null, Collections.<TranslatingCompiler.OutputItem>emptyList(), VfsUtilCore.toVirtualFileArray(filesToRecompile));
+      }
+      if (errorCount == 0) {
+        // perform update only if there were no errors, so it is guaranteed that the file was processd by all neccesary compilers
+        sink.flushPostponedItems();
       }
     }
-    return didSomething;
   }
 
   private static List<VirtualFile> getFilesInScope(final CompileContextEx context,
@@ -1783,7 +1891,8 @@ public class CompileDriver {
                                  final boolean forceCompile,
                                  final boolean isRebuild,
                                  final boolean onlyCheckStatus,
-                                 TranslatingCompiler.OutputSink sink) throws ExitException {
+                                 TranslatingCompiler.OutputSink sink,
+                                 @Nullable TranslatingCompilerOutputCache outputCache) throws ExitException {
 
     final Set<VirtualFile> toCompile = new HashSet<VirtualFile>();
     final List<Trinity<File, String, Boolean>> toDelete = new ArrayList<Trinity<File, String, Boolean>>();
@@ -1837,7 +1946,18 @@ public class CompileDriver {
       }
 
       if ((wereFilesDeleted[0] || !toCompile.isEmpty()) && context.getMessageCount(CompilerMessageCategory.ERROR) == 0) {
-        compiler.compile(context, moduleChunk, VfsUtilCore.toVirtualFileArray(toCompile), sink);
+        final String cacheKey = outputCache != null && compiler instanceof CacheableTranslatingCompiler && !toCompile.isEmpty()
+                                ? outputCache
+                                  .computeKey(context, moduleChunk, (CacheableTranslatingCompiler)compiler, srcSnapshot, toCompile)
+                                : null;
+        if (cacheKey == null) {
+          compiler.compile(context, moduleChunk, VfsUtilCore.toVirtualFileArray(toCompile), sink);
+        }
+        else if (!outputCache.restore(context, moduleChunk, (CacheableTranslatingCompiler)compiler, cacheKey, toCompile, sink)) {
+          final TranslatingCompilerOutputCache.RecordingSink recordingSink = new TranslatingCompilerOutputCache.RecordingSink(sink);
+          compiler.compile(context, moduleChunk, VfsUtilCore.toVirtualFileArray(toCompile), recordingSink);
+          outputCache.store(context, cacheKey, recordingSink);
+        }
       }
     }
     finally {
@@ -1939,27 +2059,28 @@ public class CompileDriver {
     }
     final CompileScope scope = context.getCompileScope();
     final List<FileProcessingCompiler.ProcessingItem> toProcess = new ArrayList<FileProcessingCompiler.ProcessingItem>();
-    final Set<String> allUrls = new HashSet<String>();
+    final TIntHashSet allIds = new TIntHashSet(items.length);
     final IOException[] ex = {null};
     DumbService.getInstance(myProject).runReadActionInSmartMode(new Runnable() {
       @Override
       public void run() {
         try {
-          for (FileProcessingCompiler.ProcessingItem item : items) {
-            final VirtualFile file = item.getFile();
-            final String url = file.getUrl();
-            allUrls.add(url);
-            if (!forceCompile && cache.getTimestamp(url) == file.getTimeStamp()) {
-              final ValidityState state = cache.getExtState(url);
-              final ValidityState itemState = item.getValidityState();
-              if (state != null ? state.equalsTo(itemState) : itemState == null) {
-                continue;
-              }
+          // the states of renamed or moved files are reported as outdated below, so that the output of their old locations is removed
+          final TIntHashSet movedIds = new TIntHashSet();
+          final boolean[] upToDate = cache.getUpToDate(items, movedIds);
+          for (int i = 0; i < items.length; i++) {
+            final VirtualFile file = items[i].getFile();
+            final int id = FileProcessingCompilerStateCache.getFileId(file);
+            if (!movedIds.contains(id)) {
+              allIds.add(id);
+            }
+            if (upToDate[i] && !forceCompile) {
+              continue;
             }
             if (LOG.isDebugEnabled()) {
-              LOG.debug("Adding item to process: " + url + "; saved ts= " + cache.getTimestamp(url) + "; VFS ts=" + file.getTimeStamp());
+              LOG.debug("Adding item to process: " + file.getUrl() + "; saved ts= " + cache.getTimestamp(file) + "; VFS ts=" + file.getTimeStamp());
             }
-            toProcess.add(item);
+            toProcess.add(items[i]);
           }
         }
         catch (IOException e) {
@@ -1972,29 +2093,28 @@ public class CompileDriver {
       throw ex[0];
     }
 
-    final Collection<String> urls = cache.getUrls();
+    final TIntHashSet ids = cache.getFileIds();
     final List<String> urlsToRemove = new ArrayList<String>();
-    if (!urls.isEmpty()) {
+    if (!ids.isEmpty()) {
       CompilerUtil
         .runInContext(context, CompilerBundle.message("progress.processing.outdated.files"), new ThrowableRunnable<IOException>() {
           @Override
           public void run() throws IOException {
-            ApplicationManager.getApplication().runReadAction(new Runnable() {
-              @Override
-              public void run() {
-                for (final String url : urls) {
-                  if (!allUrls.contains(url)) {
-                    if (!checkScope || scope.belongs(url)) {
-                      urlsToRemove.add(url);
-                    }
-                  }
+            final TIntArrayList idsToRemove = new TIntArrayList();
+            for (int id : ids.toArray()) {
+              if (!allIds.contains(id)) {
+                final String url = cache.getUrl(id);
+                if (url != null && (!checkScope || belongs(scope, url))) {
+                  idsToRemove.add(id);
+                  urlsToRemove.add(url);
                 }
               }
-            });
+            }
             if (!onlyCheckStatus && !urlsToRemove.isEmpty()) {
-              for (final String url : urlsToRemove) {
-                adapter.processOutdatedItem(context, url, cache.getExtState(url));
-                cache.remove(url);
+              for (int i = 0; i < idsToRemove.size(); i++) {
+                final int id = idsToRemove.get(i);
+                adapter.processOutdatedItem(context, urlsToRemove.get(i), cache.getExtState(id));
+                cache.remove(id);
               }
             }
           }
@@ -2064,6 +2184,15 @@ public class CompileDriver {
     return true;
   }
 
+  private static boolean belongs(final CompileScope scope, final String url) {
+    return ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
+      @Override
+      public Boolean compute() {
+        return scope.belongs(url);
+      }
+    });
+  }
+
   private FileProcessingCompilerStateCache getFileProcessingCompilerCache(FileProcessingCompiler compiler) throws IOException {
     return CompilerCacheManager.getInstance(myProject).getFileProcessingCompilerCache(compiler);
   }
@@ -2370,28 +2499,19 @@ public class CompileDriver {
       list.add(new Pair<FileProcessingCompilerStateCache, FileProcessingCompiler.ProcessingItem>(cache, item));
     }
 
-    public void doUpdate() throws IOException {
-      final IOException[] ex = {null};
+    public void doUpdate() {
       ApplicationManager.getApplication().runReadAction(new Runnable() {
         @Override
         public void run() {
-          try {
-            for (Map.Entry<VirtualFile, List<Pair<FileProcessingCompilerStateCache, FileProcessingCompiler.ProcessingItem>>> entry : myData
-              .entrySet()) {
-              for (Pair<FileProcessingCompilerStateCache, FileProcessingCompiler.ProcessingItem> pair : entry.getValue()) {
-                final FileProcessingCompiler.ProcessingItem item = pair.getSecond();
-                pair.getFirst().update(entry.getKey(), item.getValidityState());
-              }
+          for (Map.Entry<VirtualFile, List<Pair<FileProcessingCompilerStateCache, FileProcessingCompiler.ProcessingItem>>> entry : myData
+            .entrySet()) {
+            for (Pair<FileProcessingCompilerStateCache, FileProcessingCompiler.ProcessingItem> pair : entry.getValue()) {
+              final FileProcessingCompiler.ProcessingItem item = pair.getSecond();
+              pair.getFirst().update(entry.getKey(), item.getValidityState());
             }
           }
-          catch (IOException e) {
-            ex[0] = e;
-          }
         }
       });
-      if (ex[0] != null) {
-        throw ex[0];
-      }
     }
   }
 
@@ -2425,6 +2545,15 @@ public class CompileDriver {
           myCompiledSources.add(file);
         }
       }
+      if (ApplicationManager.getApplication().isCompilerServerMode() && !items.isEmpty()) {
+        final List<String> outputPaths = new ArrayList<String>(items.size());
+        for (TranslatingCompiler.OutputItem item : items) {
+          if (item.getOutputPath() != null) {
+            outputPaths.add(item.getOutputPath());
+          }
+        }
+        CompilerClientConnector.getInstance(myContext.getProject()).addOutputPaths(outputPaths);
+      }
       final TranslatingCompiler compiler = myCompilers[myCurrentCompilerIdx];
       if (compiler instanceof IntermediateOutputCompiler) {
         final LocalFileSystem lfs = LocalFileSystem.getInstance();
@@ -2535,6 +2664,75 @@ public class CompileDriver {
     }
   }
 
+  /**
+   * State of translation shared by all the module chunks, which may be compiled concurrently.
+   */
+  private static class TranslationState {
+    private final List<Chunk<Module>> mySortedChunks;
+    private final Map<Chunk<Module>, Collection<VirtualFile>> myChunkMap = new HashMap<Chunk<Module>, Collection<VirtualFile>>();
+    private VirtualFile[] mySnapshot;
+    private int myTotal;
+    private int myProcessed;
+    private boolean myDidSomething;
+    @Nullable final TranslatingCompilerOutputCache outputCache;
+    // the cache the dependencies of the compiled chunks are merged into
+    @NotNull final CompositeDependencyCache dependencyCache;
+    final boolean concurrently;
+    // modules whose dependency caches are updated, also serves as a lock for the update
+    private final Set<Module> processedModules = new HashSet<Module>();
+
+    private TranslationState(List<Chunk<Module>> sortedChunks,
+                             @Nullable TranslatingCompilerOutputCache outputCache,
+                             @NotNull CompositeDependencyCache dependencyCache,
+                             boolean concurrently) {
+      mySortedChunks = sortedChunks;
+      this.outputCache = outputCache;
+      this.dependencyCache = dependencyCache;
+      this.concurrently = concurrently;
+    }
+
+    public synchronized VirtualFile[] getSnapshot() {
+      return mySnapshot;
+    }
+
+    public synchronized Collection<VirtualFile> getChunkFiles(Chunk<Module> chunk) {
+      return myChunkMap.get(chunk);
+    }
+
+    /**
+     * @return files of the given chunk in the new snapshot
+     */
+    public synchronized Collection<VirtualFile> setSnapshot(CompileContextEx context,
+                                                            VirtualFile[] snapshot,
+                                                            Chunk<Module> chunk,
+                                                            int translatorsCount) {
+      mySnapshot = snapshot;
+      recalculateChunkToFilesMap(context, mySortedChunks, snapshot, myChunkMap);
+      myTotal = snapshot.length * translatorsCount;
+      return myChunkMap.get(chunk);
+    }
+
+    public synchronized void addTotal(int count) {
+      myTotal += count;
+    }
+
+    /**
+     * @return fraction of the processed files
+     */
+    public synchronized double addProcessed(int count) {
+      myProcessed += count;
+      return ((double)myProcessed) / myTotal;
+    }
+
+    public synchronized boolean isDidSomething() {
+      return myDidSomething;
+    }
+
+    public synchronized void setDidSomething() {
+      myDidSomething = true;
+    }
+  }
+
   private static class DependentClassesCumulativeFilter implements Function<Pair<int[], Set<VirtualFile>>, Pair<int[], Set<VirtualFile>>> {
 
     private final TIntHashSet myProcessedNames = new TIntHashSet();
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.util.Function;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a task for each of the items on several pooled threads: an item is started as soon as all the items it depends on are done,
+ * the items being picked in the order of the given (topologically sorted) list. After the first failed item no more items are started,
+ * the ones already running are waited for.
+ * <p/>
+ * The timeline of the run is logged: the critical path through the dependency graph and the time the workers spent idle.
+ *
+ * @param <T> type of the scheduled items, e.g. module chunks or archives
+ */
+public class DependencyOrderedScheduler<T> {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.DependencyOrderedScheduler");
+
+  public interface Task<T, E extends Exception> {
+    void run(@NotNull T item) throws E;
+  }
+
+  private final List<T> myItems;
+  private final Map<T, ? extends Collection<T>> myDependencies;
+  private final Function<T, String> myPresentableName;
+  private final String myItemsName;
+  private final int myWorkers;
+
+  private final Set<T> myScheduled;
+  private final List<T> myPending;
+  private final Set<T> myDone = new HashSet<T>();
+  private final Map<T, long[]> myTimeline = new HashMap<T, long[]>();
+  private int myRunning;
+  private Throwable myError;
+
+  /**
+   * @param sortedItems   items sorted so that each item follows all of its dependencies
+   * @param dependencies  the items each item waits for; the items missing from {@code sortedItems} are ignored
+   * @param itemsName     what the items are, for the log (e.g. "module chunks")
+   */
+  public DependencyOrderedScheduler(@NotNull List<T> sortedItems,
+                                    @NotNull Map<T, ? extends Collection<T>> dependencies,
+                                    @NotNull Function<T, String> presentableName,
+                                    @NonNls @NotNull String itemsName,
+                                    int workers) {
+    myItems = sortedItems;
+    myDependencies = dependencies;
+    myPresentableName = presentableName;
+    myItemsName = itemsName;
+    myWorkers = workers;
+    myScheduled = new HashSet<T>(sortedItems);
+    myPending = new LinkedList<T>(sortedItems);
+  }
+
+  /**
+   * @return the number of the workers configured by the registry key: 1 by default, 0 means the number of processors minus one
+   */
+  public static int getWorkersCount(@NonNls @NotNull String registryKey) {
+    final int workers = Registry.intValue(registryKey);
+    return workers > 0 ? workers : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+  }
+
+  /**
+   * Runs the task for all the items and waits for them to finish.
+   *
+   * @param exceptionClass the checked exception of the task, it is rethrown as is
+   */
+  public <E extends Exception> void run(@NotNull final Task<T, E> task, @NotNull Class<E> exceptionClass,
+                                        @NotNull final ProgressIndicator indicator) throws E {
+    final long start = System.currentTimeMillis();
+    final List<Future<?>> futures = new ArrayList<Future<?>>(myWorkers);
+    for (int i = 0; i < myWorkers; i++) {
+      final int worker = i;
+      futures.add(ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          ProgressManager.getInstance().runProcess(new Runnable() {
+            @Override
+            public void run() {
+              work(task, indicator, worker);
+            }
+          }, indicator);
+        }
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        failed(new ProcessCanceledException(e));
+      }
+      catch (ExecutionException e) {
+        failed(e.getCause());
+      }
+    }
+
+    logTimeline(System.currentTimeMillis() - start);
+
+    final Throwable error;
+    synchronized (this) {
+      error = myError;
+    }
+    if (exceptionClass.isInstance(error)) throw exceptionClass.cast(error);
+    if (error instanceof RuntimeException) throw (RuntimeException)error;
+    if (error instanceof Error) throw (Error)error;
+    if (error != null) throw new RuntimeException(error);
+  }
+
+  private void work(@NotNull Task<T, ?> task, @NotNull ProgressIndicator indicator, int worker) {
+    while (true) {
+      final T item = takeNext();
+      if (item == null) return;
+
+      final long start = System.currentTimeMillis();
+      try {
+        indicator.checkCanceled();
+        task.run(item);
+      }
+      catch (Throwable e) {
+        failed(e);
+      }
+      finally {
+        finished(item, new long[]{start, System.currentTimeMillis(), worker});
+      }
+    }
+  }
+
+  @Nullable
+  private synchronized T takeNext() {
+    while (myError == null && !myPending.isEmpty()) {
+      for (Iterator<T> it = myPending.iterator(); it.hasNext(); ) {
+        final T item = it.next();
+        if (isReady(item)) {
+          it.remove();
+          myRunning++;
+          return item;
+        }
+      }
+      if (myRunning == 0) {
+        LOG.error("No " + myItemsName + " can be processed, remaining: " + myPending.size());
+        return null;
+      }
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private boolean isReady(@NotNull T item) {
+    final Collection<T> dependencies = myDependencies.get(item);
+    if (dependencies == null) return true;
+    for (T dependency : dependencies) {
+      // the items which aren't scheduled are never done, so there is nothing to wait for
+      if (dependency != item && myScheduled.contains(dependency) && !myDone.contains(dependency)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized void finished(@NotNull T item, @NotNull long[] timeline) {
+    myRunning--;
+    myDone.add(item);
+    myTimeline.put(item, timeline);
+    notifyAll();
+  }
+
+  private synchronized void failed(@NotNull Throwable e) {
+    if (myError == null) {
+      myError = e;
+    }
+    notifyAll();
+  }
+
+  private synchronized void logTimeline(long duration) {
+    long busy = 0;
+    final Map<T, Long> pathLength = new HashMap<T, Long>();
+    final Map<T, T> pathPrevious = new HashMap<T, T>();
+    T pathEnd = null;
+    for (T item : myItems) {
+      final long[] timeline = myTimeline.get(item);
+      if (timeline == null) continue;
+      final long itemTime = timeline[1] - timeline[0];
+      busy += itemTime;
+
+      long length = 0;
+      final Collection<T> dependencies = myDependencies.get(item);
+      if (dependencies != null) {
+        for (T dependency : dependencies) {
+          final Long dependencyLength = pathLength.get(dependency);
+          if (dependencyLength != null && dependencyLength > length) {
+            length = dependencyLength;
+            pathPrevious.put(item, dependency);
+          }
+        }
+      }
+      pathLength.put(item, length + itemTime);
+      if (pathEnd == null || pathLength.get(pathEnd) < length + itemTime) {
+        pathEnd = item;
+      }
+    }
+
+    final StringBuilder path = new StringBuilder();
+    for (T item = pathEnd; item != null; item = pathPrevious.get(item)) {
+      final long[] timeline = myTimeline.get(item);
+      path.insert(0, myPresentableName.fun(item) + " (" + (timeline[1] - timeline[0]) + " ms)" + (path.length() > 0 ? " -> " : ""));
+    }
+
+    LOG.info(myTimeline.size() + " of " + myItems.size() + " " + myItemsName + " processed in " + duration + " ms by " + myWorkers +
+             " workers; busy " + busy + " ms, idle " + Math.max(0, duration * myWorkers - busy) + " ms; critical path " +
+             (pathEnd == null ? 0 : pathLength.get(pathEnd)) + " ms: " + path);
+  }
+}
@@ -21,26 +21,36 @@
  */
 package com.intellij.compiler.impl;
 
+import com.intellij.openapi.compiler.FileProcessingCompiler;
 import com.intellij.openapi.compiler.ValidityState;
 import com.intellij.openapi.compiler.ValidityStateFactory;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.util.io.IOUtil;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.Collection;
+import java.util.List;
 
+/**
+ * States of the files processed by a {@link FileProcessingCompiler}, keyed by VFS file ids.
+ * Updates are written to disk on {@link #force()} or {@link #close()}, i.e. at the end of compilation.
+ */
 public class FileProcessingCompilerStateCache {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.FileProcessingCompilerStateCache");
-  private final StateCache<MyState> myCache;
+  private final IntStateCache<MyState> myCache;
 
   public FileProcessingCompilerStateCache(File storeDirectory, final ValidityStateFactory stateFactory) throws IOException {
-    myCache = new StateCache<MyState>(new File(storeDirectory, "timestamps")) {
+    myCache = new IntStateCache<MyState>(new File(storeDirectory, "timestamps")) {
       public MyState read(DataInput stream) throws IOException {
-        return new MyState(stream.readLong(), stateFactory.createValidityState(stream));
+        return new MyState(IOUtil.readUTF(stream), stream.readLong(), stateFactory.createValidityState(stream));
       }
 
       public void write(MyState state, DataOutput out) throws IOException {
+        IOUtil.writeUTF(out, state.getUrl());
         out.writeLong(state.getTimestamp());
         final ValidityState extState = state.getExtState();
         if (extState != null) {
@@ -50,37 +60,85 @@ public class FileProcessingCompilerStateCache {
     };
   }
 
-  public void update(VirtualFile sourceFile, ValidityState extState) throws IOException {
-    if (sourceFile.isValid()) {
+  public void update(VirtualFile sourceFile, ValidityState extState) {
+    final int fileId = getFileId(sourceFile);
+    if (sourceFile.isValid() && fileId != 0) {
       // only mark as up-to-date if the file did not become invalid during make
-      myCache.update(sourceFile.getUrl(), new MyState(sourceFile.getTimeStamp(), extState));
+      myCache.update(fileId, new MyState(sourceFile.getUrl(), sourceFile.getTimeStamp(), extState));
     }
   }
 
-  public void remove(String url) throws IOException {
-    myCache.remove(url);
+  public void remove(int fileId) {
+    myCache.remove(fileId);
   }
 
-  public long getTimestamp(String url) throws IOException {
-    final Serializable savedState = myCache.getState(url);
-    if (savedState != null) {
-      LOG.assertTrue(savedState instanceof MyState);
+  /**
+   * @param movedIds receives the ids of the items whose files were renamed or moved since they were processed last time
+   *                 (or whose ids were reassigned to other files); the stored states of these ids describe the old files
+   * @return for each of the items, whether its file and validity state are the same as they were when it was processed last time
+   */
+  @NotNull
+  public boolean[] getUpToDate(@NotNull FileProcessingCompiler.ProcessingItem[] items, @NotNull TIntHashSet movedIds) throws IOException {
+    final int[] ids = new int[items.length];
+    for (int i = 0; i < items.length; i++) {
+      ids[i] = getFileId(items[i].getFile());
+    }
+    final List<MyState> states = myCache.getStates(ids);
+
+    final boolean[] result = new boolean[items.length];
+    for (int i = 0; i < items.length; i++) {
+      final MyState state = states.get(i);
+      if (ids[i] == 0 || state == null) continue;
+      final VirtualFile file = items[i].getFile();
+      if (!state.getUrl().equals(file.getUrl())) {
+        movedIds.add(ids[i]);
+        continue;
+      }
+      if (state.getTimestamp() != file.getTimeStamp()) continue;
+
+      final ValidityState extState = state.getExtState();
+      final ValidityState itemState = items[i].getValidityState();
+      result[i] = extState != null ? extState.equalsTo(itemState) : itemState == null;
     }
-    MyState state = (MyState)savedState;
-    return (state != null)? state.getTimestamp() : -1L;
+    return result;
+  }
+
+  public long getTimestamp(@NotNull VirtualFile file) throws IOException {
+    final MyState state = myCache.getState(getFileId(file));
+    return state != null ? state.getTimestamp() : -1L;
+  }
+
+  /**
+   * @return id of the file, or 0 if the file is not a VFS file and is not cached
+   */
+  public static int getFileId(@NotNull VirtualFile file) {
+    return file instanceof VirtualFileWithId ? ((VirtualFileWithId)file).getId() : 0;
   }
 
-  public ValidityState getExtState(String url) throws IOException {
-    MyState state = myCache.getState(url);
-    return (state != null)? state.getExtState() : null;
+  @Nullable
+  public String getUrl(int fileId) throws IOException {
+    final MyState state = myCache.getState(fileId);
+    return state != null ? state.getUrl() : null;
+  }
+
+  @Nullable
+  public ValidityState getExtState(int fileId) throws IOException {
+    final MyState state = myCache.getState(fileId);
+    return state != null ? state.getExtState() : null;
   }
 
   public void force() {
-    myCache.force();
+    try {
+      myCache.force();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
   }
 
-  public Collection<String> getUrls() throws IOException {
-    return myCache.getUrls();
+  @NotNull
+  public TIntHashSet getFileIds() throws IOException {
+    return myCache.getIds();
   }
 
   public boolean wipe() {
@@ -97,14 +155,21 @@ public class FileProcessingCompilerStateCache {
   }
 
   private static class MyState implements Serializable {
+    private final String myUrl;
     private final long myTimestamp;
     private final ValidityState myExtState;
 
-    public MyState(long timestamp, @Nullable ValidityState extState) {
+    public MyState(@NotNull String url, long timestamp, @Nullable ValidityState extState) {
+      myUrl = url;
       myTimestamp = timestamp;
       myExtState = extState;
     }
 
+    @NotNull
+    public String getUrl() {
+      return myUrl;
+    }
+
     public long getTimestamp() {
       return myTimestamp;
     }
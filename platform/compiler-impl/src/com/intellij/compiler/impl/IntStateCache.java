@@ -0,0 +1,190 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.impl;
+
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Same as {@link StateCache}, but keyed by int ids (e.g. VFS file ids) instead of URLs, so no strings are enumerated on lookup.
+ * <p/>
+ * Updates are kept in memory and written to the storage only on {@link #force()} or {@link #close()}, i.e. once per compilation,
+ * and can be looked up and made in bulk.
+ */
+public abstract class IntStateCache<T> {
+  private PersistentHashMap<Integer, T> myMap;
+  private final File myBaseFile;
+  private final TIntObjectHashMap<T> myUpdated = new TIntObjectHashMap<T>();
+  private final TIntHashSet myRemoved = new TIntHashSet();
+
+  public IntStateCache(@NonNls File storePath) throws IOException {
+    myBaseFile = storePath;
+    myMap = createMap(storePath);
+  }
+
+  protected abstract T read(DataInput stream) throws IOException;
+
+  protected abstract void write(T t, DataOutput out) throws IOException;
+
+  public synchronized void force() throws IOException {
+    flush();
+    myMap.force();
+  }
+
+  public synchronized void close() throws IOException {
+    try {
+      flush();
+    }
+    finally {
+      myMap.close();
+    }
+  }
+
+  public synchronized boolean wipe() {
+    myUpdated.clear();
+    myRemoved.clear();
+    try {
+      myMap.close();
+    }
+    catch (IOException ignored) {
+    }
+    PersistentHashMap.deleteFilesStartingWith(myBaseFile);
+    try {
+      myMap = createMap(myBaseFile);
+    }
+    catch (IOException ignored) {
+      return false;
+    }
+    return true;
+  }
+
+  public synchronized void update(int id, @Nullable T state) {
+    if (state != null) {
+      myUpdated.put(id, state);
+      myRemoved.remove(id);
+    }
+    else {
+      remove(id);
+    }
+  }
+
+  public synchronized void updateAll(@NotNull TIntObjectHashMap<T> states) {
+    states.forEachEntry(new TIntObjectProcedure<T>() {
+      @Override
+      public boolean execute(int id, T state) {
+        update(id, state);
+        return true;
+      }
+    });
+  }
+
+  public synchronized void remove(int id) {
+    myUpdated.remove(id);
+    myRemoved.add(id);
+  }
+
+  @Nullable
+  public synchronized T getState(int id) throws IOException {
+    final T updated = myUpdated.get(id);
+    if (updated != null) return updated;
+    if (myRemoved.contains(id)) return null;
+    return myMap.get(id);
+  }
+
+  /**
+   * @return states of the given ids in the same order, null for the ids without state
+   */
+  @NotNull
+  public synchronized List<T> getStates(@NotNull int[] ids) throws IOException {
+    final List<T> result = new ArrayList<T>(ids.length);
+    for (int id : ids) {
+      result.add(getState(id));
+    }
+    return result;
+  }
+
+  @NotNull
+  public synchronized TIntHashSet getIds() throws IOException {
+    final TIntHashSet result = new TIntHashSet();
+    for (Integer id : myMap.getAllKeysWithExistingMapping()) {
+      if (!myRemoved.contains(id)) result.add(id);
+    }
+    result.addAll(myUpdated.keys());
+    return result;
+  }
+
+  private void flush() throws IOException {
+    final IOException[] exception = {null};
+    myRemoved.forEach(new TIntProcedure() {
+      @Override
+      public boolean execute(int id) {
+        try {
+          myMap.remove(id);
+          return true;
+        }
+        catch (IOException e) {
+          exception[0] = e;
+          return false;
+        }
+      }
+    });
+    if (exception[0] == null) {
+      myUpdated.forEachEntry(new TIntObjectProcedure<T>() {
+        @Override
+        public boolean execute(int id, T state) {
+          try {
+            myMap.put(id, state);
+            return true;
+          }
+          catch (IOException e) {
+            exception[0] = e;
+            return false;
+          }
+        }
+      });
+    }
+    myRemoved.clear();
+    myUpdated.clear();
+    if (exception[0] != null) throw exception[0];
+  }
+
+  private PersistentHashMap<Integer, T> createMap(final File file) throws IOException {
+    return new PersistentHashMap<Integer, T>(file, EnumeratorIntegerDescriptor.INSTANCE, new DataExternalizer<T>() {
+      public void save(final DataOutput out, final T value) throws IOException {
+        IntStateCache.this.write(value, out);
+      }
+
+      public T read(final DataInput in) throws IOException {
+        return IntStateCache.this.read(in);
+      }
+    });
+  }
+}
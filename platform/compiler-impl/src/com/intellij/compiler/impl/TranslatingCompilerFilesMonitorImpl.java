@@ -53,7 +53,6 @@ import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.indexing.FileBasedIndex;
 import com.intellij.util.indexing.IndexInfrastructure;
 import com.intellij.util.io.*;
-import com.intellij.util.io.DataOutputStream;
 import com.intellij.util.messages.MessageBusConnection;
 import gnu.trove.*;
 import lombok.val;
@@ -124,20 +123,17 @@ public class TranslatingCompilerFilesMonitorImpl extends TranslatingCompilerFile
     public Outputs createValue(Integer key) {
       try {
         final String dirName = FSRecords.getNames().valueOf(key);
-        final File storeFile;
-        if (StringUtil.isEmpty(dirName)) {
-          storeFile = null;
-        }
-        else {
+        if (!StringUtil.isEmpty(dirName)) {
           final File compilerCacheDir = CompilerPaths.getCacheStoreDirectory(dirName);
-          storeFile = compilerCacheDir.exists() ? new File(compilerCacheDir, "paths_to_delete.dat") : null;
+          if (compilerCacheDir.exists()) {
+            return new Outputs(new File(compilerCacheDir, "outputs_to_delete"), new File(compilerCacheDir, "paths_to_delete.dat"));
+          }
         }
-        return new Outputs(storeFile, loadPathsToDelete(storeFile));
       }
       catch (IOException e) {
         LOG.info(e);
-        return new Outputs(null, new HashMap<String, SourceUrlClassNamePair>());
       }
+      return new Outputs();
     }
 
     @Override
@@ -333,7 +329,7 @@ public class TranslatingCompilerFilesMonitorImpl extends TranslatingCompilerFile
           final LocalFileSystem lfs = LocalFileSystem.getInstance();
           final List<String> zombieEntries = new ArrayList<String>();
           final Map<String, VirtualFile> srcFileCache = getFileCache(context);
-          for (Map.Entry<String, SourceUrlClassNamePair> entry : outputs.getEntries()) {
+          for (Map.Entry<String, SourceUrlClassNamePair> entry : outputs.getEntries().entrySet()) {
             final String outputPath = entry.getKey();
             final SourceUrlClassNamePair classNamePair = entry.getValue();
             final String sourceUrl = classNamePair.getSourceUrl();
@@ -686,33 +682,6 @@ public class TranslatingCompilerFilesMonitorImpl extends TranslatingCompilerFile
     }
   }
 
-  private static void savePathsToDelete(final File file, final Map<String, SourceUrlClassNamePair> outputs) {
-    try {
-      FileUtil.createParentDirs(file);
-      final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
-      try {
-        if (outputs != null) {
-          os.writeInt(outputs.size());
-          for (Map.Entry<String, SourceUrlClassNamePair> entry : outputs.entrySet()) {
-            CompilerIOUtil.writeString(entry.getKey(), os);
-            final SourceUrlClassNamePair pair = entry.getValue();
-            CompilerIOUtil.writeString(pair.getSourceUrl(), os);
-            CompilerIOUtil.writeString(pair.getClassName(), os);
-          }
-        }
-        else {
-          os.writeInt(0);
-        }
-      }
-      finally {
-        os.close();
-      }
-    }
-    catch (IOException e) {
-      LOG.error(e);
-    }
-  }
-
   @Nullable
   private static SourceFileInfo loadSourceInfo(final VirtualFile file) {
     try {
@@ -1966,42 +1935,145 @@ public class TranslatingCompilerFilesMonitorImpl extends TranslatingCompilerFile
     }
   }
 
+  /**
+   * Output paths scheduled for deletion, stored in a persistent map: each change is written to the storage as is, instead of saving
+   * the whole set, and nothing is read when the storage is opened. The paths are read only when all of them are requested; if the set
+   * turns out to be empty then, the storage files are deleted, so that the keys which are not used anymore don't accumulate.
+   */
   private static class Outputs {
-    private boolean myIsDirty = false;
+    private static final DataExternalizer<SourceUrlClassNamePair> PAIR_EXTERNALIZER = new DataExternalizer<SourceUrlClassNamePair>() {
+      @Override
+      public void save(DataOutput out, SourceUrlClassNamePair value) throws IOException {
+        CompilerIOUtil.writeString(value.getSourceUrl(), out);
+        CompilerIOUtil.writeString(value.getClassName(), out);
+      }
+
+      @Override
+      public SourceUrlClassNamePair read(DataInput in) throws IOException {
+        final String sourceUrl = CompilerIOUtil.readString(in);
+        return new SourceUrlClassNamePair(sourceUrl, CompilerIOUtil.readString(in));
+      }
+    };
+
     @Nullable
     private final File myStoreFile;
-    private final Map<String, SourceUrlClassNamePair> myMap;
+    @Nullable
+    private PersistentHashMap<String, SourceUrlClassNamePair> myMap;
+    @Nullable
+    private Set<String> myPaths; // loaded on demand
     private final AtomicInteger myRefCount = new AtomicInteger(1);
 
-    Outputs(@Nullable File storeFile, Map<String, SourceUrlClassNamePair> map) {
+    Outputs() {
+      myStoreFile = null;
+    }
+
+    /**
+     * @param legacyFile the whole-file dump used by the previous versions, its content is moved to the storage
+     */
+    Outputs(@NotNull File storeFile, @NotNull File legacyFile) throws IOException {
       myStoreFile = storeFile;
-      myMap = map;
+      try {
+        open();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        PersistentHashMap.deleteFilesStartingWith(storeFile);
+        open();
+      }
+
+      if (legacyFile.exists()) {
+        for (Map.Entry<String, SourceUrlClassNamePair> entry : loadPathsToDelete(legacyFile).entrySet()) {
+          put(entry.getKey(), entry.getValue());
+        }
+        FileUtil.delete(legacyFile);
+      }
     }
 
-    public Set<Map.Entry<String, SourceUrlClassNamePair>> getEntries() {
-      return Collections.unmodifiableSet(myMap.entrySet());
+    private void open() throws IOException {
+      assert myStoreFile != null;
+      myMap = new PersistentHashMap<String, SourceUrlClassNamePair>(myStoreFile, new EnumeratorStringDescriptor(), PAIR_EXTERNALIZER);
+    }
+
+    public Map<String, SourceUrlClassNamePair> getEntries() {
+      final Map<String, SourceUrlClassNamePair> result = new HashMap<String, SourceUrlClassNamePair>();
+      if (myMap == null) {
+        return result;
+      }
+      try {
+        if (myPaths == null) {
+          myPaths = new THashSet<String>(myMap.getAllKeysWithExistingMapping());
+        }
+        for (String outputPath : myPaths) {
+          final SourceUrlClassNamePair pair = myMap.get(outputPath);
+          if (pair != null) {
+            result.put(outputPath, pair);
+          }
+        }
+      }
+      catch (IOException e) {
+        recreate(e);
+      }
+      return result;
     }
 
     public void put(String outputPath, SourceUrlClassNamePair pair) {
-      if (myStoreFile == null) {
+      if (myMap == null) {
         return;
       }
       if (pair == null) {
         remove(outputPath);
       }
       else {
-        myMap.put(outputPath, pair);
-        myIsDirty = true;
+        try {
+          myMap.put(outputPath, pair);
+          if (myPaths != null) {
+            myPaths.add(outputPath);
+          }
+        }
+        catch (IOException e) {
+          recreate(e);
+        }
       }
     }
 
     public SourceUrlClassNamePair remove(String outputPath) {
-      if (myStoreFile == null) {
+      if (myMap == null || myPaths != null && !myPaths.remove(outputPath)) {
         return null;
       }
-      final SourceUrlClassNamePair removed = myMap.remove(outputPath);
-      myIsDirty |= removed != null;
-      return removed;
+      try {
+        final SourceUrlClassNamePair removed = myMap.get(outputPath);
+        if (removed != null) {
+          myMap.remove(outputPath);
+        }
+        return removed;
+      }
+      catch (IOException e) {
+        recreate(e);
+        return null;
+      }
+    }
+
+    /**
+     * A storage which failed to read or write is treated as corrupted: it is deleted and created anew, like the one which can't be opened.
+     * The outputs scheduled for deletion are lost then, so the stale outputs remain until the next rebuild.
+     */
+    private void recreate(@NotNull IOException e) {
+      LOG.info(e);
+      assert myStoreFile != null && myMap != null;
+      try {
+        myMap.close();
+      }
+      catch (IOException ignored) {
+      }
+      PersistentHashMap.deleteFilesStartingWith(myStoreFile);
+      myPaths = new THashSet<String>();
+      try {
+        open();
+      }
+      catch (IOException e1) {
+        LOG.error(e1);
+        myMap = null;
+      }
     }
 
     void allocate() {
@@ -2009,12 +2081,18 @@ public class TranslatingCompilerFilesMonitorImpl extends TranslatingCompilerFile
     }
 
     public void release() {
-      if (myRefCount.decrementAndGet() == 0) {
-        if (myIsDirty && myStoreFile != null) {
-          savePathsToDelete(myStoreFile, myMap);
+      if (myRefCount.decrementAndGet() == 0 && myMap != null) {
+        try {
+          myMap.close();
         }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+        if (myPaths != null && myPaths.isEmpty()) {
+          PersistentHashMap.deleteFilesStartingWith(myStoreFile);
+        }
+        myMap = null;
       }
     }
   }
-
 }
@@ -0,0 +1,656 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.impl;
+
+import com.intellij.compiler.ModuleCompilerUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.compiler.CacheableTranslatingCompiler;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.CompilerPaths;
+import com.intellij.openapi.compiler.TranslatingCompiler;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ContentIterator;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileFilter;
+import com.intellij.openapi.vfs.newvfs.persistent.ContentHashesUtil;
+import com.intellij.openapi.vfs.util.ArchiveVfsUtil;
+import com.intellij.util.Chunk;
+import com.intellij.util.indexing.FileBasedIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Local cache of the output of {@link CacheableTranslatingCompiler}s: the output files produced for a set of files are stored
+ * under a hash of everything that may affect them, and restored instead of invoking the compiler when the same hash comes again,
+ * e.g. on rebuild or after switching back to a branch.
+ * <p/>
+ * The hash covers the compiler and its options fingerprint, the output directories, the contents of the files to compile and of
+ * the other files of the chunk in scope, the fingerprints of the chunk modules (the contents of their source files) and of the modules
+ * they depend on (the contents of their output files, which are compiled before the chunk), and the stamps (length and timestamp) of
+ * the library files of all of them. Content hashes are memoized by the file stamp.
+ * <p/>
+ * Restored output is reported to the sink as compiled and passed to {@link CacheableTranslatingCompiler#outputRestored}, so the compiler
+ * can update the state it keeps besides the output files, e.g. the dependency cache. The output is not stored when the compilation
+ * reported errors or asked for files to be recompiled.
+ * <p/>
+ * The least recently used entries are evicted when the size of the cache exceeds the limit. Hits and misses are logged at the end
+ * of each compilation, along with the hit rate since the cache was created.
+ */
+class TranslatingCompilerOutputCache {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.TranslatingCompilerOutputCache");
+  private static final int VERSION = 1;
+  private static final String INDEX_FILE_NAME = "index";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final Comparator<Module> MODULE_COMPARATOR = new Comparator<Module>() {
+    @Override
+    public int compare(Module o1, Module o2) {
+      return o1.getName().compareTo(o2.getName());
+    }
+  };
+
+  private final File myEntriesDir;
+  private final File myStatisticsFile;
+  private final long myMaxSize;
+  private final IntStateCache<ContentHash> myContentHashes;
+  private final Map<Module, byte[]> myModuleFingerprints = new HashMap<Module, byte[]>();
+  private final Map<Module, byte[]> myModuleOutputFingerprints = new HashMap<Module, byte[]>();
+  private long myTotalSize = -1;
+  private int myHits;
+  private int myMisses;
+  private int myRestoredFiles;
+  private int myStored;
+  private int myEvicted;
+
+  TranslatingCompilerOutputCache(@NotNull File dir, long maxSize) throws IOException {
+    myEntriesDir = new File(dir, "entries");
+    myStatisticsFile = new File(dir, "statistics");
+    myMaxSize = maxSize;
+    myContentHashes = new IntStateCache<ContentHash>(new File(dir, "content_hashes")) {
+      @Override
+      protected ContentHash read(DataInput stream) throws IOException {
+        final long length = stream.readLong();
+        final long timestamp = stream.readLong();
+        final byte[] digest = new byte[stream.readUnsignedByte()];
+        stream.readFully(digest);
+        return new ContentHash(length, timestamp, digest);
+      }
+
+      @Override
+      protected void write(ContentHash hash, DataOutput out) throws IOException {
+        out.writeLong(hash.myLength);
+        out.writeLong(hash.myTimestamp);
+        out.writeByte(hash.myDigest.length);
+        out.write(hash.myDigest);
+      }
+    };
+  }
+
+  /**
+   * @return null if the cache is disabled or cannot be opened
+   */
+  @Nullable
+  public static TranslatingCompilerOutputCache open(@NotNull Project project) {
+    if (!Registry.is("compiler.build.cache.enabled")) return null;
+    final File dir = new File(CompilerPaths.getCompilerSystemDirectory(project), "build_cache_v" + VERSION);
+    try {
+      return new TranslatingCompilerOutputCache(dir, Registry.intValue("compiler.build.cache.max.size.mb") * 1024L * 1024L);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      FileUtil.delete(dir);
+      return null;
+    }
+  }
+
+  public void close() {
+    try {
+      myContentHashes.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    logStatistics();
+  }
+
+  /**
+   * @return the key of the output of the compiler for the given files, null if some of the files cannot be read
+   */
+  @Nullable
+  public String computeKey(@NotNull final CompileContext context,
+                           @NotNull final Chunk<Module> chunk,
+                           @NotNull CacheableTranslatingCompiler compiler,
+                           @NotNull Collection<VirtualFile> chunkFiles,
+                           @NotNull Set<VirtualFile> toCompile) {
+    try {
+      final MessageDigest digest = ContentHashesUtil.createHashDigest();
+      update(digest, compiler.getClass().getName());
+      update(digest, compiler.getOptionsFingerprint(context, chunk));
+
+      final Set<Module> modules = new TreeSet<Module>(MODULE_COMPARATOR);
+      final List<String> outputs = ApplicationManager.getApplication().runReadAction(new Computable<List<String>>() {
+        @Override
+        public List<String> compute() {
+          final List<String> outputs = new ArrayList<String>();
+          for (Module module : chunk.getNodes()) {
+            outputs.add(module.getName());
+            outputs.add(getPath(context.getModuleOutputDirectory(module)));
+            outputs.add(getPath(context.getModuleOutputDirectoryForTests(module)));
+            collectDependencies(module, modules);
+          }
+          return outputs;
+        }
+      });
+      for (String output : outputs) {
+        update(digest, output);
+      }
+
+      final List<VirtualFile> files = new ArrayList<VirtualFile>(chunkFiles);
+      for (VirtualFile file : toCompile) {
+        if (!chunkFiles.contains(file)) files.add(file);
+      }
+      Collections.sort(files, new Comparator<VirtualFile>() {
+        @Override
+        public int compare(VirtualFile o1, VirtualFile o2) {
+          return o1.getPath().compareTo(o2.getPath());
+        }
+      });
+      for (VirtualFile file : files) {
+        update(digest, file.getUrl());
+        digest.update((byte)(toCompile.contains(file) ? 1 : 0));
+        digest.update(getContentHash(file));
+      }
+
+      for (Module module : modules) {
+        update(digest, module.getName());
+        if (chunk.getNodes().contains(module)) {
+          digest.update(getModuleFingerprint(module));
+        }
+        else {
+          digest.update(getModuleOutputFingerprint(context, module));
+        }
+      }
+      return toHexString(digest.digest());
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  /**
+   * Copies the cached output files to their output directories, reports them to the sink and to the compiler.
+   *
+   * @return false if there is no output cached for the key
+   */
+  public boolean restore(@NotNull CompileContext context,
+                         @NotNull Chunk<Module> chunk,
+                         @NotNull CacheableTranslatingCompiler compiler,
+                         @NotNull String key,
+                         @NotNull Set<VirtualFile> toCompile,
+                         @NotNull TranslatingCompiler.OutputSink sink) {
+    final File entryDir = new File(myEntriesDir, key);
+    final File indexFile = new File(entryDir, INDEX_FILE_NAME);
+    if (!indexFile.exists()) {
+      missed();
+      return false;
+    }
+
+    final Map<String, VirtualFile> sources = new HashMap<String, VirtualFile>();
+    for (VirtualFile file : toCompile) {
+      sources.put(file.getUrl(), file);
+    }
+
+    final Map<String, Collection<TranslatingCompiler.OutputItem>> restored =
+      new LinkedHashMap<String, Collection<TranslatingCompiler.OutputItem>>();
+    final List<File> filesToRefresh = new ArrayList<File>();
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        final String[] roots = new String[in.readInt()];
+        for (int i = 0; i < roots.length; i++) {
+          roots[i] = in.readUTF();
+          restored.put(roots[i], new ArrayList<TranslatingCompiler.OutputItem>());
+        }
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          final String root = roots[in.readInt()];
+          final File output = new File(root, in.readUTF());
+          final VirtualFile source = sources.get(in.readUTF());
+          if (source == null) {
+            missed();
+            return false;
+          }
+          filesToRefresh.add(output);
+          restored.get(root).add(new CachedOutputItem(FileUtil.toSystemIndependentName(output.getPath()), source));
+        }
+      }
+      finally {
+        in.close();
+      }
+
+      // all the sources are known, so the output directories are touched only when the whole entry is restored
+      for (int i = 0; i < filesToRefresh.size(); i++) {
+        FileUtil.copy(new File(entryDir, String.valueOf(i)), filesToRefresh.get(i));
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot restore the build cache entry " + key, e);
+      FileUtil.delete(entryDir);
+      missed();
+      return false;
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    entryDir.setLastModified(System.currentTimeMillis());
+    CompilerUtil.refreshIOFiles(filesToRefresh);
+    for (Map.Entry<String, Collection<TranslatingCompiler.OutputItem>> entry : restored.entrySet()) {
+      compiler.outputRestored(context, chunk, entry.getKey(), entry.getValue());
+      sink.add(entry.getKey(), entry.getValue(), VirtualFile.EMPTY_ARRAY);
+    }
+    synchronized (this) {
+      myHits++;
+      myRestoredFiles += filesToRefresh.size();
+    }
+    return true;
+  }
+
+  /**
+   * Stores the output recorded by the sink, unless the compilation reported errors, was cancelled or asked for some files to be
+   * recompiled: the output is incomplete then.
+   */
+  public void store(@NotNull CompileContext context, @NotNull String key, @NotNull RecordingSink recorded) {
+    if (recorded.myHasFilesToRecompile || context.getMessageCount(CompilerMessageCategory.ERROR) > 0) return;
+    final ProgressIndicator indicator = context.getProgressIndicator();
+    if (indicator != null && indicator.isCanceled()) return;
+
+    final File entryDir = new File(myEntriesDir, key);
+    final File tempDir = new File(myEntriesDir, key + TEMP_SUFFIX);
+    FileUtil.delete(tempDir);
+    long size = 0;
+    try {
+      final List<String> roots = new ArrayList<String>();
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(createParent(tempDir))));
+      try {
+        int count = 0;
+        for (Pair<String, TranslatingCompiler.OutputItem> pair : recorded.myItems) {
+          if (!roots.contains(pair.getFirst())) roots.add(pair.getFirst());
+        }
+        out.writeInt(roots.size());
+        for (String root : roots) {
+          out.writeUTF(root);
+        }
+        out.writeInt(recorded.myItems.size());
+        for (Pair<String, TranslatingCompiler.OutputItem> pair : recorded.myItems) {
+          final String outputPath = pair.getSecond().getOutputPath();
+          final VirtualFile source = pair.getSecond().getSourceFile();
+          final String relativePath = outputPath == null ? null : FileUtil.getRelativePath(pair.getFirst(), outputPath, '/');
+          final File output = outputPath == null ? null : new File(outputPath);
+          if (source == null || relativePath == null || relativePath.startsWith("..") || !output.isFile()) {
+            // the output cannot be restored as it was reported
+            return;
+          }
+          out.writeInt(roots.indexOf(pair.getFirst()));
+          out.writeUTF(relativePath);
+          out.writeUTF(source.getUrl());
+          final File copy = new File(tempDir, String.valueOf(count++));
+          FileUtil.copy(output, copy);
+          size += copy.length();
+        }
+      }
+      finally {
+        out.close();
+      }
+
+      FileUtil.delete(entryDir);
+      if (!tempDir.renameTo(entryDir)) {
+        throw new IOException("Cannot rename " + tempDir + " to " + entryDir);
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store the build cache entry " + key, e);
+      return;
+    }
+    finally {
+      FileUtil.delete(tempDir);
+    }
+
+    synchronized (this) {
+      myStored++;
+      if (myTotalSize >= 0) myTotalSize += size;
+      evict();
+    }
+  }
+
+  /**
+   * Deletes the least recently used entries until the cache fits its size limit.
+   */
+  private void evict() {
+    final File[] entries = myEntriesDir.listFiles();
+    if (entries == null) return;
+    if (myTotalSize >= 0 && myTotalSize <= myMaxSize) return;
+
+    final Map<File, Long> sizes = new HashMap<File, Long>();
+    myTotalSize = 0;
+    for (File entry : entries) {
+      long size = 0;
+      final File[] files = entry.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          size += file.length();
+        }
+      }
+      sizes.put(entry, size);
+      myTotalSize += size;
+    }
+    if (myTotalSize <= myMaxSize) return;
+
+    Arrays.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        final long modified1 = o1.lastModified();
+        final long modified2 = o2.lastModified();
+        return modified1 < modified2 ? -1 : modified1 == modified2 ? 0 : 1;
+      }
+    });
+    for (File entry : entries) {
+      if (myTotalSize <= myMaxSize) break;
+      if (entry.getName().endsWith(TEMP_SUFFIX)) continue;
+      if (FileUtil.delete(entry)) {
+        myTotalSize -= sizes.get(entry);
+        myEvicted++;
+      }
+    }
+  }
+
+  private synchronized void missed() {
+    myMisses++;
+  }
+
+  private synchronized void logStatistics() {
+    if (myHits == 0 && myMisses == 0) return;
+
+    long totalHits = myHits;
+    long totalMisses = myMisses;
+    try {
+      if (myStatisticsFile.exists()) {
+        final DataInputStream in = new DataInputStream(new FileInputStream(myStatisticsFile));
+        try {
+          totalHits += in.readLong();
+          totalMisses += in.readLong();
+        }
+        finally {
+          in.close();
+        }
+      }
+      final DataOutputStream out = new DataOutputStream(new FileOutputStream(createParent(myStatisticsFile)));
+      try {
+        out.writeLong(totalHits);
+        out.writeLong(totalMisses);
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+
+    LOG.info("Build cache: " + myHits + " hits, " + myMisses + " misses (hit rate " + getHitRate(myHits, myMisses) + "%), " +
+             myRestoredFiles + " files restored, " + myStored + " entries stored, " + myEvicted + " evicted; hit rate since created " +
+             getHitRate(totalHits, totalMisses) + "% of " + (totalHits + totalMisses) + " lookups");
+  }
+
+  private static long getHitRate(long hits, long misses) {
+    return hits + misses == 0 ? 0 : hits * 100 / (hits + misses);
+  }
+
+  private static void collectDependencies(@NotNull Module module, @NotNull Set<Module> result) {
+    if (!result.add(module)) return;
+    for (Module dependency : ModuleCompilerUtil.getDependencies(module)) {
+      collectDependencies(dependency, result);
+    }
+  }
+
+  /**
+   * @return hash of the contents of the source files of the module of the chunk being compiled and the stamps of its library files
+   */
+  @NotNull
+  private byte[] getModuleFingerprint(@NotNull final Module module) throws IOException {
+    synchronized (this) {
+      final byte[] fingerprint = myModuleFingerprints.get(module);
+      if (fingerprint != null) return fingerprint;
+    }
+
+    final List<VirtualFile> sources = new ArrayList<VirtualFile>();
+    final List<File> libraries = new ArrayList<File>();
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        final OrderEnumerator enumerator = OrderEnumerator.orderEntries(module).withoutLibraries().withoutSdk().withoutDepModules();
+        for (VirtualFile root : enumerator.getSourceRoots()) {
+          collectFiles(root, sources);
+        }
+        collectLibraries(module, libraries);
+      }
+    });
+
+    final MessageDigest digest = ContentHashesUtil.createHashDigest();
+    for (VirtualFile source : sources) {
+      update(digest, source.getUrl());
+      digest.update(getContentHash(source));
+    }
+    updateWithStamps(digest, libraries);
+    final byte[] fingerprint = digest.digest();
+    synchronized (this) {
+      myModuleFingerprints.put(module, fingerprint);
+    }
+    return fingerprint;
+  }
+
+  /**
+   * @return hash of the contents of the output files of the module (it is compiled before the modules depending on it, so its output
+   * reflects all the changes of its sources which may affect them) and the stamps of its library files
+   */
+  @NotNull
+  private byte[] getModuleOutputFingerprint(@NotNull final CompileContext context, @NotNull final Module module) throws IOException {
+    synchronized (this) {
+      final byte[] fingerprint = myModuleOutputFingerprints.get(module);
+      if (fingerprint != null) return fingerprint;
+    }
+
+    final List<VirtualFile> outputs = new ArrayList<VirtualFile>();
+    final List<File> libraries = new ArrayList<File>();
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        final VirtualFile[] outputDirs = {context.getModuleOutputDirectory(module), context.getModuleOutputDirectoryForTests(module)};
+        for (VirtualFile outputDir : outputDirs) {
+          if (outputDir != null && outputDir.isValid()) {
+            collectFiles(outputDir, outputs);
+          }
+        }
+        collectLibraries(module, libraries);
+      }
+    });
+
+    final MessageDigest digest = ContentHashesUtil.createHashDigest();
+    for (VirtualFile output : outputs) {
+      update(digest, output.getPath());
+      digest.update(getContentHash(output));
+    }
+    updateWithStamps(digest, libraries);
+    final byte[] fingerprint = digest.digest();
+    synchronized (this) {
+      myModuleOutputFingerprints.put(module, fingerprint);
+    }
+    return fingerprint;
+  }
+
+  private static void collectLibraries(@NotNull Module module, @NotNull List<File> result) {
+    for (VirtualFile root : OrderEnumerator.orderEntries(module).compileOnly().withoutModuleSourceEntries().withoutDepModules()
+      .getClassesRoots()) {
+      final VirtualFile archive = ArchiveVfsUtil.getVirtualFileForArchive(root);
+      if (archive != null) {
+        result.add(VfsUtilCore.virtualToIoFile(archive));
+      }
+      else if (root.isInLocalFileSystem()) {
+        final List<VirtualFile> files = new ArrayList<VirtualFile>();
+        collectFiles(root, files);
+        for (VirtualFile file : files) {
+          result.add(VfsUtilCore.virtualToIoFile(file));
+        }
+      }
+    }
+  }
+
+  private static void updateWithStamps(@NotNull MessageDigest digest, @NotNull List<File> files) throws IOException {
+    for (File file : files) {
+      update(digest, file.getPath());
+      update(digest, file.length() + ":" + file.lastModified());
+    }
+  }
+
+  private static void collectFiles(@NotNull VirtualFile root, @NotNull final List<VirtualFile> result) {
+    final FileTypeManager fileTypeManager = FileTypeManager.getInstance();
+    VfsUtilCore.iterateChildrenRecursively(root, new VirtualFileFilter() {
+      @Override
+      public boolean accept(VirtualFile file) {
+        return !fileTypeManager.isFileIgnored(file);
+      }
+    }, new ContentIterator() {
+      @Override
+      public boolean processFile(VirtualFile file) {
+        if (!file.isDirectory()) result.add(file);
+        return true;
+      }
+    });
+  }
+
+  @NotNull
+  private byte[] getContentHash(@NotNull VirtualFile file) throws IOException {
+    final File ioFile = VfsUtilCore.virtualToIoFile(file);
+    final long length = ioFile.length();
+    final long timestamp = ioFile.lastModified();
+    final int id = FileBasedIndex.getFileId(file);
+    final ContentHash hash = myContentHashes.getState(id);
+    if (hash != null && hash.myLength == length && hash.myTimestamp == timestamp) {
+      return hash.myDigest;
+    }
+
+    final byte[] digest = ContentHashesUtil.createHashDigest().digest(FileUtil.loadFileBytes(ioFile));
+    myContentHashes.update(id, new ContentHash(length, timestamp, digest));
+    return digest;
+  }
+
+  private static void update(@NotNull MessageDigest digest, @NotNull String value) throws IOException {
+    digest.update(value.getBytes("UTF-8"));
+    digest.update((byte)0);
+  }
+
+  @NotNull
+  private static String getPath(@Nullable VirtualFile file) {
+    return file == null ? "" : file.getPath();
+  }
+
+  @NotNull
+  private static String toHexString(@NotNull byte[] bytes) {
+    final StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  private static File createParent(@NotNull File file) throws IOException {
+    if (!FileUtil.createParentDirs(file)) {
+      throw new IOException("Cannot create directory for " + file);
+    }
+    return file;
+  }
+
+  /**
+   * Passes the output to the compile driver sink and remembers it to be stored in the cache after the compilation.
+   */
+  public static class RecordingSink implements TranslatingCompiler.OutputSink {
+    private final TranslatingCompiler.OutputSink myDelegate;
+    private final List<Pair<String, TranslatingCompiler.OutputItem>> myItems =
+      new ArrayList<Pair<String, TranslatingCompiler.OutputItem>>();
+    private boolean myHasFilesToRecompile;
+
+    public RecordingSink(@NotNull TranslatingCompiler.OutputSink delegate) {
+      myDelegate = delegate;
+    }
+
+    @Override
+    public void add(String outputRoot, Collection<TranslatingCompiler.OutputItem> items, VirtualFile[] filesToRecompile) {
+      synchronized (this) {
+        for (TranslatingCompiler.OutputItem item : items) {
+          myItems.add(Pair.create(outputRoot, item));
+        }
+        myHasFilesToRecompile |= filesToRecompile.length > 0 || (outputRoot == null && !items.isEmpty());
+      }
+      myDelegate.add(outputRoot, items, filesToRecompile);
+    }
+  }
+
+  private static class ContentHash {
+    private final long myLength;
+    private final long myTimestamp;
+    private final byte[] myDigest;
+
+    private ContentHash(long length, long timestamp, @NotNull byte[] digest) {
+      myLength = length;
+      myTimestamp = timestamp;
+      myDigest = digest;
+    }
+  }
+
+  private static class CachedOutputItem implements TranslatingCompiler.OutputItem {
+    private final String myOutputPath;
+    private final VirtualFile mySourceFile;
+
+    private CachedOutputItem(@NotNull String outputPath, @NotNull VirtualFile sourceFile) {
+      myOutputPath = outputPath;
+      mySourceFile = sourceFile;
+    }
+
+    @Override
+    public String getOutputPath() {
+      return myOutputPath;
+    }
+
+    @Override
+    public VirtualFile getSourceFile() {
+      return mySourceFile;
+    }
+  }
+}
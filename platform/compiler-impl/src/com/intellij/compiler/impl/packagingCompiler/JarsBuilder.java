@@ -16,22 +16,27 @@
 
 package com.intellij.compiler.impl.packagingCompiler;
 
+import com.intellij.compiler.impl.DependencyOrderedScheduler;
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.compiler.CompilerBundle;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.packaging.impl.compiler.ArtifactCompilerUtil;
 import com.intellij.packaging.impl.util.DeploymentUtilImpl;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.Function;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.GraphGenerator;
 import com.intellij.util.io.ZipUtil;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -42,18 +47,38 @@ import java.util.*;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
+ * Independent jars may be built concurrently (see {@link DependencyOrderedScheduler}), a jar is started as soon as all the jars packed into it are built.
+ * Files which are compressed archives or images themselves are stored into jars as is instead of being deflated once more.
+ * <p/>
+ * If enabled (see {@link #isUpdateInPlaceEnabled()}), a jar built by the previous build is updated in place (see {@link #updateJar}):
+ * only the entries whose size or checksum differ from the ones of their sources are rewritten, so a small change in a large artifact
+ * doesn't repack it as a whole.
+ *
  * @author nik
  */
 public class JarsBuilder {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.packagingCompiler.JarsBuilder");
+  private static final Function<JarInfo, String> JAR_PRESENTABLE_NAME = new Function<JarInfo, String>() {
+    @Override
+    public String fun(JarInfo jar) {
+      return jar.getPresentableDestination();
+    }
+  };
+  @NonNls private static final Set<String> COMPRESSED_EXTENSIONS = new THashSet<String>(Arrays.asList(
+    "jar", "war", "ear", "rar", "sar", "zip", "gz", "tgz", "bz2", "xz", "7z", "png", "jpg", "jpeg", "gif"
+  ));
   private final Set<JarInfo> myJarsToBuild;
   private final FileFilter myFileFilter;
   private final CompileContext myContext;
   private Map<JarInfo, File> myBuiltJars;
+  private final Set<JarInfo> myUpdatedInPlace = Collections.synchronizedSet(new HashSet<JarInfo>());
+  private final Map<JarInfo, File> myPreviousVersions = new HashMap<JarInfo, File>();
+  private final List<File> myTemporaryFiles = Collections.synchronizedList(new ArrayList<File>());
 
   public JarsBuilder(Set<JarInfo> jarsToBuild, FileFilter fileFilter, CompileContext context) {
     DependentJarsEvaluator evaluator = new DependentJarsEvaluator();
@@ -73,11 +98,23 @@ public class JarsBuilder {
       return false;
     }
 
-    myBuiltJars = new HashMap<JarInfo, File>();
+    myBuiltJars = Collections.synchronizedMap(new HashMap<JarInfo, File>());
     try {
-      for (JarInfo jar : sortedJars) {
-        myContext.getProgressIndicator().checkCanceled();
-        buildJar(jar);
+      final int workers = Math.min(DependencyOrderedScheduler.getWorkersCount("compiler.artifacts.jars.workers"), sortedJars.length);
+      if (workers > 1) {
+        new DependencyOrderedScheduler<JarInfo>(Arrays.asList(sortedJars), collectNestedJars(), JAR_PRESENTABLE_NAME, "archives", workers)
+          .run(new DependencyOrderedScheduler.Task<JarInfo, IOException>() {
+            @Override
+            public void run(@NotNull JarInfo jar) throws IOException {
+              buildJar(jar);
+            }
+          }, IOException.class, myContext.getProgressIndicator());
+      }
+      else {
+        for (JarInfo jar : sortedJars) {
+          myContext.getProgressIndicator().checkCanceled();
+          buildJar(jar);
+        }
       }
 
       myContext.getProgressIndicator().setText(CompilerBundle.message("packaging.compiler.message.copying.archives"));
@@ -92,7 +129,12 @@ public class JarsBuilder {
   }
 
   private void deleteTemporaryJars() {
-    for (File file : myBuiltJars.values()) {
+    for (Map.Entry<JarInfo, File> entry : myBuiltJars.entrySet()) {
+      if (!myUpdatedInPlace.contains(entry.getKey())) {
+        FileUtil.delete(entry.getValue());
+      }
+    }
+    for (File file : myTemporaryFiles) {
       FileUtil.delete(file);
     }
   }
@@ -107,7 +149,12 @@ public class JarsBuilder {
 
           if (first) {
             first = false;
-            renameFile(fromFile, toFile, writtenPaths);
+            if (myUpdatedInPlace.contains(entry.getKey())) {
+              writtenPaths.add(toFile.getPath());
+            }
+            else {
+              renameFile(fromFile, toFile, writtenPaths);
+            }
             fromFile = toFile;
           }
           else {
@@ -146,6 +193,39 @@ public class JarsBuilder {
     return myJarsToBuild;
   }
 
+  @NotNull
+  private Map<JarInfo, Set<JarInfo>> collectNestedJars() {
+    final Map<JarInfo, Set<JarInfo>> result = new HashMap<JarInfo, Set<JarInfo>>();
+    for (JarInfo jar : myJarsToBuild) {
+      final Set<JarInfo> nestedJars = new HashSet<JarInfo>();
+      for (Pair<String, JarInfo> nestedJar : jar.getPackedJars()) {
+        nestedJars.add(nestedJar.getSecond());
+      }
+      result.put(jar, nestedJars);
+    }
+    return result;
+  }
+
+  /**
+   * Updating in place is opt-in: the replaced entries remain in the archive until it is rebuilt (see {@link #isMostlyGarbage}),
+   * they are seen by the readers scanning the local headers sequentially.
+   */
+  public static boolean isUpdateInPlaceEnabled() {
+    return Registry.is("compiler.artifacts.jars.update.in.place");
+  }
+
+  /**
+   * @return compression level of the deflated entries, {@link java.util.zip.Deflater#DEFAULT_COMPRESSION} by default
+   */
+  private static int getCompressionLevel() {
+    final int level = Registry.intValue("compiler.artifacts.compression.level");
+    return level >= 0 && level <= 9 ? level : -1;
+  }
+
+  private static boolean isCompressed(@NotNull String relativePath) {
+    return COMPRESSED_EXTENSIONS.contains(StringUtil.toLowerCase(FileUtil.getExtension(relativePath)));
+  }
+
   private void buildJar(final JarInfo jar) throws IOException {
     if (jar.getPackedFiles().isEmpty() && jar.getPackedJars().isEmpty()) {
       myContext.addMessage(CompilerMessageCategory.WARNING, "Archive '" + jar.getPresentableDestination() + "' has no files so it won't be created", null, -1, -1);
@@ -154,45 +234,325 @@ public class JarsBuilder {
 
     myContext.getProgressIndicator()
       .setText(CompilerBundle.message("packaging.compiler.message.building.0", jar.getPresentableDestination()));
+    final long start = System.currentTimeMillis();
+    final File previousVersion = isUpdateInPlaceEnabled() ? getPreviousVersion(jar) : null;
+    if (previousVersion != null) {
+      final int changed = updateJar(jar, previousVersion);
+      if (changed >= 0) {
+        myBuiltJars.put(jar, previousVersion);
+        if (previousVersion.equals(getOutputFile(jar))) {
+          myUpdatedInPlace.add(jar);
+        }
+        LOG.info("Archive '" + jar.getPresentableDestination() + "' (" + changed + " entries changed) updated in " +
+                 (System.currentTimeMillis() - start) + " ms");
+        return;
+      }
+    }
+
     File jarFile = FileUtil.createTempFile("artifactCompiler", "tmp");
     myBuiltJars.put(jar, jarFile);
 
     FileUtil.createParentDirs(jarFile);
 
+    final VirtualFile manifestFile = findManifestFile(jar);
+    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifestFile);
+    jarOutputStream.setLevel(getCompressionLevel());
+
+    final THashSet<String> writtenPaths = new THashSet<String>();
+    try {
+      for (Pair<String, VirtualFile> pair : jar.getPackedFiles()) {
+        if (pair.getFirst().equals(JarFile.MANIFEST_NAME)) continue;
+        final VirtualFile sourceFile = pair.getSecond();
+        if (sourceFile.isInLocalFileSystem()) {
+          File file = VfsUtil.virtualToIoFile(sourceFile);
+          addFileToJar(jarOutputStream, file, pair.getFirst(), writtenPaths);
+        }
+        else {
+          extractFileAndAddToJar(jarOutputStream, sourceFile, pair.getFirst(), writtenPaths);
+        }
+      }
+
+      for (Pair<String, JarInfo> nestedJar : jar.getPackedJars()) {
+        File nestedJarFile = myBuiltJars.get(nestedJar.getSecond());
+        if (nestedJarFile != null) {
+          addFileToJar(jarOutputStream, nestedJarFile, nestedJar.getFirst(), writtenPaths);
+        }
+        else {
+          LOG.debug("nested jar file " + nestedJar.getFirst() + " for " + jar.getPresentableDestination() + " not found");
+        }
+      }
+    }
+    finally {
+      jarOutputStream.close();
+    }
+    LOG.info("Archive '" + jar.getPresentableDestination() + "' (" + writtenPaths.size() + " entries, " + jarFile.length() +
+             " bytes) built in " + (System.currentTimeMillis() - start) + " ms");
+  }
+
+  @Nullable
+  private static VirtualFile findManifestFile(@NotNull JarInfo jar) {
     VirtualFile manifestFile = null;
     for (Pair<String, VirtualFile> pair : jar.getPackedFiles()) {
       if (pair.getFirst().equals(JarFile.MANIFEST_NAME)) {
         manifestFile = pair.getSecond();
       }
     }
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifestFile);
+    return manifestFile;
+  }
 
+  @Nullable
+  private static File getOutputFile(@NotNull JarInfo jar) {
+    for (DestinationInfo destination : jar.getAllDestinations()) {
+      if (destination instanceof ExplodedDestinationInfo) {
+        return new File(FileUtil.toSystemDependentName(destination.getOutputPath()));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the jar built by the previous build: its output file, or, for a jar packed into another jar, a temporary copy of the entry
+   * of the previous version of that jar; null if there is no previous version
+   */
+  @Nullable
+  private File getPreviousVersion(@NotNull JarInfo jar) throws IOException {
+    synchronized (myPreviousVersions) {
+      if (myPreviousVersions.containsKey(jar)) {
+        return myPreviousVersions.get(jar);
+      }
+
+      File result = null;
+      final File outputFile = getOutputFile(jar);
+      if (outputFile != null) {
+        if (outputFile.isFile()) {
+          result = outputFile;
+        }
+      }
+      else {
+        for (JarDestinationInfo destination : jar.getJarDestinations()) {
+          final File container = getPreviousVersion(destination.getJarInfo());
+          if (container != null) {
+            result = extractEntry(container, StringUtil.trimStart(destination.getPathInJar(), "/"));
+            if (result != null) break;
+          }
+        }
+      }
+      myPreviousVersions.put(jar, result);
+      return result;
+    }
+  }
+
+  @Nullable
+  private File extractEntry(@NotNull File jarFile, @NotNull String relativePath) throws IOException {
+    final byte[] bytes;
     try {
+      final JBZipFile zipFile = new JBZipFile(jarFile);
+      try {
+        final JBZipEntry entry = zipFile.getEntry(relativePath);
+        if (entry == null) return null;
+        bytes = entry.getData();
+      }
+      finally {
+        zipFile.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read '" + relativePath + "' from '" + jarFile + "': " + e.getMessage());
+      return null;
+    }
+
+    final File result = FileUtil.createTempFile("artifactCompiler", "tmp");
+    myTemporaryFiles.add(result);
+    FileUtil.writeToFile(result, bytes);
+    return result;
+  }
+
+  /**
+   * Brings the previous version of the jar up to date in place. The entries whose size or checksum differ from the ones of their sources
+   * are appended to the archive and the central directory is rewritten, the entries which aren't packed anymore are erased.
+   * The checksums stored in the archive are the only state needed, so nothing has to be kept between builds.
+   *
+   * @return the number of the changed entries, or -1 if the jar has to be built from scratch: it can't be read, its manifest changed
+   * (the manifest must remain the first entry) or most of it is occupied by replaced entries
+   */
+  private int updateJar(@NotNull JarInfo jar, @NotNull File jarFile) throws IOException {
+    final JBZipFile zipFile;
+    try {
+      zipFile = new JBZipFile(jarFile);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot update '" + jarFile + "', it will be rebuilt: " + e.getMessage());
+      return -1;
+    }
+
+    final int[] changed = {0};
+    try {
+      if (isMostlyGarbage(zipFile, jarFile.length())) {
+        return -1;
+      }
+
       final THashSet<String> writtenPaths = new THashSet<String>();
+      final VirtualFile manifestFile = findManifestFile(jar);
+      if (manifestFile != null) {
+        final JBZipEntry manifestEntry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+        if (manifestEntry == null || !readManifest(manifestFile).equals(new Manifest(new ByteArrayInputStream(manifestEntry.getData())))) {
+          return -1;
+        }
+        writtenPaths.add("META-INF/");
+        writtenPaths.add(JarFile.MANIFEST_NAME);
+      }
+
+      zipFile.setCompressionLevel(getCompressionLevel());
       for (Pair<String, VirtualFile> pair : jar.getPackedFiles()) {
         if (pair.getFirst().equals(JarFile.MANIFEST_NAME)) continue;
         final VirtualFile sourceFile = pair.getSecond();
         if (sourceFile.isInLocalFileSystem()) {
-          File file = VfsUtil.virtualToIoFile(sourceFile);
-          addFileToJar(jarOutputStream, file, pair.getFirst(), writtenPaths);
+          updateFileInJar(zipFile, VfsUtil.virtualToIoFile(sourceFile), pair.getFirst(), writtenPaths, changed);
         }
         else {
-          extractFileAndAddToJar(jarOutputStream, sourceFile, pair.getFirst(), writtenPaths);
+          updateExtractedFileInJar(zipFile, sourceFile, pair.getFirst(), writtenPaths, changed);
         }
       }
 
       for (Pair<String, JarInfo> nestedJar : jar.getPackedJars()) {
         File nestedJarFile = myBuiltJars.get(nestedJar.getSecond());
         if (nestedJarFile != null) {
-          addFileToJar(jarOutputStream, nestedJarFile, nestedJar.getFirst(), writtenPaths);
+          updateFileInJar(zipFile, nestedJarFile, nestedJar.getFirst(), writtenPaths, changed);
         }
         else {
           LOG.debug("nested jar file " + nestedJar.getFirst() + " for " + jar.getPresentableDestination() + " not found");
         }
       }
+
+      for (JBZipEntry entry : new ArrayList<JBZipEntry>(zipFile.getEntries())) {
+        if (!writtenPaths.contains(entry.getName())) {
+          entry.erase();
+          changed[0]++;
+        }
+      }
     }
     finally {
-      jarOutputStream.close();
+      zipFile.close();
+    }
+    return changed[0];
+  }
+
+  private void updateFileInJar(@NotNull JBZipFile zipFile, @NotNull File file, @NotNull String relativePath,
+                               @NotNull THashSet<String> writtenPaths, @NotNull int[] changed) throws IOException {
+    if (!file.exists()) {
+      return;
+    }
+
+    relativePath = addParentDirectories(zipFile, writtenPaths, relativePath, changed);
+    myContext.getProgressIndicator().setText2(relativePath);
+    final boolean isDirectory = file.isDirectory();
+    if (isDirectory && !StringUtil.endsWithChar(relativePath, '/')) {
+      relativePath += "/";
+    }
+    if (myFileFilter != null && !FileUtil.isFilePathAcceptable(file, myFileFilter)) return;
+    if (!writtenPaths.add(relativePath)) return;
+
+    final JBZipEntry entry = zipFile.getEntry(relativePath);
+    if (isDirectory) {
+      if (entry == null) {
+        writeEntry(zipFile, relativePath, ArrayUtil.EMPTY_BYTE_ARRAY, file.lastModified());
+        changed[0]++;
+      }
+      return;
+    }
+    if (entry != null && entry.getSize() == file.length()) {
+      final InputStream input = new BufferedInputStream(new FileInputStream(file));
+      try {
+        if (entry.getCrc() == computeCrc(input)) return;
+      }
+      finally {
+        input.close();
+      }
+    }
+    writeEntry(zipFile, relativePath, FileUtil.loadFileBytes(file), file.lastModified());
+    changed[0]++;
+  }
+
+  private void updateExtractedFileInJar(@NotNull JBZipFile zipFile, @NotNull VirtualFile sourceFile, @NotNull String relativePath,
+                                        @NotNull THashSet<String> writtenPaths, @NotNull int[] changed) throws IOException {
+    relativePath = addParentDirectories(zipFile, writtenPaths, relativePath, changed);
+    myContext.getProgressIndicator().setText2(relativePath);
+    if (!writtenPaths.add(relativePath)) return;
+
+    BufferedInputStream input = ArtifactCompilerUtil.getJarEntryInputStream(sourceFile, myContext);
+    if (input == null) return;
+    final JBZipEntry entry = zipFile.getEntry(relativePath);
+    if (entry != null) {
+      final CRC32 crc = new CRC32();
+      try {
+        if (entry.getSize() == updateCrc(input, crc) && entry.getCrc() == crc.getValue()) return;
+      }
+      finally {
+        input.close();
+      }
+      input = ArtifactCompilerUtil.getJarEntryInputStream(sourceFile, myContext);
+      if (input == null) return;
+    }
+
+    final byte[] bytes;
+    try {
+      bytes = FileUtil.loadBytes(input);
+    }
+    finally {
+      input.close();
+    }
+    writeEntry(zipFile, relativePath, bytes, ArtifactCompilerUtil.getJarFile(sourceFile).lastModified());
+    changed[0]++;
+  }
+
+  private static String addParentDirectories(@NotNull JBZipFile zipFile, @NotNull THashSet<String> writtenPaths, @NotNull String relativePath,
+                                             @NotNull int[] changed) throws IOException {
+    while (StringUtil.startsWithChar(relativePath, '/')) {
+      relativePath = relativePath.substring(1);
+    }
+    int i = relativePath.indexOf('/');
+    while (i != -1) {
+      String prefix = relativePath.substring(0, i + 1);
+      if (!writtenPaths.contains(prefix) && prefix.length() > 1) {
+        if (zipFile.getEntry(prefix) == null) {
+          writeEntry(zipFile, prefix, ArrayUtil.EMPTY_BYTE_ARRAY, System.currentTimeMillis());
+          changed[0]++;
+        }
+        writtenPaths.add(prefix);
+      }
+      i = relativePath.indexOf('/', i + 1);
+    }
+    return relativePath;
+  }
+
+  private static void writeEntry(@NotNull JBZipFile zipFile, @NotNull String relativePath, @NotNull byte[] bytes, long timestamp)
+    throws IOException {
+    final JBZipEntry entry = zipFile.getOrCreateEntry(relativePath);
+    entry.setMethod(bytes.length == 0 || isCompressed(relativePath) ? ZipEntry.STORED : ZipEntry.DEFLATED);
+    entry.setData(bytes, timestamp);
+  }
+
+  /**
+   * Replaced and erased entries remain in the archive until it is rebuilt from scratch; this happens once they occupy more than a half of it.
+   * They aren't referenced from the central directory, so only the readers scanning local headers sequentially can see them.
+   */
+  private static boolean isMostlyGarbage(@NotNull JBZipFile zipFile, long length) {
+    long used = 0;
+    for (JBZipEntry entry : zipFile.getEntries()) {
+      // the entry data with its local and central directory headers
+      used += entry.getCompressedSize() + 76 + 2 * entry.getName().length();
+    }
+    return length - used > length / 2;
+  }
+
+  @NotNull
+  private static Manifest readManifest(@NotNull VirtualFile manifestFile) throws IOException {
+    final InputStream manifestStream = manifestFile.getInputStream();
+    try {
+      return new Manifest(manifestStream);
+    }
+    finally {
+      manifestStream.close();
     }
   }
 
@@ -220,13 +580,32 @@ public class JarsBuilder {
     myContext.getProgressIndicator().setText2(relativePath);
     if (!writtenPaths.add(relativePath)) return;
 
-    final BufferedInputStream input = ArtifactCompilerUtil.getJarEntryInputStream(sourceFile, myContext);
+    BufferedInputStream input = ArtifactCompilerUtil.getJarEntryInputStream(sourceFile, myContext);
     if (input == null) return;
 
     ZipEntry entry = new ZipEntry(relativePath);
     entry.setTime(ArtifactCompilerUtil.getJarFile(sourceFile).lastModified());
-    jarOutputStream.putNextEntry(entry);
-    FileUtil.copy(input, jarOutputStream);
+    if (isCompressed(relativePath)) {
+      // the size and the checksum of a stored entry must be known in advance, so the entry is read twice
+      final CRC32 crc = new CRC32();
+      final long size;
+      try {
+        size = updateCrc(input, crc);
+      }
+      finally {
+        input.close();
+      }
+      input = ArtifactCompilerUtil.getJarEntryInputStream(sourceFile, myContext);
+      if (input == null) return;
+      setStored(entry, size, crc.getValue());
+    }
+    try {
+      jarOutputStream.putNextEntry(entry);
+      FileUtil.copy(input, jarOutputStream);
+    }
+    finally {
+      input.close();
+    }
     jarOutputStream.closeEntry();
   }
 
@@ -238,7 +617,69 @@ public class JarsBuilder {
 
     relativePath = addParentDirectories(jarOutputStream, writtenPaths, relativePath);
     myContext.getProgressIndicator().setText2(relativePath);
-    ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenPaths, myFileFilter);
+    if (file.isFile() && isCompressed(relativePath)) {
+      addStoredFileToJar(jarOutputStream, file, relativePath, writtenPaths);
+    }
+    else {
+      ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenPaths, myFileFilter);
+    }
+  }
+
+  /**
+   * Copies the file into the jar as is, without deflating; the size and the checksum of a stored entry must be known in advance,
+   * so the file is read twice.
+   */
+  private void addStoredFileToJar(@NotNull JarOutputStream jarOutputStream, @NotNull File file, @NotNull String relativePath,
+                                  @NotNull THashSet<String> writtenPaths) throws IOException {
+    if (myFileFilter != null && !FileUtil.isFilePathAcceptable(file, myFileFilter)) return;
+    if (!writtenPaths.add(relativePath)) return;
+
+    ZipEntry entry = new ZipEntry(relativePath);
+    entry.setTime(file.lastModified());
+    InputStream input = new BufferedInputStream(new FileInputStream(file));
+    try {
+      setStored(entry, file.length(), computeCrc(input));
+    }
+    finally {
+      input.close();
+    }
+
+    jarOutputStream.putNextEntry(entry);
+    input = new FileInputStream(file);
+    try {
+      FileUtil.copy(input, jarOutputStream);
+    }
+    finally {
+      input.close();
+    }
+    jarOutputStream.closeEntry();
+  }
+
+  private static void setStored(@NotNull ZipEntry entry, long size, long crc) {
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(size);
+    entry.setCompressedSize(size);
+    entry.setCrc(crc);
+  }
+
+  private static long computeCrc(@NotNull InputStream input) throws IOException {
+    final CRC32 crc = new CRC32();
+    updateCrc(input, crc);
+    return crc.getValue();
+  }
+
+  /**
+   * @return the number of bytes read
+   */
+  private static long updateCrc(@NotNull InputStream input, @NotNull CRC32 crc) throws IOException {
+    final byte[] buffer = new byte[8192];
+    long size = 0;
+    int read;
+    while ((read = input.read(buffer)) > 0) {
+      crc.update(buffer, 0, read);
+      size += read;
+    }
+    return size;
   }
 
   private static String addParentDirectories(JarOutputStream jarOutputStream, THashSet<String> writtenPaths, String relativePath) throws IOException {
@@ -45,7 +45,7 @@ import java.util.*;
  * Time: 3:48:26 PM
  */
 @Logger
-public class ResourceCompiler implements TranslatingCompiler {
+public class ResourceCompiler implements ConcurrentTranslatingCompiler {
   private final Project myProject;
   private final ResourceCompilerExtension[] myResourceCompilerExtensions = ResourceCompilerExtension.EP_NAME.getExtensions();
   private final ResourceCompilerConfiguration myResourceCompilerConfiguration;
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.make;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A dependency cache able to collect the state of a module chunk compiled concurrently with other chunks (the dependencies registered
+ * by the compilers, the traverse roots) apart from the state of these chunks.
+ * Module chunks are compiled concurrently only if all the dependency caches implement this interface.
+ */
+public interface ConcurrentDependencyCache extends DependencyCache {
+  /**
+   * @return a cache reading the same storage as this one, which collects the state of one module chunk
+   */
+  @NotNull
+  DependencyCache createChunkCache();
+
+  /**
+   * Moves the state collected by the cache of a chunk into this cache, so that it is saved by the following {@link #update()}.
+   * Called for one chunk at a time, when the chunk is compiled.
+   *
+   * @param chunkCache the cache created by {@link #createChunkCache()}
+   */
+  void mergeChunkCache(@NotNull DependencyCache chunkCache) throws CacheCorruptedException;
+}
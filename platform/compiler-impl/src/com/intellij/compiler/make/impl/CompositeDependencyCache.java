@@ -17,6 +17,7 @@ package com.intellij.compiler.make.impl;
 
 import com.intellij.compiler.impl.ExitException;
 import com.intellij.compiler.make.CacheCorruptedException;
+import com.intellij.compiler.make.ConcurrentDependencyCache;
 import com.intellij.compiler.make.DependencyCache;
 import com.intellij.compiler.make.DependencyCacheEP;
 import com.intellij.openapi.compiler.ex.CompileContextEx;
@@ -50,6 +51,40 @@ public class CompositeDependencyCache implements DependencyCache {
     myDependencyCaches = list.toArray(new DependencyCache[list.size()]);
   }
 
+  private CompositeDependencyCache(DependencyCache[] dependencyCaches) {
+    myDependencyCaches = dependencyCaches;
+  }
+
+  /**
+   * @return whether the state of module chunks compiled concurrently can be collected separately, see {@link ConcurrentDependencyCache}
+   */
+  public boolean isConcurrent() {
+    for (DependencyCache dependencyCache : myDependencyCaches) {
+      if (!(dependencyCache instanceof ConcurrentDependencyCache)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @see #isConcurrent()
+   */
+  @NotNull
+  public CompositeDependencyCache createChunkCache() {
+    DependencyCache[] chunkCaches = new DependencyCache[myDependencyCaches.length];
+    for (int i = 0; i < myDependencyCaches.length; i++) {
+      chunkCaches[i] = ((ConcurrentDependencyCache)myDependencyCaches[i]).createChunkCache();
+    }
+    return new CompositeDependencyCache(chunkCaches);
+  }
+
+  public void mergeChunkCache(@NotNull CompositeDependencyCache chunkCache) throws CacheCorruptedException {
+    for (int i = 0; i < myDependencyCaches.length; i++) {
+      ((ConcurrentDependencyCache)myDependencyCaches[i]).mergeChunkCache(chunkCache.myDependencyCaches[i]);
+    }
+  }
+
   @Override
   public void findDependentFiles(CompileContextEx context,
                                  Ref<CacheCorruptedException> exceptionRef,
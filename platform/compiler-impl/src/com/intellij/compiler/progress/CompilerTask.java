@@ -53,6 +53,7 @@ import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.ui.MessageCategory;
 import com.intellij.util.ui.UIUtil;
 import org.consulo.compiler.impl.CompilerManagerImpl;
+import org.consulo.compiler.server.rmi.CompilerClientConnector;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -149,7 +150,10 @@ public class CompilerTask extends Task.Backgroundable {
       catch (InterruptedException ignored) {
       }
 
-      if (!isHeadless()) {
+      if (ApplicationManager.getApplication().isCompilerServerMode()) {
+        addClientProgressDelegate();
+      }
+      else if (!isHeadless()) {
         addIndicatorDelegate();
       }
       myCompileWork.run();
@@ -219,6 +223,34 @@ public class CompilerTask extends Task.Backgroundable {
     });
   }
 
+  private void addClientProgressDelegate() {
+    ProgressIndicator indicator = myIndicator;
+    if (!(indicator instanceof ProgressIndicatorEx)) return;
+    ((ProgressIndicatorEx)indicator).addStateDelegate(new AbstractProgressIndicatorExBase() {
+      @Override
+      public void setText(String text) {
+        super.setText(text);
+        sendProgress();
+      }
+
+      @Override
+      public void setText2(String text) {
+        super.setText2(text);
+        sendProgress();
+      }
+
+      @Override
+      public void setFraction(double fraction) {
+        super.setFraction(fraction);
+        sendProgress();
+      }
+
+      private void sendProgress() {
+        CompilerClientConnector.getInstance(myProject).setProgress(getText(), getText2(), getFraction());
+      }
+    });
+  }
+
   public void cancel() {
     if (!myIndicator.isCanceled()) {
       myIndicator.cancel();
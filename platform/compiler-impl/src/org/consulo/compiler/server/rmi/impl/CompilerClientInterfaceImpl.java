@@ -19,14 +19,20 @@ import com.intellij.compiler.ProblemsView;
 import com.intellij.compiler.progress.CompilerTask;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.wm.StatusBar;
+import org.consulo.compiler.server.rmi.CompilerClientEvents;
 import org.consulo.compiler.server.rmi.CompilerClientInterface;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author VISTALL
@@ -40,15 +46,30 @@ public class CompilerClientInterfaceImpl extends UnicastRemoteObject implements
   }
 
   @Override
-  public void addMessage(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum)
-    throws RemoteException {
+  public void processEvents(@NotNull CompilerClientEvents events) throws RemoteException {
+    final ProblemsView problemsView = ProblemsView.getInstance(myProject);
+    for (CompilerClientEvents.Message message : events.getMessages()) {
+      final CompilerMessageCategory category = message.getCategory();
+      final int type = CompilerTask.translateCategory(category);
+      final String[] text = ProblemsView.convertMessage(message.getMessage());
+      VirtualFile file = findFileByUrl(message.getUrl());
+      final String groupName = file != null? file.getPresentableUrl() : category.getPresentableText();
 
-    final int type = CompilerTask.translateCategory(category);
-    final String[] text = ProblemsView.convertMessage(message);
-    VirtualFile file = findFileByUrl(url);
-    final String groupName = file != null? file.getPresentableUrl() : category.getPresentableText();
+      problemsView.addMessage(type, text, groupName, null, null, null);
+    }
+
+    if (!events.getOutputPaths().isEmpty()) {
+      final List<File> files = new ArrayList<File>(events.getOutputPaths().size());
+      for (String path : events.getOutputPaths()) {
+        files.add(new File(path));
+      }
+      LocalFileSystem.getInstance().refreshIoFiles(files, true, false, null);
+    }
 
-    ProblemsView.getInstance(myProject).addMessage(type, text, groupName, null, null, null);
+    if (events.hasProgress()) {
+      final String text = events.getProgressText();
+      StatusBar.Info.set(text == null ? null : text + " (" + (int)(events.getProgressFraction() * 100) + "%)", myProject);
+    }
   }
 
   @Override
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.impl;
+
+import com.intellij.openapi.compiler.FileProcessingCompiler;
+import com.intellij.openapi.compiler.TimestampValidityState;
+import com.intellij.openapi.compiler.ValidityState;
+import com.intellij.openapi.compiler.ValidityStateFactory;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.VfsTestUtil;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+
+public class FileProcessingCompilerStateCacheTest extends PlatformTestCase {
+  private File myCacheDir;
+  private FileProcessingCompilerStateCache myCache;
+  private VirtualFile myRoot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = createTempDirectory();
+    myCache = createCache();
+    myRoot = getVirtualFile(createTempDirectory());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myCache.close();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testUpToDate() throws IOException {
+    final VirtualFile a = VfsTestUtil.createFile(myRoot, "a.txt", "a");
+    final VirtualFile b = VfsTestUtil.createFile(myRoot, "b.txt", "b");
+    myCache.update(a, new TimestampValidityState(1));
+
+    final TIntHashSet movedIds = new TIntHashSet();
+    assertUpToDate(movedIds, new boolean[]{true, false}, new Item(a, new TimestampValidityState(1)), new Item(b, null));
+    assertUpToDate(movedIds, new boolean[]{false}, new Item(a, new TimestampValidityState(2)));
+    assertTrue(movedIds.isEmpty());
+
+    myCache.close();
+    myCache = createCache();
+    assertUpToDate(movedIds, new boolean[]{true}, new Item(a, new TimestampValidityState(1)));
+    assertTrue(movedIds.isEmpty());
+  }
+
+  public void testRenamedFileIsReportedAsMoved() throws IOException {
+    final VirtualFile a = VfsTestUtil.createFile(myRoot, "a.txt", "a");
+    final String oldUrl = a.getUrl();
+    final long timestamp = a.getTimeStamp();
+    myCache.update(a, new TimestampValidityState(1));
+    myCache.close();
+    myCache = createCache();
+
+    rename(a, "b.txt");
+    // the rename keeps both the id and the timestamp of the file
+    assertEquals(timestamp, a.getTimeStamp());
+
+    final TIntHashSet movedIds = new TIntHashSet();
+    assertUpToDate(movedIds, new boolean[]{false}, new Item(a, new TimestampValidityState(1)));
+    final int id = FileProcessingCompilerStateCache.getFileId(a);
+    assertTrue(movedIds.contains(id));
+    // the outputs of the old name are removed by the stored url
+    assertEquals(oldUrl, myCache.getUrl(id));
+
+    myCache.remove(id);
+    myCache.update(a, new TimestampValidityState(1));
+    movedIds.clear();
+    assertUpToDate(movedIds, new boolean[]{true}, new Item(a, new TimestampValidityState(1)));
+    assertTrue(movedIds.isEmpty());
+  }
+
+  private void assertUpToDate(TIntHashSet movedIds, boolean[] expected, FileProcessingCompiler.ProcessingItem... items) throws IOException {
+    final boolean[] upToDate = myCache.getUpToDate(items, movedIds);
+    assertEquals(expected.length, upToDate.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(items[i].getFile().getName(), expected[i], upToDate[i]);
+    }
+  }
+
+  private FileProcessingCompilerStateCache createCache() throws IOException {
+    return new FileProcessingCompilerStateCache(myCacheDir, new ValidityStateFactory() {
+      @Override
+      public ValidityState createValidityState(DataInput in) throws IOException {
+        return TimestampValidityState.load(in);
+      }
+    });
+  }
+
+  private static class Item implements FileProcessingCompiler.ProcessingItem {
+    private final VirtualFile myFile;
+    private final ValidityState myState;
+
+    private Item(@NotNull VirtualFile file, @Nullable ValidityState state) {
+      myFile = file;
+      myState = state;
+    }
+
+    @NotNull
+    @Override
+    public VirtualFile getFile() {
+      return myFile;
+    }
+
+    @Nullable
+    @Override
+    public ValidityState getValidityState() {
+      return myState;
+    }
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.compiler.impl;
+
+import com.intellij.openapi.compiler.*;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.roots.ModuleRootModificationUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.PsiTestUtil;
+import com.intellij.testFramework.VfsTestUtil;
+import com.intellij.util.Chunk;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class TranslatingCompilerOutputCacheTest extends PlatformTestCase {
+  private static final long MAX_SIZE = 1024 * 1024;
+
+  private final Map<Module, VirtualFile> myOutputs = new HashMap<Module, VirtualFile>();
+  private File myCacheDir;
+  private TranslatingCompilerOutputCache myCache;
+  private TestCompileContext myContext;
+  private TestCompiler myCompiler;
+  private Chunk<Module> myChunk;
+  private VirtualFile mySourceRoot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = createTempDirectory();
+    myCache = new TranslatingCompilerOutputCache(myCacheDir, MAX_SIZE);
+    myContext = new TestCompileContext();
+    myCompiler = new TestCompiler();
+    myChunk = new Chunk<Module>(myModule);
+    mySourceRoot = getVirtualFile(createTempDirectory());
+    PsiTestUtil.addSourceRoot(myModule, mySourceRoot);
+    myOutputs.put(myModule, getVirtualFile(createTempDirectory()));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myCache.close();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testKeyIsStable() throws IOException {
+    final VirtualFile a = VfsTestUtil.createFile(mySourceRoot, "a.txt", "a");
+    final String key = computeKey(a);
+    assertNotNull(key);
+    assertEquals(key, computeKey(a));
+
+    reopenCache();
+    assertEquals(key, computeKey(a));
+
+    myCompiler.myFingerprint = "other";
+    assertFalse(key.equals(computeKey(a)));
+    myCompiler.myFingerprint = "";
+    assertEquals(key, computeKey(a));
+
+    VfsUtil.saveText(a, "changed");
+    assertFalse(key.equals(computeKey(a)));
+  }
+
+  public void testDependencyIsFingerprintedByOutput() throws IOException {
+    final Module dependency = createModule("dependency");
+    final VirtualFile dependencySourceRoot = getVirtualFile(createTempDirectory());
+    PsiTestUtil.addSourceRoot(dependency, dependencySourceRoot);
+    final VirtualFile dependencyOutput = getVirtualFile(createTempDirectory());
+    myOutputs.put(dependency, dependencyOutput);
+    ModuleRootModificationUtil.addDependency(myModule, dependency);
+    VfsTestUtil.createFile(dependencySourceRoot, "d.txt", "d");
+    final VirtualFile dependencyClass = VfsTestUtil.createFile(dependencyOutput, "d.out", "D");
+
+    final VirtualFile a = VfsTestUtil.createFile(mySourceRoot, "a.txt", "a");
+    final String key = computeKey(a);
+
+    // the change of the sources which doesn't change the output of the dependency doesn't affect the dependent modules
+    reopenCache();
+    VfsTestUtil.createFile(dependencySourceRoot, "comment.txt", "comment");
+    assertEquals(key, computeKey(a));
+
+    reopenCache();
+    VfsUtil.saveText(dependencyClass, "changed");
+    assertFalse(key.equals(computeKey(a)));
+  }
+
+  public void testRestoreStoredOutput() throws IOException {
+    final VirtualFile a = VfsTestUtil.createFile(mySourceRoot, "a.txt", "a");
+    final VirtualFile b = VfsTestUtil.createFile(mySourceRoot, "b.txt", "b");
+    final String key = computeKey(a, b);
+    final Set<VirtualFile> toCompile = files(a, b);
+    assertFalse(myCache.restore(myContext, myChunk, myCompiler, key, toCompile, new TestSink()));
+
+    compileAndStore(key, a, b);
+    final File outputDir = outputDir();
+    FileUtil.delete(new File(outputDir, "a.out"));
+    FileUtil.delete(new File(outputDir, "b.out"));
+
+    final TestSink sink = new TestSink();
+    assertTrue(myCache.restore(myContext, myChunk, myCompiler, key, toCompile, sink));
+    assertEquals("A", FileUtil.loadFile(new File(outputDir, "a.out")));
+    assertEquals("B", FileUtil.loadFile(new File(outputDir, "b.out")));
+    assertEquals(toCompile, sink.mySources);
+    assertEquals(Collections.singletonList(myOutputs.get(myModule).getPath()), sink.myRoots);
+    assertEquals(sink.myItems, myCompiler.myRestored);
+  }
+
+  public void testEviction() throws IOException {
+    myCache.close();
+    myCache = new TranslatingCompilerOutputCache(myCacheDir, 1500);
+    final VirtualFile a = VfsTestUtil.createFile(mySourceRoot, "a.txt", StringUtil.repeat("a", 1000));
+    final VirtualFile b = VfsTestUtil.createFile(mySourceRoot, "b.txt", StringUtil.repeat("b", 1000));
+    final String keyA = computeKey(a);
+    final String keyB = computeKey(b);
+
+    compileAndStore(keyA, a);
+    assertTrue(new File(new File(myCacheDir, "entries"), keyA).setLastModified(System.currentTimeMillis() - 60 * 1000));
+    compileAndStore(keyB, b);
+
+    assertFalse(myCache.restore(myContext, myChunk, myCompiler, keyA, files(a), new TestSink()));
+    assertTrue(myCache.restore(myContext, myChunk, myCompiler, keyB, files(b), new TestSink()));
+  }
+
+  public void testNoStoreOnErrors() throws IOException {
+    final VirtualFile a = VfsTestUtil.createFile(mySourceRoot, "a.txt", "a");
+    final String key = computeKey(a);
+    myContext.myErrors = 1;
+    compileAndStore(key, a);
+    myContext.myErrors = 0;
+    assertFalse(myCache.restore(myContext, myChunk, myCompiler, key, files(a), new TestSink()));
+  }
+
+  public void testNoStoreWithFilesToRecompile() throws IOException {
+    final VirtualFile a = VfsTestUtil.createFile(mySourceRoot, "a.txt", "a");
+    final String key = computeKey(a);
+    myCompiler.myFilesToRecompile = new VirtualFile[]{a};
+    compileAndStore(key, a);
+    assertFalse(myCache.restore(myContext, myChunk, myCompiler, key, files(a), new TestSink()));
+  }
+
+  private String computeKey(VirtualFile... files) {
+    return myCache.computeKey(myContext, myChunk, myCompiler, Arrays.asList(files), files(files));
+  }
+
+  private void compileAndStore(String key, VirtualFile... files) {
+    final TranslatingCompilerOutputCache.RecordingSink sink = new TranslatingCompilerOutputCache.RecordingSink(new TestSink());
+    myCompiler.compile(myContext, myChunk, files, sink);
+    myCache.store(myContext, key, sink);
+  }
+
+  private void reopenCache() throws IOException {
+    myCache.close();
+    myCache = new TranslatingCompilerOutputCache(myCacheDir, MAX_SIZE);
+  }
+
+  private File outputDir() {
+    return new File(myOutputs.get(myModule).getPath());
+  }
+
+  private static Set<VirtualFile> files(VirtualFile... files) {
+    return new HashSet<VirtualFile>(Arrays.asList(files));
+  }
+
+  private class TestCompileContext extends DummyCompileContext {
+    private int myErrors;
+
+    @Override
+    public int getMessageCount(CompilerMessageCategory category) {
+      return category == CompilerMessageCategory.ERROR ? myErrors : 0;
+    }
+
+    @Override
+    public ProgressIndicator getProgressIndicator() {
+      return new EmptyProgressIndicator();
+    }
+
+    @Override
+    public VirtualFile getModuleOutputDirectory(Module module) {
+      return myOutputs.get(module);
+    }
+
+    @Override
+    public VirtualFile getModuleOutputDirectoryForTests(Module module) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the upper-cased text of each file to {@code <name>.out} in the module output directory.
+   */
+  private static class TestCompiler implements CacheableTranslatingCompiler {
+    private String myFingerprint = "";
+    private VirtualFile[] myFilesToRecompile = VirtualFile.EMPTY_ARRAY;
+    private final List<OutputItem> myRestored = new ArrayList<OutputItem>();
+
+    @NotNull
+    @Override
+    public String getOptionsFingerprint(@NotNull CompileContext context, @NotNull Chunk<Module> moduleChunk) {
+      return myFingerprint;
+    }
+
+    @Override
+    public void outputRestored(@NotNull CompileContext context,
+                               @NotNull Chunk<Module> moduleChunk,
+                               @NotNull String outputRoot,
+                               @NotNull Collection<OutputItem> items) {
+      myRestored.addAll(items);
+    }
+
+    @Override
+    public void compile(CompileContext context, Chunk<Module> moduleChunk, VirtualFile[] files, OutputSink sink) {
+      final String outputRoot = context.getModuleOutputDirectory(moduleChunk.getNodes().iterator().next()).getPath();
+      final List<OutputItem> items = new ArrayList<OutputItem>();
+      for (final VirtualFile file : files) {
+        final File output = new File(outputRoot, file.getNameWithoutExtension() + ".out");
+        try {
+          FileUtil.writeToFile(output, VfsUtil.loadText(file).toUpperCase());
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        items.add(new OutputItem() {
+          @Override
+          public String getOutputPath() {
+            return FileUtil.toSystemIndependentName(output.getPath());
+          }
+
+          @Override
+          public VirtualFile getSourceFile() {
+            return file;
+          }
+        });
+      }
+      sink.add(outputRoot, items, myFilesToRecompile);
+    }
+
+    @Override
+    public boolean isCompilableFile(VirtualFile file, CompileContext context) {
+      return true;
+    }
+
+    @NotNull
+    @Override
+    public FileType[] getInputFileTypes() {
+      return FileType.EMPTY_ARRAY;
+    }
+
+    @NotNull
+    @Override
+    public FileType[] getOutputFileTypes() {
+      return FileType.EMPTY_ARRAY;
+    }
+
+    @NotNull
+    @Override
+    public String getDescription() {
+      return "test";
+    }
+
+    @Override
+    public boolean validateConfiguration(CompileScope scope) {
+      return true;
+    }
+
+    @Override
+    public void init(@NotNull CompilerManager compilerManager) {
+    }
+  }
+
+  private static class TestSink implements TranslatingCompiler.OutputSink {
+    private final List<String> myRoots = new ArrayList<String>();
+    private final List<TranslatingCompiler.OutputItem> myItems = new ArrayList<TranslatingCompiler.OutputItem>();
+    private final Set<VirtualFile> mySources = new HashSet<VirtualFile>();
+
+    @Override
+    public void add(String outputRoot, Collection<TranslatingCompiler.OutputItem> items, VirtualFile[] filesToRecompile) {
+      myRoots.add(outputRoot);
+      for (TranslatingCompiler.OutputItem item : items) {
+        myItems.add(item);
+        mySources.add(item.getSourceFile());
+      }
+    }
+  }
+}
@@ -17,7 +17,6 @@ package org.consulo.compiler.server;
 
 import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.application.ex.ApplicationEx;
-import com.intellij.openapi.compiler.CompilerMessageCategory;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.projectRoots.SdkTable;
 import com.intellij.openapi.projectRoots.SdkType;
@@ -27,6 +26,7 @@ import com.intellij.openapi.ui.TestDialog;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.impl.local.FileWatcher;
 import org.consulo.compiler.server.application.CompilerServerApplication;
+import org.consulo.compiler.server.rmi.CompilerClientEvents;
 import org.consulo.compiler.server.rmi.CompilerClientInterface;
 import org.consulo.compiler.server.rmi.CompilerServerInterface;
 import org.consulo.compiler.server.rmi.impl.CompilerServerInterfaceImpl;
@@ -79,9 +79,10 @@ public class Main {
 
     server.compile(new CompilerClientInterface() {
       @Override
-      public void addMessage(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum)
-        throws RemoteException {
-        LOGGER.info(category + ": " + message +  ". Url: " + url);
+      public void processEvents(@NotNull CompilerClientEvents events) throws RemoteException {
+        for (CompilerClientEvents.Message message : events.getMessages()) {
+          LOGGER.info(message.getCategory() + ": " + message.getMessage() + ". Url: " + message.getUrl());
+        }
       }
 
       @Override
@@ -16,40 +16,144 @@
 package org.consulo.compiler.server.rmi.impl;
 
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
 import org.consulo.compiler.server.rmi.CompilerClientConnector;
+import org.consulo.compiler.server.rmi.CompilerClientEvents;
 import org.consulo.compiler.server.rmi.CompilerClientInterface;
+import org.consulo.lombok.annotations.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.rmi.RemoteException;
+import java.util.Collection;
 
 /**
+ * Events are sent to the client by a single pooled thread: while a batch is being delivered, the next one is collected,
+ * so under load each round-trip carries many messages, and an event is sent right away when the client is idle.
+ * Producers wait while too many messages and output paths are not delivered yet.
+ *
  * @author VISTALL
  * @since 16:08/19.08.13
  */
+@Logger
 public class CompilerClientConnectorImpl extends CompilerClientConnector implements Disposable {
+  private static final int MAX_PENDING_EVENTS = 10000;
+
+  private final Object myLock = new Object();
   private CompilerClientInterface myClientInterface;
+  private CompilerClientEvents myPendingEvents = new CompilerClientEvents();
+  private boolean mySending;
 
   @Override
   public void setClientConnection(@Nullable CompilerClientInterface clientConnection) {
-    myClientInterface = clientConnection;
+    synchronized (myLock) {
+      myClientInterface = clientConnection;
+    }
   }
 
   @Override
   public void addMessage(@NotNull CompilerMessageCategory category, String message, String url, int lineNum, int columnNum) {
-    if(myClientInterface != null) {
+    synchronized (myLock) {
+      if (myClientInterface == null) return;
+      waitForPendingEvents();
+      myPendingEvents.addMessage(category, message, url, lineNum, columnNum);
+      startSending();
+    }
+  }
+
+  @Override
+  public void setProgress(@Nullable String text, @Nullable String text2, double fraction) {
+    synchronized (myLock) {
+      if (myClientInterface == null) return;
+      myPendingEvents.setProgress(text, text2, fraction);
+      startSending();
+    }
+  }
+
+  @Override
+  public void addOutputPaths(@NotNull Collection<String> paths) {
+    synchronized (myLock) {
+      if (myClientInterface == null || paths.isEmpty()) return;
+      waitForPendingEvents();
+      myPendingEvents.addOutputPaths(paths);
+      startSending();
+    }
+  }
+
+  @Override
+  public void flush() {
+    synchronized (myLock) {
+      while (mySending) {
+        try {
+          myLock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  // flow control: don't let a slow client make the server buffer an unbounded number of events
+  private void waitForPendingEvents() {
+    while (mySending && myPendingEvents.size() >= MAX_PENDING_EVENTS) {
       try {
-        myClientInterface.addMessage(category, message, url, lineNum, columnNum);
+        myLock.wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void startSending() {
+    if (mySending) return; // the events will be picked up after the current batch is delivered
+    mySending = true;
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        sendPendingEvents();
+      }
+    });
+  }
+
+  private void sendPendingEvents() {
+    while (true) {
+      final CompilerClientInterface client;
+      final CompilerClientEvents events;
+      synchronized (myLock) {
+        if (myClientInterface == null || myPendingEvents.isEmpty()) {
+          mySending = false;
+          myLock.notifyAll();
+          return;
+        }
+        client = myClientInterface;
+        events = myPendingEvents;
+        myPendingEvents = new CompilerClientEvents();
+        myLock.notifyAll();
+      }
+
+      try {
+        client.processEvents(events);
       }
       catch (RemoteException e) {
-        throw new RuntimeException(e);
+        LOGGER.warn(e);
+        synchronized (myLock) {
+          myClientInterface = null;
+        }
       }
     }
   }
 
   @Override
   public void dispose() {
-    myClientInterface = null;
+    synchronized (myLock) {
+      myClientInterface = null;
+      myPendingEvents = new CompilerClientEvents();
+      myLock.notifyAll();
+    }
   }
 }
@@ -57,6 +57,8 @@ public class CompilerServerInterfaceImpl extends UnicastRemoteObject implements
       CompilerManager.getInstance(project).rebuild(new CompileStatusNotification() {
         @Override
         public void finished(boolean aborted, int errors, int warnings, CompileContext compileContext) {
+          // all the messages must reach the client before it learns that compilation is over
+          CompilerClientConnector.getInstance(project).flush();
           try {
             client.compilationFinished(aborted, errors, warnings);
           }
@@ -15,6 +15,7 @@
  */
 package com.intellij.diff.comparison;
 
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.diff.fragments.DiffFragment;
 import com.intellij.diff.fragments.DiffFragmentImpl;
 import com.intellij.diff.fragments.LineFragment;
@@ -22,8 +23,11 @@ import com.intellij.diff.fragments.LineFragmentImpl;
 import com.intellij.diff.util.Range;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.Consumer;
+import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 import com.intellij.util.text.CharSequenceSubSequence;
@@ -33,12 +37,16 @@ import org.jetbrains.annotations.NotNull;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.intellij.diff.comparison.iterables.DiffIterableUtil.convertIntoFragments;
 
 public class ComparisonManagerImpl extends ComparisonManager {
   public static final Logger LOG = Logger.getInstance(ComparisonManagerImpl.class);
 
+  private static final int MIN_CONCURRENT_FRAGMENTS = 4;
+
   @NotNull
   public List<LineFragment> compareLines(@NotNull CharSequence text1,
                                          @NotNull CharSequence text2,
@@ -62,20 +70,38 @@ public class ComparisonManagerImpl extends ComparisonManager {
   }
 
   @NotNull
-  public List<LineFragment> compareLinesInner(@NotNull CharSequence text1,
-                                              @NotNull CharSequence text2,
+  public List<LineFragment> compareLinesInner(@NotNull final CharSequence text1,
+                                              @NotNull final CharSequence text2,
                                               @NotNull List<LineFragment> lineFragments,
-                                              @NotNull ComparisonPolicy policy,
-                                              @NotNull ProgressIndicator indicator) throws DiffTooBigException {
-    List<LineFragment> fineFragments = new ArrayList<LineFragment>(lineFragments.size());
-    int tooBigChunksCount = 0;
+                                              @NotNull final ComparisonPolicy policy,
+                                              @NotNull final ProgressIndicator indicator) throws DiffTooBigException {
+    final List<LineFragment> fragments = ContainerUtil.filter(lineFragments, new Condition<LineFragment>() {
+      @Override
+      public boolean value(LineFragment fragment) {
+        return !isSingleSide(fragment);
+      }
+    });
 
-    for (LineFragment fragment : lineFragments) {
-      CharSequence subSequence1 = text1.subSequence(fragment.getStartOffset1(), fragment.getEndOffset1());
-      CharSequence subSequence2 = text2.subSequence(fragment.getStartOffset2(), fragment.getEndOffset2());
+    // Fragments are refined independently, so big refactorings can be processed concurrently
+    final Map<LineFragment, List<LineFragment>> refined = ContainerUtil.newConcurrentMap();
+    final AtomicInteger tooBigChunksCount = new AtomicInteger();
+    if (fragments.size() >= MIN_CONCURRENT_FRAGMENTS && Registry.is("diff.inner.fragments.concurrent")) {
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress(fragments, indicator, false, false, new Processor<LineFragment>() {
+        @Override
+        public boolean process(LineFragment fragment) {
+          List<LineFragment> result = refineFragment(text1, text2, fragment, policy, indicator, tooBigChunksCount);
+          refined.put(fragment, result);
+          return true;
+        }
+      });
+      indicator.checkCanceled();
+    }
 
-      if (fragment.getStartLine1() == fragment.getEndLine1() ||
-          fragment.getStartLine2() == fragment.getEndLine2()) { // Do not try to build fine blocks after few fails)
+    List<LineFragment> fineFragments = new ArrayList<LineFragment>(lineFragments.size());
+    for (LineFragment fragment : lineFragments) {
+      if (isSingleSide(fragment)) {
+        CharSequence subSequence1 = text1.subSequence(fragment.getStartOffset1(), fragment.getEndOffset1());
+        CharSequence subSequence2 = text2.subSequence(fragment.getStartOffset2(), fragment.getEndOffset2());
         if (isEquals(subSequence1, subSequence2, policy)) {
           fineFragments.add(new LineFragmentImpl(fragment, Collections.<DiffFragment>emptyList()));
         }
@@ -85,45 +111,76 @@ public class ComparisonManagerImpl extends ComparisonManager {
         continue;
       }
 
-      if (tooBigChunksCount >= FilesTooBigForDiffException.MAX_BAD_LINES) { // Do not try to build fine blocks after few fails)
-        fineFragments.add(new LineFragmentImpl(fragment, null));
-        continue;
+      List<LineFragment> result = refined.get(fragment);
+      if (result == null) {
+        // sequential mode: after the concurrent run every fragment is refined, as failures are rethrown by the launcher
+        result = refineFragment(text1, text2, fragment, policy, indicator, tooBigChunksCount);
       }
+      fineFragments.addAll(result);
+    }
 
-      try {
-        List<ByWord.LineBlock> lineBlocks = ByWord.compareAndSplit(subSequence1, subSequence2, policy, indicator);
-        assert lineBlocks.size() != 0;
+    return fineFragments;
+  }
 
-        int startOffset1 = fragment.getStartOffset1();
-        int startOffset2 = fragment.getStartOffset2();
+  /**
+   * Compares the changed block by-word, splitting it into the blocks of adjustment lines.
+   *
+   * @param tooBigChunksCount number of the fragments which were too big for by-word comparison so far.
+   *                          Fine blocks are not built after a few fails.
+   */
+  @NotNull
+  private List<LineFragment> refineFragment(@NotNull CharSequence text1,
+                                            @NotNull CharSequence text2,
+                                            @NotNull LineFragment fragment,
+                                            @NotNull ComparisonPolicy policy,
+                                            @NotNull ProgressIndicator indicator,
+                                            @NotNull AtomicInteger tooBigChunksCount) {
+    if (tooBigChunksCount.get() >= FilesTooBigForDiffException.MAX_BAD_LINES) {
+      return Collections.<LineFragment>singletonList(new LineFragmentImpl(fragment, null));
+    }
 
-        int currentStartLine1 = fragment.getStartLine1();
-        int currentStartLine2 = fragment.getStartLine2();
+    CharSequence subSequence1 = text1.subSequence(fragment.getStartOffset1(), fragment.getEndOffset1());
+    CharSequence subSequence2 = text2.subSequence(fragment.getStartOffset2(), fragment.getEndOffset2());
 
-        for (int i = 0; i < lineBlocks.size(); i++) {
-          ByWord.LineBlock block = lineBlocks.get(i);
-          Range offsets = block.offsets;
+    try {
+      List<ByWord.LineBlock> lineBlocks = ByWord.compareAndSplit(subSequence1, subSequence2, policy, indicator);
+      assert lineBlocks.size() != 0;
 
-          // special case for last line to void problem with empty last line
-          int currentEndLine1 = i != lineBlocks.size() - 1 ? currentStartLine1 + block.newlines1 : fragment.getEndLine1();
-          int currentEndLine2 = i != lineBlocks.size() - 1 ? currentStartLine2 + block.newlines2 : fragment.getEndLine2();
+      List<LineFragment> fineFragments = new ArrayList<LineFragment>(lineBlocks.size());
 
-          fineFragments.add(new LineFragmentImpl(currentStartLine1, currentEndLine1, currentStartLine2, currentEndLine2,
-                                                 offsets.start1 + startOffset1, offsets.end1 + startOffset1,
-                                                 offsets.start2 + startOffset2, offsets.end2 + startOffset2,
-                                                 block.fragments));
+      int startOffset1 = fragment.getStartOffset1();
+      int startOffset2 = fragment.getStartOffset2();
 
-          currentStartLine1 = currentEndLine1;
-          currentStartLine2 = currentEndLine2;
-        }
-      }
-      catch (DiffTooBigException e) {
-        fineFragments.add(new LineFragmentImpl(fragment, null));
-        tooBigChunksCount++;
+      int currentStartLine1 = fragment.getStartLine1();
+      int currentStartLine2 = fragment.getStartLine2();
+
+      for (int i = 0; i < lineBlocks.size(); i++) {
+        ByWord.LineBlock block = lineBlocks.get(i);
+        Range offsets = block.offsets;
+
+        // special case for last line to void problem with empty last line
+        int currentEndLine1 = i != lineBlocks.size() - 1 ? currentStartLine1 + block.newlines1 : fragment.getEndLine1();
+        int currentEndLine2 = i != lineBlocks.size() - 1 ? currentStartLine2 + block.newlines2 : fragment.getEndLine2();
+
+        fineFragments.add(new LineFragmentImpl(currentStartLine1, currentEndLine1, currentStartLine2, currentEndLine2,
+                                               offsets.start1 + startOffset1, offsets.end1 + startOffset1,
+                                               offsets.start2 + startOffset2, offsets.end2 + startOffset2,
+                                               block.fragments));
+
+        currentStartLine1 = currentEndLine1;
+        currentStartLine2 = currentEndLine2;
       }
+      return fineFragments;
     }
+    catch (DiffTooBigException e) {
+      tooBigChunksCount.incrementAndGet();
+      return Collections.<LineFragment>singletonList(new LineFragmentImpl(fragment, null));
+    }
+  }
 
-    return fineFragments;
+  private static boolean isSingleSide(@NotNull LineFragment fragment) {
+    return fragment.getStartLine1() == fragment.getEndLine1() ||
+           fragment.getStartLine2() == fragment.getEndLine2();
   }
 
   @NotNull
@@ -15,7 +15,6 @@
  */
 package com.intellij.diff.comparison.iterables;
 
-import com.intellij.diff.comparison.DiffTooBigException;
 import com.intellij.diff.comparison.TrimUtil;
 import com.intellij.diff.fragments.DiffFragment;
 import com.intellij.diff.fragments.DiffFragmentImpl;
@@ -26,7 +25,6 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.registry.Registry;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.diff.Diff;
-import com.intellij.util.diff.FilesTooBigForDiffException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -39,17 +37,16 @@ public class DiffIterableUtil {
    * Compare two arrays, basing on equals() and hashCode() of it's elements
    */
   @NotNull
-  public static <T> FairDiffIterable diff(@NotNull T[] data1, @NotNull T[] data2, @NotNull ProgressIndicator indicator) {
+  public static <T> FairDiffIterable diff(@NotNull T[] data1, @NotNull T[] data2, @NotNull final ProgressIndicator indicator) {
     indicator.checkCanceled();
 
-    try {
-      // TODO: use ProgressIndicator inside
-      Diff.Change change = Diff.buildChanges(data1, data2);
-      return fair(create(change, data1.length, data2.length));
-    }
-    catch (FilesTooBigForDiffException e) {
-      throw new DiffTooBigException();
-    }
+    Diff.Change change = Diff.buildChanges(data1, data2, new Diff.CancellationChecker() {
+      @Override
+      public void checkCanceled() {
+        indicator.checkCanceled();
+      }
+    });
+    return fair(create(change, data1.length, data2.length));
   }
 
   /*
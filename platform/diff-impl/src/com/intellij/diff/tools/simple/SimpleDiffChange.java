@@ -152,6 +152,11 @@ public class SimpleDiffChange {
   // Getters
   //
 
+  @NotNull
+  public LineFragment getFragment() {
+    return myFragment;
+  }
+
   public int getStartLine(@NotNull Side side) {
     return side.getStartLine(myFragment) + side.select(myLineStartShifts);
   }
@@ -18,11 +18,13 @@ package com.intellij.diff.tools.simple;
 import com.intellij.diff.DiffContext;
 import com.intellij.diff.actions.BufferedLineIterator;
 import com.intellij.diff.actions.NavigationContextChecker;
+import com.intellij.diff.comparison.ComparisonManager;
 import com.intellij.diff.comparison.DiffTooBigException;
 import com.intellij.diff.fragments.LineFragment;
 import com.intellij.diff.requests.ContentDiffRequest;
 import com.intellij.diff.requests.DiffRequest;
 import com.intellij.diff.tools.util.*;
+import com.intellij.diff.tools.util.LineFragmentCache.PolicyData;
 import com.intellij.diff.tools.util.base.HighlightPolicy;
 import com.intellij.diff.tools.util.base.TextDiffViewerUtil;
 import com.intellij.diff.tools.util.side.TwosideTextDiffViewer;
@@ -39,15 +41,21 @@ import com.intellij.openapi.editor.Caret;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
 import com.intellij.openapi.editor.ex.EditorEx;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.UserDataHolder;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Alarm;
 import com.intellij.util.Function;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -56,9 +64,7 @@ import org.mustbe.consulo.RequiredWriteAction;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.Iterator;
+import java.util.*;
 import java.util.List;
 
 import static com.intellij.diff.util.DiffUtil.getLineCount;
@@ -66,6 +72,8 @@ import static com.intellij.diff.util.DiffUtil.getLineCount;
 public class SimpleDiffViewer extends TwosideTextDiffViewer {
   public static final Logger LOG = Logger.getInstance(SimpleDiffViewer.class);
 
+  private static final int REFINEMENT_DELAY = 100; // ms, lets scrolling settle before refining the shown changes
+
   @NotNull private final SyncScrollSupport.SyncScrollable mySyncScrollable;
   @NotNull private final PrevNextDifferenceIterable myPrevNextDifferenceIterable;
   @NotNull private final StatusPanel myStatusPanel;
@@ -73,6 +81,14 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
   @NotNull private final List<SimpleDiffChange> myDiffChanges = new ArrayList<SimpleDiffChange>();
   @NotNull private final List<SimpleDiffChange> myInvalidDiffChanges = new ArrayList<SimpleDiffChange>();
 
+  // changes, which by-word comparison is postponed until they are shown
+  @NotNull private final Set<SimpleDiffChange> myNotRefinedChanges = new HashSet<SimpleDiffChange>();
+  @Nullable private DocumentData myNotRefinedData;
+  @NotNull private final DiffTaskQueue myRefinementQueue = new DiffTaskQueue();
+  @NotNull private final Alarm myRefinementAlarm = new Alarm();
+  @Nullable private Collection<SimpleDiffChange> myRefiningChanges; // changes being refined by the current task
+  @NotNull private final VisibleAreaListener myRefinementVisibleAreaListener = new MyRefinementVisibleAreaListener();
+
   @NotNull private final MyFoldingModel myFoldingModel;
   @NotNull private final MyInitialScrollHelper myInitialScrollHelper = new MyInitialScrollHelper();
   @NotNull private final ModifierProvider myModifierProvider;
@@ -100,9 +116,26 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
   @RequiredDispatchThread
   protected void onDispose() {
     destroyChangedBlocks();
+    Disposer.dispose(myRefinementAlarm);
     super.onDispose();
   }
 
+  @Override
+  @RequiredDispatchThread
+  protected void installEditorListeners() {
+    super.installEditorListeners();
+    getEditor(Side.LEFT).getScrollingModel().addVisibleAreaListener(myRefinementVisibleAreaListener);
+    getEditor(Side.RIGHT).getScrollingModel().addVisibleAreaListener(myRefinementVisibleAreaListener);
+  }
+
+  @Override
+  @RequiredDispatchThread
+  protected void destroyEditorListeners() {
+    super.destroyEditorListeners();
+    getEditor(Side.LEFT).getScrollingModel().removeVisibleAreaListener(myRefinementVisibleAreaListener);
+    getEditor(Side.RIGHT).getScrollingModel().removeVisibleAreaListener(myRefinementVisibleAreaListener);
+  }
+
   @NotNull
   @Override
   protected List<AnAction> createToolbarActions() {
@@ -198,14 +231,23 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
       });
 
       List<LineFragment> lineFragments = null;
+      boolean notRefined = false;
       if (getHighlightPolicy().isShouldCompare()) {
-        lineFragments = DiffUtil.compareWithCache(myRequest, data, getDiffConfig(), indicator);
+        DiffUtil.DiffConfig config = getDiffConfig();
+        if (canPostponeInnerFragments(data, config)) {
+          DiffUtil.DiffConfig linesConfig = new DiffUtil.DiffConfig(config.policy, false, config.squashFragments, config.trimFragments);
+          lineFragments = DiffUtil.compareWithCache(myRequest, data, linesConfig, indicator);
+          notRefined = lineFragments.size() > Registry.intValue("diff.inner.fragments.lazy.threshold");
+        }
+        if (!notRefined) {
+          lineFragments = DiffUtil.compareWithCache(myRequest, data, config, indicator);
+        }
       }
 
       boolean isEqualContents = (lineFragments == null || lineFragments.isEmpty()) &&
                                 StringUtil.equals(document1.getCharsSequence(), document2.getCharsSequence());
 
-      return apply(new CompareData(lineFragments, isEqualContents));
+      return apply(new CompareData(lineFragments, isEqualContents, notRefined ? data : null));
     }
     catch (DiffTooBigException e) {
       return applyNotification(DiffNotifications.DIFF_TOO_BIG);
@@ -235,12 +277,19 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
           }
         }
 
+        if (data.getNotRefinedData() != null) {
+          myNotRefinedData = data.getNotRefinedData();
+          myNotRefinedChanges.addAll(myDiffChanges);
+        }
+
         myFoldingModel.install(data.getFragments(), myRequest, getFoldingModelSettings());
 
         myInitialScrollHelper.onRediff();
 
         myContentPanel.repaintDivider();
         myStatusPanel.update();
+
+        refineVisibleChanges();
       }
     };
   }
@@ -277,6 +326,8 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
   //
 
   private void destroyChangedBlocks() {
+    resetNotRefinedChanges();
+
     for (SimpleDiffChange change : myDiffChanges) {
       change.destroyHighlighter();
     }
@@ -299,6 +350,9 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
     super.onBeforeDocumentChange(e);
     if (myDiffChanges.isEmpty()) return;
 
+    // offsets of the postponed fragments are not valid anymore, they will be compared on the next rediff
+    resetNotRefinedChanges();
+
     Side side = null;
     if (e.getDocument() == getEditor(Side.LEFT).getDocument()) side = Side.LEFT;
     if (e.getDocument() == getEditor(Side.RIGHT).getDocument()) side = Side.RIGHT;
@@ -368,6 +422,149 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
     return true;
   }
 
+  //
+  // Lazy by-word comparison
+  //
+
+  /*
+   * By-word comparison of a big diff can take much longer, than by-line one. So if there are too many changed blocks,
+   * we show them by-line at once, and compare by-word only the ones scrolled into view.
+   */
+  private boolean canPostponeInnerFragments(@NotNull DocumentData data, @NotNull DiffUtil.DiffConfig config) {
+    if (!config.innerFragments || !Registry.is("diff.inner.fragments.lazy")) return false;
+
+    PolicyData cachedData = DiffUtil.getFromCache(myRequest, config, data.getStamp1(), data.getStamp2());
+    return cachedData == null || !cachedData.isInnerFragments();
+  }
+
+  @RequiredDispatchThread
+  private void resetNotRefinedChanges() {
+    myRefinementAlarm.cancelAllRequests();
+    myRefinementQueue.abort();
+    myRefiningChanges = null;
+    myNotRefinedChanges.clear();
+    myNotRefinedData = null;
+  }
+
+  @RequiredDispatchThread
+  private void refineVisibleChanges() {
+    final DocumentData data = myNotRefinedData;
+    if (data == null || myNotRefinedChanges.isEmpty()) return;
+
+    Set<SimpleDiffChange> visibleChanges = new LinkedHashSet<SimpleDiffChange>();
+    collectVisibleNotRefinedChanges(Side.LEFT, visibleChanges);
+    collectVisibleNotRefinedChanges(Side.RIGHT, visibleChanges);
+    if (visibleChanges.isEmpty()) return;
+    if (myRefiningChanges != null && myRefiningChanges.containsAll(visibleChanges)) return; // don't restart the same work
+
+    final List<SimpleDiffChange> changes = new ArrayList<SimpleDiffChange>(visibleChanges);
+    myRefiningChanges = changes;
+
+    final DiffUtil.DiffConfig config = getDiffConfig();
+    myRefinementQueue.executeAndTryWait(new Function<ProgressIndicator, Runnable>() {
+      @Override
+      public Runnable fun(ProgressIndicator indicator) {
+        ComparisonManager manager = ComparisonManager.getInstance();
+        final List<List<LineFragment>> refined = new ArrayList<List<LineFragment>>(changes.size());
+        for (SimpleDiffChange change : changes) {
+          List<LineFragment> fragments = manager.compareLinesInner(data.getText1(), data.getText2(),
+                                                                   Collections.singletonList(change.getFragment()),
+                                                                   config.policy, indicator);
+          refined.add(manager.processBlocks(fragments, data.getText1(), data.getText2(),
+                                            config.policy, config.squashFragments, config.trimFragments));
+        }
+
+        return new Runnable() {
+          @Override
+          public void run() {
+            applyRefinedChanges(data, changes, refined);
+          }
+        };
+      }
+    }, null, 0);
+  }
+
+  @RequiredDispatchThread
+  private void applyRefinedChanges(@NotNull DocumentData data,
+                                   @NotNull List<SimpleDiffChange> changes,
+                                   @NotNull List<List<LineFragment>> refined) {
+    if (myNotRefinedData != data) return;
+    if (myRefiningChanges == changes) myRefiningChanges = null;
+
+    for (int i = 0; i < changes.size(); i++) {
+      SimpleDiffChange change = changes.get(i);
+      if (!myNotRefinedChanges.remove(change)) continue;
+
+      int index = ContainerUtil.indexOfIdentity(myDiffChanges, change);
+      if (index == -1) continue;
+
+      change.destroyHighlighter();
+      myDiffChanges.remove(index);
+
+      List<SimpleDiffChange> newChanges = new ArrayList<SimpleDiffChange>();
+      for (LineFragment fragment : refined.get(i)) {
+        newChanges.add(new SimpleDiffChange(this, fragment, getHighlightPolicy().isFineFragments()));
+      }
+      myDiffChanges.addAll(index, newChanges);
+    }
+
+    myContentPanel.repaintDivider();
+    myStatusPanel.update();
+  }
+
+  /**
+   * @return start and end of the lines, shown in the editor
+   */
+  @NotNull
+  private int[] getVisibleLines(@NotNull Side side) {
+    EditorEx editor = getEditor(side);
+    Rectangle area = editor.getScrollingModel().getVisibleArea();
+    int start = editor.xyToLogicalPosition(new Point(0, area.y)).line;
+    int end = editor.xyToLogicalPosition(new Point(0, area.y + area.height)).line + 1;
+    return new int[]{start, end};
+  }
+
+  /**
+   * Changes are sorted by lines on both sides, so only the changes in the visible range are looked at.
+   */
+  private void collectVisibleNotRefinedChanges(@NotNull Side side, @NotNull Set<SimpleDiffChange> result) {
+    int[] visible = getVisibleLines(side);
+
+    // the first change ending after the start of the visible range
+    int low = 0;
+    int high = myDiffChanges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (myDiffChanges.get(middle).getEndLine(side) < visible[0]) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+
+    for (int i = low; i < myDiffChanges.size(); i++) {
+      SimpleDiffChange change = myDiffChanges.get(i);
+      if (change.getStartLine(side) > visible[1]) break;
+      if (myNotRefinedChanges.contains(change)) result.add(change);
+    }
+  }
+
+  private class MyRefinementVisibleAreaListener implements VisibleAreaListener {
+    @Override
+    public void visibleAreaChanged(VisibleAreaEvent e) {
+      if (myNotRefinedData == null || myNotRefinedChanges.isEmpty()) return;
+
+      myRefinementAlarm.cancelAllRequests();
+      myRefinementAlarm.addRequest(new Runnable() {
+        @Override
+        public void run() {
+          if (!isDisposed()) refineVisibleChanges();
+        }
+      }, REFINEMENT_DELAY);
+    }
+  }
+
   //
   // Getters
   //
@@ -834,10 +1031,12 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
   private static class CompareData {
     @Nullable private final List<LineFragment> myFragments;
     private final boolean myEqualContent;
+    @Nullable private final DocumentData myNotRefinedData;
 
-    public CompareData(@Nullable List<LineFragment> fragments, boolean equalContent) {
+    public CompareData(@Nullable List<LineFragment> fragments, boolean equalContent, @Nullable DocumentData notRefinedData) {
       myFragments = fragments;
       myEqualContent = equalContent;
+      myNotRefinedData = notRefinedData;
     }
 
     @Nullable
@@ -848,6 +1047,14 @@ public class SimpleDiffViewer extends TwosideTextDiffViewer {
     public boolean isEqualContent() {
       return myEqualContent;
     }
+
+    /**
+     * @return compared texts, if by-word comparison of the fragments was postponed
+     */
+    @Nullable
+    public DocumentData getNotRefinedData() {
+      return myNotRefinedData;
+    }
   }
 
   public class ModifierProvider extends KeyboardModifierListener {
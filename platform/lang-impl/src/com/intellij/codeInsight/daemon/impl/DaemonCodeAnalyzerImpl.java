@@ -98,6 +98,7 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
   private final Collection<VirtualFile> myDisabledHighlightingFiles = new THashSet<VirtualFile>();
 
   private final FileStatusMap myFileStatusMap;
+  private final HighlightingResultCache myHighlightingResultCache;
   private DaemonCodeAnalyzerSettings myLastSettings;
 
   private volatile IntentionHintComponent myLastIntentionHint;
@@ -126,6 +127,7 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
     myPassExecutorService = new PassExecutorService(project);
     Disposer.register(this, myPassExecutorService);
     Disposer.register(this, myFileStatusMap);
+    myHighlightingResultCache = new HighlightingResultCache(project, myFileStatusMap, this);
     DaemonProgressIndicator.setDebug(LOG.isDebugEnabled());
 
     assert !myInitialized : "Double Initializing";
@@ -466,6 +468,7 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
   @Override
   public void restart() {
     myFileStatusMap.markAllFilesDirty();
+    myHighlightingResultCache.clear();
     stopProcess(true, "Global restart");
   }
 
@@ -474,6 +477,10 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
     Document document = PsiDocumentManager.getInstance(myProject).getCachedDocument(file);
     if (document == null) return;
     myFileStatusMap.markFileScopeDirty(document, new TextRange(0, document.getTextLength()), file.getTextLength());
+    VirtualFile virtualFile = file.getVirtualFile();
+    if (virtualFile != null) {
+      myHighlightingResultCache.invalidate(virtualFile);
+    }
     stopProcess(true, "Psi file restart");
   }
 
@@ -738,6 +745,10 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
 
             Map<FileEditor, HighlightingPass[]> passes = new THashMap<FileEditor, HighlightingPass[]>(activeEditors.size());
             for (FileEditor fileEditor : activeEditors) {
+              if (fileEditor instanceof TextEditor) {
+                Editor editor = ((TextEditor)fileEditor).getEditor();
+                myHighlightingResultCache.restore(editor.getDocument(), editor.getColorsScheme());
+              }
               BackgroundEditorHighlighter highlighter = fileEditor.getBackgroundHighlighter();
               if (highlighter != null) {
                 HighlightingPass[] highlightingPasses = highlighter.createPassesForEditor();
@@ -769,6 +780,7 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
       @Override
       public void stopIfRunning() {
         super.stopIfRunning();
+        rememberHighlightingResults();
         myProject.getMessageBus().syncPublisher(DAEMON_EVENT_TOPIC).daemonFinished();
       }
     };
@@ -777,6 +789,15 @@ public class DaemonCodeAnalyzerImpl extends DaemonCodeAnalyzerEx implements JDOM
     return progress;
   }
 
+  private void rememberHighlightingResults() {
+    if (myDisposed || myProject.isDisposed()) return;
+    for (FileEditor fileEditor : getSelectedEditors()) {
+      if (fileEditor instanceof TextEditor) {
+        myHighlightingResultCache.remember(((TextEditor)fileEditor).getEditor().getDocument());
+      }
+    }
+  }
+
   @Override
   public void autoImportReferenceAtCursor(@NotNull Editor editor, @NotNull PsiFile file) {
     for (ReferenceImporter importer : Extensions.getExtensions(ReferenceImporter.EP_NAME)) {
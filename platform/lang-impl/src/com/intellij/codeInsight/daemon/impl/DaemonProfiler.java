@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.fileTypes.FileType;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects wall time, CPU time, allocations and cancellations of highlighting passes and inspection tools, aggregated per file type,
+ * so that the offenders can be found and disabled. Measurements are cheap enough to be taken always.
+ * <p/>
+ * A measurement must be started and finished on the same thread, since CPU time and allocations are per-thread counters.
+ *
+ * @see PassExecutorService
+ * @see LocalInspectionsPass
+ */
+public class DaemonProfiler {
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME_SUPPORTED = THREAD_BEAN.isCurrentThreadCpuTimeSupported();
+  private static final boolean ALLOCATION_SUPPORTED = THREAD_BEAN instanceof com.sun.management.ThreadMXBean &&
+                                                      ((com.sun.management.ThreadMXBean)THREAD_BEAN).isThreadAllocatedMemorySupported();
+
+  // file type name -> pass or tool name -> stats
+  private final Map<String, Map<String, Stats>> myPasses = new THashMap<String, Map<String, Stats>>(); // guarded by this
+  private final Map<String, Map<String, Stats>> myInspections = new THashMap<String, Map<String, Stats>>(); // guarded by this
+
+  public static DaemonProfiler getInstance() {
+    return ServiceManager.getService(DaemonProfiler.class);
+  }
+
+  @NotNull
+  public static Measurement start() {
+    return new Measurement(System.nanoTime(), getCpuTime(), getAllocatedBytes());
+  }
+
+  public void passFinished(@NotNull String passName, @Nullable FileType fileType, @NotNull Measurement measurement, boolean canceled) {
+    record(myPasses, passName, fileType, measurement, canceled);
+  }
+
+  public void passApplied(@NotNull String passName, @Nullable FileType fileType, long applyNanos) {
+    synchronized (this) {
+      getStats(myPasses, passName, fileType).applyNanos += applyNanos;
+    }
+  }
+
+  public void inspectionFinished(@NotNull String toolName, @Nullable FileType fileType, @NotNull Measurement measurement, boolean canceled) {
+    record(myInspections, toolName, fileType, measurement, canceled);
+  }
+
+  private void record(@NotNull Map<String, Map<String, Stats>> map,
+                      @NotNull String name,
+                      @Nullable FileType fileType,
+                      @NotNull Measurement measurement,
+                      boolean canceled) {
+    long wall = System.nanoTime() - measurement.myWallStart;
+    long cpu = measurement.myCpuStart < 0 ? 0 : getCpuTime() - measurement.myCpuStart;
+    long allocated = measurement.myAllocatedStart < 0 ? 0 : getAllocatedBytes() - measurement.myAllocatedStart;
+    synchronized (this) {
+      Stats stats = getStats(map, name, fileType);
+      stats.runs++;
+      stats.wallNanos += wall;
+      stats.cpuNanos += cpu;
+      stats.allocatedBytes += allocated;
+      if (canceled) stats.cancellations++;
+    }
+  }
+
+  @NotNull
+  private static Stats getStats(@NotNull Map<String, Map<String, Stats>> map, @NotNull String name, @Nullable FileType fileType) {
+    String fileTypeName = fileType == null ? "<unknown>" : fileType.getName();
+    Map<String, Stats> byName = map.get(fileTypeName);
+    if (byName == null) {
+      byName = new THashMap<String, Stats>();
+      map.put(fileTypeName, byName);
+    }
+    Stats stats = byName.get(name);
+    if (stats == null) {
+      stats = new Stats(name);
+      byName.put(name, stats);
+    }
+    return stats;
+  }
+
+  public synchronized void reset() {
+    myPasses.clear();
+    myInspections.clear();
+  }
+
+  /**
+   * @return human-readable report grouped by file type, the most expensive passes and tools first
+   */
+  @NotNull
+  public synchronized String getReport() {
+    StringBuilder report = new StringBuilder();
+    appendSection(report, "Highlighting passes", myPasses, true);
+    appendSection(report, "Inspections", myInspections, false);
+    return report.toString();
+  }
+
+  private static void appendSection(@NotNull StringBuilder report,
+                                    @NotNull String title,
+                                    @NotNull Map<String, Map<String, Stats>> map,
+                                    boolean withApplyTime) {
+    report.append(title).append(":\n");
+    List<String> fileTypes = new ArrayList<String>(map.keySet());
+    Collections.sort(fileTypes);
+    for (String fileType : fileTypes) {
+      report.append("  ").append(fileType).append(":\n");
+      List<Stats> all = new ArrayList<Stats>(map.get(fileType).values());
+      Collections.sort(all, new Comparator<Stats>() {
+        @Override
+        public int compare(Stats o1, Stats o2) {
+          return o1.wallNanos < o2.wallNanos ? 1 : o1.wallNanos == o2.wallNanos ? 0 : -1;
+        }
+      });
+      for (Stats stats : all) {
+        report.append("    ").append(stats.name)
+          .append(": runs=").append(stats.runs)
+          .append(", wall=").append(toMillis(stats.wallNanos)).append("ms")
+          .append(", cpu=").append(CPU_TIME_SUPPORTED ? toMillis(stats.cpuNanos) + "ms" : "n/a")
+          .append(", allocated=").append(ALLOCATION_SUPPORTED ? stats.allocatedBytes / 1024 + "K" : "n/a")
+          .append(", canceled=").append(stats.cancellations);
+        if (withApplyTime) {
+          report.append(", apply=").append(toMillis(stats.applyNanos)).append("ms");
+        }
+        report.append("\n");
+      }
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  private static long getCpuTime() {
+    return CPU_TIME_SUPPORTED ? THREAD_BEAN.getCurrentThreadCpuTime() : -1;
+  }
+
+  private static long getAllocatedBytes() {
+    return ALLOCATION_SUPPORTED ? ((com.sun.management.ThreadMXBean)THREAD_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+  }
+
+  public static class Measurement {
+    private final long myWallStart;
+    private final long myCpuStart;
+    private final long myAllocatedStart;
+
+    private Measurement(long wallStart, long cpuStart, long allocatedStart) {
+      myWallStart = wallStart;
+      myCpuStart = cpuStart;
+      myAllocatedStart = allocatedStart;
+    }
+
+    public long getWallNanos() {
+      return System.nanoTime() - myWallStart;
+    }
+  }
+
+  private static class Stats {
+    private final String name;
+    private int runs;
+    private int cancellations;
+    private long wallNanos;
+    private long cpuNanos;
+    private long allocatedBytes;
+    private long applyNanos;
+
+    private Stats(@NotNull String name) {
+      this.name = name;
+    }
+  }
+}
@@ -17,13 +17,18 @@
 package com.intellij.codeInsight.daemon.impl;
 
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.progress.StandardProgressIndicator;
 import com.intellij.openapi.progress.util.AbstractProgressIndicatorBase;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.TraceableDisposable;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * @author cdr
  */
@@ -31,6 +36,8 @@ public class DaemonProgressIndicator extends AbstractProgressIndicatorBase imple
   private static boolean debug;
   private final TraceableDisposable myTraceableDisposable = new TraceableDisposable(debug ? new Throwable() : null);
   private volatile boolean myDisposed;
+  private volatile long myStartTime;
+  private final Set<Document> myVisibleHighlightingReported = Collections.synchronizedSet(new THashSet<Document>());
 
   @Override
   public synchronized void stop() {
@@ -79,9 +86,24 @@ public class DaemonProgressIndicator extends AbstractProgressIndicatorBase imple
   public void start() {
     assert !isCanceled() : "canceled";
     assert !isRunning() : "running";
+    myStartTime = System.currentTimeMillis();
     super.start();
   }
 
+  /**
+   * @return the moment this session was started, in {@link System#currentTimeMillis()} terms
+   */
+  public long getStartTime() {
+    return myStartTime;
+  }
+
+  /**
+   * @return true if visible highlighting for the document was not reported in this session yet
+   */
+  boolean markVisibleHighlightingApplied(@NotNull Document document) {
+    return myVisibleHighlightingReported.add(document);
+  }
+
   @TestOnly
   static void setDebug(boolean debug) {
     DaemonProgressIndicator.debug = debug;
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.util.messages.Topic;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EventListener;
+
+/**
+ * Reports how long it takes the daemon to show highlighting results. All times are measured from the start of the daemon session
+ * (see {@link DaemonProgressIndicator#getStartTime()}). Events are published to the project message bus in EDT.
+ */
+public interface DaemonTimingListener extends EventListener {
+  Topic<DaemonTimingListener> TOPIC = Topic.create("Daemon timings", DaemonTimingListener.class);
+
+  /**
+   * Highlighting results for the visible part of the document have been applied to the editor for the first time in the session.
+   */
+  void visibleHighlightingApplied(@NotNull Document document, long millisSinceStart);
+
+  /**
+   * All passes of the session have applied their results.
+   */
+  void allPassesApplied(long millisSinceStart);
+}
@@ -24,6 +24,7 @@ import com.intellij.openapi.editor.ex.MarkupModelEx;
 import com.intellij.openapi.editor.impl.DocumentMarkupModel;
 import com.intellij.openapi.editor.impl.EditorMarkupModelImpl;
 import com.intellij.openapi.editor.markup.MarkupModel;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.ProperTextRange;
 import com.intellij.openapi.util.TextRange;
@@ -69,11 +70,22 @@ public class DefaultHighlightInfoProcessor extends HighlightInfoProcessor {
           if (editor != null) {
             DaemonListeners.repaintErrorStripeRenderer(editor, project);
           }
+          reportVisibleHighlightingApplied(highlightingSession, document);
         }
       });
     }
   }
 
+  private static void reportVisibleHighlightingApplied(@NotNull HighlightingSession highlightingSession, @NotNull Document document) {
+    ProgressIndicator indicator = highlightingSession.getProgressIndicator();
+    if (!(indicator instanceof DaemonProgressIndicator)) return;
+    DaemonProgressIndicator progress = (DaemonProgressIndicator)indicator;
+    if (progress.markVisibleHighlightingApplied(document)) {
+      long elapsed = System.currentTimeMillis() - progress.getStartTime();
+      highlightingSession.getProject().getMessageBus().syncPublisher(DaemonTimingListener.TOPIC).visibleHighlightingApplied(document, elapsed);
+    }
+  }
+
   private static void showAutoImportPopups(Editor editor, Project project, PsiFile psiFile) {
     // usability: show auto import popup as soon as possible
     if (editor != null) {
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeInsight.daemon.GutterMark;
+import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.lang.annotation.ProblemGroup;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.GutterIconRenderer;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.Processor;
+import com.intellij.util.containers.SLRUMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers highlighting and inspection results of recently analyzed files, so that reopening a file or switching back to its tab
+ * does not rerun {@link GeneralHighlightingPass} and {@link LocalInspectionsPass} from scratch while nothing has changed.
+ * <p/>
+ * Results are valid as long as the document and PSI modification stamps of the file and the project-wide out-of-code-block
+ * modification count are the same as at the moment they were remembered.
+ * <p/>
+ * The presentation of the highlights is kept (range, severity, attributes, description and tooltip) together with their quick fixes,
+ * gutter icons and problem groups, never the {@link HighlightInfo}s themselves, which are bound to the highlighters of the markup model.
+ * The fixes refer to the PSI they were created for, so they are attached to the restored highlights only if the file still has the same
+ * PSI; they are checked for availability when shown, as usual. Otherwise, or if the file had file level annotations, the restored
+ * highlights are shown until the passes, which are still run for the file, replace them. The cache is bounded and cleared on low memory,
+ * and the entry of a file is dropped as soon as the file is restarted, so the fixes don't retain stale PSI for long.
+ *
+ * @see DaemonCodeAnalyzerImpl
+ */
+public class HighlightingResultCache {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInsight.daemon.impl.HighlightingResultCache");
+  private static final int[] CACHED_GROUPS = {Pass.UPDATE_ALL, Pass.LOCAL_INSPECTIONS};
+
+  private final Project myProject;
+  private final FileStatusMap myFileStatusMap;
+  private final SLRUMap<VirtualFile, CachedResult> myCache; // guarded by itself
+
+  public HighlightingResultCache(@NotNull Project project, @NotNull FileStatusMap fileStatusMap, @NotNull Disposable parentDisposable) {
+    myProject = project;
+    myFileStatusMap = fileStatusMap;
+    int size = Math.max(1, Registry.intValue("daemon.highlighting.cache.size"));
+    myCache = new SLRUMap<VirtualFile, CachedResult>(size, size);
+    LowMemoryWatcher.register(new Runnable() {
+      @Override
+      public void run() {
+        clear();
+      }
+    }, parentDisposable);
+  }
+
+  /**
+   * Remembers highlighting results currently present in the document markup model, provided that all passes for the document have finished.
+   * Should be called in EDT after all passes have applied their results.
+   */
+  public void remember(@NotNull Document document) {
+    if (!myFileStatusMap.allDirtyScopesAreNull(document)) return;
+    VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
+    PsiFile psiFile = PsiDocumentManager.getInstance(myProject).getCachedPsiFile(document);
+    Stamp stamp = getStamp(document);
+    if (virtualFile == null || psiFile == null || stamp == null) return;
+
+    final List<CachedHighlight> highlights = new ArrayList<CachedHighlight>();
+    final boolean[] complete = {true};
+    DaemonCodeAnalyzerEx.processHighlights(document, myProject, null, 0, document.getTextLength(), new Processor<HighlightInfo>() {
+      @Override
+      public boolean process(HighlightInfo info) {
+        if (isCachedGroup(info.getGroup())) {
+          GutterMark gutterMark = info.getGutterIconRenderer();
+          if (info.isFileLevelAnnotation() || gutterMark != null && !(gutterMark instanceof GutterIconRenderer)) {
+            complete[0] = false;
+          }
+          else {
+            highlights.add(new CachedHighlight(info));
+          }
+        }
+        return true;
+      }
+    });
+    synchronized (myCache) {
+      myCache.put(virtualFile, new CachedResult(stamp, psiFile, highlights, complete[0], myFileStatusMap.wasErrorFound(document)));
+    }
+  }
+
+  /**
+   * Applies remembered results to the document if the whole document is dirty and nothing has changed since the results were remembered.
+   * If the results are complete, i.e. the file has the same PSI the quick fixes were created for and none of the highlights had data
+   * which can't be restored, the passes whose results were restored are marked up to date, so they will not be created for the document.
+   *
+   * @return true if the passes were marked up to date
+   */
+  public boolean restore(@NotNull Document document, @Nullable EditorColorsScheme colorsScheme) {
+    VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
+    if (virtualFile == null) return false;
+    CachedResult cached;
+    synchronized (myCache) {
+      cached = myCache.get(virtualFile);
+    }
+    if (cached == null) return false;
+    if (!cached.stamp.equals(getStamp(document))) {
+      invalidate(virtualFile);
+      return false;
+    }
+    TextRange wholeDocument = TextRange.from(0, document.getTextLength());
+    for (int group : CACHED_GROUPS) {
+      if (!wholeDocument.equals(myFileStatusMap.getFileDirtyScope(document, group))) return false;
+    }
+
+    PsiFile psiFile = PsiDocumentManager.getInstance(myProject).getCachedPsiFile(document);
+    boolean samePsi = psiFile != null && psiFile == cached.psiFile.get();
+    boolean complete = cached.complete && samePsi;
+    for (int group : CACHED_GROUPS) {
+      List<HighlightInfo> infos = new ArrayList<HighlightInfo>();
+      for (CachedHighlight highlight : cached.highlights) {
+        if (highlight.myGroup == group) {
+          infos.add(highlight.createInfo(samePsi));
+        }
+      }
+      UpdateHighlightersUtil.setHighlightersToEditor(myProject, document, 0, document.getTextLength(), infos, colorsScheme, group);
+      if (complete) {
+        myFileStatusMap.markFileUpToDate(document, group);
+      }
+    }
+    if (complete) {
+      myFileStatusMap.setErrorFoundFlag(document, cached.errorFound);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Restored " + cached.highlights.size() + " highlights for " + virtualFile + (complete ? "" : ", passes will be rerun"));
+    }
+    return complete;
+  }
+
+  public void invalidate(@NotNull VirtualFile virtualFile) {
+    synchronized (myCache) {
+      myCache.remove(virtualFile);
+    }
+  }
+
+  public void clear() {
+    synchronized (myCache) {
+      myCache.clear();
+    }
+  }
+
+  private static boolean isCachedGroup(int group) {
+    for (int cachedGroup : CACHED_GROUPS) {
+      if (cachedGroup == group) return true;
+    }
+    return false;
+  }
+
+  @Nullable
+  private Stamp getStamp(@NotNull Document document) {
+    PsiFile psiFile = PsiDocumentManager.getInstance(myProject).getCachedPsiFile(document);
+    if (psiFile == null) return null;
+    long outOfCodeBlockCount = PsiModificationTracker.SERVICE.getInstance(myProject).getOutOfCodeBlockModificationCount();
+    return new Stamp(document.getModificationStamp(), psiFile.getModificationStamp(), outOfCodeBlockCount);
+  }
+
+  private static class Stamp {
+    private final long myDocumentStamp;
+    private final long myPsiStamp;
+    private final long myOutOfCodeBlockCount;
+
+    private Stamp(long documentStamp, long psiStamp, long outOfCodeBlockCount) {
+      myDocumentStamp = documentStamp;
+      myPsiStamp = psiStamp;
+      myOutOfCodeBlockCount = outOfCodeBlockCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Stamp stamp = (Stamp)o;
+      return myDocumentStamp == stamp.myDocumentStamp &&
+             myPsiStamp == stamp.myPsiStamp &&
+             myOutOfCodeBlockCount == stamp.myOutOfCodeBlockCount;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int)(myDocumentStamp ^ (myDocumentStamp >>> 32));
+      result = 31 * result + (int)(myPsiStamp ^ (myPsiStamp >>> 32));
+      result = 31 * result + (int)(myOutOfCodeBlockCount ^ (myOutOfCodeBlockCount >>> 32));
+      return result;
+    }
+  }
+
+  private static class CachedResult {
+    private final Stamp stamp;
+    private final WeakReference<PsiFile> psiFile;
+    private final List<CachedHighlight> highlights;
+    private final boolean complete;
+    private final boolean errorFound;
+
+    private CachedResult(@NotNull Stamp stamp,
+                         @NotNull PsiFile psiFile,
+                         @NotNull List<CachedHighlight> highlights,
+                         boolean complete,
+                         boolean errorFound) {
+      this.stamp = stamp;
+      this.psiFile = new WeakReference<PsiFile>(psiFile);
+      this.highlights = highlights;
+      this.complete = complete;
+      this.errorFound = errorFound;
+    }
+  }
+
+  /**
+   * Presentation and actions of a highlight, from which an equivalent {@link HighlightInfo} is created.
+   */
+  private static class CachedHighlight {
+    private final HighlightInfoType myType;
+    private final HighlightSeverity mySeverity;
+    private final int myGroup;
+    private final int myStartOffset;
+    private final int myEndOffset;
+    private final String myDescription;
+    private final String myToolTip;
+    private final TextAttributes myForcedTextAttributes;
+    private final TextAttributesKey myForcedTextAttributesKey;
+    private final int myNavigationShift;
+    private final boolean myAfterEndOfLine;
+    private final boolean myNeedsUpdateOnTyping;
+    private final boolean myFromInjection;
+    private final List<Pair<HighlightInfo.IntentionActionDescriptor, TextRange>> myFixes;
+    private final GutterIconRenderer myGutterIconRenderer;
+    private final ProblemGroup myProblemGroup;
+
+    private CachedHighlight(@NotNull HighlightInfo info) {
+      myType = info.type;
+      mySeverity = info.getSeverity();
+      myGroup = info.getGroup();
+      myStartOffset = info.getStartOffset();
+      myEndOffset = info.getEndOffset();
+      myDescription = info.getDescription();
+      myToolTip = info.getToolTip();
+      myForcedTextAttributes = info.forcedTextAttributes == null ? null : info.forcedTextAttributes.clone();
+      myForcedTextAttributesKey = info.forcedTextAttributesKey;
+      myNavigationShift = info.navigationShift;
+      myAfterEndOfLine = info.isAfterEndOfLine();
+      myNeedsUpdateOnTyping = info.needUpdateOnTyping();
+      myFromInjection = info.isFromInjection();
+      List<Pair<HighlightInfo.IntentionActionDescriptor, TextRange>> fixes = info.quickFixActionRanges;
+      myFixes = fixes == null || fixes.isEmpty() ? null : new ArrayList<Pair<HighlightInfo.IntentionActionDescriptor, TextRange>>(fixes);
+      myGutterIconRenderer = (GutterIconRenderer)info.getGutterIconRenderer();
+      myProblemGroup = info.getProblemGroup();
+    }
+
+    /**
+     * @param withActions whether to attach the quick fixes, the gutter icon and the problem group, which may refer to the PSI
+     */
+    @NotNull
+    private HighlightInfo createInfo(boolean withActions) {
+      HighlightInfo.Builder builder = HighlightInfo.newHighlightInfo(myType)
+        .range(myStartOffset, myEndOffset)
+        .severity(mySeverity)
+        .navigationShift(myNavigationShift)
+        .needsUpdateOnTyping(myNeedsUpdateOnTyping);
+      if (myDescription != null) builder.description(myDescription);
+      if (myToolTip != null) builder.escapedToolTip(myToolTip);
+      if (myForcedTextAttributes != null) {
+        builder.textAttributes(myForcedTextAttributes);
+      }
+      else if (myForcedTextAttributesKey != null) {
+        builder.textAttributes(myForcedTextAttributesKey);
+      }
+      if (myAfterEndOfLine) builder.endOfLine();
+      if (withActions) {
+        if (myGutterIconRenderer != null) builder.gutterIconRenderer(myGutterIconRenderer);
+        if (myProblemGroup != null) builder.problemGroup(myProblemGroup);
+      }
+      HighlightInfo info = builder.createUnconditionally();
+      info.setGroup(myGroup);
+      info.setFromInjection(myFromInjection);
+      if (withActions && myFixes != null) {
+        for (Pair<HighlightInfo.IntentionActionDescriptor, TextRange> fix : myFixes) {
+          info.registerFix(fix.first, fix.second);
+        }
+      }
+      return info;
+    }
+  }
+}
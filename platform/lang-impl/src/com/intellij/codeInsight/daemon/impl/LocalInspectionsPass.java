@@ -62,6 +62,8 @@ import com.intellij.util.ui.UIUtil;
 import com.intellij.xml.util.XmlStringUtil;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
+import gnu.trove.TObjectLongHashMap;
+import gnu.trove.TObjectLongProcedure;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -92,6 +94,8 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
   private final SeverityRegistrar mySeverityRegistrar;
   private final InspectionProfileWrapper myProfileWrapper;
   private boolean myFailFastOnAcquireReadAction;
+  // tool short name -> nanoseconds spent running the tool in this pass, summed over all threads
+  private final TObjectLongHashMap<String> myToolTimes = new TObjectLongHashMap<String>();
 
   public LocalInspectionsPass(@NotNull PsiFile file,
                               @Nullable Document document,
@@ -155,7 +159,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     addDescriptorsFromInjectedResults(iManager, context);
     List<InspectionResult> resultList = result.get(myFile);
     if (resultList == null) return;
-    for (InspectionResult inspectionResult : resultList) {
+    for (InspectionResult inspectionResult : sortByTool(resultList)) {
       LocalInspectionToolWrapper toolWrapper = inspectionResult.tool;
       for (ProblemDescriptor descriptor : inspectionResult.foundProblems) {
         addDescriptors(toolWrapper, descriptor, context);
@@ -163,6 +167,25 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     }
   }
 
+  /**
+   * Tools run concurrently and append their results in the order they finish; sorting makes the produced highlights
+   * independent of the thread timings. The sort is stable, so results of one tool stay in the order they were found.
+   */
+  @NotNull
+  private static List<InspectionResult> sortByTool(@NotNull List<InspectionResult> resultList) {
+    List<InspectionResult> sorted;
+    synchronized (resultList) {
+      sorted = new ArrayList<InspectionResult>(resultList);
+    }
+    Collections.sort(sorted, new Comparator<InspectionResult>() {
+      @Override
+      public int compare(InspectionResult o1, InspectionResult o2) {
+        return o1.tool.getShortName().compareTo(o2.tool.getShortName());
+      }
+    });
+    return sorted;
+  }
+
   private void addDescriptors(@NotNull LocalInspectionToolWrapper toolWrapper,
                               @NotNull ProblemDescriptor descriptor,
                               @NotNull GlobalInspectionContextImpl context) {
@@ -237,6 +260,49 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
 
     myInfos = new ArrayList<HighlightInfo>();
     addHighlightsFromResults(myInfos, progress);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Inspection times for " + myFile + ":\n" + getToolTimesReport());
+    }
+  }
+
+  private void addToolTime(@NotNull LocalInspectionToolWrapper toolWrapper,
+                           @NotNull DaemonProfiler.Measurement measurement,
+                           @NotNull ProgressIndicator indicator) {
+    long nanos = measurement.getWallNanos();
+    synchronized (myToolTimes) {
+      if (!myToolTimes.adjustValue(toolWrapper.getShortName(), nanos)) {
+        myToolTimes.put(toolWrapper.getShortName(), nanos);
+      }
+    }
+    DaemonProfiler.getInstance().inspectionFinished(toolWrapper.getShortName(), myFile.getFileType(), measurement, indicator.isCanceled());
+  }
+
+  /**
+   * @return time in milliseconds spent by each inspection tool during this pass, the most expensive tools first
+   */
+  @NotNull
+  public String getToolTimesReport() {
+    final List<Pair<String, Long>> times = new ArrayList<Pair<String, Long>>();
+    synchronized (myToolTimes) {
+      myToolTimes.forEachEntry(new TObjectLongProcedure<String>() {
+        @Override
+        public boolean execute(String toolName, long nanos) {
+          times.add(Pair.create(toolName, nanos));
+          return true;
+        }
+      });
+    }
+    Collections.sort(times, new Comparator<Pair<String, Long>>() {
+      @Override
+      public int compare(Pair<String, Long> o1, Pair<String, Long> o2) {
+        return o2.second.compareTo(o1.second);
+      }
+    });
+    StringBuilder report = new StringBuilder();
+    for (Pair<String, Long> time : times) {
+      report.append(time.first).append(": ").append(time.second / 1000000).append("ms\n");
+    }
+    return report.toString();
   }
 
   @NotNull
@@ -335,7 +401,14 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
         }
       }
     };
-    PsiElementVisitor visitor = InspectionEngine.createVisitorAndAcceptElements(tool, holder, isOnTheFly, session, elements, languages);
+    DaemonProfiler.Measurement measurement = DaemonProfiler.start();
+    PsiElementVisitor visitor;
+    try {
+      visitor = InspectionEngine.createVisitorAndAcceptElements(tool, holder, isOnTheFly, session, elements, languages);
+    }
+    finally {
+      addToolTime(toolWrapper, measurement, indicator);
+    }
 
     synchronized (init) {
       init.add(new InspectionContext(toolWrapper, holder, visitor, languages));
@@ -359,9 +432,15 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
         public boolean process(InspectionContext context) {
           indicator.checkCanceled();
           ApplicationManager.getApplication().assertReadAccessAllowed();
-          InspectionEngine.acceptElements(elements, context.visitor, context.languageIds);
-          advanceProgress(1);
-          context.tool.getTool().inspectionFinished(session, context.holder);
+          DaemonProfiler.Measurement measurement = DaemonProfiler.start();
+          try {
+            InspectionEngine.acceptElements(elements, context.visitor, context.languageIds);
+            advanceProgress(1);
+            context.tool.getTool().inspectionFinished(session, context.holder);
+          }
+          finally {
+            addToolTime(context.tool, measurement, indicator);
+          }
 
           if (context.holder.hasResults()) {
             appendDescriptors(myFile, context.holder.getResults(), context.tool);
@@ -513,17 +592,14 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
       PsiFile file = entry.getKey();
       Document documentRange = documentManager.getDocument(file);
       if (documentRange == null) continue;
-      List<InspectionResult> resultList = entry.getValue();
-      synchronized (resultList) {
-        for (InspectionResult inspectionResult : resultList) {
+      for (InspectionResult inspectionResult : sortByTool(entry.getValue())) {
+        indicator.checkCanceled();
+        LocalInspectionToolWrapper tool = inspectionResult.tool;
+        HighlightSeverity severity = inspectionProfile.getErrorLevel(HighlightDisplayKey.find(tool.getShortName()), file).getSeverity();
+        for (ProblemDescriptor descriptor : inspectionResult.foundProblems) {
           indicator.checkCanceled();
-          LocalInspectionToolWrapper tool = inspectionResult.tool;
-          HighlightSeverity severity = inspectionProfile.getErrorLevel(HighlightDisplayKey.find(tool.getShortName()), file).getSeverity();
-          for (ProblemDescriptor descriptor : inspectionResult.foundProblems) {
-            indicator.checkCanceled();
-            PsiElement element = descriptor.getPsiElement();
-            createHighlightsForDescriptor(outInfos, emptyActionRegistered, ilManager, file, documentRange, tool, severity, descriptor, element);
-          }
+          PsiElement element = descriptor.getPsiElement();
+          createHighlightsForDescriptor(outInfos, emptyActionRegistered, ilManager, file, documentRange, tool, severity, descriptor, element);
         }
       }
     }
@@ -735,8 +811,14 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
 
       LocalInspectionToolSession injSession = new LocalInspectionToolSession(injectedPsi, 0, injectedPsi.getTextLength());
       Collection<String> languages = pair.getValue();
-      InspectionEngine.createVisitorAndAcceptElements(tool, holder, isOnTheFly, injSession, elements, languages);
-      tool.inspectionFinished(injSession, holder);
+      DaemonProfiler.Measurement measurement = DaemonProfiler.start();
+      try {
+        InspectionEngine.createVisitorAndAcceptElements(tool, holder, isOnTheFly, injSession, elements, languages);
+        tool.inspectionFinished(injSession, holder);
+      }
+      finally {
+        addToolTime(wrapper, measurement, indicator);
+      }
       List<ProblemDescriptor> problems = holder.getResults();
       if (!problems.isEmpty()) {
         appendDescriptors(injectedPsi, problems, wrapper);
@@ -33,6 +33,7 @@ import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.TextEditor;
+import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
@@ -53,6 +54,7 @@ import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TIntObjectProcedure;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.util.*;
@@ -173,6 +175,9 @@ public class PassExecutorService implements Disposable {
       assertConsistency(freePasses, toBeSubmitted, threadsToStartCountdown);
     }
 
+    // passes for the editor the user is looking at go first, so that its visible part gets highlighted as soon as possible
+    sortByEditorPriority(freePasses);
+
     log(updateProgress, null, "---------------------starting------------------------ " + threadsToStartCountdown.get(), freePasses);
 
     for (ScheduledPass dependentPass : dependentPasses) {
@@ -220,6 +225,21 @@ public class PassExecutorService implements Disposable {
     }
   }
 
+  private void sortByEditorPriority(@NotNull List<ScheduledPass> passes) {
+    final Editor focusedEditor = FileEditorManager.getInstance(myProject).getSelectedTextEditor();
+    if (focusedEditor == null) return;
+    Collections.sort(passes, new Comparator<ScheduledPass>() {
+      @Override
+      public int compare(ScheduledPass o1, ScheduledPass o2) {
+        return getEditorRank(o1.myFileEditor, focusedEditor) - getEditorRank(o2.myFileEditor, focusedEditor);
+      }
+    });
+  }
+
+  private static int getEditorRank(@NotNull FileEditor fileEditor, @NotNull Editor focusedEditor) {
+    return fileEditor instanceof TextEditor && ((TextEditor)fileEditor).getEditor() == focusedEditor ? 0 : 1;
+  }
+
   @NotNull
   private TextEditorHighlightingPass convertToTextHighlightingPass(@NotNull final HighlightingPass pass,
                                                                    final Document document,
@@ -423,7 +443,16 @@ public class PassExecutorService implements Disposable {
                 }
 
                 if (!myUpdateProgress.isCanceled()) {
-                  myPass.collectInformation(myUpdateProgress);
+                  DaemonProfiler.Measurement measurement = DaemonProfiler.start();
+                  boolean finished = false;
+                  try {
+                    myPass.collectInformation(myUpdateProgress);
+                    finished = true;
+                  }
+                  finally {
+                    DaemonProfiler.getInstance().passFinished(getPassName(myPass), getFileType(myPass), measurement,
+                                                              !finished || myUpdateProgress.isCanceled());
+                  }
                 }
               }
               catch (ProcessCanceledException e) {
@@ -499,7 +528,9 @@ public class PassExecutorService implements Disposable {
         try {
           if (fileEditor.getComponent().isDisplayable() || ApplicationManager.getApplication().isUnitTestMode()) {
             log(updateProgress, pass, " Applied");
+            long start = System.nanoTime();
             pass.applyInformationToEditor();
+            DaemonProfiler.getInstance().passApplied(getPassName(pass), getFileType(pass), System.nanoTime() - start);
           }
         }
         catch (RuntimeException e) {
@@ -508,6 +539,8 @@ public class PassExecutorService implements Disposable {
         }
         if (threadsToStartCountdown.decrementAndGet() == 0) {
           log(updateProgress, pass, "Stopping ");
+          long elapsed = System.currentTimeMillis() - updateProgress.getStartTime();
+          myProject.getMessageBus().syncPublisher(DaemonTimingListener.TOPIC).allPassesApplied(elapsed);
           updateProgress.stopIfRunning();
         }
         else {
@@ -521,6 +554,18 @@ public class PassExecutorService implements Disposable {
     return isDisposed;
   }
 
+  @NotNull
+  private static String getPassName(@NotNull TextEditorHighlightingPass pass) {
+    return StringUtil.getShortName(pass.getClass().getName());
+  }
+
+  @Nullable
+  private static FileType getFileType(@NotNull TextEditorHighlightingPass pass) {
+    Document document = pass.getDocument();
+    VirtualFile file = document == null ? null : FileDocumentManager.getInstance().getFile(document);
+    return file == null ? null : file.getFileType();
+  }
+
   @NotNull
   public List<TextEditorHighlightingPass> getAllSubmittedPasses() {
     List<TextEditorHighlightingPass> result = new ArrayList<TextEditorHighlightingPass>(mySubmittedPasses.size());
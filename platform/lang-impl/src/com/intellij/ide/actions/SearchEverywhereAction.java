@@ -118,6 +118,10 @@ import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -1270,6 +1274,14 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
 
   enum WidgetID {CLASSES, FILES, ACTIONS, SETTINGS, SYMBOLS, RUN_CONFIGURATIONS}
 
+  private static final int RUN_CONFIGURATIONS_SLOT = 0;
+  private static final int CLASSES_SLOT = 1;
+  private static final int FILES_SLOT = 2;
+  private static final int SYMBOLS_SLOT = 3;
+  private static final int ACTIONS_AND_SETTINGS_SLOT = 4;
+  private static final int SLOTS_COUNT = 5;
+  private static final int TASK_POLL_INTERVAL_MS = 10;
+
   @SuppressWarnings("SSBasedInspection")
   private class CalcThread implements Runnable {
     private final Project project;
@@ -1279,6 +1291,9 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
     private final SearchListModel myListModel;
     private final ArrayList<VirtualFile> myAlreadyAddedFiles = new ArrayList<VirtualFile>();
     private final ArrayList<AnAction> myAlreadyAddedActions = new ArrayList<AnAction>();
+    private final List<Future<?>> myTasks = new ArrayList<Future<?>>();
+    private final Runnable[] mySlots = new Runnable[SLOTS_COUNT];
+    private int myNextSlot;
 
 
     public CalcThread(Project project, String pattern, boolean reuseModel) {
@@ -1342,32 +1357,55 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
           updatePopup();
           check();
 
-          runReadAction(new Runnable() {
+          runConcurrently(new Runnable() {
             @Override
             public void run() {
-              buildRunConfigurations(pattern);
+              runReadAction(new Runnable() {
+                @Override
+                public void run() {
+                  buildRunConfigurations(pattern);
+                }
+              }, true);
             }
-          }, true);
-          runReadAction(new Runnable() {
+          }, RUN_CONFIGURATIONS_SLOT);
+          runConcurrently(new Runnable() {
             @Override
             public void run() {
-              buildClasses(pattern);
+              // files are filtered against already found classes, so they have to go after them
+              runReadAction(new Runnable() {
+                @Override
+                public void run() {
+                  buildClasses(pattern);
+                }
+              }, true);
+              check();
+              runReadAction(new Runnable() {
+                @Override
+                public void run() {
+                  buildFiles(pattern);
+                }
+              }, false);
             }
-          }, true);
-          runReadAction(new Runnable() {
+          }, CLASSES_SLOT, FILES_SLOT);
+          runConcurrently(new Runnable() {
             @Override
             public void run() {
-              buildFiles(pattern);
+              runReadAction(new Runnable() {
+                @Override
+                public void run() {
+                  buildSymbols(pattern);
+                }
+              }, true);
             }
-          }, false);
-          runReadAction(new Runnable() {
+          }, SYMBOLS_SLOT);
+          runConcurrently(new Runnable() {
             @Override
             public void run() {
-              buildSymbols(pattern);
+              buildActionsAndSettings(pattern);
             }
-          }, true);
+          }, ACTIONS_AND_SETTINGS_SLOT);
 
-          buildActionsAndSettings(pattern);
+          waitForConcurrentTasks();
 
           updatePopup();
 
@@ -1382,6 +1420,8 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
         myDone.setRejected();
       }
       finally {
+        // workers must be finished before myDone is processed, otherwise resetFields() may dispose models they still use
+        awaitConcurrentTasks();
         if (!isCanceled()) {
           //noinspection SSBasedInspection
           SwingUtilities.invokeLater(new Runnable() {
@@ -1405,6 +1445,79 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
       }
     }
 
+    /**
+     * Runs a group of contributors on a pooled thread. Whatever happens to the task, the given slots are considered
+     * complete when it finishes, so that categories going after them can be shown.
+     */
+    private void runConcurrently(final Runnable task, final int... slots) {
+      myTasks.add(ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          }
+          catch (ProcessCanceledException ignore) {
+          }
+          catch (Exception e) {
+            LOG.error(e);
+          }
+          finally {
+            for (int slot : slots) {
+              publish(slot, null);
+            }
+          }
+        }
+      }));
+    }
+
+    /**
+     * Contributors finish in arbitrary order, but their results are appended to the list in category order:
+     * a category is shown as soon as it and all categories before it are ready.
+     */
+    private void publish(int slot, @Nullable Runnable addToModel) {
+      synchronized (mySlots) {
+        if (mySlots[slot] != null) return;
+        mySlots[slot] = addToModel == null ? EmptyRunnable.INSTANCE : addToModel;
+        while (myNextSlot < mySlots.length && mySlots[myNextSlot] != null) {
+          final Runnable ready = mySlots[myNextSlot++];
+          if (ready != EmptyRunnable.INSTANCE) {
+            SwingUtilities.invokeLater(ready);
+          }
+        }
+      }
+    }
+
+    private void waitForConcurrentTasks() {
+      for (Future<?> task : myTasks) {
+        while (true) {
+          try {
+            task.get(TASK_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            break;
+          }
+          catch (TimeoutException e) {
+            check();
+          }
+          catch (InterruptedException e) {
+            throw new ProcessCanceledException();
+          }
+          catch (ExecutionException e) {
+            LOG.error(e);
+            break;
+          }
+        }
+      }
+    }
+
+    private void awaitConcurrentTasks() {
+      for (Future<?> task : myTasks) {
+        try {
+          task.get();
+        }
+        catch (Exception ignore) {
+        }
+      }
+    }
+
     protected void check() {
       myProgressIndicator.checkCanceled();
       if (myDone.isRejected()) throw new ProcessCanceledException();
@@ -1475,13 +1588,13 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
       return result;
     }
 
-    private synchronized void buildActionsAndSettings(String pattern) {
+    private void buildActionsAndSettings(String pattern) {
       final SearchResult actions = getActionsOrSettings(pattern, MAX_ACTIONS, true);
       final SearchResult settings = getActionsOrSettings(pattern, MAX_SETTINGS, false);
 
       check();
 
-      SwingUtilities.invokeLater(new Runnable() {
+      publish(ACTIONS_AND_SETTINGS_SLOT, new Runnable() {
         @Override
         public void run() {
           if (isCanceled()) return;
@@ -1503,13 +1616,13 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
       });
     }
 
-    private synchronized void buildFiles(final String pattern) {
+    private void buildFiles(final String pattern) {
       final SearchResult files = getFiles(pattern, MAX_FILES, myFileChooseByName);
 
       check();
 
       if (files.size() > 0) {
-        SwingUtilities.invokeLater(new Runnable() {
+        publish(FILES_SLOT, new Runnable() {
           @Override
           public void run() {
             if (isCanceled()) return;
@@ -1559,12 +1672,12 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
     }
 
 
-    private synchronized void buildSymbols(final String pattern) {
+    private void buildSymbols(final String pattern) {
       final SearchResult symbols = getSymbols(pattern, MAX_SYMBOLS, mySymbolsChooseByName);
       check();
 
       if (symbols.size() > 0) {
-        SwingUtilities.invokeLater(new Runnable() {
+        publish(SYMBOLS_SLOT, new Runnable() {
           @Override
           public void run() {
             if (isCanceled()) return;
@@ -1596,11 +1709,11 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
       return null;
     }
 
-    private synchronized void buildRunConfigurations(String pattern) {
+    private void buildRunConfigurations(String pattern) {
       final SearchResult runConfigurations = getConfigurations(pattern, MAX_RUN_CONFIGURATION);
 
       if (runConfigurations.size() > 0) {
-        SwingUtilities.invokeLater(new Runnable() {
+        publish(RUN_CONFIGURATIONS_SLOT, new Runnable() {
           @Override
           public void run() {
             if (isCanceled()) return;
@@ -1643,12 +1756,12 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
     }
 
 
-    private synchronized void buildClasses(final String pattern) {
+    private void buildClasses(final String pattern) {
       final SearchResult classes = getClasses(pattern, showAll.get(), MAX_CLASSES, myClassChooseByName);
       check();
 
       if (classes.size() > 0) {
-        SwingUtilities.invokeLater(new Runnable() {
+        publish(CLASSES_SLOT, new Runnable() {
           @Override
           public void run() {
             if (isCanceled()) return;
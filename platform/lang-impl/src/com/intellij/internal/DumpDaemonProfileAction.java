@@ -0,0 +1,57 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.codeInsight.daemon.impl.DaemonProfiler;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.fileChooser.FileChooser;
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the times, allocations and cancellations collected by {@link DaemonProfiler} to a file and starts collecting anew.
+ */
+public class DumpDaemonProfileAction extends AnAction implements DumbAware {
+  public DumpDaemonProfileAction() {
+    super("Dump Highlighting Profile");
+  }
+
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    final VirtualFile dir =
+      FileChooser.chooseFile(FileChooserDescriptorFactory.createSingleFolderDescriptor(), e.getData(CommonDataKeys.PROJECT), null);
+    if (dir == null) return;
+
+    DaemonProfiler profiler = DaemonProfiler.getInstance();
+    File file = new File(VfsUtil.virtualToIoFile(dir), "daemon-profile.txt");
+    try {
+      FileUtil.writeToFile(file, profiler.getReport());
+      profiler.reset();
+    }
+    catch (IOException e1) {
+      Messages.showErrorDialog(e.getData(CommonDataKeys.PROJECT), e1.getMessage(), "Dump Highlighting Profile");
+    }
+  }
+}
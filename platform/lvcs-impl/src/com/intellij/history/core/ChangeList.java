@@ -139,13 +139,13 @@ public class ChangeList {
                   currentBlock = new ChangeSetHolder(-1, myCurrentChangeSet);
                 }
                 else {
-                  currentBlock = myStorage.readPrevious(-1, recursionGuard);
+                  currentBlock = myStorage.readPrevious(null, recursionGuard);
                 }
               }
             }
             else {
               synchronized (ChangeList.this) {
-                currentBlock = myStorage.readPrevious(currentBlock.id, recursionGuard);
+                currentBlock = myStorage.readPrevious(currentBlock.id == -1 ? null : currentBlock, recursionGuard);
               }
             }
             if (currentBlock == null) return null;
@@ -171,7 +171,37 @@ public class ChangeList {
     v.finished();
   }
 
-  public synchronized void purgeObsolete(long period) {
+  /**
+   * Same as {@link #accept(ChangeVisitor)}, but skips the stored change sets which can't affect the visitor's path
+   * (as it is at the moment of reading), if the storage is able to find them.
+   */
+  public void acceptAffecting(ChangeCollectingVisitor v) {
+    TIntHashSet recursionGuard = new TIntHashSet(1000);
+    try {
+      ChangeSet current;
+      synchronized (this) {
+        current = myCurrentChangeSet;
+      }
+      if (current != null) current.accept(v);
+
+      ChangeSetHolder block = null;
+      while (true) {
+        synchronized (this) {
+          block = myStorage.readPreviousAffecting(block, v.getPath(), recursionGuard);
+        }
+        if (block == null) break;
+        block.changeSet.accept(v);
+      }
+    }
+    catch (ChangeVisitor.StopVisitingException e) {
+    }
+    v.finished();
+  }
+
+  /**
+   * Doesn't lock the change list: the storage purges in short slices, so that changes can be recorded meanwhile.
+   */
+  public void purgeObsolete(long period) {
     myStorage.purge(period, myIntervalBetweenActivities, new Consumer<ChangeSet>() {
       public void consume(ChangeSet changeSet) {
         for (Content each : changeSet.getContentsToPurge()) {
@@ -19,6 +19,7 @@ package com.intellij.history.core;
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.util.Consumer;
 import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public interface ChangeListStorage {
@@ -26,8 +27,19 @@ public interface ChangeListStorage {
 
   long nextId();
 
+  /**
+   * @param current the change set read by the previous call, or null to start from the last one
+   */
   @Nullable
-  ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard);
+  ChangeSetHolder readPrevious(@Nullable ChangeSetHolder current, TIntHashSet recursionGuard);
+
+  /**
+   * Same as {@link #readPrevious(ChangeSetHolder, TIntHashSet)}, but may skip the change sets which affect neither the path, nor its parents or children.
+   *
+   * @param current the change set read by the previous call, or null to start from the last one
+   */
+  @Nullable
+  ChangeSetHolder readPreviousAffecting(@Nullable ChangeSetHolder current, @NotNull String path, TIntHashSet recursionGuard);
 
   void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor);
 
@@ -24,9 +24,11 @@ import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.util.Consumer;
 import com.intellij.util.io.storage.AbstractStorage;
@@ -40,16 +42,33 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ChangeListStorageImpl implements ChangeListStorage {
   private static final int VERSION = 5;
   private static final String STORAGE_FILE = "changes";
+  private static final String INDEX_DIR = "index";
+  private static final String CONTENTS_FILE = "contents";
+  private static final int PURGE_SLICE_TIME = 50;
+  private static final int INDEX_BUILD_SLICE_TIME = 50;
 
   private final File myStorageDir;
   private LocalHistoryStorage myStorage;
+  @Nullable private DeltaContentStorage myContents;
   private long myLastId;
 
+  @Nullable private ChangeSetsIndex myIndex;
+  @Nullable private String myCandidatesPath;
+  @Nullable private ChangeSetsIndex.Postings myCandidates;
+  @Nullable private IndexBuildState myIndexBuild;
+
   private boolean isCompletelyBroken = false;
+  private boolean isClosed = false;
+
+  private final Object myPurgeLock = new Object();
+  // changes every time the storage is recreated
+  private volatile int myGeneration;
 
   public ChangeListStorageImpl(File storageDir) throws IOException {
     myStorageDir = storageDir;
@@ -81,8 +100,48 @@ public class ChangeListStorageImpl implements ChangeListStorage {
       result.setFSTimestamp(fsTimestamp);
     }
 
+    try {
+      myContents = new DeltaContentStorage(storageDir.getPath() + "/" + CONTENTS_FILE);
+    }
+    catch (IOException e) {
+      result.dispose();
+      throw e;
+    }
+    StoredContent.setDeltaStorage(myContents);
+
     myLastId = result.getLastId();
     myStorage = result;
+    myGeneration++;
+
+    initIndex(storageDir);
+  }
+
+  private void initIndex(File storageDir) {
+    myIndex = null;
+    myIndexBuild = null;
+    resetCandidates();
+    if (!Registry.is("localHistory.pathIndex")) return;
+
+    try {
+      myIndex = new ChangeSetsIndex(new File(storageDir, INDEX_DIR));
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.warn("cannot open local history index", e);
+    }
+  }
+
+  private void dropIndex(@NotNull Throwable e) {
+    LocalHistoryLog.LOG.warn("local history index is broken, history will be collected without it", e);
+    if (myIndex != null) myIndex.close();
+    myIndex = null;
+    myIndexBuild = null;
+    resetCandidates();
+    FileUtil.delete(new File(myStorageDir, INDEX_DIR));
+  }
+
+  private void resetCandidates() {
+    myCandidatesPath = null;
+    myCandidates = null;
   }
 
   private static long getVFSTimestamp() {
@@ -109,6 +168,9 @@ public class ChangeListStorageImpl implements ChangeListStorage {
                               ",vfs timestamp:" + DateFormat.getDateTimeInstance().format(vfsTimestamp) + ")\n" + message, e);
 
     myStorage.dispose();
+    disposeContents();
+    if (myIndex != null) myIndex.close();
+    myIndex = null;
     try {
       FileUtil.delete(myStorageDir);
       initStorage(myStorageDir);
@@ -150,7 +212,17 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   public synchronized void close() {
+    isClosed = true;
     myStorage.dispose();
+    disposeContents();
+    if (myIndex != null) myIndex.close();
+  }
+
+  private void disposeContents() {
+    if (myContents == null) return;
+    StoredContent.setDeltaStorage(null);
+    myContents.dispose();
+    myContents = null;
   }
 
   public synchronized long nextId() {
@@ -158,9 +230,13 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   @Nullable
-  public synchronized ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+  public synchronized ChangeSetHolder readPrevious(@Nullable ChangeSetHolder current, TIntHashSet recursionGuard) {
     if (isCompletelyBroken) return null;
 
+    int id = current == null ? -1 : current.id;
+    // the rest of the history has been purged while it was being read
+    if (current != null && myStorage.getTimestamp(id) != current.recordTimestamp) return null;
+
     int prevId = 0;
     try {
       prevId = id == -1 ? myStorage.getLastRecord() : doReadPrevSafely(id, recursionGuard);
@@ -193,11 +269,114 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     }
   }
 
+  @Nullable
+  public synchronized ChangeSetHolder readPreviousAffecting(@Nullable ChangeSetHolder current,
+                                                            @NotNull String path,
+                                                            TIntHashSet recursionGuard) {
+    if (isCompletelyBroken) return null;
+
+    if (!isIndexUpToDate()) {
+      return readPrevious(current, recursionGuard);
+    }
+
+    ChangeSetsIndex.Postings candidates;
+    try {
+      candidates = getCandidates(path);
+    }
+    catch (IOException e) {
+      dropIndex(e);
+      return readPrevious(current, recursionGuard);
+    }
+
+    long before = current == null ? Long.MAX_VALUE : current.changeSet.getId();
+    for (int i = candidates.indexOfFirstBefore(before); i < candidates.size(); i++) {
+      int recordId = candidates.getRecordId(i);
+      try {
+        ChangeSetHolder result = doReadBlock(recordId);
+        if (result.changeSet.getId() == candidates.getChangeSetId(i)) return result;
+      }
+      catch (Throwable e) {
+        // the record may be fine and just not the one the index expects; if the storage is really broken, the scan will find it
+        dropIndex(e);
+        return readPrevious(current, recursionGuard);
+      }
+      dropIndex(new IOException("record " + recordId + " doesn't contain change set " + candidates.getChangeSetId(i)));
+      return readPrevious(current, recursionGuard);
+    }
+    return null;
+  }
+
+  /**
+   * If the index is not up to date, starts building it in the background; until then history is collected without the index.
+   */
+  private boolean isIndexUpToDate() {
+    if (myIndex == null) return false;
+    if (myIndex.isUpToDate()) return true;
+
+    if (myIndexBuild == null) {
+      final IndexBuildState state = new IndexBuildState(myIndex, myStorage.getLastRecord());
+      myIndexBuild = state;
+      ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          boolean hasMore = true;
+          while (hasMore) {
+            hasMore = buildIndexSlice(state);
+          }
+        }
+      });
+    }
+    return false;
+  }
+
+  /**
+   * Indexes the stored change sets from the latest to the oldest, holding the storage lock for about {@link #INDEX_BUILD_SLICE_TIME} ms.
+   * Change sets written meanwhile are indexed by {@link #writeNextSet}, and purged ones are removed from the index by {@link #purge}.
+   *
+   * @return true if building should be continued with the next slice
+   */
+  private synchronized boolean buildIndexSlice(@NotNull IndexBuildState state) {
+    if (isCompletelyBroken || isClosed || myIndexBuild != state || myIndex != state.index) return false;
+
+    long deadline = System.currentTimeMillis() + INDEX_BUILD_SLICE_TIME;
+    try {
+      while (state.cursor != 0) {
+        // the rest of the history has been purged
+        if (myStorage.getTimestamp(state.cursor) != state.cursorTimestamp) break;
+
+        state.index.add(doReadBlock(state.cursor).changeSet, state.cursor);
+        state.cursor = doReadPrevSafely(state.cursor, state.recursionGuard);
+        state.cursorTimestamp = state.cursor == 0 ? 0 : myStorage.getTimestamp(state.cursor);
+        if (state.cursor != 0 && System.currentTimeMillis() >= deadline) return true;
+      }
+      state.index.setUpToDate();
+      myIndexBuild = null;
+    }
+    catch (Throwable e) {
+      dropIndex(e);
+    }
+    return false;
+  }
+
+  private boolean isIndexMaintained() {
+    return myIndex != null && (myIndex.isUpToDate() || myIndexBuild != null);
+  }
+
+  @NotNull
+  private ChangeSetsIndex.Postings getCandidates(@NotNull String path) throws IOException {
+    assert myIndex != null;
+    if (!path.equals(myCandidatesPath) || myCandidates == null) {
+      myCandidates = myIndex.getCandidates(path);
+      myCandidatesPath = path;
+    }
+    return myCandidates;
+  }
+
   @NotNull
   private ChangeSetHolder doReadBlock(int id) throws IOException {
     DataInputStream in = myStorage.readStream(id);
     try {
-      return new ChangeSetHolder(id, new ChangeSet(in));
+      return new ChangeSetHolder(id, new ChangeSet(in), myStorage.getTimestamp(id));
     }
     finally {
       in.close();
@@ -208,7 +387,11 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     if (isCompletelyBroken) return;
 
     try {
-      AbstractStorage.StorageDataOutput out = myStorage.writeStream(myStorage.createNextRecord(), true);
+      // contents referenced by the change set have to be on disk before it
+      if (myContents != null) myContents.force();
+
+      int recordId = myStorage.createNextRecord();
+      AbstractStorage.StorageDataOutput out = myStorage.writeStream(recordId, true);
       try {
         changeSet.write(out);
       }
@@ -217,56 +400,135 @@ public class ChangeListStorageImpl implements ChangeListStorage {
       }
       myStorage.setLastId(myLastId);
       myStorage.force();
+
+      updateIndex(changeSet, recordId);
     }
     catch (IOException e) {
       handleError(e, null);
     }
   }
 
-  public synchronized void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
-    if (isCompletelyBroken) return;
+  private void updateIndex(ChangeSet changeSet, int recordId) {
+    if (!isIndexMaintained()) return;
+    resetCandidates();
+    try {
+      myIndex.add(changeSet, recordId);
+    }
+    catch (IOException e) {
+      dropIndex(e);
+    }
+  }
 
-    TIntHashSet recursionGuard = new TIntHashSet(1000);
+  /**
+   * Purges the obsolete change sets in slices, each holding the storage lock for about {@link #PURGE_SLICE_TIME} ms,
+   * so that new change sets can be written and history can be read while purging.
+   */
+  public void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
+    synchronized (myPurgeLock) {
+      long start = System.currentTimeMillis();
+      PurgeState state = new PurgeState(period, intervalBetweenActivities, processor);
+
+      int slices = 0;
+      while (purgeSlice(state)) {
+        slices++;
+      }
 
-    try {
-      int firstObsoleteId = findFirstObsoleteBlock(period, intervalBetweenActivities, recursionGuard);
-      if (firstObsoleteId == 0) return;
+      if (state.purgedCount > 0) {
+        LocalHistoryLog.LOG.info(MessageFormat.format("purged {0} change sets ({1} bytes) in {2} ms, {3} slices",
+                                                      state.purgedCount, state.purgedBytes, System.currentTimeMillis() - start,
+                                                      slices + 1));
+      }
+    }
+  }
 
-      int eachBlockId = firstObsoleteId;
+  /**
+   * @return true if purging should be continued with the next slice
+   */
+  private synchronized boolean purgeSlice(@NotNull PurgeState state) {
+    if (isCompletelyBroken || isClosed) return false;
+    // the storage has been rebuilt since the previous slice
+    if (state.generation != myGeneration) return false;
 
-      while (eachBlockId != 0) {
-        processor.consume(doReadBlock(eachBlockId).changeSet);
-        eachBlockId = doReadPrevSafely(eachBlockId, recursionGuard);
+    long deadline = System.currentTimeMillis() + PURGE_SLICE_TIME;
+    try {
+      if (state.firstObsoleteId == 0) {
+        return findFirstObsoleteBlock(state, deadline);
       }
-      myStorage.deleteRecordsUpTo(firstObsoleteId);
-      myStorage.force();
+      return purgeObsoleteBlocks(state, deadline);
     }
     catch (IOException e) {
       handleError(e, null);
+      return false;
     }
   }
 
-  private int findFirstObsoleteBlock(long period, int intervalBetweenActivities, TIntHashSet recursionGuard) throws IOException {
-    long prevTimestamp = 0;
-    long length = 0;
+  private boolean findFirstObsoleteBlock(@NotNull PurgeState state, long deadline) throws IOException {
+    if (state.cursor == -1) state.cursor = myStorage.getLastRecord();
 
-    int last = myStorage.getLastRecord();
-    while (last != 0) {
-      long t = myStorage.getTimestamp(last);
-      if (prevTimestamp == 0) prevTimestamp = t;
+    while (state.cursor != 0) {
+      long t = myStorage.getTimestamp(state.cursor);
+      if (state.prevTimestamp == 0) state.prevTimestamp = t;
 
-      long delta = prevTimestamp - t;
-      prevTimestamp = t;
+      long delta = state.prevTimestamp - t;
+      state.prevTimestamp = t;
 
       // we sum only intervals between changes during one 'day' (intervalBetweenActivities) and add '1' between two 'days'
-      length += delta < intervalBetweenActivities ? delta : 1;
+      state.length += delta < state.intervalBetweenActivities ? delta : 1;
 
-      if (length >= period) return last;
+      if (state.length >= state.period) {
+        state.firstObsoleteId = state.cursor;
+        return true;
+      }
+
+      state.cursor = doReadPrevSafely(state.cursor, state.recursionGuard);
+      if (System.currentTimeMillis() >= deadline) return state.cursor != 0;
+    }
+    return false;
+  }
 
-      last = doReadPrevSafely(last, recursionGuard);
+  /**
+   * Purges the oldest blocks up to the first obsolete one, so that the storage stays consistent after every slice.
+   */
+  private boolean purgeObsoleteBlocks(@NotNull PurgeState state, long deadline) throws IOException {
+    List<ChangeSet> purged = new ArrayList<ChangeSet>();
+    int lastPurgedId = 0;
+    boolean done = false;
+
+    int each = myStorage.getFirstRecord();
+    while (each != 0) {
+      ChangeSet changeSet = doReadBlock(each).changeSet;
+      state.processor.consume(changeSet);
+      purged.add(changeSet);
+      state.purgedBytes += myStorage.getOffsetAndSize(each).second;
+      lastPurgedId = each;
+
+      if (each == state.firstObsoleteId) {
+        done = true;
+        break;
+      }
+      each = myStorage.getNextRecord(each);
+      if (System.currentTimeMillis() >= deadline) break;
     }
+    if (each == 0) done = true;
 
-    return 0;
+    if (lastPurgedId != 0) {
+      myStorage.deleteRecordsUpTo(lastPurgedId);
+      myStorage.force();
+      purgeIndex(purged);
+      state.purgedCount += purged.size();
+    }
+    return !done;
+  }
+
+  private void purgeIndex(List<ChangeSet> purged) {
+    if (!isIndexMaintained()) return;
+    resetCandidates();
+    try {
+      myIndex.removeAll(purged);
+    }
+    catch (IOException e) {
+      dropIndex(e);
+    }
   }
 
   private int doReadPrevSafely(int id, TIntHashSet recursionGuard) throws IOException {
@@ -275,4 +537,39 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     if (!recursionGuard.add(prev)) throw new IOException("Recursive records found");
     return prev;
   }
+
+  private class IndexBuildState {
+    final ChangeSetsIndex index;
+    final TIntHashSet recursionGuard = new TIntHashSet(1000);
+    int cursor;
+    long cursorTimestamp;
+
+    private IndexBuildState(@NotNull ChangeSetsIndex index, int lastRecord) {
+      this.index = index;
+      cursor = lastRecord;
+      cursorTimestamp = lastRecord == 0 ? 0 : myStorage.getTimestamp(lastRecord);
+    }
+  }
+
+  private class PurgeState {
+    final long period;
+    final int intervalBetweenActivities;
+    final Consumer<ChangeSet> processor;
+    final int generation = myGeneration;
+
+    final TIntHashSet recursionGuard = new TIntHashSet(1000);
+    int cursor = -1;
+    long prevTimestamp;
+    long length;
+    int firstObsoleteId;
+
+    int purgedCount;
+    long purgedBytes;
+
+    private PurgeState(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
+      this.period = period;
+      this.intervalBetweenActivities = intervalBetweenActivities;
+      this.processor = processor;
+    }
+  }
 }
\ No newline at end of file
@@ -23,9 +23,16 @@ import java.util.List;
 public class ChangeSetHolder {
   public final int id;
   public final ChangeSet changeSet;
+  // timestamp of the record, to tell whether it has been purged and reused since it was read
+  public final long recordTimestamp;
 
   public ChangeSetHolder(int id, ChangeSet changeSet) {
+    this(id, changeSet, 0);
+  }
+
+  public ChangeSetHolder(int id, ChangeSet changeSet, long recordTimestamp) {
     this.id = id;
     this.changeSet = changeSet;
+    this.recordTimestamp = recordTimestamp;
   }
 }
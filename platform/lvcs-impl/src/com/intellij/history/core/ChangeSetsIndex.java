@@ -0,0 +1,283 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.Change;
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.core.changes.PutLabelChange;
+import com.intellij.history.core.changes.StructuralChange;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TLongHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * Persistent index of the change sets kept in {@link ChangeListStorageImpl} by the paths they affect,
+ * so that the history of a file or a directory can be collected without reading every stored change set.
+ * <p/>
+ * For each path the index keeps the change sets which affect exactly this path and the change sets which affect anything under it;
+ * change sets with labels are kept separately, since a label may be shown in the history of any path.
+ * Postings are (change set id, record id) pairs: the storage reuses record ids after purging, so a record read by the index
+ * has to be checked to still hold the expected change set.
+ * <p/>
+ * The index is only trusted if it was closed properly; otherwise it is cleared and has to be rebuilt from the storage.
+ */
+class ChangeSetsIndex {
+  private static final String POSTINGS_FILE = "postings";
+  private static final String UP_TO_DATE_MARKER = "upToDate";
+
+  private static final String EXACT_PREFIX = "=";
+  private static final String SUBTREE_PREFIX = "*";
+  private static final String LABELS_KEY = "#";
+
+  private final File myDir;
+  private final PersistentHashMap<String, Postings> myPostings;
+  private boolean myUpToDate;
+
+  public ChangeSetsIndex(@NotNull File dir) throws IOException {
+    myDir = dir;
+    File marker = new File(dir, UP_TO_DATE_MARKER);
+    myUpToDate = marker.exists();
+    if (!myUpToDate) FileUtil.delete(dir);
+    FileUtil.createDirectory(dir);
+    myPostings = new PersistentHashMap<String, Postings>(new File(dir, POSTINGS_FILE), EnumeratorStringDescriptor.INSTANCE,
+                                                         new PostingsExternalizer());
+    // until the next proper close the index can't be trusted
+    if (myUpToDate && !FileUtil.delete(marker)) {
+      myPostings.close();
+      throw new IOException("cannot delete " + marker);
+    }
+  }
+
+  public boolean isUpToDate() {
+    return myUpToDate;
+  }
+
+  public void setUpToDate() {
+    myUpToDate = true;
+  }
+
+  public void close() {
+    try {
+      myPostings.close();
+      if (myUpToDate) FileUtil.createIfDoesntExist(new File(myDir, UP_TO_DATE_MARKER));
+    }
+    catch (IOException ignore) {
+    }
+  }
+
+  public void add(@NotNull ChangeSet changeSet, int recordId) throws IOException {
+    for (String each : collectKeys(changeSet)) {
+      append(each, changeSet.getId(), recordId);
+    }
+  }
+
+  public void removeAll(@NotNull Collection<ChangeSet> changeSets) throws IOException {
+    TLongHashSet ids = new TLongHashSet();
+    Set<String> keys = new THashSet<String>();
+    for (ChangeSet each : changeSets) {
+      ids.add(each.getId());
+      keys.addAll(collectKeys(each));
+    }
+
+    for (String key : keys) {
+      Postings postings = myPostings.get(key);
+      if (postings == null) continue;
+
+      Postings rest = new Postings();
+      for (int i = 0; i < postings.size(); i++) {
+        if (!ids.contains(postings.getChangeSetId(i))) rest.add(postings.getChangeSetId(i), postings.getRecordId(i));
+      }
+      if (rest.size() == 0) {
+        myPostings.remove(key);
+      }
+      else if (rest.size() != postings.size()) {
+        myPostings.put(key, rest);
+      }
+    }
+  }
+
+  /**
+   * @return the change sets which may affect the given path, its parents or children, or contain labels,
+   *         sorted by change set id, the latest first
+   */
+  @NotNull
+  public Postings getCandidates(@NotNull String path) throws IOException {
+    Postings result = new Postings();
+    String key = normalize(path);
+    result.addAll(myPostings.get(SUBTREE_PREFIX + key));
+    for (String each : getParentsOf(key)) {
+      result.addAll(myPostings.get(EXACT_PREFIX + each));
+    }
+    result.addAll(myPostings.get(LABELS_KEY));
+    result.sortDescending();
+    return result;
+  }
+
+  @NotNull
+  private static Set<String> collectKeys(@NotNull ChangeSet changeSet) {
+    Set<String> result = new THashSet<String>();
+    for (Change each : changeSet.getChanges()) {
+      if (each instanceof PutLabelChange) {
+        result.add(LABELS_KEY);
+      }
+      else if (each instanceof StructuralChange) {
+        for (String path : ((StructuralChange)each).getAffectedPaths()) {
+          String key = normalize(path);
+          result.add(EXACT_PREFIX + key);
+          result.add(SUBTREE_PREFIX + key);
+          for (String parent : getParentsOf(key)) {
+            result.add(SUBTREE_PREFIX + parent);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static Collection<String> getParentsOf(@NotNull String path) {
+    Collection<String> result = new THashSet<String>();
+    String each = path;
+    while (!each.isEmpty()) {
+      String parent = Paths.getParentOf(each);
+      if (parent.equals(each)) break;
+      result.add(parent);
+      each = parent;
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String normalize(@NotNull String path) {
+    return Paths.isCaseSensitive() ? path : path.toLowerCase();
+  }
+
+  private void append(@NotNull String key, final long changeSetId, final int recordId) throws IOException {
+    myPostings.appendData(key, new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        DataInputOutputUtil.writeLONG(out, changeSetId);
+        DataInputOutputUtil.writeINT(out, recordId);
+      }
+    });
+  }
+
+  public static class Postings {
+    private final TLongArrayList myChangeSetIds = new TLongArrayList();
+    private final TIntArrayList myRecordIds = new TIntArrayList();
+
+    public int size() {
+      return myChangeSetIds.size();
+    }
+
+    public long getChangeSetId(int index) {
+      return myChangeSetIds.get(index);
+    }
+
+    public int getRecordId(int index) {
+      return myRecordIds.get(index);
+    }
+
+    /**
+     * @return index of the first posting with change set id less than the given one, assuming the postings are sorted descending
+     */
+    public int indexOfFirstBefore(long changeSetId) {
+      int low = 0;
+      int high = size();
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (getChangeSetId(middle) < changeSetId) {
+          high = middle;
+        }
+        else {
+          low = middle + 1;
+        }
+      }
+      return low;
+    }
+
+    private void add(long changeSetId, int recordId) {
+      myChangeSetIds.add(changeSetId);
+      myRecordIds.add(recordId);
+    }
+
+    private void addAll(@Nullable Postings postings) {
+      if (postings == null) return;
+      myChangeSetIds.add(postings.myChangeSetIds.toNativeArray());
+      myRecordIds.add(postings.myRecordIds.toNativeArray());
+    }
+
+    private void sortDescending() {
+      final long[] ids = myChangeSetIds.toNativeArray();
+      int[] records = myRecordIds.toNativeArray();
+
+      Integer[] order = new Integer[ids.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          long id1 = ids[o1];
+          long id2 = ids[o2];
+          return id1 > id2 ? -1 : id1 == id2 ? 0 : 1;
+        }
+      });
+
+      myChangeSetIds.clear();
+      myRecordIds.clear();
+      for (int i = 0; i < order.length; i++) {
+        long id = ids[order[i]];
+        if (i > 0 && id == ids[order[i - 1]]) continue;
+        add(id, records[order[i]]);
+      }
+    }
+  }
+
+  private static class PostingsExternalizer implements DataExternalizer<Postings> {
+    @Override
+    public void save(DataOutput out, Postings value) throws IOException {
+      for (int i = 0; i < value.size(); i++) {
+        DataInputOutputUtil.writeLONG(out, value.getChangeSetId(i));
+        DataInputOutputUtil.writeINT(out, value.getRecordId(i));
+      }
+    }
+
+    @Override
+    public Postings read(DataInput in) throws IOException {
+      Postings result = new Postings();
+      while (((InputStream)in).available() > 0) {
+        long changeSetId = DataInputOutputUtil.readLONG(in);
+        result.add(changeSetId, DataInputOutputUtil.readINT(in));
+      }
+      return result;
+    }
+  }
+}
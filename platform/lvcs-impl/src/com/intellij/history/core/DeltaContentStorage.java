@@ -0,0 +1,348 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.util.containers.SLRUMap;
+import com.intellij.util.diff.Diff;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.storage.AbstractStorage;
+import com.intellij.util.io.storage.RefCountingStorage;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local history own storage of the contents it creates itself (e.g. snapshots of unsaved documents).
+ * <p/>
+ * Consecutive contents stored with the same key (usually a file path) are kept as line deltas against the previous one;
+ * every {@link #KEYFRAME_INTERVAL}-th content, or a content that doesn't compress well as a delta, is kept as a whole.
+ * A content keeps its base alive: a record is deleted only after it is released and all the deltas based on it are deleted.
+ * <p/>
+ * Recently reconstructed contents are cached, since history is usually browsed revision by revision.
+ */
+public class DeltaContentStorage {
+  static final int KEYFRAME_INTERVAL = 32;
+
+  private static final int KEYFRAME = 0;
+  private static final int DELTA = 1;
+
+  private static final int COPY = 0;
+  private static final int INSERT = 1;
+
+  private final RefCountingStorage myStorage;
+  private final SLRUMap<Integer, byte[]> myCache = new SLRUMap<Integer, byte[]>(8, 8);
+  private final Map<String, Integer> myLastRecords = new THashMap<String, Integer>();
+
+  public DeltaContentStorage(@NotNull String path) throws IOException {
+    myStorage = new RefCountingStorage(path);
+  }
+
+  /**
+   * @param key content of the same key, stored last, is used as a base of the delta, if it is still alive
+   * @return id of the new record, which has to be released with {@link #release(int)}
+   */
+  public synchronized int store(@NotNull byte[] bytes, @Nullable String key) throws IOException {
+    Integer base = key == null ? null : myLastRecords.get(key);
+
+    byte[] data = null;
+    if (base != null && myStorage.getRefCount(base) > 0) {
+      DataInputStream in = myStorage.readStream(base);
+      int depth;
+      try {
+        depth = readHeader(in)[1];
+      }
+      finally {
+        in.close();
+      }
+      if (depth + 1 < KEYFRAME_INTERVAL) {
+        data = buildDelta(base, depth + 1, load(base), bytes);
+      }
+    }
+    if (data == null) {
+      base = null;
+      data = buildKeyframe(bytes);
+    }
+
+    int record = myStorage.acquireNewRecord();
+    AbstractStorage.StorageDataOutput out = myStorage.writeStream(record);
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+    if (base != null) myStorage.acquireRecord(base);
+
+    if (key != null) myLastRecords.put(key, record);
+    myCache.put(record, bytes);
+    return record;
+  }
+
+  @NotNull
+  public synchronized byte[] load(int record) throws IOException {
+    byte[] cached = myCache.get(record);
+    if (cached != null) return cached;
+
+    // walk the chain back to a keyframe or a cached content, then apply the deltas forward
+    List<Integer> chain = new ArrayList<Integer>();
+    List<byte[]> deltas = new ArrayList<byte[]>();
+    byte[] result = null;
+    int each = record;
+    while (result == null) {
+      cached = myCache.get(each);
+      if (cached != null) {
+        result = cached;
+        break;
+      }
+
+      DataInputStream in = myStorage.readStream(each);
+      try {
+        int[] header = readHeader(in);
+        byte[] rest = readRest(in);
+        if (header[0] == KEYFRAME) {
+          result = rest;
+          myCache.put(each, result);
+        }
+        else {
+          chain.add(each);
+          deltas.add(rest);
+          each = header[2];
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+
+    for (int i = deltas.size() - 1; i >= 0; i--) {
+      result = applyDelta(result, deltas.get(i));
+      myCache.put(chain.get(i), result);
+    }
+    return result;
+  }
+
+  public synchronized void release(int record) throws IOException {
+    int each = record;
+    while (each != 0) {
+      if (myStorage.getRefCount(each) > 1) {
+        myStorage.releaseRecord(each);
+        return;
+      }
+
+      int base;
+      DataInputStream in = myStorage.readStream(each);
+      try {
+        int[] header = readHeader(in);
+        base = header[0] == DELTA ? header[2] : 0;
+      }
+      finally {
+        in.close();
+      }
+      myStorage.releaseRecord(each);
+      myCache.remove(each);
+      each = base;
+    }
+  }
+
+  public synchronized void force() {
+    myStorage.force();
+  }
+
+  public synchronized void dispose() {
+    myStorage.dispose();
+    myCache.clear();
+    myLastRecords.clear();
+  }
+
+  /**
+   * @return type, depth of the delta chain, and the base record for deltas
+   */
+  @NotNull
+  private static int[] readHeader(@NotNull DataInputStream in) throws IOException {
+    int type = DataInputOutputUtil.readINT(in);
+    int depth = DataInputOutputUtil.readINT(in);
+    int base = type == DELTA ? DataInputOutputUtil.readINT(in) : 0;
+    return new int[]{type, depth, base};
+  }
+
+  @NotNull
+  private static byte[] readRest(@NotNull DataInputStream in) throws IOException {
+    byte[] result = new byte[in.available()];
+    in.readFully(result);
+    return result;
+  }
+
+  @NotNull
+  private static byte[] buildKeyframe(@NotNull byte[] bytes) throws IOException {
+    BufferExposingByteArrayOutputStream result = new BufferExposingByteArrayOutputStream(bytes.length + 2);
+    DataOutputStream out = new DataOutputStream(result);
+    DataInputOutputUtil.writeINT(out, KEYFRAME);
+    DataInputOutputUtil.writeINT(out, 0);
+    out.write(bytes);
+    out.close();
+    return result.toByteArray();
+  }
+
+  /**
+   * @return null if the delta is not much smaller than the content itself
+   */
+  @Nullable
+  private static byte[] buildDelta(int base, int depth, @NotNull byte[] before, @NotNull byte[] after) throws IOException {
+    BufferExposingByteArrayOutputStream result = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(result);
+    DataInputOutputUtil.writeINT(out, DELTA);
+    DataInputOutputUtil.writeINT(out, depth);
+    DataInputOutputUtil.writeINT(out, base);
+
+    int prefix = 0;
+    int maxPrefix = Math.min(before.length, after.length);
+    while (prefix < maxPrefix && before[prefix] == after[prefix]) prefix++;
+    int suffix = 0;
+    int maxSuffix = maxPrefix - prefix;
+    while (suffix < maxSuffix && before[before.length - suffix - 1] == after[after.length - suffix - 1]) suffix++;
+
+    // align the changed range to line starts, so that lines are compared as a whole
+    while (prefix > 0 && before[prefix - 1] != '\n') prefix--;
+
+    writeCopy(out, 0, prefix);
+    Line[] lines1 = splitLines(before, prefix, before.length - suffix);
+    Line[] lines2 = splitLines(after, prefix, after.length - suffix);
+    Diff.Change change = Diff.buildChanges(lines1, lines2, Diff.CancellationChecker.NONE);
+
+    int index1 = 0;
+    int index2 = 0;
+    while (true) {
+      int next1 = change == null ? lines1.length : change.line0;
+      int next2 = change == null ? lines2.length : change.line1;
+      if (next1 > index1) {
+        writeCopy(out, lines1[index1].myStart, lines1[next1 - 1].myEnd - lines1[index1].myStart);
+      }
+      index1 = next1;
+      index2 = next2;
+      if (change == null) break;
+
+      if (change.inserted > 0) {
+        int start = lines2[index2].myStart;
+        writeInsert(out, after, start, lines2[index2 + change.inserted - 1].myEnd - start);
+      }
+      index1 += change.deleted;
+      index2 += change.inserted;
+      change = change.link;
+    }
+
+    writeCopy(out, before.length - suffix, suffix);
+    out.close();
+
+    if (result.size() > after.length / 2) return null;
+    return result.toByteArray();
+  }
+
+  private static void writeCopy(@NotNull DataOutputStream out, int offset, int length) throws IOException {
+    if (length == 0) return;
+    DataInputOutputUtil.writeINT(out, COPY);
+    DataInputOutputUtil.writeINT(out, offset);
+    DataInputOutputUtil.writeINT(out, length);
+  }
+
+  private static void writeInsert(@NotNull DataOutputStream out, @NotNull byte[] bytes, int offset, int length) throws IOException {
+    DataInputOutputUtil.writeINT(out, INSERT);
+    DataInputOutputUtil.writeINT(out, length);
+    out.write(bytes, offset, length);
+  }
+
+  @NotNull
+  private static byte[] applyDelta(@NotNull byte[] base, @NotNull byte[] delta) throws IOException {
+    BufferExposingByteArrayOutputStream result = new BufferExposingByteArrayOutputStream(base.length);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+    while (in.available() > 0) {
+      int op = DataInputOutputUtil.readINT(in);
+      if (op == COPY) {
+        int offset = DataInputOutputUtil.readINT(in);
+        int length = DataInputOutputUtil.readINT(in);
+        result.write(base, offset, length);
+      }
+      else if (op == INSERT) {
+        byte[] bytes = new byte[DataInputOutputUtil.readINT(in)];
+        in.readFully(bytes);
+        result.write(bytes);
+      }
+      else {
+        throw new IOException("unexpected delta operation: " + op);
+      }
+    }
+    return result.toByteArray();
+  }
+
+  @NotNull
+  private static Line[] splitLines(@NotNull byte[] bytes, int start, int end) {
+    List<Line> result = new ArrayList<Line>();
+    int lineStart = start;
+    for (int i = start; i < end; i++) {
+      if (bytes[i] == '\n') {
+        result.add(new Line(bytes, lineStart, i + 1));
+        lineStart = i + 1;
+      }
+    }
+    if (lineStart < end) result.add(new Line(bytes, lineStart, end));
+    return result.toArray(new Line[result.size()]);
+  }
+
+  private static class Line {
+    private final byte[] myBytes;
+    private final int myStart;
+    private final int myEnd;
+    private final int myHash;
+
+    private Line(@NotNull byte[] bytes, int start, int end) {
+      myBytes = bytes;
+      myStart = start;
+      myEnd = end;
+
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + bytes[i];
+      }
+      myHash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Line)) return false;
+
+      Line line = (Line)o;
+      if (myHash != line.myHash || myEnd - myStart != line.myEnd - line.myStart) return false;
+      for (int i = 0; i < myEnd - myStart; i++) {
+        if (myBytes[myStart + i] != line.myBytes[line.myStart + i]) return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return myHash;
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.intellij.history.core;
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.util.Consumer;
 import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
@@ -38,12 +39,19 @@ public class InMemoryChangeListStorage implements ChangeListStorage {
 
   @Override
   @Nullable
-  public ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+  public ChangeSetHolder readPrevious(@Nullable ChangeSetHolder current, TIntHashSet recursionGuard) {
+    int id = current == null ? -1 : current.id;
     if (mySets.isEmpty()) return null;
     if (id == -1) return new ChangeSetHolder(mySets.size() - 1, mySets.get(mySets.size() - 1));
     return id == 0 ? null : new ChangeSetHolder(id -1, mySets.get(id - 1));
   }
 
+  @Override
+  @Nullable
+  public ChangeSetHolder readPreviousAffecting(@Nullable ChangeSetHolder current, @NotNull String path, TIntHashSet recursionGuard) {
+    return readPrevious(current, recursionGuard);
+  }
+
   @Override
   public void writeNextSet(ChangeSet changeSet) {
     mySets.add(changeSet);
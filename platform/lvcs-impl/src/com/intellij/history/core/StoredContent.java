@@ -16,24 +16,58 @@
 
 package com.intellij.history.core;
 
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
 import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+/**
+ * Content kept either in the VFS contents storage (positive ids), or in local history own {@link DeltaContentStorage} (negative ids).
+ */
 public class StoredContent extends Content {
   private static final int UNAVAILABLE = 0;
 
+  @Nullable private static volatile DeltaContentStorage ourDeltaStorage;
+  // changes every time the delta storage is replaced, e.g. when a broken local history is rebuilt
+  private static volatile int ourDeltaStorageGeneration;
+
   private int myContentId;
+  // contents of a previous delta storage may still be referenced (e.g. saved document contents), and their ids mean nothing now
+  private final int myGeneration = ourDeltaStorageGeneration;
 
   public static StoredContent acquireContent(byte[] bytes) {
+    return acquireContent(bytes, null);
+  }
+
+  /**
+   * @param deltaKey contents stored with the same key are kept as deltas against each other if possible
+   */
+  public static StoredContent acquireContent(byte[] bytes, @Nullable String deltaKey) {
+    DeltaContentStorage deltaStorage = ourDeltaStorage;
+    if (deltaStorage != null && Registry.is("localHistory.deltaContents")) {
+      try {
+        return new StoredContent(-deltaStorage.store(bytes, deltaKey));
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.warn("cannot store content in local history, VFS storage will be used", e);
+      }
+    }
     return new StoredContent(getFS().storeUnlinkedContent(bytes));
   }
 
+  static void setDeltaStorage(@Nullable DeltaContentStorage storage) {
+    ourDeltaStorage = storage;
+    if (storage != null) ourDeltaStorageGeneration++;
+  }
+
   public static StoredContent acquireContent(VirtualFile f) {
     return new StoredContent(getFS().acquireContent(f));
   }
@@ -63,7 +97,7 @@ public class StoredContent extends Content {
 
   @Override
   public void write(DataOutput out) throws IOException {
-    out.writeInt(myContentId);
+    out.writeInt(isStale() ? UNAVAILABLE : myContentId);
   }
 
   @Override
@@ -71,7 +105,8 @@ public class StoredContent extends Content {
     //todo handle unavailable content 
     //if (!isAvailable()) throw new RuntimeException("content is not available");
     try {
-      if (myContentId == UNAVAILABLE) return ArrayUtil.EMPTY_BYTE_ARRAY;
+      if (myContentId == UNAVAILABLE || isStale()) return ArrayUtil.EMPTY_BYTE_ARRAY;
+      if (myContentId < 0) return getDeltaStorage().load(-myContentId);
       return getFS().contentsToByteArray(myContentId);
     }
     catch (IOException e) {
@@ -89,6 +124,20 @@ public class StoredContent extends Content {
     return ((PersistentFS)PersistentFS.getInstance());
   }
 
+  /**
+   * @return true if the content was kept in a delta storage which has been replaced since
+   */
+  private boolean isStale() {
+    return myContentId < 0 && myGeneration != ourDeltaStorageGeneration;
+  }
+
+  @NotNull
+  private static DeltaContentStorage getDeltaStorage() throws IOException {
+    DeltaContentStorage result = ourDeltaStorage;
+    if (result == null) throw new IOException("local history content storage is closed");
+    return result;
+  }
+
   public int getContentId() {
     return myContentId;
   }
@@ -96,7 +145,20 @@ public class StoredContent extends Content {
   @Override
   public void release() {
     if (myContentId == UNAVAILABLE) return;
-    getFS().releaseContent(myContentId);
+    if (myContentId < 0) {
+      // a stale id may belong to an unrelated content of the new storage
+      if (!isStale()) {
+        try {
+          getDeltaStorage().release(-myContentId);
+        }
+        catch (IOException e) {
+          LocalHistoryLog.LOG.warn("cannot release local history content " + myContentId, e);
+        }
+      }
+    }
+    else {
+      getFS().releaseContent(myContentId);
+    }
     myContentId = UNAVAILABLE;
   }
 
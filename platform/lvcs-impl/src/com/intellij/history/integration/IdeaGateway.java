@@ -312,7 +312,7 @@ public class IdeaGateway {
   private static void saveDocumentContent(@NotNull VirtualFile f, @NotNull Document d) {
     f.putUserData(SAVED_DOCUMENT_CONTENT_AND_STAMP_KEY,
                   new ContentAndTimestamps(Clock.getTime(),
-                                           StoredContent.acquireContent(bytesFromDocument(d)),
+                                           StoredContent.acquireContent(bytesFromDocument(d), f.getPath()),
                                            d.getModificationStamp()));
   }
 
@@ -335,7 +335,7 @@ public class IdeaGateway {
 
     // take document's content if any
     if (d != null) {
-      return Pair.create(StoredContent.acquireContent(bytesFromDocument(d)), Clock.getTime());
+      return Pair.create(StoredContent.acquireContent(bytesFromDocument(d), f.getPath()), Clock.getTime());
     }
 
     return Pair.create(StoredContent.acquireContent(f), f.getTimeStamp());
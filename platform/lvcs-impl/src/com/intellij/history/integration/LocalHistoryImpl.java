@@ -16,6 +16,7 @@
 
 package com.intellij.history.integration;
 
+import com.intellij.concurrency.JobScheduler;
 import com.intellij.history.*;
 import com.intellij.history.core.*;
 import com.intellij.history.core.tree.RootEntry;
@@ -38,9 +39,13 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LocalHistoryImpl extends LocalHistory implements ApplicationComponent {
+  private static final int PURGE_INTERVAL_MINUTES = 60;
+
   private ChangeList myChangeList;
   private LocalHistoryFacade myVcs;
   private IdeaGateway myGateway;
@@ -49,6 +54,7 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
 
   private final AtomicBoolean isInitialized = new AtomicBoolean();
   private Runnable myShutdownTask;
+  private ScheduledFuture<?> myPurgeFuture;
 
   public static LocalHistoryImpl getInstanceImpl() {
     return (LocalHistoryImpl)getInstance();
@@ -100,6 +106,29 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
         }
       });
     }
+
+    if (!ApplicationManager.getApplication().isUnitTestMode()) {
+      schedulePurge();
+    }
+  }
+
+  private void schedulePurge() {
+    // the purge is done in short slices, so the history keeps recording changes while it runs
+    myPurgeFuture = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+          @Override
+          public void run() {
+            if (isInitialized()) myChangeList.purgeObsolete(getPurgePeriod());
+          }
+        });
+      }
+    }, PURGE_INTERVAL_MINUTES, PURGE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  private static long getPurgePeriod() {
+    return Registry.intValue("localHistory.daysToKeep") * 1000L * 60 * 60 * 24;
   }
 
   private void validateStorage() {
@@ -128,7 +157,10 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
   public void disposeComponent() {
     if (!isInitialized.getAndSet(false)) return;
 
-    int period = Registry.intValue("localHistory.daysToKeep") * 1000 * 60 * 60 * 24;
+    if (myPurgeFuture != null) {
+      myPurgeFuture.cancel(false);
+      myPurgeFuture = null;
+    }
 
     VirtualFileManager fm = VirtualFileManager.getInstance();
     fm.removeVirtualFileListener(myEventDispatcher);
@@ -138,7 +170,7 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
 
     validateStorage();
     LocalHistoryLog.LOG.info("Purging local history...");
-    myChangeList.purgeObsolete(period);
+    myChangeList.purgeObsolete(getPurgePeriod());
     validateStorage();
 
     myChangeList.close();
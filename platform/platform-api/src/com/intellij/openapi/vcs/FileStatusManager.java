@@ -18,8 +18,10 @@ package com.intellij.openapi.vcs;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
 
 import java.awt.*;
+import java.util.Collection;
 
 /**
  * @author mike
@@ -34,6 +36,16 @@ public abstract class FileStatusManager {
   public abstract void fileStatusesChanged();
   public abstract void fileStatusChanged(VirtualFile file);
 
+  /**
+   * Recalculates statuses of the given files in one pass, and notifies the listeners at once,
+   * rather than calling {@link #fileStatusChanged(VirtualFile)} for each of them.
+   */
+  public void fileStatusesChanged(@NotNull Collection<VirtualFile> files) {
+    for (VirtualFile file : files) {
+      fileStatusChanged(file);
+    }
+  }
+
   public abstract void addFileStatusListener(FileStatusListener listener);
   public abstract void addFileStatusListener(FileStatusListener listener, Disposable parentDisposable);
   public abstract void removeFileStatusListener(FileStatusListener listener);
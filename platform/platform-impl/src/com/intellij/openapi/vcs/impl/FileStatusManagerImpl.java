@@ -20,6 +20,7 @@ import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.components.ProjectComponent;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.EditorFactory;
 import com.intellij.openapi.editor.colors.ColorKey;
@@ -33,6 +34,7 @@ import com.intellij.openapi.roots.impl.DirectoryIndex;
 import com.intellij.openapi.startup.StartupManager;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.NotNullLazyValue;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vcs.FileStatus;
 import com.intellij.openapi.vcs.FileStatusListener;
 import com.intellij.openapi.vcs.FileStatusManager;
@@ -45,20 +47,22 @@ import com.intellij.util.containers.HashMap;
 import org.jetbrains.annotations.NotNull;
 
 import java.awt.*;
-import java.util.Collections;
+import java.util.*;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author mike
  */
 public class FileStatusManagerImpl extends FileStatusManager implements ProjectComponent {
+  private static final Logger LOG = Logger.getInstance(FileStatusManagerImpl.class);
+
   private final Map<VirtualFile, FileStatus> myCachedStatuses = Collections.synchronizedMap(new HashMap<VirtualFile, FileStatus>());
   private final Map<VirtualFile, Boolean> myWhetherExactlyParentToChanged =
     Collections.synchronizedMap(new HashMap<VirtualFile, Boolean>());
   private final Project myProject;
   private final List<FileStatusListener> myListeners = ContainerUtil.createLockFreeCopyOnWriteList();
   private FileStatusProvider myFileStatusProvider;
+  private volatile long myLastBatchUpdateTime;
   private final NotNullLazyValue<FileStatusProvider[]> myExtensions = new NotNullLazyValue<FileStatusProvider[]>() {
     @NotNull
     @Override
@@ -222,22 +226,81 @@ public class FileStatusManagerImpl extends FileStatusManager implements ProjectC
       return;
     }
 
-    if ((file == null) || (!file.isValid())) return;
+    if (!updateCachedStatus(file)) return;
+
+    for (FileStatusListener listener : myListeners) {
+      listener.fileStatusChanged(file);
+    }
+  }
+
+  @Override
+  public void fileStatusesChanged(@NotNull Collection<VirtualFile> files) {
+    if (files.isEmpty()) return;
+
+    final Application application = ApplicationManager.getApplication();
+    if (!application.isDispatchThread() && !application.isUnitTestMode()) {
+      final List<VirtualFile> filesCopy = new ArrayList<VirtualFile>(files);
+      ApplicationManager.getApplication().invokeLater(new DumbAwareRunnable() {
+        public void run() {
+          fileStatusesChanged(filesCopy);
+        }
+      });
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+
+    List<VirtualFile> changedFiles = new ArrayList<VirtualFile>();
+    for (VirtualFile file : files) {
+      if (updateCachedStatus(file)) {
+        changedFiles.add(file);
+      }
+    }
+
+    // a lot of per-file events make the listeners repaint the same views many times, a single event is cheaper
+    if (changedFiles.size() > Registry.intValue("vcs.file.status.batch.events.limit")) {
+      for (FileStatusListener listener : myListeners) {
+        listener.fileStatusesChanged();
+      }
+    }
+    else {
+      for (VirtualFile file : changedFiles) {
+        for (FileStatusListener listener : myListeners) {
+          listener.fileStatusChanged(file);
+        }
+      }
+    }
+
+    myLastBatchUpdateTime = System.currentTimeMillis() - start;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Statuses of " + files.size() + " files recalculated, " + changedFiles.size() + " changed, in " + myLastBatchUpdateTime + " ms");
+    }
+  }
+
+  /**
+   * @return true if the cached status of the file was changed, and the listeners should be notified
+   */
+  private boolean updateCachedStatus(final VirtualFile file) {
+    if ((file == null) || (!file.isValid())) return false;
     FileStatus cachedStatus = getCachedStatus(file);
     if (cachedStatus == FileStatusNull.INSTANCE) {
-      return;
+      return false;
     }
     if (cachedStatus == null) {
       cacheChangedFileStatus(file, FileStatusNull.INSTANCE);
-      return;
+      return false;
     }
     FileStatus newStatus = calcStatus(file);
-    if (cachedStatus == newStatus) return;
+    if (cachedStatus == newStatus) return false;
     cacheChangedFileStatus(file, newStatus);
+    return true;
+  }
 
-    for (FileStatusListener listener : myListeners) {
-      listener.fileStatusChanged(file);
-    }
+  /**
+   * @return time in milliseconds the last {@link #fileStatusesChanged(Collection)} call took on the event dispatch thread
+   */
+  public long getLastBatchUpdateTime() {
+    return myLastBatchUpdateTime;
   }
 
   public FileStatus getStatus(final VirtualFile file) {
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.DirtyScopeTrackingHighlightingPassFactory;
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeHighlighting.TextEditorHighlightingPassRegistrar;
+import com.intellij.codeInsight.daemon.impl.quickfix.QuickFixAction;
+import com.intellij.codeInsight.intention.EmptyIntentionAction;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.impl.PsiModificationTrackerImpl;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import com.intellij.util.Processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class HighlightingResultCacheTest extends LightPlatformCodeInsightFixtureTestCase {
+  private FileStatusMap myStatusMap;
+  private HighlightingResultCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myStatusMap = new FileStatusMap(getProject());
+    Disposer.register(myTestRootDisposable, myStatusMap);
+    myCache = new HighlightingResultCache(getProject(), myStatusMap, myTestRootDisposable);
+  }
+
+  public void testRestoredWhenNothingChanged() {
+    Document document = configure("some text");
+    HighlightInfo original = highlight(document, 0, 4, Pass.UPDATE_ALL);
+    rememberAndReset(document);
+
+    assertTrue(myCache.restore(document, null));
+    assertNull(myStatusMap.getFileDirtyScope(document, Pass.UPDATE_ALL));
+    assertNull(myStatusMap.getFileDirtyScope(document, Pass.LOCAL_INSPECTIONS));
+
+    List<HighlightInfo> restored = getHighlights(document);
+    assertEquals(1, restored.size());
+    HighlightInfo info = restored.get(0);
+    assertNotSame(original, info);
+    assertEquals(0, info.getStartOffset());
+    assertEquals(4, info.getEndOffset());
+    assertEquals("problem", info.getDescription());
+    assertEquals(Pass.UPDATE_ALL, info.getGroup());
+  }
+
+  public void testInvalidatedByDocumentChange() {
+    final Document document = configure("some text");
+    highlight(document, 0, 4, Pass.UPDATE_ALL);
+    rememberAndReset(document);
+
+    WriteCommandAction.runWriteCommandAction(getProject(), new Runnable() {
+      @Override
+      public void run() {
+        document.insertString(0, "more ");
+      }
+    });
+    PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    myStatusMap.markAllFilesDirty();
+
+    assertFalse(myCache.restore(document, null));
+    assertEquals(document.getTextLength(), myStatusMap.getFileDirtyScope(document, Pass.UPDATE_ALL).getLength());
+    assertEmpty(getHighlights(document));
+  }
+
+  public void testInvalidatedByPsiChangeElsewhere() {
+    Document document = configure("some text");
+    highlight(document, 0, 4, Pass.UPDATE_ALL);
+    rememberAndReset(document);
+
+    ((PsiModificationTrackerImpl)PsiModificationTracker.SERVICE.getInstance(getProject())).incOutOfCodeBlockModificationCounter();
+
+    assertFalse(myCache.restore(document, null));
+    assertNotNull(myStatusMap.getFileDirtyScope(document, Pass.UPDATE_ALL));
+  }
+
+  public void testHighlightsWithActionsAreRestoredWithTheirFixes() {
+    Document document = configure("some text");
+    HighlightInfo info = createInfo(0, 4, Pass.LOCAL_INSPECTIONS);
+    EmptyIntentionAction fix = new EmptyIntentionAction("fix");
+    QuickFixAction.registerQuickFixAction(info, new TextRange(0, 9), fix);
+    setHighlights(document, Pass.LOCAL_INSPECTIONS, info);
+    rememberAndReset(document);
+
+    assertTrue(myCache.restore(document, null));
+    assertNull(myStatusMap.getFileDirtyScope(document, Pass.LOCAL_INSPECTIONS));
+
+    List<HighlightInfo> restored = getHighlights(document);
+    assertEquals(1, restored.size());
+    HighlightInfo restoredInfo = restored.get(0);
+    assertNotSame(info, restoredInfo);
+    assertEquals(1, restoredInfo.quickFixActionRanges.size());
+    assertSame(fix, restoredInfo.quickFixActionRanges.get(0).first.getAction());
+    assertEquals(new TextRange(0, 9), restoredInfo.quickFixActionRanges.get(0).second);
+    assertEquals(new TextRange(0, 9), restoredInfo.getFixTextRange());
+    assertEquals(1, restoredInfo.quickFixActionMarkers.size());
+  }
+
+  private Document configure(String text) {
+    myFixture.configureByText("a.txt", text);
+    return myFixture.getEditor().getDocument();
+  }
+
+  private HighlightInfo highlight(Document document, int start, int end, int group) {
+    HighlightInfo info = createInfo(start, end, group);
+    setHighlights(document, group, info);
+    return info;
+  }
+
+  private static HighlightInfo createInfo(int start, int end, int group) {
+    HighlightInfo info = HighlightInfo.newHighlightInfo(HighlightInfoType.WARNING).range(start, end).descriptionAndTooltip("problem")
+      .createUnconditionally();
+    info.setGroup(group);
+    return info;
+  }
+
+  private void setHighlights(Document document, int group, HighlightInfo info) {
+    UpdateHighlightersUtil.setHighlightersToEditor(getProject(), document, 0, document.getTextLength(), Collections.singletonList(info),
+                                                   null, group);
+  }
+
+  private void rememberAndReset(Document document) {
+    myStatusMap.markFileUpToDate(document, Pass.UPDATE_ALL);
+    myStatusMap.markFileUpToDate(document, Pass.EXTERNAL_TOOLS);
+    myStatusMap.markFileUpToDate(document, Pass.LOCAL_INSPECTIONS);
+    TextEditorHighlightingPassRegistrarEx registrar =
+      (TextEditorHighlightingPassRegistrarEx)TextEditorHighlightingPassRegistrar.getInstance(getProject());
+    for (DirtyScopeTrackingHighlightingPassFactory factory : registrar.getDirtyScopeTrackingFactories()) {
+      myStatusMap.markFileUpToDate(document, factory.getPassId());
+    }
+    myCache.remember(document);
+
+    for (int group : new int[]{Pass.UPDATE_ALL, Pass.LOCAL_INSPECTIONS}) {
+      UpdateHighlightersUtil.setHighlightersToEditor(getProject(), document, 0, document.getTextLength(),
+                                                     Collections.<HighlightInfo>emptyList(), null, group);
+    }
+    assertEmpty(getHighlights(document));
+    myStatusMap.markAllFilesDirty();
+  }
+
+  private List<HighlightInfo> getHighlights(Document document) {
+    final List<HighlightInfo> result = new ArrayList<HighlightInfo>();
+    DaemonCodeAnalyzerEx.processHighlights(document, getProject(), null, 0, document.getTextLength(), new Processor<HighlightInfo>() {
+      @Override
+      public boolean process(HighlightInfo info) {
+        result.add(info);
+        return true;
+      }
+    });
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangeSetsIndexTest extends TempDirTestCase {
+  private ChangeSetsIndex myIndex;
+
+  @Before
+  public void setUp() throws IOException {
+    myIndex = new ChangeSetsIndex(indexDir());
+  }
+
+  @After
+  public void tearDown() {
+    myIndex.close();
+  }
+
+  @Test
+  public void testFileAndItsParents() throws IOException {
+    ChangeSet file = add(1, new ContentChange(nextId(), "/dir/file", null, -1));
+    ChangeSet dir = add(2, new ROStatusChange(nextId(), "/dir", false));
+    ChangeSet other = add(3, new ContentChange(nextId(), "/other/file", null, -1));
+
+    assertCandidates("/dir/file", dir, file);
+    assertCandidates("/dir", dir, file);
+    assertCandidates("/other", other);
+    assertCandidates("/", other, dir, file);
+    assertCandidates("/dir/file/child", dir, file);
+    assertCandidates("/dir/another", dir);
+  }
+
+  @Test
+  public void testMoveAffectsBothPaths() throws IOException {
+    ChangeSet move = add(1, new MoveChange(nextId(), "/to/file", "/from"));
+
+    assertCandidates("/to/file", move);
+    assertCandidates("/from/file", move);
+    assertCandidates("/from", move);
+    assertCandidates("/elsewhere");
+  }
+
+  @Test
+  public void testLabelsAreAlwaysCandidates() throws IOException {
+    ChangeSet file = add(1, new ContentChange(nextId(), "/dir/file", null, -1));
+    ChangeSet label = add(2, new PutLabelChange(nextId(), "label", "project"));
+
+    assertCandidates("/dir/file", label, file);
+    assertCandidates("/other", label);
+  }
+
+  @Test
+  public void testSeveralChangesInOneChangeSet() throws IOException {
+    ChangeSet cs = add(1, new ContentChange(nextId(), "/dir/file1", null, -1), new ContentChange(nextId(), "/dir/file2", null, -1));
+
+    assertCandidates("/dir", cs);
+    ChangeSetsIndex.Postings postings = myIndex.getCandidates("/dir");
+    assertEquals(1, postings.size());
+    assertEquals(1, postings.getRecordId(0));
+  }
+
+  @Test
+  public void testRemoving() throws IOException {
+    ChangeSet first = add(1, new ContentChange(nextId(), "/dir/file", null, -1));
+    ChangeSet second = add(2, new ContentChange(nextId(), "/dir/file", null, -1));
+    ChangeSet other = add(3, new ContentChange(nextId(), "/dir/other", null, -1));
+
+    List<ChangeSet> purged = new ArrayList<ChangeSet>();
+    purged.add(first);
+    purged.add(other);
+    myIndex.removeAll(purged);
+
+    assertCandidates("/dir/file", second);
+    assertCandidates("/dir", second);
+    assertCandidates("/dir/other");
+  }
+
+  @Test
+  public void testIndexOfFirstBefore() throws IOException {
+    ChangeSet cs1 = add(1, new ContentChange(nextId(), "/file", null, -1));
+    ChangeSet cs2 = add(2, new ContentChange(nextId(), "/file", null, -1));
+    ChangeSet cs3 = add(3, new ContentChange(nextId(), "/file", null, -1));
+
+    ChangeSetsIndex.Postings postings = myIndex.getCandidates("/file");
+    assertEquals(0, postings.indexOfFirstBefore(Long.MAX_VALUE));
+    assertEquals(1, postings.indexOfFirstBefore(cs3.getId()));
+    assertEquals(2, postings.indexOfFirstBefore(cs2.getId()));
+    assertEquals(3, postings.indexOfFirstBefore(cs1.getId()));
+  }
+
+  @Test
+  public void testTrustedOnlyIfClosedUpToDate() throws IOException {
+    assertFalse(myIndex.isUpToDate());
+    add(1, new ContentChange(nextId(), "/file", null, -1));
+    myIndex.close();
+
+    myIndex = new ChangeSetsIndex(indexDir());
+    assertFalse(myIndex.isUpToDate());
+    assertCandidates("/file");
+
+    ChangeSet cs = add(2, new ContentChange(nextId(), "/file", null, -1));
+    myIndex.setUpToDate();
+    myIndex.close();
+
+    myIndex = new ChangeSetsIndex(indexDir());
+    assertTrue(myIndex.isUpToDate());
+    assertCandidates("/file", cs);
+  }
+
+  private File indexDir() {
+    return new File(myTempDir, "index");
+  }
+
+  private ChangeSet add(int recordId, Change... changes) throws IOException {
+    ChangeSet result = cs(changes);
+    myIndex.add(result, recordId);
+    return result;
+  }
+
+  private void assertCandidates(String path, ChangeSet... expected) throws IOException {
+    ChangeSetsIndex.Postings postings = myIndex.getCandidates(path);
+    assertEquals(expected.length, postings.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i].getId(), postings.getChangeSetId(i));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.*;
+
+public class StoredContentTest extends TempDirTestCase {
+  private DeltaContentStorage myStorage;
+
+  @After
+  public void tearDown() {
+    StoredContent.setDeltaStorage(null);
+    if (myStorage != null) myStorage.dispose();
+  }
+
+  @Test
+  public void testContentOfRecreatedStorageIsStale() throws IOException {
+    myStorage = createStorage("old");
+    StoredContent.setDeltaStorage(myStorage);
+    int oldId = myStorage.store(b("old"), "file");
+    StoredContent stale = new StoredContent(-oldId);
+    assertEquals("old", new String(stale.getBytes()));
+
+    myStorage.dispose();
+    myStorage = createStorage("new");
+    StoredContent.setDeltaStorage(myStorage);
+    int newId = myStorage.store(b("new"), "file");
+    assertEquals(oldId, newId); // the stale content id points to an unrelated record now
+
+    assertEquals(0, stale.getBytes().length);
+    assertEquals(0, writtenId(stale));
+
+    stale.release();
+    assertEquals("new", new String(myStorage.load(newId)));
+
+    StoredContent actual = new StoredContent(-newId);
+    assertEquals("new", new String(actual.getBytes()));
+    assertEquals(-newId, writtenId(actual));
+  }
+
+  private DeltaContentStorage createStorage(String name) throws IOException {
+    return new DeltaContentStorage(new File(myTempDir, name).getPath());
+  }
+
+  private static int writtenId(StoredContent content) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    content.write(out);
+    out.close();
+    return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())).readInt();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core.storage;
+
+import com.intellij.history.core.DeltaContentStorage;
+import com.intellij.history.core.TempDirTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DeltaContentStorageTest extends TempDirTestCase {
+  private DeltaContentStorage s;
+
+  @Before
+  public void setUp() throws IOException {
+    s = createStorage();
+  }
+
+  @After
+  public void tearDown() {
+    s.dispose();
+  }
+
+  @Test
+  public void testStoringAndLoading() throws IOException {
+    int id1 = s.store(b("one\ntwo\nthree\n"), "file");
+    int id2 = s.store(b("one\nTWO\nthree\nfour"), "file");
+    int id3 = s.store(b("another"), "another");
+
+    reopen();
+
+    assertEquals("one\ntwo\nthree\n", new String(s.load(id1)));
+    assertEquals("one\nTWO\nthree\nfour", new String(s.load(id2)));
+    assertEquals("another", new String(s.load(id3)));
+  }
+
+  @Test
+  public void testEmptyContents() throws IOException {
+    int id1 = s.store(b(""), "file");
+    int id2 = s.store(b("content"), "file");
+    int id3 = s.store(b(""), "file");
+
+    reopen();
+
+    assertEquals("", new String(s.load(id1)));
+    assertEquals("content", new String(s.load(id2)));
+    assertEquals("", new String(s.load(id3)));
+  }
+
+  @Test
+  public void testReleasedBaseIsKeptForDeltas() throws IOException {
+    String text = generateText(new Random(42), 100);
+    int base = s.store(b(text), "file");
+    int delta = s.store(b(text + "more\n"), "file");
+    s.release(base);
+
+    reopen();
+    assertEquals(text + "more\n", new String(s.load(delta)));
+
+    s.release(delta);
+    int another = s.store(b("another"), "another");
+    assertEquals("another", new String(s.load(another)));
+  }
+
+  @Test
+  public void testLongHistory() throws IOException {
+    Random random = new Random(42);
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < 2000; i++) {
+      lines.add("line " + i + " " + random.nextInt() + "\n");
+    }
+
+    List<String> revisions = new ArrayList<String>();
+    List<Integer> ids = new ArrayList<Integer>();
+    long totalSize = 0;
+    for (int i = 0; i < 1000; i++) {
+      for (int j = 0; j < 3; j++) {
+        lines.set(random.nextInt(lines.size()), "changed " + random.nextInt() + "\n");
+      }
+      if (i % 10 == 0) lines.add(random.nextInt(lines.size()), "inserted " + i + "\n");
+
+      String text = join(lines);
+      revisions.add(text);
+      ids.add(s.store(b(text), "file"));
+      totalSize += text.length();
+    }
+
+    reopen();
+    long storageSize = 0;
+    for (File each : myTempDir.listFiles()) {
+      storageSize += each.length();
+    }
+    assertTrue("storage: " + storageSize + " bytes, contents: " + totalSize + " bytes", storageSize < totalSize / 10);
+
+    for (int i = revisions.size() - 1; i >= 0; i--) {
+      assertEquals(revisions.get(i), new String(s.load(ids.get(i))));
+    }
+  }
+
+  private DeltaContentStorage createStorage() throws IOException {
+    return new DeltaContentStorage(new File(myTempDir, "contents").getPath());
+  }
+
+  private void reopen() throws IOException {
+    s.dispose();
+    s = createStorage();
+  }
+
+  private static String generateText(Random random, int lines) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      result.append(random.nextInt()).append('\n');
+    }
+    return result.toString();
+  }
+
+  private static String join(List<String> lines) {
+    StringBuilder result = new StringBuilder();
+    for (String each : lines) {
+      result.append(each);
+    }
+    return result.toString();
+  }
+}
@@ -32,6 +32,8 @@ import java.util.BitSet;
  */
 public class Diff {
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.diff.Diff");
+  // larger inputs are compared by the linear space algorithm right away, instead of failing in IntLCS after a while
+  private static final int MAX_INT_LCS_SIZE = 100000;
 
   @Nullable
   public static Change buildChanges(@NotNull CharSequence before, @NotNull CharSequence after) throws FilesTooBigForDiffException {
@@ -42,6 +44,26 @@ public class Diff {
 
   @Nullable
   public static <T> Change buildChanges(@NotNull T[] objects1, @NotNull T[] objects2) throws FilesTooBigForDiffException {
+    return doBuildChanges(objects1, objects2, null);
+  }
+
+  /**
+   * Unlike {@link #buildChanges(Object[], Object[])} never fails because of the size of the input:
+   * if it is too big for the usual algorithm, the linear space one is used, which can be canceled via the checker.
+   */
+  @Nullable
+  public static <T> Change buildChanges(@NotNull T[] objects1, @NotNull T[] objects2, @NotNull CancellationChecker checker) {
+    try {
+      return doBuildChanges(objects1, objects2, checker);
+    }
+    catch (FilesTooBigForDiffException e) {
+      throw new IllegalStateException(e); // not thrown when there is a checker
+    }
+  }
+
+  @Nullable
+  private static <T> Change doBuildChanges(@NotNull T[] objects1, @NotNull T[] objects2, @Nullable CancellationChecker checker)
+    throws FilesTooBigForDiffException {
 
     // Old variant of enumerator worked incorrectly with null values.
     // This check is to ensure that the corrected version does not introduce bugs.
@@ -61,6 +83,7 @@ public class Diff {
       return builder.getFirstChange();
     }
 
+    if (checker != null) checker.checkCanceled();
     Enumerator<T> enumerator = new Enumerator<T>(trimmedLength1 + trimmedLength2, ContainerUtil.<T>canonicalStrategy());
     int[] ints1 = enumerator.enumerate(objects1, startShift, endCut);
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
@@ -74,7 +97,10 @@ public class Diff {
     }
 
     BitSet[] changes;
-    if (Registry.is("diff.patience.alg")) {
+    if (checker != null && discarded[0].length + discarded[1].length > MAX_INT_LCS_SIZE) {
+      changes = buildChangesLinearSpace(discarded, checker);
+    }
+    else if (Registry.is("diff.patience.alg")) {
       PatienceIntLCS patienceIntLCS = new PatienceIntLCS(discarded[0], discarded[1]);
       patienceIntLCS.execute();
       changes = patienceIntLCS.getChanges();
@@ -86,11 +112,16 @@ public class Diff {
         changes = intLCS.getChanges();
       }
       catch (FilesTooBigForDiffException e) {
-        PatienceIntLCS patienceIntLCS = new PatienceIntLCS(discarded[0], discarded[1]);
-        patienceIntLCS.failOnSmallSizeReduction();
-        patienceIntLCS.execute();
-        changes = patienceIntLCS.getChanges();
-        LOG.info("Successful fallback to patience diff");
+        if (checker != null) {
+          changes = buildChangesLinearSpace(discarded, checker);
+        }
+        else {
+          PatienceIntLCS patienceIntLCS = new PatienceIntLCS(discarded[0], discarded[1]);
+          patienceIntLCS.failOnSmallSizeReduction();
+          patienceIntLCS.execute();
+          changes = patienceIntLCS.getChanges();
+          LOG.info("Successful fallback to patience diff");
+        }
       }
     }
 
@@ -98,6 +129,13 @@ public class Diff {
     return builder.getFirstChange();
   }
 
+  @NotNull
+  private static BitSet[] buildChangesLinearSpace(@NotNull int[][] discarded, @NotNull CancellationChecker checker) {
+    MyersLCS myersLCS = new MyersLCS(discarded[0], discarded[1], checker);
+    myersLCS.execute();
+    return myersLCS.getChanges();
+  }
+
   private static <T> int getStartShift(final T[] o1, final T[] o2) {
     final int size = Math.min(o1.length, o2.length);
     int idx = 0;
@@ -166,6 +204,19 @@ public class Diff {
     return result;
   }
 
+  /**
+   * Lets long comparisons be interrupted, e.g. by throwing {@link com.intellij.openapi.progress.ProcessCanceledException}.
+   */
+  public interface CancellationChecker {
+    CancellationChecker NONE = new CancellationChecker() {
+      @Override
+      public void checkCanceled() {
+      }
+    };
+
+    void checkCanceled();
+  }
+
   public static class Change {
     // todo remove. Return lists instead.
     /**
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Linear space variation of the Myers' O(ND) algorithm: finds the middle snake of the shortest edit script,
+ * and continues with the parts before and after it.
+ * <p/>
+ * Unlike {@link IntLCS} it doesn't keep the paths, so it needs only O(N + M) memory and never fails because of the size of the input.
+ * For the parts which are too expensive to compare exactly, the furthest reached point is taken instead of the middle snake,
+ * so the result is still a correct, but maybe not the shortest edit script.
+ */
+class MyersLCS {
+  private static final int MIN_TOO_EXPENSIVE = 256;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+
+  private final int myStart1;
+  private final int myStart2;
+  private final int myCount1;
+  private final int myCount2;
+
+  private final BitSet myChanges1;
+  private final BitSet myChanges2;
+
+  @NotNull private final Diff.CancellationChecker myChecker;
+  private final int myTooExpensive;
+
+  private final int[] myForward;
+  private final int[] myBackward;
+
+  public MyersLCS(@NotNull int[] first, @NotNull int[] second, @NotNull Diff.CancellationChecker checker) {
+    this(first, second, 0, first.length, 0, second.length, new BitSet(first.length), new BitSet(second.length), checker);
+  }
+
+  public MyersLCS(@NotNull int[] first, @NotNull int[] second, int start1, int count1, int start2, int count2,
+                  @NotNull BitSet changes1, @NotNull BitSet changes2, @NotNull Diff.CancellationChecker checker) {
+    myFirst = first;
+    mySecond = second;
+    myStart1 = start1;
+    myStart2 = start2;
+    myCount1 = count1;
+    myCount2 = count2;
+
+    myChanges1 = changes1;
+    myChanges2 = changes2;
+    myChecker = checker;
+
+    // grows as the square root of the size, as in GNU diff, but slower: exact comparison of huge inputs is not affordable anyway
+    myTooExpensive = Math.max(MIN_TOO_EXPENSIVE, (int)Math.sqrt(count1 + count2) / 4);
+
+    myForward = new int[count1 + count2 + 3];
+    myBackward = new int[count1 + count2 + 3];
+  }
+
+  public void execute() {
+    myChanges1.set(myStart1, myStart1 + myCount1);
+    myChanges2.set(myStart2, myStart2 + myCount2);
+
+    TIntArrayList stack = new TIntArrayList();
+    stack.add(new int[]{myStart1, myStart1 + myCount1, myStart2, myStart2 + myCount2});
+    int[] snake = new int[4];
+
+    while (!stack.isEmpty()) {
+      myChecker.checkCanceled();
+
+      int size = stack.size();
+      int end2 = stack.remove(size - 1);
+      int start2 = stack.remove(size - 2);
+      int end1 = stack.remove(size - 3);
+      int start1 = stack.remove(size - 4);
+
+      while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+        markEqual(start1++, start2++, 1);
+      }
+      while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+        markEqual(--end1, --end2, 1);
+      }
+      if (start1 == end1 || start2 == end2) continue;
+
+      if (!findMiddleSnake(start1, end1, start2, end2, snake)) continue;
+      markEqual(snake[0], snake[1], snake[2] - snake[0]);
+
+      stack.add(new int[]{start1, snake[0], start2, snake[1]});
+      stack.add(new int[]{snake[2], end1, snake[3], end2});
+    }
+  }
+
+  public BitSet[] getChanges() {
+    return new BitSet[]{myChanges1, myChanges2};
+  }
+
+  private void markEqual(int index1, int index2, int count) {
+    myChanges1.clear(index1, index1 + count);
+    myChanges2.clear(index2, index2 + count);
+  }
+
+  /**
+   * Finds the middle snake of the shortest edit script for the given non-empty ranges, or the furthest point reachable
+   * from their starts if the script is too long.
+   *
+   * @param snake receives the start and the end points of the snake: start1, start2, end1, end2
+   * @return false if no split point can be found and the ranges should be considered changed completely
+   */
+  private boolean findMiddleSnake(int start1, int end1, int start2, int end2, @NotNull int[] snake) {
+    int n = end1 - start1;
+    int m = end2 - start2;
+    int delta = n - m;
+    boolean odd = (delta & 1) != 0;
+    int offset = m + 1; // diagonal k = x - y is stored at index k + offset, k is in [-m, n]
+
+    int maxD = (n + m + 1) / 2;
+
+    // furthest x reached on a diagonal going forward, the smallest x going backward, -1 if not reached yet;
+    // only the diagonals that can be reached before the search stops are cleared
+    int reach = Math.min(maxD, myTooExpensive) + 1;
+    Arrays.fill(myForward, Math.max(-reach, -m - 1) + offset, Math.min(reach, n + 1) + offset + 1, -1);
+    Arrays.fill(myBackward, Math.max(delta - reach, -m - 1) + offset, Math.min(delta + reach, n + 1) + offset + 1, -1);
+
+    for (int d = 0; d <= maxD; d++) {
+      if ((d & 0xFF) == 0) myChecker.checkCanceled();
+
+      for (int k = firstDiagonal(-d, -m); k <= Math.min(d, n); k += 2) {
+        int x;
+        if (d == 0) {
+          x = 0;
+        }
+        else {
+          int fromLeft = k - 1 >= -m ? myForward[k - 1 + offset] : -1;
+          int fromAbove = k + 1 <= n ? myForward[k + 1 + offset] : -1;
+          int right = fromLeft != -1 && fromLeft + 1 <= n ? fromLeft + 1 : -1;
+          int down = fromAbove != -1 && fromAbove - k <= m ? fromAbove : -1;
+          x = Math.max(right, down);
+          if (x == -1) continue;
+        }
+        int startX = x;
+        int y = x - k;
+        while (x < n && y < m && myFirst[start1 + x] == mySecond[start2 + y]) {
+          x++;
+          y++;
+        }
+        myForward[k + offset] = x;
+
+        if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)) {
+          int backward = myBackward[k + offset];
+          if (backward != -1 && x >= backward) {
+            setSnake(snake, start1, start2, startX, startX - k, x, y);
+            return true;
+          }
+        }
+      }
+
+      for (int k = firstDiagonal(delta - d, -m); k <= Math.min(delta + d, n); k += 2) {
+        int x;
+        if (d == 0) {
+          x = n;
+        }
+        else {
+          int fromRight = k + 1 <= n ? myBackward[k + 1 + offset] : -1;
+          int fromBelow = k - 1 >= -m ? myBackward[k - 1 + offset] : -1;
+          int left = fromRight > 0 ? fromRight - 1 : -1;
+          int up = fromBelow != -1 && fromBelow - k >= 0 ? fromBelow : -1;
+          if (left == -1) x = up;
+          else if (up == -1) x = left;
+          else x = Math.min(left, up);
+          if (x == -1) continue;
+        }
+        int endX = x;
+        int y = x - k;
+        while (x > 0 && y > 0 && myFirst[start1 + x - 1] == mySecond[start2 + y - 1]) {
+          x--;
+          y--;
+        }
+        myBackward[k + offset] = x;
+
+        if (!odd && k >= -d && k <= d) {
+          int forward = myForward[k + offset];
+          if (forward != -1 && x <= forward) {
+            setSnake(snake, start1, start2, x, y, endX, endX - k);
+            return true;
+          }
+        }
+      }
+
+      if (d >= myTooExpensive) {
+        return findFurthestPoint(start1, start2, n, m, d, snake);
+      }
+    }
+    throw new IllegalStateException("Middle snake not found: " + n + ", " + m);
+  }
+
+  /**
+   * @return the first diagonal not less than the bound, which has the same parity as the first diagonal of the iteration
+   */
+  private static int firstDiagonal(int first, int bound) {
+    return first >= bound ? first : bound + ((bound - first) & 1);
+  }
+
+  private boolean findFurthestPoint(int start1, int start2, int n, int m, int d, @NotNull int[] snake) {
+    int offset = m + 1;
+    int bestX = -1;
+    int bestY = -1;
+    for (int k = Math.max(-d, -m); k <= Math.min(d, n); k++) {
+      int x = myForward[k + offset];
+      if (x == -1) continue;
+      int y = x - k;
+      if (x + y == 0 || x + y == n + m) continue;
+      if (x + y > bestX + bestY) {
+        bestX = x;
+        bestY = y;
+      }
+    }
+    if (bestX == -1) return false;
+    setSnake(snake, start1, start2, bestX, bestY, bestX, bestY);
+    return true;
+  }
+
+  private static void setSnake(@NotNull int[] snake, int start1, int start2, int x1, int y1, int x2, int y2) {
+    snake[0] = start1 + x1;
+    snake[1] = start2 + y1;
+    snake[2] = start1 + x2;
+    snake[3] = start2 + y2;
+  }
+}
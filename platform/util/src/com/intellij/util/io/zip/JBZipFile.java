@@ -95,6 +95,7 @@ public class JBZipFile {
 
   private JBZipOutputStream myOutputStream;
   private long currentcfdfoffset = 0;
+  private int myCompressionLevel = JBZipOutputStream.DEFAULT_COMPRESSION;
 
   /**
    * Opens the given file for reading, assuming the platform's
@@ -177,10 +178,10 @@ public class JBZipFile {
   public void close() throws IOException {
     if (myOutputStream != null) {
       if (entries.isEmpty()) {
-        final JBZipEntry empty = getOrCreateEntry("/empty.file.marker");
-        myOutputStream.putNextEntryBytes(empty, "empty".getBytes());
+        // nothing is referenced anymore, so the archive is truncated to the end of central directory record only
+        myOutputStream = new JBZipOutputStream(this, 0);
       }
-      
+
       myOutputStream.finish();
       archive.setLength(myOutputStream.written);
     }
@@ -208,6 +209,18 @@ public class JBZipFile {
     return nameMap.get(name);
   }
 
+  /**
+   * Sets the compression level of the deflated entries written after this call.
+   *
+   * @param level the compression level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+   */
+  public void setCompressionLevel(int level) {
+    myCompressionLevel = level;
+    if (myOutputStream != null) {
+      myOutputStream.setLevel(level);
+    }
+  }
+
   public JBZipEntry getOrCreateEntry(String name) {
     JBZipEntry entry = nameMap.get(name);
     if (entry != null) return entry;
@@ -452,6 +465,7 @@ public class JBZipFile {
   JBZipOutputStream getOutputStream() throws IOException {
     if (myOutputStream == null) {
       myOutputStream = new JBZipOutputStream(this, currentcfdfoffset);
+      myOutputStream.setLevel(myCompressionLevel);
     }
     return myOutputStream;
   }
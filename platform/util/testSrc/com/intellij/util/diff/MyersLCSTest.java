@@ -0,0 +1,133 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+import java.util.Random;
+
+public class MyersLCSTest extends TestCase {
+  public void testEqual() {
+    BitSet[] changes = execute(new int[]{1, 2, 3}, new int[]{1, 2, 3});
+    assertTrue(changes[0].isEmpty());
+    assertTrue(changes[1].isEmpty());
+  }
+
+  public void testAbsolutelyDifferent() {
+    BitSet[] changes = execute(new int[]{1, 2, 3}, new int[]{4, 5});
+    assertEquals(3, changes[0].cardinality());
+    assertEquals(2, changes[1].cardinality());
+  }
+
+  public void testSingleMiddle() {
+    BitSet[] changes = execute(new int[]{1, 2, 3}, new int[]{4, 2, 5});
+    assertEquals("{0, 2}", changes[0].toString());
+    assertEquals("{0, 2}", changes[1].toString());
+  }
+
+  public void testEmpty() {
+    BitSet[] changes = execute(new int[0], new int[]{1, 2});
+    assertTrue(changes[0].isEmpty());
+    assertEquals(2, changes[1].cardinality());
+  }
+
+  public void testSameAsIntLCS() throws FilesTooBigForDiffException {
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      int[] first = generate(random, random.nextInt(40), 1 + random.nextInt(6));
+      int[] second = generate(random, random.nextInt(40), 1 + random.nextInt(6));
+
+      BitSet[] changes = execute(first, second);
+      checkCommonSubsequence(first, second, changes);
+
+      IntLCS intLCS = new IntLCS(first, second);
+      intLCS.execute();
+      BitSet[] expected = intLCS.getChanges();
+      assertEquals(expected[0].cardinality(), changes[0].cardinality());
+      assertEquals(expected[1].cardinality(), changes[1].cardinality());
+    }
+  }
+
+  public void testCanceled() {
+    final int[] counter = new int[1];
+    try {
+      new MyersLCS(new int[]{1, 2, 3}, new int[]{4, 2, 5}, new Diff.CancellationChecker() {
+        @Override
+        public void checkCanceled() {
+          if (counter[0]++ > 0) throw new IllegalStateException();
+        }
+      }).execute();
+      fail();
+    }
+    catch (IllegalStateException ignored) {
+    }
+  }
+
+  public void testHugeSimilar() {
+    Random random = new Random(42);
+    for (int size : new int[]{10000, 100000, 1000000}) {
+      int[] first = generate(random, size, 1000);
+      int[] second = first.clone();
+      int replaced = size / 100;
+      for (int i = 0; i < replaced; i++) {
+        second[random.nextInt(size)] = random.nextInt(1000);
+      }
+
+      BitSet[] changes = execute(first, second);
+      checkCommonSubsequence(first, second, changes);
+      // keeping all the elements which were not replaced is a common subsequence, so the longest one can't be shorter
+      assertTrue(changes[0].cardinality() <= replaced);
+      assertTrue(changes[1].cardinality() <= replaced);
+    }
+  }
+
+  public void testHugeDifferent() {
+    Random random = new Random(42);
+    int[] first = generate(random, 100000, 1000);
+    int[] second = generate(random, 100000, 1000);
+
+    BitSet[] changes = execute(first, second);
+    checkCommonSubsequence(first, second, changes);
+    assertTrue(changes[0].cardinality() < first.length);
+  }
+
+  private static BitSet[] execute(int[] first, int[] second) {
+    MyersLCS lcs = new MyersLCS(first, second, Diff.CancellationChecker.NONE);
+    lcs.execute();
+    return lcs.getChanges();
+  }
+
+  private static int[] generate(Random random, int length, int alphabet) {
+    int[] result = new int[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = random.nextInt(alphabet);
+    }
+    return result;
+  }
+
+  private static void checkCommonSubsequence(int[] first, int[] second, BitSet[] changes) {
+    int index1 = changes[0].nextClearBit(0);
+    int index2 = changes[1].nextClearBit(0);
+    while (index1 < first.length && index2 < second.length) {
+      assertEquals(first[index1], second[index2]);
+      index1 = changes[0].nextClearBit(index1 + 1);
+      index2 = changes[1].nextClearBit(index2 + 1);
+    }
+    assertTrue(index1 >= first.length);
+    assertTrue(index2 >= second.length);
+  }
+}
@@ -20,12 +20,15 @@
 package com.intellij.util.io.zip;
 
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import junit.framework.TestCase;
 
 import java.io.*;
+import java.util.*;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 public class UpdateableZipTest extends TestCase {
@@ -108,6 +111,119 @@ public class UpdateableZipTest extends TestCase {
     utilZip.close();
   }
   
+  public void testDeflatedEntries() throws Exception {
+    File zipFile = FileUtil.createTempFile("test", ".zip");
+    try {
+      JBZipFile jbZip = new JBZipFile(zipFile);
+      for (String name : new String[]{"/first", "/second"}) {
+        JBZipEntry entry = jbZip.getOrCreateEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setData(StringUtil.repeat(name, 100).getBytes());
+      }
+      jbZip.close();
+
+      ZipFile utilZip = new ZipFile(zipFile);
+      try {
+        for (String name : new String[]{"/first", "/second"}) {
+          ZipEntry entry = utilZip.getEntry(name);
+          assertNotNull(entry);
+          assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+          assertEquals(StringUtil.repeat(name, 100), FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(entry))));
+        }
+      }
+      finally {
+        utilZip.close();
+      }
+
+      ZipInputStream stream = new ZipInputStream(new FileInputStream(zipFile));
+      try {
+        for (String name : new String[]{"/first", "/second"}) {
+          ZipEntry entry = stream.getNextEntry();
+          assertNotNull(entry);
+          assertEquals(name, entry.getName());
+          assertEquals(StringUtil.repeat(name, 100), new String(FileUtil.loadBytes(stream)));
+        }
+        assertNull(stream.getNextEntry());
+      }
+      finally {
+        stream.close();
+      }
+    }
+    finally {
+      FileUtil.delete(zipFile);
+    }
+  }
+
+  public void testRemoveAllEntries() throws Exception {
+    File zipFile = createTestUtilZip();
+
+    JBZipFile jbZip = new JBZipFile(zipFile);
+    jbZip.getEntry("/first").erase();
+    jbZip.getEntry("/second").erase();
+    jbZip.close();
+
+    ZipFile utilZip = new ZipFile(zipFile);
+    assertEquals(0, utilZip.size());
+    utilZip.close();
+
+    jbZip = new JBZipFile(zipFile);
+    assertTrue(jbZip.getEntries().isEmpty());
+    jbZip.close();
+  }
+
+  public void testUpdateInPlace() throws Exception {
+    File zipFile = FileUtil.createTempFile("test", ".zip");
+    try {
+      JBZipFile jbZip = new JBZipFile(zipFile);
+      for (String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+        JBZipEntry entry = jbZip.getOrCreateEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setData(name.substring(0, 1).getBytes());
+      }
+      jbZip.close();
+
+      jbZip = new JBZipFile(zipFile);
+      JBZipEntry changed = jbZip.getOrCreateEntry("b.txt");
+      changed.setMethod(ZipEntry.DEFLATED);
+      changed.setData("b2".getBytes());
+      jbZip.getEntry("c.txt").erase();
+      jbZip.close();
+
+      ZipFile utilZip = new ZipFile(zipFile);
+      try {
+        assertEquals(2, utilZip.size());
+        assertEquals("a", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("a.txt")))));
+        assertEquals("b2", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("b.txt")))));
+        assertNull(utilZip.getEntry("c.txt"));
+      }
+      finally {
+        utilZip.close();
+      }
+
+      // the local headers of the replaced and erased entries stay in the file, so streaming readers still see them
+      Map<String, String> streamed = new LinkedHashMap<String, String>();
+      List<String> names = new ArrayList<String>();
+      ZipInputStream stream = new ZipInputStream(new FileInputStream(zipFile));
+      try {
+        ZipEntry entry;
+        while ((entry = stream.getNextEntry()) != null) {
+          names.add(entry.getName());
+          streamed.put(entry.getName(), new String(FileUtil.loadBytes(stream)));
+        }
+      }
+      finally {
+        stream.close();
+      }
+      assertEquals(Arrays.asList("a.txt", "b.txt", "c.txt", "b.txt"), names);
+      assertEquals("a", streamed.get("a.txt"));
+      assertEquals("b2", streamed.get("b.txt"));
+      assertEquals("c", streamed.get("c.txt"));
+    }
+    finally {
+      FileUtil.delete(zipFile);
+    }
+  }
+
   /*
   public void testAppendToIdeaJar() throws Exception {
     //ProfilingUtil.startCPUProfiling();
@@ -479,6 +479,14 @@ public abstract class AbstractVcs<ComList extends CommittedChangeList> extends S
     return false;
   }
 
+  /**
+   * @return true if the {@link ChangeProvider} can be asked for changes in scopes of different roots of this VCS at the same time;
+   * then the roots are refreshed in parallel
+   */
+  public boolean isChangeProviderConcurrent() {
+    return false;
+  }
+
   public <S> List<S> filterUniqueRoots(final List<S> in, final Convertor<S, VirtualFile> convertor) {
     new FilterDescendantVirtualFileConvertible(convertor, FilePathComparator.getInstance()).doFilter(in);
     return in;
@@ -31,6 +31,7 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -56,7 +57,8 @@ public class Change {
   protected boolean myRenameOrMoveCached = false;
   private boolean myIsReplaced;
   private Type myType;
-  private final Map<String, Change> myOtherLayers;
+  // most changes have no other layers, so the map is created on demand
+  @Nullable private Map<String, Change> myOtherLayers;
   // if null, vcs's is used. intended: for property conflict case
   private Getter<MergeTexts> myMergeProvider;
 
@@ -70,7 +72,6 @@ public class Change {
     myAfterRevision = afterRevision;
     myFileStatus = fileStatus == null ? convertStatus(beforeRevision, afterRevision) : fileStatus;
     myHash = -1;
-    myOtherLayers = new HashMap<String, Change>(0);
   }
 
   private static FileStatus convertStatus(@Nullable ContentRevision beforeRevision, @Nullable ContentRevision afterRevision) {
@@ -88,11 +89,14 @@ public class Change {
   }
 
   public void addAdditionalLayerElement(final String name, final Change change) {
+    if (myOtherLayers == null) {
+      myOtherLayers = new HashMap<String, Change>(1);
+    }
     myOtherLayers.put(name, change);
   }
 
   public Map<String, Change> getOtherLayers() {
-    return myOtherLayers;
+    return myOtherLayers == null ? Collections.<String, Change>emptyMap() : myOtherLayers;
   }
 
   public boolean isTreeConflict() {
@@ -104,7 +108,7 @@ public class Change {
   }
 
   public boolean hasOtherLayers() {
-    return ! myOtherLayers.isEmpty();
+    return myOtherLayers != null && ! myOtherLayers.isEmpty();
   }
 
   public Type getType() {
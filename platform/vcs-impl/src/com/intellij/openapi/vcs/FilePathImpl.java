@@ -41,8 +41,8 @@ import java.nio.charset.Charset;
 public class FilePathImpl implements FilePath {
   private VirtualFile myVirtualFile;
   private VirtualFile myVirtualParent;
-  private final String myName;
-  @NotNull private final File myFile;
+  // the path is interned in the parent-pointer tree of names, the io file is created only when asked for
+  @NotNull private final FilePathNode myNode;
   private boolean myIsDirectory;
   private final boolean myLocal;
 
@@ -96,8 +96,11 @@ public class FilePathImpl implements FilePath {
   }
 
   private FilePathImpl(@NotNull File file, final boolean isDirectory, boolean local) {
-    myFile = file;
-    myName = file.getName();
+    this(FilePathNode.fromPath(file.getPath()), isDirectory, local);
+  }
+
+  private FilePathImpl(@NotNull FilePathNode node, final boolean isDirectory, boolean local) {
+    myNode = node;
     myIsDirectory = isDirectory;
     myLocal = local;
   }
@@ -118,7 +121,7 @@ public class FilePathImpl implements FilePath {
   }
 
   public int hashCode() {
-    return StringUtil.stringHashCodeInsensitive(myFile.getPath());
+    return myNode.getHash();
   }
 
   public boolean equals(Object o) {
@@ -126,9 +129,20 @@ public class FilePathImpl implements FilePath {
       return false;
     }
     else {
-      if (! isSpecialName(myName) && ! isSpecialName(((FilePath)o).getName()) &&
-          ! Comparing.equal(myName, ((FilePath)o).getName())) return false;
-      return myFile.equals(((FilePath)o).getIOFile());
+      if (o instanceof FilePathImpl) {
+        final FilePathNode node = ((FilePathImpl)o).myNode;
+        if (node == myNode) return true;
+        // equal names have equal ids
+        if (node.getNameId() != myNode.getNameId() && ! isSpecialName(getName()) && ! isSpecialName(((FilePath)o).getName())) {
+          return false;
+        }
+      }
+      else {
+        final String name = getName();
+        if (! isSpecialName(name) && ! isSpecialName(((FilePath)o).getName()) &&
+            ! Comparing.equal(name, ((FilePath)o).getName())) return false;
+      }
+      return getIOFile().equals(((FilePath)o).getIOFile());
     }
   }
   
@@ -140,10 +154,10 @@ public class FilePathImpl implements FilePath {
   public void refresh() {
     if (myLocal) {
       if (myVirtualParent == null) {
-        myVirtualFile = LocalFileSystem.getInstance().findFileByIoFile(myFile);
+        myVirtualFile = LocalFileSystem.getInstance().findFileByIoFile(getIOFile());
       }
       else {
-        myVirtualFile = myVirtualParent.findChild(myName);
+        myVirtualFile = myVirtualParent.findChild(getName());
       }
     }
   }
@@ -151,7 +165,7 @@ public class FilePathImpl implements FilePath {
   @Override
   public void hardRefresh() {
     if (myLocal && (myVirtualFile == null || ! myVirtualFile.isValid())) {
-      myVirtualFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(myFile);
+      myVirtualFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(getIOFile());
     }
   }
 
@@ -162,7 +176,7 @@ public class FilePathImpl implements FilePath {
       return virtualFile.getPath();
     }
     else {
-      return myFile.getPath();
+      return myNode.getPath();
     }
   }
 
@@ -200,12 +214,15 @@ public class FilePathImpl implements FilePath {
     // can't use File.getParentPath() because the path may not correspond to an actual file on disk,
     // and adding a drive letter would not be appropriate (IDEADEV-7405)
     // path containing exactly one separator is assumed to be root path
-    final String path = myFile.getPath();
-    int pos = path.lastIndexOf(File.separatorChar);
-    if (pos < 0 || pos == path.indexOf(File.separatorChar)) {
+    final FilePathNode parent = myNode.getParent();
+    if (parent == null || parent.getParent() == null) {
       return null;
     }
-    return new FilePathImpl(new File(path.substring(0, pos)), true);
+    if (myLocal) {
+      return new FilePathImpl(parent, true, true);
+    }
+    // the path of a non-local file is not normalized, but the path of its parent always was
+    return new FilePathImpl(new File(parent.getPath()), true);
   }
 
   @Override
@@ -230,18 +247,19 @@ public class FilePathImpl implements FilePath {
   @Override
   @NotNull
   public File getIOFile() {
-    return myFile;
+    final String path = myNode.getPath();
+    return myLocal ? new File(path) : createFileWithoutNormalization(path);
   }
 
   @Override
   public String getName() {
-    return myName;
+    return myNode.getName().toString();
   }
 
   @Override
   public String getPresentableUrl() {
     if (myVirtualFile == null || !myVirtualFile.isValid()) {
-      return myFile.getAbsolutePath();
+      return getIOFile().getAbsolutePath();
     }
     else {
       return myVirtualFile.getPresentableUrl();
@@ -268,7 +286,7 @@ public class FilePathImpl implements FilePath {
     VirtualFile existing = myVirtualFile != null && myVirtualFile.isValid() ? myVirtualFile : null;
     if (existing == null) {
       LocalFileSystem lfs = LocalFileSystem.getInstance();
-      for (File f = myFile; f != null; f = f.getParentFile()) {
+      for (File f = getIOFile(); f != null; f = f.getParentFile()) {
         existing = lfs.findFileByIoFile(f);
         if (existing != null && existing.isValid()) {
           break;
@@ -290,7 +308,7 @@ public class FilePathImpl implements FilePath {
 
   @Override
   public FileType getFileType() {
-    return myVirtualFile != null ? myVirtualFile.getFileType() : FileTypeManager.getInstance().getFileTypeByFileName(myFile.getName());
+    return myVirtualFile != null ? myVirtualFile.getFileType() : FileTypeManager.getInstance().getFileTypeByFileName(getName());
   }
 
   public static FilePathImpl create(VirtualFile file) {
@@ -357,6 +375,11 @@ public class FilePathImpl implements FilePath {
   @NotNull
   public static FilePath createNonLocal(String path, final boolean directory) {
     path = path.replace('/', File.separatorChar);
+    return new FilePathImpl(createFileWithoutNormalization(path), directory, false);
+  }
+
+  @NotNull
+  private static File createFileWithoutNormalization(@NotNull String path) {
     // avoid filename normalization (IDEADEV-10548)
     if (!ourFileStringConstructorInitialized) {
       ourFileStringConstructorInitialized = true;
@@ -380,13 +403,14 @@ public class FilePathImpl implements FilePath {
     if (file == null) {
       file = new File(path);
     }
-    return new FilePathImpl(file, directory, false);
+    return file;
   }
 
   @Override
   @NonNls
   public String toString() {
-    return "FilePath[" + myFile.getName() + "] (" + myFile.getParent() + ")";
+    final File file = getIOFile();
+    return "FilePath[" + file.getName() + "] (" + file.getParent() + ")";
   }
 
   @Override
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.newvfs.impl.FileNameCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * The path of a {@link FilePathImpl}: the name of the file, enumerated by the VFS name enumerator, and the path of its parent.
+ * Nodes are interned weakly, so the paths of the files of one directory share the node of the directory, and nodes which are
+ * not referenced by any file path anymore are collected.
+ * <p/>
+ * The path is split at {@link File#separatorChar} as is, so that the joined names give exactly the original path,
+ * empty names (of the file system root, for example) included.
+ */
+final class FilePathNode {
+  private static final int EMPTY_NAME_ID = 0;
+
+  private static final Object ourLock = new Object();
+  private static final ReferenceQueue<FilePathNode> ourQueue = new ReferenceQueue<FilePathNode>();
+  private static NodeReference[] ourTable = new NodeReference[1 << 10];
+  private static int ourSize;
+
+  // files are usually created directory by directory, so the parent of the last created file is likely to be looked up again
+  private static volatile LastParent ourLastParent;
+
+  @Nullable private final FilePathNode myParent;
+  private final int myNameId;
+  private final int myHash;
+
+  private FilePathNode(@Nullable FilePathNode parent, int nameId, int hash) {
+    myParent = parent;
+    myNameId = nameId;
+    myHash = hash;
+  }
+
+  @NotNull
+  static FilePathNode fromPath(@NotNull String path) {
+    final int pos = path.lastIndexOf(File.separatorChar);
+    if (pos < 0) {
+      return intern(null, path);
+    }
+    return intern(parentNode(path, pos), path.substring(pos + 1));
+  }
+
+  @NotNull
+  private static FilePathNode parentNode(@NotNull String path, int length) {
+    final LastParent lastParent = ourLastParent;
+    if (lastParent != null && lastParent.myPath.length() == length && path.startsWith(lastParent.myPath)) {
+      return lastParent.myNode;
+    }
+    final String parentPath = path.substring(0, length);
+    final FilePathNode parent = fromPath(parentPath);
+    ourLastParent = new LastParent(parentPath, parent);
+    return parent;
+  }
+
+  @NotNull
+  private static FilePathNode intern(@Nullable FilePathNode parent, @NotNull String name) {
+    final int nameId = name.isEmpty() ? EMPTY_NAME_ID : FileNameCache.storeName(name);
+    final int hash = hash(parent, name);
+    synchronized (ourLock) {
+      expungeStaleReferences();
+      final int index = index(hash, ourTable.length);
+      for (NodeReference reference = ourTable[index]; reference != null; reference = reference.myNext) {
+        final FilePathNode node = reference.get();
+        if (node != null && node.myParent == parent && node.myNameId == nameId) {
+          return node;
+        }
+      }
+      final FilePathNode node = new FilePathNode(parent, nameId, hash);
+      ourTable[index] = new NodeReference(node, ourTable[index]);
+      if (++ourSize > ourTable.length / 4 * 3) {
+        rehash();
+      }
+      return node;
+    }
+  }
+
+  // the hash of the whole path, the same as StringUtil.stringHashCodeInsensitive(getPath())
+  private static int hash(@Nullable FilePathNode parent, @NotNull String name) {
+    int hash = 0;
+    if (parent != null) {
+      hash = 31 * parent.myHash + StringUtil.toLowerCase(File.separatorChar);
+    }
+    for (int i = 0; i < name.length(); i++) {
+      hash = 31 * hash + StringUtil.toLowerCase(name.charAt(i));
+    }
+    return hash;
+  }
+
+  private static int index(int hash, int length) {
+    return (hash ^ (hash >>> 16)) & (length - 1);
+  }
+
+  private static void expungeStaleReferences() {
+    NodeReference stale;
+    while ((stale = (NodeReference)ourQueue.poll()) != null) {
+      final int index = index(stale.myHash, ourTable.length);
+      NodeReference previous = null;
+      for (NodeReference reference = ourTable[index]; reference != null; reference = reference.myNext) {
+        if (reference == stale) {
+          if (previous == null) {
+            ourTable[index] = reference.myNext;
+          }
+          else {
+            previous.myNext = reference.myNext;
+          }
+          ourSize--;
+          break;
+        }
+        previous = reference;
+      }
+    }
+  }
+
+  private static void rehash() {
+    final NodeReference[] table = new NodeReference[ourTable.length * 2];
+    for (NodeReference head : ourTable) {
+      NodeReference reference = head;
+      while (reference != null) {
+        final NodeReference next = reference.myNext;
+        final int index = index(reference.myHash, table.length);
+        reference.myNext = table[index];
+        table[index] = reference;
+        reference = next;
+      }
+    }
+    ourTable = table;
+  }
+
+  static int getInternedCount() {
+    synchronized (ourLock) {
+      expungeStaleReferences();
+      return ourSize;
+    }
+  }
+
+  @Nullable
+  FilePathNode getParent() {
+    return myParent;
+  }
+
+  int getNameId() {
+    return myNameId;
+  }
+
+  int getHash() {
+    return myHash;
+  }
+
+  @NotNull
+  CharSequence getName() {
+    return myNameId == EMPTY_NAME_ID ? "" : FileNameCache.getVFileName(myNameId);
+  }
+
+  @NotNull
+  String getPath() {
+    int length = -1;
+    for (FilePathNode node = this; node != null; node = node.myParent) {
+      length += node.getName().length() + 1;
+    }
+    final char[] chars = new char[length];
+    int end = length;
+    for (FilePathNode node = this; node != null; node = node.myParent) {
+      final CharSequence name = node.getName();
+      final int start = end - name.length();
+      for (int i = 0; i < name.length(); i++) {
+        chars[start + i] = name.charAt(i);
+      }
+      if (start > 0) {
+        chars[start - 1] = File.separatorChar;
+      }
+      end = start - 1;
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return getPath();
+  }
+
+  private static class NodeReference extends WeakReference<FilePathNode> {
+    private final int myHash;
+    private NodeReference myNext;
+
+    private NodeReference(@NotNull FilePathNode node, @Nullable NodeReference next) {
+      super(node, ourQueue);
+      myHash = node.myHash;
+      myNext = next;
+    }
+  }
+
+  private static class LastParent {
+    private final String myPath;
+    private final FilePathNode myNode;
+
+    private LastParent(@NotNull String path, @NotNull FilePathNode node) {
+      myPath = path;
+      myNode = node;
+    }
+  }
+}
@@ -49,6 +49,7 @@ import com.intellij.openapi.vcs.ui.VcsBalloonProblemNotifier;
 import com.intellij.openapi.vfs.*;
 import com.intellij.ui.EditorNotifications;
 import com.intellij.util.*;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
@@ -57,6 +58,7 @@ import com.intellij.util.messages.Topic;
 import com.intellij.vcsUtil.Rethrow;
 import com.intellij.vcsUtil.VcsUtil;
 import org.jdom.Element;
+import org.jetbrains.ide.PooledThreadExecutor;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -68,8 +70,12 @@ import org.mustbe.consulo.roots.ContentFolderScopes;
 import javax.swing.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -102,6 +108,7 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
   private ChangeListWorker myWorker;
   private VcsException myUpdateException = null;
   private Factory<JComponent> myAdditionalInfo;
+  private volatile Map<String, Long> myLastUpdateTimings = Collections.emptyMap();
 
   private final EventDispatcher<ChangeListListener> myListeners = EventDispatcher.create(ChangeListListener.class);
 
@@ -486,9 +493,7 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     catch (AssertionError ex) {
       LOG.error(ex);
     }
-    for (VirtualFile file : refreshFiles) {
-      myFileStatusManager.fileStatusChanged(file);
-    }
+    myFileStatusManager.fileStatusesChanged(refreshFiles);
   }
 
   private void updateImmediately() {
@@ -630,7 +635,20 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
   }
 
   private void iterateScopes(DataHolder dataHolder, List<VcsDirtyScope> scopes, boolean wasEverythingDirty) {
-    final ChangeListManagerGate gate = dataHolder.getChangeListWorker().createSelfGate();
+    final List<VcsModifiableDirtyScope> adjustedScopes = new ArrayList<VcsModifiableDirtyScope>();
+    for (final VcsDirtyScope scope : scopes) {
+      myUpdateChangesProgressIndicator.checkCanceled();
+
+      final AbstractVcs vcs = scope.getVcs();
+      if (vcs == null) continue;
+      scope.setWasEverythingDirty(wasEverythingDirty);
+      adjustedScopes.add(vcs.adjustDirtyScope((VcsModifiableDirtyScope)scope));
+    }
+
+    final boolean concurrently = Registry.is("vcs.changes.concurrent.update") && countRootScopes(adjustedScopes) > 1;
+    final ChangeListManagerGate gate = concurrently
+                                       ? dataHolder.getChangeListWorker().createSelfGate(myDataLock)
+                                       : dataHolder.getChangeListWorker().createSelfGate();
     // do actual requests about file statuses
     Getter<Boolean> disposedGetter = new Getter<Boolean>() {
       @Override
@@ -642,20 +660,27 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
                                                                             dataHolder.getComposite(), disposedGetter, myIgnoredIdeaLevel,
                                                                             gate);
 
-    for (final VcsDirtyScope scope : scopes) {
-      myUpdateChangesProgressIndicator.checkCanceled();
-
-      final AbstractVcs vcs = scope.getVcs();
-      if (vcs == null) continue;
-      scope.setWasEverythingDirty(wasEverythingDirty);
-      final VcsModifiableDirtyScope adjustedScope = vcs.adjustDirtyScope((VcsModifiableDirtyScope)scope);
+    final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+    if (concurrently) {
+      updateConcurrently(builder, adjustedScopes, dataHolder, gate, timings);
+    }
+    else {
+      for (final VcsModifiableDirtyScope adjustedScope : adjustedScopes) {
+        myUpdateChangesProgressIndicator.checkCanceled();
 
-      myChangesViewManager.setBusy(true);
-      dataHolder.notifyStartProcessingChanges(adjustedScope);
+        myChangesViewManager.setBusy(true);
+        dataHolder.notifyStartProcessingChanges(adjustedScope);
 
-      actualUpdate(builder, adjustedScope, vcs, dataHolder, gate);
+        final long start = System.currentTimeMillis();
+        actualUpdate(builder, adjustedScope, adjustedScope.getVcs(), dataHolder, gate);
+        timings.put(getTimingKey(adjustedScope), System.currentTimeMillis() - start);
 
-      if (myUpdateException != null) break;
+        if (myUpdateException != null) break;
+      }
+    }
+    myLastUpdateTimings = Collections.unmodifiableMap(timings);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("change providers finished" + (concurrently ? " (concurrently)" : "") + ", time per scope in ms: " + timings);
     }
     synchronized (myDataLock) {
       if (myAdditionalInfo == null) {
@@ -664,6 +689,179 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     }
   }
 
+  /**
+   * Asks change providers for changes in scopes of single roots concurrently, and applies the results to the builder
+   * under {@link #myDataLock} as soon as all roots of a scope are processed.
+   * The scopes are processed one after another: the processing of a scope is started before its roots are submitted,
+   * so that the providers see the scope extended for moves and the change lists prepared for the update through the gate.
+   */
+  private void updateConcurrently(final UpdatingChangeListBuilder builder,
+                                  final List<VcsModifiableDirtyScope> scopes,
+                                  final DataHolder dataHolder,
+                                  final ChangeListManagerGate gate,
+                                  final Map<String, Long> timings) {
+    final BoundedTaskExecutor executor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE,
+                                                                 Registry.intValue("vcs.changes.concurrent.update.threads"));
+    for (final VcsModifiableDirtyScope scope : scopes) {
+      myUpdateChangesProgressIndicator.checkCanceled();
+
+      myChangesViewManager.setBusy(true);
+      runUnderDataLock(new Runnable() {
+        @Override
+        public void run() {
+          dataHolder.notifyStartProcessingChanges(scope);
+        }
+      });
+      final List<RootScopeUpdate> updates = new ArrayList<RootScopeUpdate>();
+      try {
+        for (VcsDirtyScope rootScope : splitByRoots(scope)) {
+          final RootScopeUpdate update = new RootScopeUpdate(rootScope, gate);
+          update.myFuture = executor.submit(update);
+          updates.add(update);
+        }
+
+        final FoldersCutDownWorker foldersCutDownWorker = new FoldersCutDownWorker();
+        for (final RootScopeUpdate update : updates) {
+          update.waitFor();
+          timings.put(getTimingKey(update.myScope), update.myTime);
+          if (update.myError instanceof VcsException) {
+            handleUpdateException((VcsException)update.myError);
+          }
+          else if (update.myError != null) {
+            LOG.debug(update.myError);
+            Rethrow.reThrowRuntime(update.myError);
+          }
+          runUnderDataLock(new Runnable() {
+            @Override
+            public void run() {
+              builder.setCurrent(update.myScope, foldersCutDownWorker);
+              update.myRecorder.replay(builder);
+            }
+          });
+        }
+      }
+      finally {
+        for (RootScopeUpdate update : updates) {
+          update.myFuture.cancel(false);
+        }
+        if (!myUpdater.isStopped()) {
+          runUnderDataLock(new Runnable() {
+            @Override
+            public void run() {
+              dataHolder.notifyDoneProcessingChanges();
+            }
+          });
+        }
+      }
+
+      if (myUpdateException != null) break;
+    }
+  }
+
+  // same lock order as when the update results are taken: read action, then the data lock
+  private void runUnderDataLock(final Runnable runnable) {
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (myDataLock) {
+          runnable.run();
+        }
+      }
+    });
+  }
+
+  private static int countRootScopes(@NotNull List<VcsModifiableDirtyScope> scopes) {
+    int count = 0;
+    for (VcsModifiableDirtyScope scope : scopes) {
+      count += scope instanceof VcsDirtyScopeImpl && scope.getVcs().isChangeProviderConcurrent()
+               ? Math.max(1, scope.getAffectedContentRoots().size())
+               : 1;
+    }
+    return count;
+  }
+
+  @NotNull
+  private static List<? extends VcsDirtyScope> splitByRoots(@NotNull VcsModifiableDirtyScope scope) {
+    if (scope instanceof VcsDirtyScopeImpl && scope.getVcs().isChangeProviderConcurrent()) {
+      return ((VcsDirtyScopeImpl)scope).splitByRoots();
+    }
+    return Collections.singletonList(scope);
+  }
+
+  @NotNull
+  private static String getTimingKey(@NotNull VcsDirtyScope scope) {
+    final StringBuilder key = new StringBuilder(scope.getVcs().getDisplayName());
+    for (VirtualFile root : scope.getAffectedContentRoots()) {
+      key.append(' ').append(root == null ? null : root.getPath());
+    }
+    return key.toString();
+  }
+
+  /**
+   * @return time in milliseconds the change providers spent on each VCS root or scope during the last update, for diagnostics
+   */
+  @NotNull
+  public Map<String, Long> getLastUpdateTimings() {
+    return myLastUpdateTimings;
+  }
+
+  /**
+   * Asks the change provider for changes in the scope of a single root on a pooled thread, remembering the results.
+   */
+  private class RootScopeUpdate implements Runnable {
+    private final VcsDirtyScope myScope;
+    private final ChangeListManagerGate myGate;
+    private final RecordingChangelistBuilder myRecorder = new RecordingChangelistBuilder();
+    private Future<?> myFuture;
+    private Throwable myError;
+    private long myTime;
+
+    private RootScopeUpdate(@NotNull VcsDirtyScope scope, @NotNull ChangeListManagerGate gate) {
+      myScope = scope;
+      myGate = gate;
+    }
+
+    @Override
+    public void run() {
+      if (myUpdater.isStopped()) return;
+      final long start = System.currentTimeMillis();
+      try {
+        final ChangeProvider changeProvider = myScope.getVcs().getChangeProvider();
+        if (changeProvider != null) {
+          changeProvider.getChanges(myScope, myRecorder, myUpdateChangesProgressIndicator, myGate);
+        }
+      }
+      catch (ProcessCanceledException ignore) {
+      }
+      catch (Throwable t) {
+        myError = t;
+      }
+      finally {
+        myTime = System.currentTimeMillis() - start;
+      }
+    }
+
+    private void waitFor() {
+      while (true) {
+        checkIfDisposed();
+        myUpdateChangesProgressIndicator.checkCanceled();
+        try {
+          myFuture.get(100, TimeUnit.MILLISECONDS);
+          return;
+        }
+        catch (TimeoutException ignore) {
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeInterruptedException(e);
+        }
+        catch (ExecutionException e) {
+          myError = e.getCause();
+          return;
+        }
+      }
+    }
+  }
+
   private void clearCurrentRevisionsCache(final VcsInvalidated invalidated) {
     final ContentRevisionCache cache = ProjectLevelVcsManager.getInstance(myProject).getContentRevisionCache();
     if (invalidated.isEverythingDirty()) {
@@ -1243,9 +1441,7 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
       Messages.showErrorDialog(myProject, message.toString(), VcsBundle.message("error.adding.files.title"));
     }
 
-    for (VirtualFile file : allProcessedFiles) {
-      myFileStatusManager.fileStatusChanged(file);
-    }
+    myFileStatusManager.fileStatusesChanged(allProcessedFiles);
     VcsDirtyScopeManager.getInstance(myProject).filesDirty(allProcessedFiles, null);
 
     if (!list.isDefault()) {
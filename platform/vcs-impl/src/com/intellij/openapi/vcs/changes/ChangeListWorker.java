@@ -737,75 +737,106 @@ public class ChangeListWorker implements ChangeListsWriteOperations {
   }
 
   ChangeListManagerGate createSelfGate() {
-    return new MyGate(this);
+    return createSelfGate(new Object());
+  }
+
+  /**
+   * @param lock all calls of the gate are synchronized on it; for change providers running concurrently
+   */
+  ChangeListManagerGate createSelfGate(@NotNull Object lock) {
+    return new MyGate(this, lock);
   }
 
   private static class MyGate implements ChangeListManagerGate {
     private final ChangeListWorker myWorker;
+    private final Object myLock;
 
-    private MyGate(final ChangeListWorker worker) {
+    private MyGate(final ChangeListWorker worker, final Object lock) {
       myWorker = worker;
+      myLock = lock;
     }
 
     @Override
     public List<LocalChangeList> getListsCopy() {
-      return myWorker.getListsCopy();
+      synchronized (myLock) {
+        return myWorker.getListsCopy();
+      }
     }
 
     @Override
     @Nullable
     public LocalChangeList findChangeList(final String name) {
-      return myWorker.getCopyByName(name);
+      synchronized (myLock) {
+        return myWorker.getCopyByName(name);
+      }
     }
 
     @Override
     public LocalChangeList addChangeList(final String name, final String comment) {
-      return myWorker.addChangeList(null, name, comment, true, null);
+      synchronized (myLock) {
+        return myWorker.addChangeList(null, name, comment, true, null);
+      }
     }
 
     @Override
     public LocalChangeList findOrCreateList(final String name, final String comment) {
-      LocalChangeList list = myWorker.getCopyByName(name);
-      if (list == null) {
-        list = addChangeList(name, comment);
+      synchronized (myLock) {
+        LocalChangeList list = myWorker.getCopyByName(name);
+        if (list == null) {
+          list = addChangeList(name, comment);
+        }
+        return list;
       }
-      return list;
     }
 
     @Override
     public void editComment(final String name, final String comment) {
-      myWorker.editComment(name, comment);
+      synchronized (myLock) {
+        myWorker.editComment(name, comment);
+      }
     }
 
     @Override
     public void editName(String oldName, String newName) {
-      myWorker.editName(oldName, newName);
+      synchronized (myLock) {
+        myWorker.editName(oldName, newName);
+      }
     }
 
     // todo usage allowed only when..
     @Override
     public void moveChanges(String toList, Collection<Change> changes) {
-      myWorker.moveChangesTo(toList, changes.toArray(new Change[changes.size()]));
+      synchronized (myLock) {
+        myWorker.moveChangesTo(toList, changes.toArray(new Change[changes.size()]));
+      }
     }
 
     @Override
     public void setListsToDisappear(final Collection<String> names) {
-      myWorker.setListsToDisappear(names);
+      synchronized (myLock) {
+        myWorker.setListsToDisappear(names);
+      }
     }
 
     @Override
     public FileStatus getStatus(VirtualFile file) {
-      return myWorker.getStatus(file);
+      synchronized (myLock) {
+        return myWorker.getStatus(file);
+      }
     }
 
     @Override
     public FileStatus getStatus(File file) {
-      return myWorker.getStatus(file);
+      synchronized (myLock) {
+        return myWorker.getStatus(file);
+      }
     }
 
     @Override
     public void setDefaultChangeList(@NotNull String list) {
-      myWorker.setDefault(list);
+      synchronized (myLock) {
+        myWorker.setDefault(list);
+      }
     }
   }
 
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * A set of virtual files for the holders of thousands of files of a working copy (unversioned, ignored).
+ * <p/>
+ * The objects of plain files are created by VFS on each lookup, so the set keeps their ids only, in an int set while the set
+ * is small and in a bit set, a bit per file id, when it grows. The iterator looks the files up by their ids again.
+ * Directories are cached by VFS anyway and are kept as objects, as are the files without ids.
+ * <p/>
+ * A plain file can't be found by its id once it is deleted, so deleted plain files are dropped from the set silently,
+ * when it is iterated; the deletion itself makes the file dirty.
+ */
+class CompactVirtualFileSet extends AbstractSet<VirtualFile> {
+  private static final int INT_SET_LIMIT = 1000;
+
+  private final Set<VirtualFile> myFiles;
+  private TIntHashSet myIdSet;
+  private BitSet myIdBits;
+  private int myIdCount;
+
+  CompactVirtualFileSet() {
+    myFiles = new THashSet<VirtualFile>();
+    myIdSet = new TIntHashSet();
+  }
+
+  CompactVirtualFileSet(@NotNull CompactVirtualFileSet set) {
+    myFiles = new THashSet<VirtualFile>(set.myFiles);
+    if (set.myIdBits != null) {
+      myIdBits = (BitSet)set.myIdBits.clone();
+    }
+    else {
+      myIdSet = (TIntHashSet)set.myIdSet.clone();
+    }
+    myIdCount = set.myIdCount;
+  }
+
+  private static int getId(Object o) {
+    if (o instanceof VirtualFileWithId && !((VirtualFile)o).isDirectory()) {
+      return ((VirtualFileWithId)o).getId();
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean add(VirtualFile file) {
+    final int id = getId(file);
+    return id > 0 ? addId(id) : myFiles.add(file);
+  }
+
+  private boolean addId(int id) {
+    if (myIdBits != null) {
+      if (myIdBits.get(id)) return false;
+      myIdBits.set(id);
+    }
+    else {
+      if (!myIdSet.add(id)) return false;
+      if (myIdSet.size() > INT_SET_LIMIT) {
+        final BitSet bits = new BitSet();
+        myIdSet.forEach(new TIntProcedure() {
+          @Override
+          public boolean execute(int value) {
+            bits.set(value);
+            return true;
+          }
+        });
+        myIdBits = bits;
+        myIdSet = null;
+      }
+    }
+    myIdCount++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    final int id = getId(o);
+    return id > 0 && removeId(id) || myFiles.remove(o);
+  }
+
+  private boolean removeId(int id) {
+    if (myIdBits != null) {
+      if (!myIdBits.get(id)) return false;
+      myIdBits.clear(id);
+    }
+    else if (!myIdSet.remove(id)) {
+      return false;
+    }
+    myIdCount--;
+    return true;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    final int id = getId(o);
+    return id > 0 && containsId(id) || myFiles.contains(o);
+  }
+
+  private boolean containsId(int id) {
+    return myIdBits != null ? myIdBits.get(id) : myIdSet.contains(id);
+  }
+
+  @Override
+  public int size() {
+    return myFiles.size() + myIdCount;
+  }
+
+  @Override
+  public void clear() {
+    myFiles.clear();
+    myIdSet = new TIntHashSet();
+    myIdBits = null;
+    myIdCount = 0;
+  }
+
+  @NotNull
+  private int[] getIds() {
+    if (myIdBits == null) {
+      return myIdSet.toArray();
+    }
+    final int[] ids = new int[myIdCount];
+    int i = 0;
+    for (int id = myIdBits.nextSetBit(0); id >= 0; id = myIdBits.nextSetBit(id + 1)) {
+      ids[i++] = id;
+    }
+    return ids;
+  }
+
+  @NotNull
+  @Override
+  public Iterator<VirtualFile> iterator() {
+    final Iterator<VirtualFile> files = myFiles.iterator();
+    final int[] ids = getIds();
+    return new Iterator<VirtualFile>() {
+      private int myIndex;
+      private VirtualFile myNextById;
+      // 0 for the file kept as an object, -1 if there is no current file
+      private int myCurrentId = -1;
+
+      @Override
+      public boolean hasNext() {
+        if (files.hasNext()) return true;
+        if (myNextById == null) {
+          myNextById = findNextById();
+        }
+        return myNextById != null;
+      }
+
+      private VirtualFile findNextById() {
+        final PersistentFS fs = PersistentFS.getInstance();
+        while (myIndex < ids.length) {
+          final int id = ids[myIndex++];
+          final VirtualFile file = fs.findFileByIdIfCached(id);
+          if (file != null && getId(file) == id) {
+            return file;
+          }
+          removeId(id);
+        }
+        return null;
+      }
+
+      @Override
+      public VirtualFile next() {
+        if (files.hasNext()) {
+          myCurrentId = 0;
+          return files.next();
+        }
+        if (!hasNext()) throw new NoSuchElementException();
+        final VirtualFile file = myNextById;
+        myNextById = null;
+        myCurrentId = ids[myIndex - 1];
+        return file;
+      }
+
+      @Override
+      public void remove() {
+        if (myCurrentId < 0) throw new IllegalStateException();
+        if (myCurrentId == 0) {
+          files.remove();
+        }
+        else {
+          removeId(myCurrentId);
+        }
+        myCurrentId = -1;
+      }
+    };
+  }
+}
@@ -15,41 +15,65 @@
  */
 package com.intellij.openapi.vcs.changes;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FilePathImpl;
 import com.intellij.openapi.vcs.VcsRoot;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Accumulates dirty paths between change list updates.
+ * <p/>
+ * Paths are kept in a trie per VCS, so that coalescing is done on insert in time proportional to the depth of the path:
+ * paths under a recursively dirty directory are dropped, and many dirty files of one directory are replaced with the directory itself
+ * (a non-recursively dirty directory covers its immediate children, see {@link VcsDirtyScopeImpl#belongsTo}).
+ * If the number of paths still exceeds the "vcs.dirty.scope.max.paths" registry value, everything is marked dirty.
+ */
 public class DirtBuilder implements DirtBuilderReader {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.changes.DirtBuilder");
+  private static final int DIRECTORY_FILES_LIMIT = 50;
+
   private final VcsGuess myGuess;
   private final FileTypeManager myFileTypeManager;
 
-  private final Set<FilePathUnderVcs> myFiles;
-  private final Set<FilePathUnderVcs> myDirs;
+  private final Map<String, Node> myRoots; // vcs name -> trie
+  private int myPathsCount;
   private boolean myEverythingDirty;
 
   public DirtBuilder(final VcsGuess guess) {
     myGuess = guess;
-    myDirs = new HashSet<FilePathUnderVcs>();
-    myFiles = new HashSet<FilePathUnderVcs>();
+    myRoots = new THashMap<String, Node>();
     myEverythingDirty = false;
     myFileTypeManager = FileTypeManager.getInstance();
   }
 
   public DirtBuilder(final DirtBuilder builder) {
     myGuess = builder.myGuess;
-    myDirs = new HashSet<FilePathUnderVcs>(builder.myDirs);
-    myFiles = new HashSet<FilePathUnderVcs>(builder.myFiles);
+    myRoots = new THashMap<String, Node>();
+    for (Map.Entry<String, Node> entry : builder.myRoots.entrySet()) {
+      myRoots.put(entry.getKey(), entry.getValue().copy());
+    }
+    myPathsCount = builder.myPathsCount;
     myEverythingDirty = builder.myEverythingDirty;
     myFileTypeManager = FileTypeManager.getInstance();
   }
 
   public void reset() {
-    myFiles.clear();
-    myDirs.clear();
+    myRoots.clear();
+    myPathsCount = 0;
     myEverythingDirty = false;
   }
 
@@ -59,22 +83,101 @@ public class DirtBuilder implements DirtBuilderReader {
 
   public void addDirtyFile(final VcsRoot root) {
     if (myFileTypeManager.isFileIgnored(root.getPath().getName())) return;
-    myFiles.add(new FilePathUnderVcs(new FilePathImpl(root.getPath()), root.getVcs()));
+    addFile(new FilePathImpl(root.getPath()), root.getVcs());
   }
 
   public void addDirtyDirRecursively(final VcsRoot root) {
     if (myFileTypeManager.isFileIgnored(root.getPath().getName())) return;
-    myDirs.add(new FilePathUnderVcs(new FilePathImpl(root.getPath()), root.getVcs()));
+    addDirRecursively(new FilePathImpl(root.getPath()), root.getVcs());
   }
 
   public void addDirtyFile(final FilePathUnderVcs root) {
     if (myFileTypeManager.isFileIgnored(root.getPath().getName())) return;
-    myFiles.add(root);
+    addFile(root.getPath(), root.getVcs());
   }
 
   public void addDirtyDirRecursively(final FilePathUnderVcs root) {
     if (myFileTypeManager.isFileIgnored(root.getPath().getName())) return;
-    myDirs.add(root);
+    addDirRecursively(root.getPath(), root.getVcs());
+  }
+
+  private void addFile(@NotNull FilePath path, @NotNull AbstractVcs vcs) {
+    if (myEverythingDirty) return;
+    final List<String> names = splitPath(path);
+    if (names.isEmpty()) return;
+    final Node parent = findParent(vcs, names);
+    if (parent == null) return;
+    if (parent.myPath != null && !path.isDirectory()) return; // immediate children are dirty with the directory
+
+    final Node node = parent.getOrCreateChild(names.get(names.size() - 1));
+    if (node.myRecursive || node.myPath != null) return;
+    node.myPath = path;
+    myPathsCount++;
+    if (node.isDirtyFile()) {
+      parent.myDirtyFileChildren++;
+    }
+
+    if (parent.myDirtyFileChildren > DIRECTORY_FILES_LIMIT) {
+      final FilePath parentPath = path.getParentPath();
+      if (parentPath != null) {
+        myPathsCount -= parent.removeFileChildren();
+        parent.myPath = parentPath;
+        myPathsCount++;
+      }
+    }
+    checkPathsCount();
+  }
+
+  private void addDirRecursively(@NotNull FilePath path, @NotNull AbstractVcs vcs) {
+    if (myEverythingDirty) return;
+    final List<String> names = splitPath(path);
+    if (names.isEmpty()) return;
+    final Node parent = findParent(vcs, names);
+    if (parent == null) return;
+
+    final Node node = parent.getOrCreateChild(names.get(names.size() - 1));
+    if (node.myRecursive) return;
+    if (node.isDirtyFile()) {
+      parent.myDirtyFileChildren--;
+    }
+    myPathsCount -= node.countPaths();
+    node.myChildren = null;
+    node.myDirtyFileChildren = 0;
+    node.myPath = path;
+    node.myRecursive = true;
+    myPathsCount++;
+    checkPathsCount();
+  }
+
+  /**
+   * @return the node of the parent directory of the path, or null if the path is under a recursively dirty directory
+   */
+  @Nullable
+  private Node findParent(@NotNull AbstractVcs vcs, @NotNull List<String> names) {
+    Node node = myRoots.get(vcs.getName());
+    if (node == null) {
+      node = new Node(vcs);
+      myRoots.put(vcs.getName(), node);
+    }
+    for (int i = 0; i < names.size() - 1; i++) {
+      if (node.myRecursive) return null;
+      node = node.getOrCreateChild(names.get(i));
+    }
+    return node.myRecursive ? null : node;
+  }
+
+  private void checkPathsCount() {
+    if (myPathsCount > Registry.intValue("vcs.dirty.scope.max.paths")) {
+      LOG.info("Too many dirty paths (" + myPathsCount + "), marking everything dirty");
+      myRoots.clear();
+      myPathsCount = 0;
+      myEverythingDirty = true;
+    }
+  }
+
+  @NotNull
+  private static List<String> splitPath(@NotNull FilePath path) {
+    return StringUtil.split(FileUtil.toSystemIndependentName(path.getPath()), "/");
   }
 
   public boolean isEverythingDirty() {
@@ -82,14 +185,113 @@ public class DirtBuilder implements DirtBuilderReader {
   }
 
   public Collection<FilePathUnderVcs> getFilesForVcs() {
-    return myFiles;
+    final List<FilePathUnderVcs> result = new ArrayList<FilePathUnderVcs>();
+    for (Node root : myRoots.values()) {
+      root.collect(root.myVcs, false, result);
+    }
+    return result;
   }
 
   public Collection<FilePathUnderVcs> getDirsForVcs() {
-    return myDirs;
+    final List<FilePathUnderVcs> result = new ArrayList<FilePathUnderVcs>();
+    for (Node root : myRoots.values()) {
+      root.collect(root.myVcs, true, result);
+    }
+    return result;
   }
 
+  /**
+   * @return true if there are no dirty paths; note that it is also true if everything is dirty, which is checked separately
+   */
   public boolean isEmpty() {
-    return myFiles.isEmpty() && myDirs.isEmpty();
+    return myPathsCount == 0;
+  }
+
+  private static class Node {
+    @Nullable private final AbstractVcs myVcs; // only for the roots of the tries
+    @Nullable private Map<String, Node> myChildren;
+    @Nullable private FilePath myPath; // not null if the node is dirty itself
+    private boolean myRecursive;
+    private int myDirtyFileChildren; // number of children which are dirty files, see isDirtyFile()
+
+    private Node(@Nullable AbstractVcs vcs) {
+      myVcs = vcs;
+    }
+
+    @NotNull
+    private Node getOrCreateChild(@NotNull String name) {
+      if (myChildren == null) {
+        myChildren = new THashMap<String, Node>(2);
+      }
+      Node child = myChildren.get(name);
+      if (child == null) {
+        child = new Node(null);
+        myChildren.put(name, child);
+      }
+      return child;
+    }
+
+    /**
+     * Drops the dirty file children, which become covered by this directory being dirty.
+     * @return the number of removed paths
+     */
+    private int removeFileChildren() {
+      if (myChildren == null) return 0;
+      int count = 0;
+      for (Iterator<Node> it = myChildren.values().iterator(); it.hasNext(); ) {
+        final Node child = it.next();
+        if (child.isDirtyFile()) {
+          count++;
+          if (child.myChildren == null || child.myChildren.isEmpty()) {
+            it.remove();
+          }
+          else {
+            child.myPath = null;
+          }
+        }
+      }
+      myDirtyFileChildren = 0;
+      return count;
+    }
+
+    private boolean isDirtyFile() {
+      return myPath != null && !myRecursive && !myPath.isDirectory();
+    }
+
+    private int countPaths() {
+      int count = myPath == null ? 0 : 1;
+      if (myChildren != null) {
+        for (Node child : myChildren.values()) {
+          count += child.countPaths();
+        }
+      }
+      return count;
+    }
+
+    private void collect(@NotNull AbstractVcs vcs, boolean recursive, @NotNull List<FilePathUnderVcs> result) {
+      if (myPath != null && myRecursive == recursive) {
+        result.add(new FilePathUnderVcs(myPath, vcs));
+      }
+      if (myChildren != null) {
+        for (Node child : myChildren.values()) {
+          child.collect(vcs, recursive, result);
+        }
+      }
+    }
+
+    @NotNull
+    private Node copy() {
+      final Node copy = new Node(myVcs);
+      copy.myPath = myPath;
+      copy.myRecursive = myRecursive;
+      copy.myDirtyFileChildren = myDirtyFileChildren;
+      if (myChildren != null) {
+        copy.myChildren = new THashMap<String, Node>(myChildren.size());
+        for (Map.Entry<String, Node> entry : myChildren.entrySet()) {
+          copy.myChildren.put(entry.getKey(), entry.getValue().copy());
+        }
+      }
+      return copy;
+    }
   }
 }
@@ -11,6 +11,7 @@ import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.OpenTHashSet;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -23,7 +24,7 @@ public class LocalChangeListImpl extends LocalChangeList {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.changes.ChangeList");
 
   private final Project myProject;
-  private Collection<Change> myChanges = new HashSet<Change>();
+  private Collection<Change> myChanges = new THashSet<Change>();
   private Collection<Change> myReadChangesCache = null;
   private String myId;
   @NotNull private String myName;
@@ -57,7 +58,7 @@ public class LocalChangeListImpl extends LocalChangeList {
 
   private void createReadChangesCache() {
     if (myReadChangesCache == null) {
-      myReadChangesCache = Collections.unmodifiableCollection(new HashSet<Change>(myChanges));
+      myReadChangesCache = Collections.unmodifiableCollection(new THashSet<Change>(myChanges));
     }
   }
 
@@ -265,16 +266,15 @@ public class LocalChangeListImpl extends LocalChangeList {
     copy.myData = myData;
 
     if (myChanges != null) {
-      copy.myChanges = new HashSet<Change>(myChanges);
+      copy.myChanges = new THashSet<Change>(myChanges);
     }
 
     if (myChangesBeforeUpdate != null) {
       copy.myChangesBeforeUpdate = new OpenTHashSet<Change>((Collection<Change>)myChangesBeforeUpdate);
     }
 
-    if (myReadChangesCache != null) {
-      copy.myReadChangesCache = new HashSet<Change>(myReadChangesCache);
-    }
+    // the cache is never modified, so the copies can share it
+    copy.myReadChangesCache = myReadChangesCache;
 
     return copy;
   }
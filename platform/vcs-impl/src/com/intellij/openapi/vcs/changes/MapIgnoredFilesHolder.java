@@ -20,10 +20,8 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.ContainerUtil;
-import gnu.trove.THashSet;
 
 import java.util.Collection;
-import java.util.Set;
 
 /**
  * @author irengrig
@@ -33,15 +31,19 @@ import java.util.Set;
 public class MapIgnoredFilesHolder extends AbstractIgnoredFilesHolder {
   private final static Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.changes.MapIgnoredFilesHolder");
 
-  private final Set<VirtualFile> mySet;
-  private final Set<VirtualFile> myVcsIgnoredSet;
+  private final CompactVirtualFileSet mySet;
+  private final CompactVirtualFileSet myVcsIgnoredSet;
   private final Project myProject;
 
   public MapIgnoredFilesHolder(Project project) {
+    this(project, new CompactVirtualFileSet(), new CompactVirtualFileSet());
+  }
+
+  private MapIgnoredFilesHolder(Project project, CompactVirtualFileSet set, CompactVirtualFileSet vcsIgnoredSet) {
     super(project);
     myProject = project;
-    mySet = new THashSet<VirtualFile>();
-    myVcsIgnoredSet = new THashSet<VirtualFile>();    //collect ignored files from VcsChangeProvider -> processIgnored
+    mySet = set;
+    myVcsIgnoredSet = vcsIgnoredSet;    //collect ignored files from VcsChangeProvider -> processIgnored
   }
 
   @Override
@@ -85,10 +87,7 @@ public class MapIgnoredFilesHolder extends AbstractIgnoredFilesHolder {
 
   @Override
   public FileHolder copy() {
-    final MapIgnoredFilesHolder result = new MapIgnoredFilesHolder(myProject);
-    result.mySet.addAll(mySet);
-    result.myVcsIgnoredSet.addAll(myVcsIgnoredSet);
-    return result;
+    return new MapIgnoredFilesHolder(myProject, new CompactVirtualFileSet(mySet), new CompactVirtualFileSet(myVcsIgnoredSet));
   }
 
   @Override
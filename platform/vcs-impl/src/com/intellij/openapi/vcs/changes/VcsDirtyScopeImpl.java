@@ -563,6 +563,31 @@ public class VcsDirtyScopeImpl extends VcsModifiableDirtyScope {
     return result.toString();
   }
 
+  /**
+   * Splits the scope into scopes of single VCS roots, so that they can be processed independently.
+   */
+  List<VcsDirtyScopeImpl> splitByRoots() {
+    if (myAffectedContentRoots.size() < 2 || myAffectedContentRoots.contains(null)) {
+      return Collections.singletonList(this);
+    }
+    final List<VcsDirtyScopeImpl> result = new ArrayList<VcsDirtyScopeImpl>(myAffectedContentRoots.size());
+    for (VirtualFile root : myAffectedContentRoots) {
+      final VcsDirtyScopeImpl scope = new VcsDirtyScopeImpl(myVcs, myProject);
+      scope.myAffectedContentRoots.add(root);
+      final THashSet<FilePath> files = myDirtyFiles.get(root);
+      if (files != null) {
+        scope.myDirtyFiles.put(root, new THashSet<FilePath>((Collection<FilePath>)files));
+      }
+      final THashSet<FilePath> dirs = myDirtyDirectoriesRecursively.get(root);
+      if (dirs != null) {
+        scope.myDirtyDirectoriesRecursively.put(root, new THashSet<FilePath>((Collection<FilePath>)dirs));
+      }
+      scope.myWasEverythingDirty = myWasEverythingDirty;
+      result.add(scope);
+    }
+    return result;
+  }
+
   @Override
   public VcsDirtyScopeModifier getModifier() {
     return myVcsDirtyScopeModifier;
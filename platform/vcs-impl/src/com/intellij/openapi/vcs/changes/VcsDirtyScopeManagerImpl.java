@@ -93,7 +93,7 @@ public class VcsDirtyScopeManagerImpl extends VcsDirtyScopeManager implements Pr
     final Ref<Boolean> wasNotEmptyRef = new Ref<Boolean>();
     myLife.releaseMe(new Runnable() {
       public void run() {
-        wasNotEmptyRef.set(! myDirtBuilder.isEmpty());
+        wasNotEmptyRef.set(!myDirtBuilder.isEmpty() || myDirtBuilder.isEverythingDirty());
       }
     });
     if (Boolean.TRUE.equals(wasNotEmptyRef.get())) {
@@ -195,7 +195,8 @@ public class VcsDirtyScopeManagerImpl extends VcsDirtyScopeManager implements Pr
     final Runnable runnable = new Runnable() {
       public void run() {
         filler.consume(myDirtBuilder);
-        wasNotEmptyRef.set(!myDirtBuilder.isEmpty());
+        // too many dirty paths are replaced with "everything dirty", which needs an update as well
+        wasNotEmptyRef.set(!myDirtBuilder.isEmpty() || myDirtBuilder.isEverythingDirty());
       }
     };
     final LifeDrop lifeDrop = myLife.doIfAlive(runnable);
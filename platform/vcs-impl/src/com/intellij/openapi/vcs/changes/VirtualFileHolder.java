@@ -29,14 +29,19 @@ import java.util.*;
  * @author max
  */
 public class VirtualFileHolder implements FileHolder {
-  private final Set<VirtualFile> myFiles = new HashSet<VirtualFile>();
+  private final CompactVirtualFileSet myFiles;
   private final Project myProject;
   private final HolderType myType;
   private int myNumDirs;
 
   public VirtualFileHolder(Project project, final HolderType type) {
+    this(project, type, new CompactVirtualFileSet());
+  }
+
+  private VirtualFileHolder(Project project, final HolderType type, final CompactVirtualFileSet files) {
     myProject = project;
     myType = type;
+    myFiles = files;
   }
 
   public HolderType getType() {
@@ -131,8 +136,7 @@ public class VirtualFileHolder implements FileHolder {
   }
 
   public VirtualFileHolder copy() {
-    final VirtualFileHolder copyHolder = new VirtualFileHolder(myProject, myType);
-    copyHolder.myFiles.addAll(myFiles);
+    final VirtualFileHolder copyHolder = new VirtualFileHolder(myProject, myType, new CompactVirtualFileSet(myFiles));
     copyHolder.myNumDirs = myNumDirs;
     return copyHolder;
   }
@@ -188,6 +188,7 @@ public class ChangelistConflictTracker {
   }
 
   private void clearChanges(Collection<Change> changes) {
+    List<VirtualFile> changedFiles = new ArrayList<VirtualFile>();
     for (Change change : changes) {
       ContentRevision revision = change.getAfterRevision();
       if (revision != null) {
@@ -198,10 +199,11 @@ public class ChangelistConflictTracker {
         if (wasRemoved != null && file != null) {
           myEditorNotifications.updateNotifications(file);
           // we need to update status
-          myFileStatusManager.fileStatusChanged(file);
+          changedFiles.add(file);
         }
       }
     }
+    myFileStatusManager.fileStatusesChanged(changedFiles);
   }
 
   public void startTracking() {
@@ -251,13 +253,15 @@ public class ChangelistConflictTracker {
   }
 
   public void optionsChanged() {
+    List<VirtualFile> files = new ArrayList<VirtualFile>();
     for (Map.Entry<String, Conflict> entry : myConflicts.entrySet()) {
       VirtualFile file = LocalFileSystem.getInstance().findFileByPath(entry.getKey());
       if (file != null) {
-        myFileStatusManager.fileStatusChanged(file);
+        files.add(file);
         myEditorNotifications.updateNotifications(file);
       }
     }
+    myFileStatusManager.fileStatusesChanged(files);
   }
 
   public Map<String, Conflict> getConflicts() {
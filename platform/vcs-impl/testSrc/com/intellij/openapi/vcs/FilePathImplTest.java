@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.testFramework.LightPlatformTestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FilePathImplTest extends LightPlatformTestCase {
+  private static final int DIRS = 1000;
+  private static final int FILES_IN_DIR = 50;
+  private static final String ROOT = new File("/home/user/projects/working-copy").getPath();
+
+  public void testPathsAreKeptAsIs() {
+    for (String path : new String[]{"/", "/a", "/a/b/C.txt", "a/b", "a", ""}) {
+      final File file = new File(path);
+      final FilePathImpl filePath = new FilePathImpl(file, false);
+      assertEquals(file.getPath(), filePath.getPath());
+      assertEquals(file, filePath.getIOFile());
+      assertEquals(file.getName(), filePath.getName());
+      assertEquals(StringUtil.stringHashCodeInsensitive(file.getPath()), filePath.hashCode());
+    }
+  }
+
+  public void testParentPath() {
+    final FilePath path = new FilePathImpl(new File(ROOT, "module/A.txt"), false);
+    final FilePath parent = path.getParentPath();
+    assertEquals(new FilePathImpl(new File(ROOT, "module"), true), parent);
+    assertEquals(new File(ROOT, "module"), parent.getIOFile());
+    assertTrue(path.isUnder(parent, true));
+    assertNull(new FilePathImpl(new File("/a"), false).getParentPath());
+  }
+
+  public void testEquality() {
+    final FilePathImpl path = new FilePathImpl(new File(ROOT, "A.txt"), false);
+    assertEquals(path, new FilePathImpl(new File(ROOT, "A.txt"), false));
+    assertEquals(path.hashCode(), new FilePathImpl(new File(ROOT, "A.txt"), false).hashCode());
+    assertFalse(path.equals(new FilePathImpl(new File(ROOT, "B.txt"), false)));
+  }
+
+  public void testSyntheticWorkingCopyHeap() {
+    final int internedBefore = FilePathNode.getInternedCount();
+    final long before = usedMemory();
+    final List<FilePath> paths = new ArrayList<FilePath>(DIRS * FILES_IN_DIR);
+    for (int i = 0; i < DIRS; i++) {
+      final File dir = new File(ROOT, "module" + i % 10 + "/src/pkg" + i);
+      for (int j = 0; j < FILES_IN_DIR; j++) {
+        paths.add(new FilePathImpl(new File(dir, "File" + j + ".java"), false));
+      }
+    }
+    final long pathsSize = usedMemory() - before;
+    // a node per file, per directory and per module, and the nodes of the root
+    assertTrue(FilePathNode.getInternedCount() - internedBefore <= DIRS * (FILES_IN_DIR + 1) + 20 + StringUtil.countChars(ROOT, File.separatorChar) + 1);
+
+    // what the paths used to keep: an io file with the full path and the name
+    final long filesBefore = usedMemory();
+    final List<Object[]> files = new ArrayList<Object[]>(DIRS * FILES_IN_DIR);
+    for (int i = 0; i < DIRS; i++) {
+      final File dir = new File(ROOT, "module" + i % 10 + "/src/pkg" + i);
+      for (int j = 0; j < FILES_IN_DIR; j++) {
+        final File file = new File(dir, "File" + j + ".java");
+        files.add(new Object[]{file, file.getName()});
+      }
+    }
+    final long filesSize = usedMemory() - filesBefore;
+
+    System.out.println("file paths: " + pathsSize / 1024 + "K, io files and names: " + filesSize / 1024 + "K");
+    assertTrue(pathsSize + " >= " + filesSize, pathsSize < filesSize);
+    assertEquals(paths.size(), files.size());
+  }
+
+  private static long usedMemory() {
+    final Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.VfsTestUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+public class CompactVirtualFileSetTest extends PlatformTestCase {
+  private static final int FILES = 1500;
+
+  private VirtualFile myRoot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = getVirtualFile(createTempDirectory());
+  }
+
+  public void testFilesAndDirectories() {
+    final List<VirtualFile> files = createFiles("a", 10);
+    final VirtualFile dir = files.get(0).getParent();
+    final VirtualFile lightFile = new LightVirtualFile("light.txt");
+
+    final CompactVirtualFileSet set = new CompactVirtualFileSet();
+    assertTrue(set.addAll(files));
+    assertTrue(set.add(dir));
+    assertTrue(set.add(lightFile));
+    assertFalse(set.add(files.get(0)));
+    assertEquals(12, set.size());
+    assertTrue(set.contains(files.get(5)));
+    assertTrue(set.contains(dir));
+    assertTrue(set.contains(lightFile));
+
+    final HashSet<VirtualFile> expected = new HashSet<VirtualFile>(files);
+    expected.add(dir);
+    expected.add(lightFile);
+    assertEquals(expected, new HashSet<VirtualFile>(set));
+
+    assertTrue(set.remove(files.get(5)));
+    assertTrue(set.remove(dir));
+    assertFalse(set.contains(files.get(5)));
+    assertEquals(10, set.size());
+  }
+
+  public void testManyFiles() {
+    final List<VirtualFile> files = createFiles("b", FILES);
+    final CompactVirtualFileSet set = new CompactVirtualFileSet();
+    set.addAll(files);
+    assertEquals(FILES, set.size());
+    assertEquals(new HashSet<VirtualFile>(files), new HashSet<VirtualFile>(set));
+
+    final CompactVirtualFileSet copy = new CompactVirtualFileSet(set);
+    for (Iterator<VirtualFile> iterator = set.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().getName().endsWith("0.txt")) {
+        iterator.remove();
+      }
+    }
+    assertEquals(FILES - FILES / 10, set.size());
+    assertFalse(set.contains(files.get(0)));
+    assertTrue(set.contains(files.get(1)));
+    assertEquals(FILES, copy.size());
+    assertTrue(copy.contains(files.get(0)));
+  }
+
+  public void testDeletedFilesAreDropped() {
+    final List<VirtualFile> files = createFiles("c", 2);
+    final CompactVirtualFileSet set = new CompactVirtualFileSet();
+    set.addAll(files);
+    delete(files.get(0));
+
+    assertEquals(files.subList(1, 2), new ArrayList<VirtualFile>(set));
+    assertEquals(1, set.size());
+  }
+
+  private List<VirtualFile> createFiles(String dir, int count) {
+    final List<VirtualFile> files = new ArrayList<VirtualFile>(count);
+    for (int i = 0; i < count; i++) {
+      files.add(VfsTestUtil.createFile(myRoot, dir + "/" + i + ".txt"));
+    }
+    return files;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.FilePathImpl;
+import com.intellij.openapi.vcs.changes.committed.MockAbstractVcs;
+import com.intellij.testFramework.LightPlatformTestCase;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class DirtBuilderTest extends LightPlatformTestCase {
+  private AbstractVcs myVcs;
+  private DirtBuilder myBuilder;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myVcs = new MockAbstractVcs(getProject());
+    myBuilder = new DirtBuilder((VcsGuess)null);
+  }
+
+  public void testEmpty() {
+    assertTrue(myBuilder.isEmpty());
+    assertFalse(myBuilder.isEverythingDirty());
+    assertEmpty(myBuilder.getFilesForVcs());
+    assertEmpty(myBuilder.getDirsForVcs());
+  }
+
+  public void testFilesAndDirs() {
+    addFile("/p/a/A.txt");
+    addFile("/p/b/B.txt");
+    addDir("/p/c");
+
+    assertFalse(myBuilder.isEmpty());
+    assertPaths(myBuilder.getFilesForVcs(), "/p/a/A.txt", "/p/b/B.txt");
+    assertPaths(myBuilder.getDirsForVcs(), "/p/c");
+  }
+
+  public void testSameFileAddedOnce() {
+    addFile("/p/a/A.txt");
+    addFile("/p/a/A.txt");
+
+    assertPaths(myBuilder.getFilesForVcs(), "/p/a/A.txt");
+  }
+
+  public void testPathsUnderRecursiveDirAreDropped() {
+    addDir("/p/a");
+    addFile("/p/a/A.txt");
+    addFile("/p/a/b/B.txt");
+    addDir("/p/a/c");
+
+    assertEmpty(myBuilder.getFilesForVcs());
+    assertPaths(myBuilder.getDirsForVcs(), "/p/a");
+  }
+
+  public void testRecursiveDirReplacesPathsUnderIt() {
+    addFile("/p/a/A.txt");
+    addFile("/p/a/b/B.txt");
+    addDir("/p/a/c");
+    addFile("/p/d/D.txt");
+    addDir("/p/a");
+
+    assertPaths(myBuilder.getFilesForVcs(), "/p/d/D.txt");
+    assertPaths(myBuilder.getDirsForVcs(), "/p/a");
+  }
+
+  public void testManyFilesOfDirectoryAreReplacedWithTheDirectory() {
+    for (int i = 0; i < 60; i++) {
+      addFile("/p/a/A" + i + ".txt");
+    }
+    addFile("/p/a/b/B.txt");
+    addFile("/p/c/C.txt");
+
+    Collection<FilePathUnderVcs> files = myBuilder.getFilesForVcs();
+    assertPaths(files, "/p/a", "/p/a/b/B.txt", "/p/c/C.txt");
+    assertEmpty(myBuilder.getDirsForVcs());
+
+    addFile("/p/a/A100.txt"); // already covered by the directory
+    assertEquals(3, myBuilder.getFilesForVcs().size());
+  }
+
+  public void testRecursiveDirDoesNotCountAsFileOfParent() {
+    for (int i = 0; i < 49; i++) {
+      addFile("/p/a/A" + i + ".txt");
+    }
+    addFile("/p/a/X.txt");
+    addDir("/p/a/X.txt"); // the same path becomes recursively dirty, so the directory has 49 dirty files again
+    addFile("/p/a/Y.txt");
+
+    assertEquals(50, myBuilder.getFilesForVcs().size());
+    assertPaths(myBuilder.getDirsForVcs(), "/p/a/X.txt");
+  }
+
+  public void testTooManyPathsMarkEverythingDirty() {
+    RegistryValue maxPaths = Registry.get("vcs.dirty.scope.max.paths");
+    int oldValue = maxPaths.asInteger();
+    maxPaths.setValue(10);
+    try {
+      for (int i = 0; i < 11; i++) {
+        addFile("/p/a" + i + "/A.txt");
+      }
+      assertTrue(myBuilder.isEverythingDirty());
+      assertTrue(myBuilder.isEmpty());
+      assertEmpty(myBuilder.getFilesForVcs());
+
+      addFile("/p/b/B.txt");
+      assertEmpty(myBuilder.getFilesForVcs());
+    }
+    finally {
+      maxPaths.setValue(oldValue);
+    }
+  }
+
+  public void testCopyIsIndependent() {
+    addFile("/p/a/A.txt");
+    DirtBuilder copy = new DirtBuilder(myBuilder);
+    addFile("/p/b/B.txt");
+    copy.addDirtyDirRecursively(new FilePathUnderVcs(path("/p/a", true), myVcs));
+
+    assertPaths(myBuilder.getFilesForVcs(), "/p/a/A.txt", "/p/b/B.txt");
+    assertEmpty(myBuilder.getDirsForVcs());
+    assertEmpty(copy.getFilesForVcs());
+    assertPaths(copy.getDirsForVcs(), "/p/a");
+  }
+
+  public void testReset() {
+    addFile("/p/a/A.txt");
+    myBuilder.everythingDirty();
+    myBuilder.reset();
+
+    assertTrue(myBuilder.isEmpty());
+    assertFalse(myBuilder.isEverythingDirty());
+    assertEmpty(myBuilder.getFilesForVcs());
+  }
+
+  private void addFile(String path) {
+    myBuilder.addDirtyFile(new FilePathUnderVcs(path(path, false), myVcs));
+  }
+
+  private void addDir(String path) {
+    myBuilder.addDirtyDirRecursively(new FilePathUnderVcs(path(path, true), myVcs));
+  }
+
+  private static FilePath path(String path, boolean isDirectory) {
+    return new FilePathImpl(new File(FileUtil.toSystemDependentName(path)), isDirectory);
+  }
+
+  private static void assertPaths(Collection<FilePathUnderVcs> actual, String... expected) {
+    Set<String> actualPaths = new TreeSet<String>();
+    for (FilePathUnderVcs path : actual) {
+      actualPaths.add(FileUtil.toSystemIndependentName(path.getPath().getPath()));
+    }
+    Set<String> expectedPaths = new TreeSet<String>();
+    for (String path : expected) {
+      expectedPaths.add(path);
+    }
+    assertEquals(expectedPaths, actualPaths);
+  }
+}
@@ -19,6 +19,7 @@ import com.intellij.openapi.util.Condition;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -45,6 +46,13 @@ public interface PermanentGraph<CommitId> {
   @NotNull
   Set<CommitId> getContainingBranches(@NotNull CommitId commit);
 
+  /**
+   * Returns a condition which is true for the commits contained in at least one of the given branch heads.
+   * Prefer it to calling {@link #getContainingBranches} for each commit when many commits are checked against the same heads.
+   */
+  @NotNull
+  Condition<CommitId> getContainedInBranchCondition(@NotNull Collection<CommitId> branchHeads);
+
   enum SortType{
     Normal,
     Bek
@@ -16,61 +16,151 @@
 
 package com.intellij.vcs.log.graph.impl.facade;
 
+import com.intellij.openapi.util.Condition;
 import com.intellij.vcs.log.graph.api.LinearGraph;
-import com.intellij.vcs.log.graph.utils.DfsUtil;
-import com.intellij.vcs.log.graph.utils.Flags;
-import com.intellij.vcs.log.graph.utils.impl.BitSetFlags;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TLongIntHashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.TestOnly;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Answers which branch nodes contain (i.e. can reach) a given node.
+ * <p/>
+ * On the first request the sets of containing branch nodes are computed for all nodes in one pass in node order,
+ * since up nodes always precede their down nodes: the set of a node is the union of the sets of its up nodes.
+ * Sets are never materialized: a set is either a single branch node or the union of two sets created before it,
+ * and unions are memoized, so the number of sets is linear in the number of edges and branch nodes however many branches
+ * contain each node (materialized sets would take quadratic memory on a long history with thousands of branches).
+ * A node only stores the id of its set: the condition for a branch filter is answered in one pass over the sets,
+ * and the branches of a single node are collected by walking its set.
+ */
 public class ContainingBranchesGetter {
+  private static final int EMPTY_SET_ID = 0;
+  private static final int NO_SET = -1;
+
   @NotNull
   private final LinearGraph myPermanentGraph;
 
   @NotNull
   private final Set<Integer> myBranchNodeIndexes;
 
-  @NotNull
-  private final DfsUtil myDfsUtil = new DfsUtil();
-
-  @NotNull
-  private final Flags myTempFlags;
+  // node index -> id of the set of branch nodes containing it
+  private int[] myBranchSetIds; // guarded by this
+  // set id -> the branch node and NO_SET for a single branch node set, the ids of the united sets for a union; NO_SET for the empty set
+  private final TIntArrayList mySetFirst = new TIntArrayList(); // guarded by this
+  private final TIntArrayList mySetSecond = new TIntArrayList(); // guarded by this
 
   public ContainingBranchesGetter(@NotNull LinearGraph permanentGraph,
                                   @NotNull Set<Integer> branchNodeIndexes) {
     myPermanentGraph = permanentGraph;
     myBranchNodeIndexes = branchNodeIndexes;
-    myTempFlags = new BitSetFlags(permanentGraph.nodesCount());
   }
 
-  public Set<Integer> getBranchNodeIndexes(int nodeIndex) {
-    final Set<Integer> result = new HashSet<Integer>();
+  public synchronized Set<Integer> getBranchNodeIndexes(int nodeIndex) {
+    ensureBranchSetsComputed();
+    Set<Integer> result = new HashSet<Integer>();
+    TIntHashSet visited = new TIntHashSet();
+    TIntArrayList stack = new TIntArrayList();
+    stack.add(myBranchSetIds[nodeIndex]);
+    while (!stack.isEmpty()) {
+      int setId = stack.remove(stack.size() - 1);
+      if (setId == EMPTY_SET_ID || !visited.add(setId)) continue;
+      if (mySetSecond.get(setId) == NO_SET) {
+        result.add(mySetFirst.get(setId));
+      }
+      else {
+        stack.add(mySetFirst.get(setId));
+        stack.add(mySetSecond.get(setId));
+      }
+    }
+    return result;
+  }
 
-    myTempFlags.setAll(false);
-    myTempFlags.set(nodeIndex, true);
-    checkAndAdd(nodeIndex, result);
-    myDfsUtil.nodeDfsIterator(nodeIndex, new DfsUtil.NextNode() {
+  /**
+   * Returns a condition which is true for the nodes contained in at least one of the given branch nodes.
+   * The answer is computed once for all sets of containing branches, so checking all nodes of the graph is linear.
+   */
+  @NotNull
+  public synchronized Condition<Integer> getContainedInBranchCondition(@NotNull Collection<Integer> branchNodeIndexes) {
+    ensureBranchSetsComputed();
+    Set<Integer> branchNodes = new HashSet<Integer>(branchNodeIndexes);
+    // the united sets are created before their union, so one pass in id order is enough
+    final boolean[] contained = new boolean[mySetFirst.size()];
+    for (int setId = EMPTY_SET_ID + 1; setId < contained.length; setId++) {
+      int first = mySetFirst.get(setId);
+      int second = mySetSecond.get(setId);
+      contained[setId] = second == NO_SET ? branchNodes.contains(first) : contained[first] || contained[second];
+    }
+    final int[] branchSetIds = myBranchSetIds;
+    return new Condition<Integer>() {
       @Override
-      public int fun(int currentNode) {
-        for (int upNode : myPermanentGraph.getUpNodes(currentNode)) {
-          if (!myTempFlags.get(upNode)) {
-            myTempFlags.set(upNode, true);
-            checkAndAdd(upNode, result);
-            return upNode;
-          }
-        }
-
-        return NODE_NOT_FOUND;
+      public boolean value(Integer nodeIndex) {
+        return contained[branchSetIds[nodeIndex]];
       }
-    });
+    };
+  }
 
-    return result;
+  @TestOnly
+  synchronized int getBranchSetsCount() {
+    ensureBranchSetsComputed();
+    return mySetFirst.size();
+  }
+
+  private void ensureBranchSetsComputed() {
+    if (myBranchSetIds == null) {
+      myBranchSetIds = computeBranchSetIds();
+    }
+  }
+
+  @NotNull
+  private int[] computeBranchSetIds() {
+    int[] branchSetIds = new int[myPermanentGraph.nodesCount()];
+    TLongIntHashMap unions = new TLongIntHashMap();
+
+    addSet(NO_SET, NO_SET); // the empty set
+    for (int node = 0; node < branchSetIds.length; node++) {
+      int setId = EMPTY_SET_ID;
+      for (int upNode : myPermanentGraph.getUpNodes(node)) {
+        setId = union(setId, branchSetIds[upNode], unions);
+      }
+      if (myBranchNodeIndexes.contains(node)) {
+        setId = union(setId, addSet(node, NO_SET), unions);
+      }
+      branchSetIds[node] = setId;
+    }
+    mySetFirst.trimToSize();
+    mySetSecond.trimToSize();
+    return branchSetIds;
+  }
+
+  private int union(int setId1, int setId2, @NotNull TLongIntHashMap unions) {
+    if (setId1 == setId2 || setId2 == EMPTY_SET_ID || isUnitedIn(setId2, setId1)) return setId1;
+    if (setId1 == EMPTY_SET_ID || isUnitedIn(setId1, setId2)) return setId2;
+
+    long key = ((long)Math.min(setId1, setId2) << 32) | Math.max(setId1, setId2);
+    if (unions.containsKey(key)) return unions.get(key);
+
+    int unionId = addSet(setId1, setId2);
+    unions.put(key, unionId);
+    return unionId;
+  }
+
+  /**
+   * Cheap check for the common case of a merge of a branch into a history already containing it.
+   */
+  private boolean isUnitedIn(int setId, int unionId) {
+    int second = mySetSecond.get(unionId);
+    return second != NO_SET && (second == setId || mySetFirst.get(unionId) == setId);
   }
 
-  private void checkAndAdd(int nodeIndex, Set<Integer> result) {
-    if (myBranchNodeIndexes.contains(nodeIndex))
-      result.add(nodeIndex);
+  private int addSet(int first, int second) {
+    mySetFirst.add(first);
+    mySetSecond.add(second);
+    return mySetFirst.size() - 1;
   }
 }
@@ -70,8 +70,8 @@ public class PermanentGraphImpl<CommitId> implements PermanentGraph<CommitId>, P
   private final Map<CommitId, GraphCommit<CommitId>> myCommitsWithNotLoadParent;
   @NotNull
   private final ContainingBranchesGetter myBranchesGetter;
-  @NotNull
-  private final PermanentGraphInfo<CommitId> myBekGraphInfo;
+  @Nullable
+  private PermanentGraphInfo<CommitId> myBekGraphInfo; // guarded by this, created on first request since it is only needed for the BEK sort
 
   public PermanentGraphImpl(@NotNull PermanentLinearGraphImpl permanentLinearGraph,
                             @NotNull GraphLayoutImpl permanentGraphLayout,
@@ -87,7 +87,6 @@ public class PermanentGraphImpl<CommitId> implements PermanentGraph<CommitId>, P
     myCommitsWithNotLoadParent = commitsWithNotLoadParent;
     myBranchNodeIndexes = permanentCommitsInfo.convertToCommitIndexes(branchesCommitId);
     myBranchesGetter = new ContainingBranchesGetter(permanentLinearGraph, myBranchNodeIndexes);
-    myBekGraphInfo = createBekSort();
   }
 
   @NotNull
@@ -107,7 +106,15 @@ public class PermanentGraphImpl<CommitId> implements PermanentGraph<CommitId>, P
     if (sortType == SortType.Normal)
       return this;
     else
-      return myBekGraphInfo;
+      return getBekGraphInfo();
+  }
+
+  @NotNull
+  private synchronized PermanentGraphInfo<CommitId> getBekGraphInfo() {
+    if (myBekGraphInfo == null) {
+      myBekGraphInfo = createBekSort();
+    }
+    return myBekGraphInfo;
   }
 
   @NotNull
@@ -153,6 +160,19 @@ public class PermanentGraphImpl<CommitId> implements PermanentGraph<CommitId>, P
     return myPermanentCommitsInfo.convertToCommitIdSet(myBranchesGetter.getBranchNodeIndexes(commitIndex));
   }
 
+  @NotNull
+  @Override
+  public Condition<CommitId> getContainedInBranchCondition(@NotNull Collection<CommitId> branchHeads) {
+    final Condition<Integer> nodeCondition = myBranchesGetter.getContainedInBranchCondition(
+      myPermanentCommitsInfo.convertToCommitIndexes(branchHeads));
+    return new Condition<CommitId>() {
+      @Override
+      public boolean value(CommitId commitId) {
+        return nodeCondition.value(myPermanentCommitsInfo.getPermanentNodeIndex(commitId));
+      }
+    };
+  }
+
   @NotNull
   public PermanentCommitsInfoIml<CommitId> getPermanentCommitsInfo() {
     return myPermanentCommitsInfo;
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.vcs.log.graph.impl.facade;
+
+import com.intellij.openapi.util.Condition;
+import com.intellij.vcs.log.graph.api.LinearGraph;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ContainingBranchesGetterTest {
+  private static final int NODES = 100 * 1000;
+  private static final int HEADS = 5000;
+  private static final int HEADS_STEP = 10;
+
+  @Test
+  public void linearHistoryWithThousandsOfHeads() {
+    Set<Integer> heads = new HashSet<Integer>();
+    for (int i = 0; i < HEADS; i++) {
+      heads.add(i * HEADS_STEP);
+    }
+    ContainingBranchesGetter getter = new ContainingBranchesGetter(linearGraph(NODES), heads);
+
+    // materialized sets would take HEADS * HEADS / 2 entries here
+    assertTrue(getter.getBranchSetsCount() <= 2 * HEADS + 1);
+
+    assertEquals(Collections.singleton(0), getter.getBranchNodeIndexes(0));
+    assertEquals(heads.size(), getter.getBranchNodeIndexes(NODES - 1).size());
+    Set<Integer> containing = getter.getBranchNodeIndexes(25);
+    assertEquals(new HashSet<Integer>(Arrays.asList(0, 10, 20)), containing);
+
+    Condition<Integer> condition = getter.getContainedInBranchCondition(Collections.singleton(HEADS_STEP * 100));
+    assertFalse(condition.value(HEADS_STEP * 100 - 1));
+    assertTrue(condition.value(HEADS_STEP * 100));
+    assertTrue(condition.value(NODES - 1));
+  }
+
+  @Test
+  public void mergedBranches() {
+    // 0 and 1 are heads; 2 is a merge of them; 3 is the parent of 2
+    final List<List<Integer>> upNodes = Arrays.asList(Collections.<Integer>emptyList(), Collections.<Integer>emptyList(), Arrays.asList(0, 1),
+                                                      Collections.singletonList(2));
+    ContainingBranchesGetter getter = new ContainingBranchesGetter(graph(upNodes), new HashSet<Integer>(Arrays.asList(0, 1)));
+
+    assertEquals(Collections.singleton(0), getter.getBranchNodeIndexes(0));
+    assertEquals(new HashSet<Integer>(Arrays.asList(0, 1)), getter.getBranchNodeIndexes(3));
+    Condition<Integer> condition = getter.getContainedInBranchCondition(Collections.singleton(1));
+    assertFalse(condition.value(0));
+    assertTrue(condition.value(1));
+    assertTrue(condition.value(3));
+  }
+
+  @NotNull
+  private static LinearGraph linearGraph(int nodes) {
+    List<List<Integer>> upNodes = new ArrayList<List<Integer>>(nodes);
+    upNodes.add(Collections.<Integer>emptyList());
+    for (int i = 1; i < nodes; i++) {
+      upNodes.add(Collections.singletonList(i - 1));
+    }
+    return graph(upNodes);
+  }
+
+  @NotNull
+  private static LinearGraph graph(@NotNull final List<List<Integer>> upNodes) {
+    return new LinearGraph() {
+      @Override
+      public int nodesCount() {
+        return upNodes.size();
+      }
+
+      @NotNull
+      @Override
+      public List<Integer> getUpNodes(int nodeIndex) {
+        return upNodes.get(nodeIndex);
+      }
+
+      @NotNull
+      @Override
+      public List<Integer> getDownNodes(int nodeIndex) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -16,7 +16,7 @@ import java.util.Map;
 public class CommitDetailsGetter extends DataGetter<VcsFullCommitDetails> {
 
   CommitDetailsGetter(VcsLogDataHolder dataHolder, @NotNull Map<VirtualFile, VcsLogProvider> logProviders) {
-    super(dataHolder, logProviders, new VcsCommitCache<Integer, VcsFullCommitDetails>());
+    super(dataHolder, logProviders, new VcsCommitCache<VcsFullCommitDetails>());
   }
 
   @Nullable
@@ -29,7 +29,12 @@ public class CommitDetailsGetter extends DataGetter<VcsFullCommitDetails> {
   @Override
   protected List<? extends VcsFullCommitDetails> readDetails(@NotNull VcsLogProvider logProvider, @NotNull VirtualFile root,
                                                          @NotNull List<String> hashes) throws VcsException {
-    return logProvider.readFullDetails(root, hashes);
+    List<? extends VcsFullCommitDetails> details = logProvider.readFullDetails(root, hashes);
+    VcsLogPersistentIndex index = myDataHolder.getIndex();
+    if (index != null) {
+      index.scheduleIndexing(root, details);
+    }
+    return details;
   }
 
 }
@@ -1,6 +1,7 @@
 package com.intellij.vcs.log.data;
 
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -35,13 +36,15 @@ import java.util.Map;
  */
 public abstract class DataGetter<T extends VcsShortCommitDetails> implements Disposable {
 
+  private static final Logger LOG = Logger.getInstance(DataGetter.class);
+
   private static final int UP_PRELOAD_COUNT = 20;
   private static final int DOWN_PRELOAD_COUNT = 40;
   private static final int MAX_LOADING_TASKS = 10;
 
   @NotNull protected final VcsLogDataHolder myDataHolder;
   @NotNull private final Map<VirtualFile, VcsLogProvider> myLogProviders;
-  @NotNull private final VcsCommitCache<Integer, T> myCache;
+  @NotNull private final VcsCommitCache<T> myCache;
   @NotNull private final SequentialLimitedLifoExecutor<TaskDescriptor> myLoader;
 
   /**
@@ -52,7 +55,7 @@ public abstract class DataGetter<T extends VcsShortCommitDetails> implements Dis
   @NotNull private final Collection<Runnable> myLoadingFinishedListeners = new ArrayList<Runnable>();
 
   DataGetter(@NotNull VcsLogDataHolder dataHolder, @NotNull Map<VirtualFile, VcsLogProvider> logProviders,
-             @NotNull VcsCommitCache<Integer, T> cache) {
+             @NotNull VcsCommitCache<T> cache) {
     myDataHolder = dataHolder;
     myLogProviders = logProviders;
     myCache = cache;
@@ -77,6 +80,9 @@ public abstract class DataGetter<T extends VcsShortCommitDetails> implements Dis
   @Override
   public void dispose() {
     myLoadingFinishedListeners.clear();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(getClass().getSimpleName() + " cache statistics: " + myCache.getStatistics());
+    }
   }
 
   @Nullable
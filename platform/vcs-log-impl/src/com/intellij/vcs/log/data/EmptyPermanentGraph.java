@@ -22,6 +22,7 @@ import com.intellij.vcs.log.graph.VisibleGraph;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -60,4 +61,11 @@ public class EmptyPermanentGraph implements PermanentGraph<Integer> {
     return Collections.emptySet();
   }
 
+  @NotNull
+  @Override
+  public Condition<Integer> getContainedInBranchCondition(@NotNull Collection<Integer> branchHeads) {
+    //noinspection unchecked
+    return Condition.FALSE;
+  }
+
 }
@@ -13,7 +13,7 @@ import java.util.Map;
 public class MiniDetailsGetter extends DataGetter<VcsShortCommitDetails> {
 
   MiniDetailsGetter(@NotNull VcsLogDataHolder dataHolder, @NotNull Map<VirtualFile, VcsLogProvider> logProviders) {
-    super(dataHolder, logProviders, new VcsCommitCache<Integer, VcsShortCommitDetails>());
+    super(dataHolder, logProviders, new PackedVcsCommitCache(dataHolder, logProviders.keySet()));
   }
 
   @Nullable
@@ -26,7 +26,14 @@ public class MiniDetailsGetter extends DataGetter<VcsShortCommitDetails> {
   @Override
   protected List<? extends VcsShortCommitDetails> readDetails(@NotNull VcsLogProvider logProvider, @NotNull VirtualFile root,
                                                   @NotNull List<String> hashes) throws VcsException {
-    return logProvider.readShortDetails(root, hashes);
+    List<? extends VcsShortCommitDetails> details = logProvider.readShortDetails(root, hashes);
+    // register the users here, in the background, so that the cache can pack the details without accessing the disk in the EDT
+    VcsUserRegistryImpl userRegistry = myDataHolder.getUserRegistry();
+    for (VcsShortCommitDetails detail : details) {
+      userRegistry.addUser(detail.getAuthor());
+      userRegistry.addUser(detail.getCommitter());
+    }
+    return details;
   }
 
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import com.intellij.vcs.log.Hash;
+import com.intellij.vcs.log.VcsShortCommitDetails;
+import com.intellij.vcs.log.VcsUser;
+import com.intellij.vcs.log.impl.HashImpl;
+import com.intellij.vcs.log.impl.VcsShortCommitDetailsImpl;
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Cache of short commit details which keeps only the recently used details as objects,
+ * and the rest encoded in a fixed-size off-heap ring buffer: subject, author and committer ids from the {@link VcsUserRegistryImpl},
+ * times, root, and the hashes of the commit and its parents in the binary form of {@link HashImpl}. The hashes are stored instead of
+ * commit indices, since the cache is used in the EDT and translating between hashes and indices reads the persistent hash map.
+ * The oldest records are overwritten when the buffer is full.
+ * <p/>
+ * The size of the buffer is controlled by the "vcs.log.details.cache.size.kb" registry key.
+ */
+class PackedVcsCommitCache extends VcsCommitCache<VcsShortCommitDetails> {
+
+  private static final Logger LOG = Logger.getInstance(PackedVcsCommitCache.class);
+  private static final int OBJECT_CACHE_SIZE = 500;
+  private static final int HEADER_SIZE = 8; // commit index and payload length
+
+  @NotNull private final VcsLogDataHolder myDataHolder;
+  @NotNull private final List<VirtualFile> myRoots;
+  @NotNull private final ByteBuffer myBuffer;
+  @NotNull private final TIntIntHashMap myOffsets = new TIntIntHashMap(); // commit index -> offset of its record in the buffer
+  @NotNull private final BufferExposingByteArrayOutputStream myEncodingStream = new BufferExposingByteArrayOutputStream();
+
+  private int myHead; // offset of the oldest record
+  private int myTail; // offset to write the next record at
+  private int myUsedBytes;
+  private int myPaddingStart = -1; // offset of the unused space at the end of the buffer left when the tail wrapped around
+
+  PackedVcsCommitCache(@NotNull VcsLogDataHolder dataHolder, @NotNull Collection<VirtualFile> roots) {
+    super(OBJECT_CACHE_SIZE);
+    myDataHolder = dataHolder;
+    myRoots = new ArrayList<VirtualFile>(roots);
+    myBuffer = ByteBuffer.allocateDirect(Math.max(1, Registry.intValue("vcs.log.details.cache.size.kb")) * 1024);
+  }
+
+  @Override
+  public void put(int commit, @NotNull VcsShortCommitDetails details) {
+    super.put(commit, details);
+    if (details instanceof LoadingDetails) {
+      myOffsets.remove(commit);
+      return;
+    }
+    byte[] payload = encode(details);
+    if (payload != null) {
+      write(commit, payload, myEncodingStream.size());
+    }
+  }
+
+  @Override
+  public void remove(int commit) {
+    super.remove(commit);
+    myOffsets.remove(commit); // the space is reclaimed when the tail reaches it
+  }
+
+  @Nullable
+  @Override
+  protected VcsShortCommitDetails getEvicted(int commit) {
+    if (!myOffsets.containsKey(commit)) return null;
+    int offset = myOffsets.get(commit);
+    byte[] payload = new byte[myBuffer.getInt(offset + 4)];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = myBuffer.get(offset + HEADER_SIZE + i);
+    }
+    VcsShortCommitDetails details = decode(payload);
+    if (details == null) {
+      myOffsets.remove(commit);
+    }
+    return details;
+  }
+
+  @NotNull
+  @Override
+  public String getStatistics() {
+    return super.getStatistics() + ", packed=" + myOffsets.size() + " commits in " + myUsedBytes / 1024 + "K of " +
+           myBuffer.capacity() / 1024 + "K";
+  }
+
+  private void write(int commit, @NotNull byte[] payload, int length) {
+    int recordSize = HEADER_SIZE + length;
+    if (recordSize > myBuffer.capacity()) return;
+
+    makeRoom(recordSize);
+    myBuffer.putInt(myTail, commit);
+    myBuffer.putInt(myTail + 4, length);
+    for (int i = 0; i < length; i++) {
+      myBuffer.put(myTail + HEADER_SIZE + i, payload[i]);
+    }
+    myOffsets.put(commit, myTail);
+    myTail += recordSize;
+    myUsedBytes += recordSize;
+    if (myTail == myBuffer.capacity()) {
+      myTail = 0;
+    }
+  }
+
+  /**
+   * Evicts the oldest records until there is a contiguous free space of the given size at the tail.
+   */
+  private void makeRoom(int size) {
+    int capacity = myBuffer.capacity();
+    while (true) {
+      if (myUsedBytes == 0) {
+        myHead = myTail = 0;
+        myPaddingStart = -1;
+        return;
+      }
+      if (myTail > myHead) { // free space is at the end and at the beginning of the buffer
+        if (myTail + size <= capacity) return;
+        myPaddingStart = myTail;
+        myUsedBytes += capacity - myTail;
+        myTail = 0;
+      }
+      else { // free space is between the tail and the head
+        if (myHead - myTail >= size) return;
+        evictOldest();
+      }
+    }
+  }
+
+  private void evictOldest() {
+    if (myHead == myPaddingStart) {
+      myUsedBytes -= myBuffer.capacity() - myHead;
+      myHead = 0;
+      myPaddingStart = -1;
+      return;
+    }
+    int commit = myBuffer.getInt(myHead);
+    int recordSize = HEADER_SIZE + myBuffer.getInt(myHead + 4);
+    if (myOffsets.containsKey(commit) && myOffsets.get(commit) == myHead) {
+      myOffsets.remove(commit);
+    }
+    myHead += recordSize;
+    myUsedBytes -= recordSize;
+    if (myHead == myBuffer.capacity()) {
+      myHead = 0;
+    }
+  }
+
+  @Nullable
+  private byte[] encode(@NotNull VcsShortCommitDetails details) {
+    int root = myRoots.indexOf(details.getRoot());
+    int author = myDataHolder.getUserRegistry().getUserId(details.getAuthor());
+    int committer = myDataHolder.getUserRegistry().getUserId(details.getCommitter());
+    if (root < 0 || author < 0 || committer < 0) return null;
+
+    myEncodingStream.reset();
+    DataOutputStream out = new DataOutputStream(myEncodingStream);
+    try {
+      DataInputOutputUtil.writeINT(out, root);
+      DataInputOutputUtil.writeINT(out, author);
+      DataInputOutputUtil.writeINT(out, committer);
+      DataInputOutputUtil.writeLONG(out, details.getCommitTime());
+      DataInputOutputUtil.writeLONG(out, details.getAuthorTime());
+      writeHash(out, details.getId());
+      List<Hash> parents = details.getParents();
+      DataInputOutputUtil.writeINT(out, parents.size());
+      for (Hash parent : parents) {
+        writeHash(out, parent);
+      }
+      IOUtil.writeUTF(out, details.getSubject());
+      return myEncodingStream.getInternalBuffer();
+    }
+    catch (IOException e) {
+      LOG.error(e); // writing to memory
+      return null;
+    }
+  }
+
+  private static void writeHash(@NotNull DataOutputStream out, @NotNull Hash hash) throws IOException {
+    (hash instanceof HashImpl ? (HashImpl)hash : (HashImpl)HashImpl.build(hash.asString())).write(out);
+  }
+
+  @Nullable
+  private VcsShortCommitDetails decode(@NotNull byte[] payload) {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    try {
+      VirtualFile root = myRoots.get(DataInputOutputUtil.readINT(in));
+      VcsUser author = myDataHolder.getUserRegistry().getUserById(DataInputOutputUtil.readINT(in));
+      VcsUser committer = myDataHolder.getUserRegistry().getUserById(DataInputOutputUtil.readINT(in));
+      long commitTime = DataInputOutputUtil.readLONG(in);
+      long authorTime = DataInputOutputUtil.readLONG(in);
+      Hash hash = HashImpl.read(in);
+      int parentsCount = DataInputOutputUtil.readINT(in);
+      List<Hash> parents = new ArrayList<Hash>(parentsCount);
+      for (int i = 0; i < parentsCount; i++) {
+        parents.add(HashImpl.read(in));
+      }
+      String subject = IOUtil.readUTF(in);
+      if (author == null || committer == null) return null;
+      return new VcsShortCommitDetailsImpl(hash, parents, commitTime, root, subject, author, committer, authorTime);
+    }
+    catch (IOException e) {
+      LOG.error(e); // reading from memory
+      return null;
+    }
+  }
+}
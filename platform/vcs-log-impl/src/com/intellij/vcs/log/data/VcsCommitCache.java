@@ -15,7 +15,7 @@
  */
 package com.intellij.vcs.log.data;
 
-import com.intellij.util.containers.SLRUMap;
+import com.intellij.util.containers.IntObjectCache;
 import com.intellij.vcs.log.VcsShortCommitDetails;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,30 +27,76 @@ import java.awt.*;
  * <p>It is not actually a cache, but rather a limited map, because there is intentionally no way to get the non-cached value if it was not
  *    found in the cache: such functionality is implemented by the {@link DataGetter} which is able to receive
  *    non-cached details more efficiently, in a batch.</p>
+ * <p>Commits are identified by their indices in the {@link VcsLogHashMap}.</p>
  * <p>Any access to the Cache MUST be performed from the EDT thread.</p>
  */
-class VcsCommitCache<CommitId, T extends VcsShortCommitDetails> {
+class VcsCommitCache<T extends VcsShortCommitDetails> {
 
-  private final SLRUMap<CommitId, T> myCache = new SLRUMap<CommitId, T>(5000, 5000);
+  private static final int DEFAULT_SIZE = 5000;
 
-  public void put(@NotNull CommitId hash, @NotNull T commit) {
+  private final IntObjectCache<T> myCache;
+  private int myHits;
+  private int myMisses;
+
+  VcsCommitCache() {
+    this(DEFAULT_SIZE);
+  }
+
+  VcsCommitCache(int size) {
+    myCache = new IntObjectCache<T>(size);
+  }
+
+  public void put(int commit, @NotNull T details) {
     assert EventQueue.isDispatchThread();
-    myCache.put(hash, commit);
+    myCache.put(commit, details);
   }
 
-  public boolean isKeyCached(@NotNull CommitId hash) {
+  public boolean isKeyCached(int commit) {
     assert EventQueue.isDispatchThread();
-    return myCache.get(hash) != null;
+    return myCache.containsKey(commit) || restoreEvicted(commit) != null;
   }
 
   @Nullable
-  public T get(@NotNull CommitId hash) {
+  public T get(int commit) {
     assert EventQueue.isDispatchThread();
-    return myCache.get(hash);
+    T details = myCache.get(commit);
+    if (details == null) {
+      details = restoreEvicted(commit);
+    }
+    if (details != null) {
+      myHits++;
+    }
+    else {
+      myMisses++;
+    }
+    return details;
   }
 
-  public void remove(@NotNull CommitId hash) {
+  @Nullable
+  private T restoreEvicted(int commit) {
+    T details = getEvicted(commit);
+    if (details != null) {
+      myCache.put(commit, details);
+    }
+    return details;
+  }
+
+  /**
+   * Looks up details which are not in the object cache anymore, e.g. in some more compact storage.
+   */
+  @Nullable
+  protected T getEvicted(int commit) {
+    return null;
+  }
+
+  public void remove(int commit) {
     assert EventQueue.isDispatchThread();
-    myCache.remove(hash);
+    myCache.remove(commit);
+  }
+
+  @NotNull
+  public String getStatistics() {
+    int total = myHits + myMisses;
+    return "hits=" + myHits + ", misses=" + myMisses + (total == 0 ? "" : ", hit rate=" + 100L * myHits / total + "%");
   }
 }
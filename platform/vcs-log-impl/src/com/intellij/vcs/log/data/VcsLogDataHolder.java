@@ -69,6 +69,7 @@ public class VcsLogDataHolder implements Disposable, VcsLogDataProvider {
   private final VcsUserRegistryImpl myUserRegistry;
 
   private final VcsLogHashMap myHashMap;
+  @Nullable private final VcsLogPersistentIndex myIndex;
   private final ContainingBranchesGetter myContainingBranchesGetter;
 
   @NotNull private final VcsLogRefresher myRefresher;
@@ -95,9 +96,10 @@ public class VcsLogDataHolder implements Disposable, VcsLogDataProvider {
     catch (IOException e) {
       throw new RuntimeException(e); // TODO: show a message to the user & fallback to using in-memory Hashes
     }
+    myIndex = VcsLogPersistentIndex.create(myProject, logProviders, myHashMap, this);
     myContainingBranchesGetter = new ContainingBranchesGetter(this, this);
 
-    myFilterer = new VcsLogFiltererImpl(myProject, myLogProviders, myHashMap, myTopCommitsDetailsCache, myDetailsGetter,
+    myFilterer = new VcsLogFiltererImpl(myProject, myLogProviders, myHashMap, myTopCommitsDetailsCache, myDetailsGetter, myIndex,
                                                        uiProperties.isBek() ? PermanentGraph.SortType.Bek : PermanentGraph.SortType.Normal,
                                                        visiblePackConsumer);
 
@@ -105,6 +107,9 @@ public class VcsLogDataHolder implements Disposable, VcsLogDataProvider {
       @Override
       public void consume(DataPack dataPack) {
         myFilterer.onRefresh(dataPack);
+        if (myIndex != null) {
+          myIndex.scheduleIndexing(dataPack);
+        }
       }
     };
 
@@ -140,6 +145,14 @@ public class VcsLogDataHolder implements Disposable, VcsLogDataProvider {
     return myHashMap;
   }
 
+  /**
+   * Returns the persistent index of commit details, or null if it is disabled or couldn't be opened.
+   */
+  @Nullable
+  public VcsLogPersistentIndex getIndex() {
+    return myIndex;
+  }
+
   public void initialize() {
     final StopWatch initSw = StopWatch.start("initialize");
     myDataLoaderQueue.clear();
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.vcs.log.Hash;
+import com.intellij.vcs.log.VcsLogProvider;
+import com.intellij.vcs.log.VcsRef;
+import com.intellij.vcs.log.graph.GraphCommit;
+import com.intellij.vcs.log.graph.GraphCommitImpl;
+import com.intellij.vcs.log.impl.HashImpl;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Stores the full compacted log (commit indices, parents and timestamps) between sessions together with the heads it was built for,
+ * so that on startup the log can be restored from disk and joined with the recent commits instead of reading all hashes from the VCS.
+ * <p/>
+ * Commit indices are only meaningful together with the {@link VcsLogHashMap} they were produced by,
+ * so the hashes of the heads are stored as well and checked against the map on load.
+ */
+class VcsLogGraphCache {
+
+  private static final Logger LOG = Logger.getInstance(VcsLogGraphCache.class);
+  private static final File CACHE_DIR = new File(new File(PathManager.getSystemPath(), "vcs-log"), "graph");
+  private static final int VERSION = 1;
+
+  @NotNull private final VcsLogHashMap myHashMap;
+  @NotNull private final File myFile;
+  private int mySavedStateHash;
+
+  VcsLogGraphCache(@NotNull Project project, @NotNull Map<VirtualFile, VcsLogProvider> providers, @NotNull VcsLogHashMap hashMap) {
+    myHashMap = hashMap;
+    myFile = new File(CACHE_DIR, VcsLogHashMap.calcLogId(project, providers));
+  }
+
+  /**
+   * Returns the log saved by the previous session, or null if there is no valid saved log.
+   */
+  @Nullable
+  CachedLog load() {
+    if (!myFile.exists()) return null;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+      if (in.readInt() != VERSION) return null;
+
+      int headsCount = in.readInt();
+      Set<Integer> heads = ContainerUtil.newHashSet();
+      for (int i = 0; i < headsCount; i++) {
+        int index = in.readInt();
+        Hash hash = HashImpl.read(in);
+        if (myHashMap.getCommitIndex(hash) != index) {
+          LOG.info("Saved log doesn't match the hash map, it will be reloaded from the VCS");
+          return null;
+        }
+        heads.add(index);
+      }
+
+      int commitsCount = in.readInt();
+      List<GraphCommit<Integer>> commits = new ArrayList<GraphCommit<Integer>>(commitsCount);
+      for (int i = 0; i < commitsCount; i++) {
+        int id = in.readInt();
+        long timestamp = in.readLong();
+        int parentsCount = in.readInt();
+        List<Integer> parents = parentsCount == 0 ? Collections.<Integer>emptyList() : new ArrayList<Integer>(parentsCount);
+        for (int j = 0; j < parentsCount; j++) {
+          parents.add(in.readInt());
+        }
+        commits.add(new GraphCommitImpl<Integer>(id, parents, timestamp));
+      }
+      mySavedStateHash = calcStateHash(commits, heads);
+      return new CachedLog(commits, heads);
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't read the saved log, it will be reloaded from the VCS", e);
+      return null;
+    }
+    finally {
+      close(in);
+    }
+  }
+
+  /**
+   * Saves the log unless it is the same as the one saved before.
+   */
+  void save(@NotNull List<? extends GraphCommit<Integer>> commits, @NotNull Map<VirtualFile, Set<VcsRef>> refs) {
+    Map<Integer, Hash> heads = ContainerUtil.newHashMap();
+    for (Set<VcsRef> rootRefs : refs.values()) {
+      for (VcsRef ref : rootRefs) {
+        heads.put(myHashMap.getCommitIndex(ref.getCommitHash()), ref.getCommitHash());
+      }
+    }
+    int stateHash = calcStateHash(commits, heads.keySet());
+    if (stateHash == mySavedStateHash) return;
+
+    File tempFile = new File(myFile.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try {
+      FileUtil.createParentDirs(tempFile);
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      out.writeInt(VERSION);
+      out.writeInt(heads.size());
+      for (Map.Entry<Integer, Hash> head : heads.entrySet()) {
+        out.writeInt(head.getKey());
+        ((HashImpl)head.getValue()).write(out);
+      }
+      out.writeInt(commits.size());
+      for (GraphCommit<Integer> commit : commits) {
+        out.writeInt(commit.getId());
+        out.writeLong(commit.getTimestamp());
+        List<Integer> parents = commit.getParents();
+        out.writeInt(parents.size());
+        for (Integer parent : parents) {
+          out.writeInt(parent);
+        }
+      }
+      out.close();
+      out = null;
+      FileUtil.rename(tempFile, myFile);
+      mySavedStateHash = stateHash;
+    }
+    catch (IOException e) {
+      LOG.warn("Couldn't save the log", e);
+      FileUtil.delete(tempFile);
+    }
+    finally {
+      close(out);
+    }
+  }
+
+  private static int calcStateHash(@NotNull List<? extends GraphCommit<Integer>> commits, @NotNull Set<Integer> heads) {
+    return 31 * commits.size() + heads.hashCode();
+  }
+
+  private static void close(@Nullable Closeable stream) {
+    if (stream != null) {
+      try {
+        stream.close();
+      }
+      catch (IOException e) {
+        LOG.warn(e);
+      }
+    }
+  }
+
+  static class CachedLog {
+    @NotNull private final List<GraphCommit<Integer>> myCommits;
+    @NotNull private final Set<Integer> myHeads;
+
+    CachedLog(@NotNull List<GraphCommit<Integer>> commits, @NotNull Set<Integer> heads) {
+      myCommits = commits;
+      myHeads = heads;
+    }
+
+    @NotNull
+    List<GraphCommit<Integer>> getCommits() {
+      return myCommits;
+    }
+
+    @NotNull
+    Set<Integer> getHeads() {
+      return myHeads;
+    }
+  }
+}
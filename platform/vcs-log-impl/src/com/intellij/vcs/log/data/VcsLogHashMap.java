@@ -40,10 +40,7 @@ import com.intellij.vcs.log.impl.HashImpl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +55,7 @@ public class VcsLogHashMap implements Disposable {
   private static final int VERSION = 1;
 
   private final PersistentEnumerator<Hash> myPersistentEnumerator;
+  private final long myGeneration;
 
   VcsLogHashMap(@NotNull Project project, @NotNull Map<VirtualFile, VcsLogProvider> logProviders) throws IOException {
     cleanupOldNaming(project, logProviders);
@@ -74,10 +72,55 @@ public class VcsLogHashMap implements Disposable {
         return new PersistentEnumerator<Hash>(mapFile, new MyHashKeyDescriptor(), Page.PAGE_SIZE);
       }
     }, mapFile);
+    // the generation file starts with the name of the map file, so it is deleted together with the broken map
+    myGeneration = readOrCreateGeneration(new File(mapFile.getPath() + ".generation"));
+  }
+
+  private static long readOrCreateGeneration(@NotNull File file) {
+    Long generation = readGeneration(file);
+    if (generation != null) return generation;
+
+    long newGeneration = System.currentTimeMillis();
+    writeGeneration(file, newGeneration);
+    return newGeneration;
+  }
+
+  @Nullable
+  static Long readGeneration(@NotNull File file) {
+    if (!file.exists()) return null;
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+        return in.readLong();
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  static void writeGeneration(@NotNull File file, long generation) {
+    try {
+      FileUtil.createParentDirs(file);
+      DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+      try {
+        out.writeLong(generation);
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.warn(e);
+    }
   }
 
   @NotNull
-  private static String calcLogId(@NotNull Project project, @NotNull final Map<VirtualFile, VcsLogProvider> logProviders) {
+  static String calcLogId(@NotNull Project project, @NotNull final Map<VirtualFile, VcsLogProvider> logProviders) {
     int hashcode = calcLogProvidersHash(logProviders);
     return project.getLocationHash() + "." + Integer.toHexString(hashcode);
   }
@@ -175,6 +218,14 @@ public class VcsLogHashMap implements Disposable {
     };
   }
 
+  /**
+   * Returns the stamp of the mapping, which changes whenever the map is created anew (e.g. when it was broken or its format has changed),
+   * so that data which stores commit indices can be invalidated together with the map.
+   */
+  public long getGeneration() {
+    return myGeneration;
+  }
+
   public void flush() {
     myPersistentEnumerator.force();
   }
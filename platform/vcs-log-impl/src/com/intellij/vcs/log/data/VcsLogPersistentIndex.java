@@ -0,0 +1,584 @@
+/*
+ * Copyright 2000-2014 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.BackgroundTaskQueue;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Function;
+import com.intellij.util.PathUtil;
+import com.intellij.util.Processor;
+import com.intellij.util.concurrency.SequentialTaskExecutor;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.containers.MultiMap;
+import com.intellij.util.io.*;
+import com.intellij.vcs.log.*;
+import com.intellij.vcs.log.graph.GraphCommit;
+import com.intellij.vcs.log.graph.PermanentGraph;
+import com.intellij.vcs.log.impl.VcsUserImpl;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of commit messages, authors and changed paths, which allows to answer text, user and structure filters
+ * without querying the VCS.
+ * <p/>
+ * Commits are identified by their indices in the {@link VcsLogHashMap}.
+ * Messages are indexed by trigrams of their lower-cased text; commits found by trigrams are checked against the stored message.
+ * Changed paths are indexed together with all their parent directories up to the root, so that filtering by a directory is a single lookup.
+ * <p/>
+ * The index is filled in background for all commits of the log and updated incrementally when new commits appear
+ * or when full details are loaded for some other reason.
+ */
+public class VcsLogPersistentIndex implements Disposable {
+
+  private static final Logger LOG = Logger.getInstance(VcsLogPersistentIndex.class);
+  private static final File INDEX_DIR = new File(new File(PathManager.getSystemPath(), "vcs-log"), "index");
+  private static final int VERSION = 1;
+  private static final int BATCH_SIZE = 1000;
+
+  @NotNull private final Project myProject;
+  @NotNull private final Map<VirtualFile, VcsLogProvider> myLogProviders;
+  @NotNull private final VcsLogHashMap myHashMap;
+  @NotNull private final File myIndexDir;
+  @NotNull private final BackgroundTaskQueue myIndexingQueue;
+  @NotNull private final SequentialTaskExecutor myDetailsIndexer = new SequentialTaskExecutor(PooledThreadExecutor.INSTANCE);
+
+  @NotNull private final PersistentHashMap<Integer, String> myMessages;
+  @NotNull private final PersistentHashMap<Integer, TIntHashSet> myCommitsByTrigram;
+  @NotNull private final PersistentEnumeratorDelegate<VcsUser> myUsers;
+  @NotNull private final PersistentHashMap<Integer, TIntHashSet> myCommitsByUser;
+  @NotNull private final PersistentEnumeratorDelegate<String> myPaths;
+  @NotNull private final PersistentHashMap<Integer, TIntHashSet> myCommitsByPath;
+
+  /**
+   * Commits which have been completely indexed, i.e. have a stored message. Kept in memory to check quickly if the index covers the log.
+   */
+  @NotNull private final TIntHashSet myIndexedCommits = new TIntHashSet(); // guarded by itself
+
+  @Nullable private volatile DataPack myDataPackToIndex;
+  private volatile boolean myBroken;
+  private volatile boolean myDisposed;
+
+  @Nullable
+  static VcsLogPersistentIndex create(@NotNull Project project,
+                                      @NotNull Map<VirtualFile, VcsLogProvider> logProviders,
+                                      @NotNull VcsLogHashMap hashMap,
+                                      @NotNull Disposable parentDisposable) {
+    if (!Registry.is("vcs.log.index")) return null;
+    try {
+      VcsLogPersistentIndex index = new VcsLogPersistentIndex(project, logProviders, hashMap);
+      Disposer.register(parentDisposable, index);
+      return index;
+    }
+    catch (IOException e) {
+      LOG.warn("Couldn't open the commit index, filters will be applied by the VCS", e);
+      return null;
+    }
+  }
+
+  private VcsLogPersistentIndex(@NotNull Project project,
+                                @NotNull Map<VirtualFile, VcsLogProvider> logProviders,
+                                @NotNull VcsLogHashMap hashMap) throws IOException {
+    myProject = project;
+    myLogProviders = logProviders;
+    myHashMap = hashMap;
+    myIndexingQueue = new BackgroundTaskQueue(project, "Indexing commits...");
+
+    String logId = VcsLogHashMap.calcLogId(project, logProviders);
+    myIndexDir = new File(INDEX_DIR, logId + "." + VERSION);
+    if (!myIndexDir.exists()) {
+      IOUtil.deleteAllFilesStartingWith(new File(INDEX_DIR, logId));
+    }
+    // commits are stored by their indices, which are only valid for the hash map the index was built with
+    File generationFile = new File(myIndexDir, "hashes.generation");
+    Long generation = VcsLogHashMap.readGeneration(generationFile);
+    if (generation == null || generation != hashMap.getGeneration()) {
+      FileUtil.delete(myIndexDir);
+    }
+
+    // storages depend on each other, so if any of them is broken, all of them are rebuilt
+    Closeable[] storages = IOUtil.openCleanOrResetBroken(new ThrowableComputable<Closeable[], IOException>() {
+      @Override
+      public Closeable[] compute() throws IOException {
+        return openStorages(myIndexDir);
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        FileUtil.delete(myIndexDir);
+      }
+    });
+    //noinspection unchecked
+    myMessages = (PersistentHashMap<Integer, String>)storages[0];
+    //noinspection unchecked
+    myCommitsByTrigram = (PersistentHashMap<Integer, TIntHashSet>)storages[1];
+    //noinspection unchecked
+    myUsers = (PersistentEnumeratorDelegate<VcsUser>)storages[2];
+    //noinspection unchecked
+    myCommitsByUser = (PersistentHashMap<Integer, TIntHashSet>)storages[3];
+    //noinspection unchecked
+    myPaths = (PersistentEnumeratorDelegate<String>)storages[4];
+    //noinspection unchecked
+    myCommitsByPath = (PersistentHashMap<Integer, TIntHashSet>)storages[5];
+    VcsLogHashMap.writeGeneration(generationFile, hashMap.getGeneration());
+
+    myMessages.processKeysWithExistingMapping(new Processor<Integer>() {
+      @Override
+      public boolean process(Integer commit) {
+        myIndexedCommits.add(commit);
+        return true;
+      }
+    });
+  }
+
+  @NotNull
+  private static Closeable[] openStorages(@NotNull File dir) throws IOException {
+    Closeable[] storages = new Closeable[6];
+    try {
+      storages[0] = new PersistentHashMap<Integer, String>(new File(dir, "messages"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                           EnumeratorStringDescriptor.INSTANCE);
+      storages[1] = new PersistentHashMap<Integer, TIntHashSet>(new File(dir, "trigrams"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                                CommitSetExternalizer.INSTANCE);
+      storages[2] = new PersistentEnumeratorDelegate<VcsUser>(new File(dir, "users"), new UserDescriptor(), Page.PAGE_SIZE);
+      storages[3] = new PersistentHashMap<Integer, TIntHashSet>(new File(dir, "users-commits"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                                CommitSetExternalizer.INSTANCE);
+      storages[4] = new PersistentEnumeratorDelegate<String>(new File(dir, "paths"), EnumeratorStringDescriptor.INSTANCE, Page.PAGE_SIZE);
+      storages[5] = new PersistentHashMap<Integer, TIntHashSet>(new File(dir, "paths-commits"), EnumeratorIntegerDescriptor.INSTANCE,
+                                                                CommitSetExternalizer.INSTANCE);
+      return storages;
+    }
+    catch (IOException e) {
+      for (Closeable storage : storages) {
+        if (storage != null) {
+          try {
+            storage.close();
+          }
+          catch (IOException ignored) {
+          }
+        }
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Schedules indexing of all commits from the given data pack which are not indexed yet.
+   * Indexing of a previous data pack is abandoned, since the new one contains all its commits.
+   */
+  public void scheduleIndexing(@NotNull final DataPack dataPack) {
+    if (myBroken || !dataPack.isFull()) return;
+    myDataPackToIndex = dataPack;
+    myIndexingQueue.clear();
+    myIndexingQueue.run(new Task.Backgroundable(myProject, "Indexing commits...") {
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        if (myDataPackToIndex == dataPack) {
+          indexAll(dataPack, indicator);
+        }
+      }
+    });
+  }
+
+  private void indexAll(@NotNull DataPack dataPack, @NotNull ProgressIndicator indicator) {
+    MultiMap<VirtualFile, Integer> commitsToIndex = getNotIndexedCommits(dataPack);
+    int total = commitsToIndex.values().size();
+    if (total == 0) return;
+
+    long start = System.currentTimeMillis();
+    int indexed = 0;
+    for (Map.Entry<VirtualFile, Collection<Integer>> entry : commitsToIndex.entrySet()) {
+      VirtualFile root = entry.getKey();
+      List<Integer> commits = ContainerUtil.newArrayList(entry.getValue());
+      for (int from = 0; from < commits.size(); from += BATCH_SIZE) {
+        if (myDataPackToIndex != dataPack || myBroken) return;
+        indicator.checkCanceled();
+
+        List<String> hashes = ContainerUtil.map(commits.subList(from, Math.min(from + BATCH_SIZE, commits.size())),
+                                                new Function<Integer, String>() {
+                                                  @Override
+                                                  public String fun(Integer commit) {
+                                                    return myHashMap.getHash(commit).asString();
+                                                  }
+                                                });
+        try {
+          index(root, myLogProviders.get(root).readFullDetails(root, hashes));
+        }
+        catch (VcsException e) {
+          LOG.warn("Couldn't read details of commits to index them in " + root, e);
+          return;
+        }
+        indexed += hashes.size();
+        indicator.setFraction((double)indexed / total);
+      }
+    }
+    flush();
+    LOG.info("Indexed " + indexed + " commits in " + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  /**
+   * Walks the graph from the branch heads of each root, marking parents with the root of their children.
+   * The graph is topologically sorted, so a commit is always reached by its root before it is visited.
+   */
+  @NotNull
+  private MultiMap<VirtualFile, Integer> getNotIndexedCommits(@NotNull DataPack dataPack) {
+    TIntObjectHashMap<VirtualFile> rootsOfPendingCommits = new TIntObjectHashMap<VirtualFile>();
+    for (VcsRef ref : dataPack.getRefsModel().getAllRefs()) {
+      rootsOfPendingCommits.put(myHashMap.getCommitIndex(ref.getCommitHash()), ref.getRoot());
+    }
+
+    MultiMap<VirtualFile, Integer> result = MultiMap.create();
+    for (GraphCommit<Integer> commit : dataPack.getPermanentGraph().getAllCommits()) {
+      VirtualFile root = rootsOfPendingCommits.remove(commit.getId());
+      if (root == null) continue;
+      for (Integer parent : commit.getParents()) {
+        if (!rootsOfPendingCommits.containsKey(parent)) {
+          rootsOfPendingCommits.put(parent, root);
+        }
+      }
+      if (!isIndexed(commit.getId())) {
+        result.putValue(root, commit.getId());
+      }
+    }
+    return result;
+  }
+
+  private boolean isIndexed(int commit) {
+    synchronized (myIndexedCommits) {
+      return myIndexedCommits.contains(commit);
+    }
+  }
+
+  /**
+   * Queues indexing of the commits whose details were loaded for some other reason,
+   * so that the persistent writes don't delay loading of the details.
+   */
+  public void scheduleIndexing(@NotNull final VirtualFile root, @NotNull final List<? extends VcsFullCommitDetails> details) {
+    if (myBroken) return;
+    myDetailsIndexer.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (!myDisposed) {
+          index(root, details);
+        }
+      }
+    });
+  }
+
+  /**
+   * Indexes the given commits unless they are already indexed.
+   */
+  private void index(@NotNull VirtualFile root, @NotNull List<? extends VcsFullCommitDetails> details) {
+    if (myBroken || myDisposed) return;
+    try {
+      for (VcsFullCommitDetails detail : details) {
+        final int commit = myHashMap.getCommitIndex(detail.getId());
+        if (isIndexed(commit)) continue;
+
+        for (int trigram : getTrigrams(detail.getFullMessage()).toArray()) {
+          appendCommit(myCommitsByTrigram, trigram, commit);
+        }
+        appendCommit(myCommitsByUser, myUsers.enumerate(detail.getAuthor()), commit);
+        for (String path : getChangedPathsWithParents(root, detail.getChanges())) {
+          appendCommit(myCommitsByPath, myPaths.enumerate(path), commit);
+        }
+        // the message is stored last, since it marks the commit as indexed
+        myMessages.put(commit, detail.getFullMessage());
+        synchronized (myIndexedCommits) {
+          myIndexedCommits.add(commit);
+        }
+      }
+    }
+    catch (IOException e) {
+      markBroken(e);
+    }
+  }
+
+  private static void appendCommit(@NotNull PersistentHashMap<Integer, TIntHashSet> map, int key, final int commit) throws IOException {
+    map.appendData(key, new PersistentHashMap.ValueDataAppender() {
+      @Override
+      public void append(DataOutput out) throws IOException {
+        DataInputOutputUtil.writeINT(out, commit);
+      }
+    });
+  }
+
+  @NotNull
+  private static Set<String> getChangedPathsWithParents(@NotNull VirtualFile root, @NotNull Collection<Change> changes) {
+    String rootPath = root.getPath();
+    Set<String> paths = new THashSet<String>();
+    for (Change change : changes) {
+      addPathWithParents(rootPath, change.getBeforeRevision(), paths);
+      addPathWithParents(rootPath, change.getAfterRevision(), paths);
+    }
+    return paths;
+  }
+
+  private static void addPathWithParents(@NotNull String rootPath, @Nullable ContentRevision revision, @NotNull Set<String> paths) {
+    if (revision == null) return;
+    String path = FileUtil.toSystemIndependentName(revision.getFile().getPath());
+    // if a path is already there, so are its parents
+    while (paths.add(path) && FileUtil.isAncestor(rootPath, path, true)) {
+      path = PathUtil.getParentPath(path);
+    }
+  }
+
+  @NotNull
+  private static TIntHashSet getTrigrams(@NotNull String text) {
+    String lowerCaseText = text.toLowerCase();
+    TIntHashSet trigrams = new TIntHashSet();
+    for (int i = 0; i + 3 <= lowerCaseText.length(); i++) {
+      trigrams.add(getTrigram(lowerCaseText, i));
+    }
+    return trigrams;
+  }
+
+  private static int getTrigram(@NotNull String text, int offset) {
+    // collisions are possible, but they only produce extra candidates which are filtered out by the stored message
+    return (text.charAt(offset) * 31 + text.charAt(offset + 1)) * 31 + text.charAt(offset + 2);
+  }
+
+  /**
+   * Returns commits matching all details filters of the given collection, or null if the index can't answer them,
+   * e.g. when some commits of the graph are not indexed yet or a filter is not supported by the index.
+   */
+  @Nullable
+  public TIntHashSet filter(@NotNull PermanentGraph<Integer> permanentGraph, @NotNull VcsLogFilterCollection filters) {
+    if (myBroken || filters.getDateFilter() != null || !isIndexed(permanentGraph)) return null;
+
+    try {
+      TIntHashSet result = null;
+      VcsLogTextFilter textFilter = filters.getTextFilter();
+      if (textFilter != null) {
+        TIntHashSet matching = filterByText(textFilter);
+        if (matching == null) return null;
+        result = matching;
+      }
+      VcsLogUserFilter userFilter = filters.getUserFilter();
+      if (userFilter != null) {
+        TIntHashSet matching = filterByUser(userFilter);
+        if (matching == null) return null;
+        result = intersect(result, matching);
+      }
+      VcsLogStructureFilter structureFilter = filters.getStructureFilter();
+      if (structureFilter != null) {
+        result = intersect(result, filterByStructure(structureFilter));
+      }
+      return result;
+    }
+    catch (IOException e) {
+      markBroken(e);
+      return null;
+    }
+  }
+
+  private boolean isIndexed(@NotNull PermanentGraph<Integer> permanentGraph) {
+    synchronized (myIndexedCommits) {
+      for (GraphCommit<Integer> commit : permanentGraph.getAllCommits()) {
+        if (!myIndexedCommits.contains(commit.getId())) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  @Nullable
+  private TIntHashSet filterByText(@NotNull VcsLogTextFilter filter) throws IOException {
+    String text = filter.getText().toLowerCase();
+    if (text.length() < 3) return null; // too short to be found by trigrams
+
+    TIntHashSet candidates = null;
+    for (int trigram : getTrigrams(text).toArray()) {
+      TIntHashSet commits = myCommitsByTrigram.get(trigram);
+      if (commits == null) return new TIntHashSet();
+      candidates = intersect(candidates, commits);
+    }
+    assert candidates != null;
+
+    TIntHashSet result = new TIntHashSet();
+    for (int commit : candidates.toArray()) {
+      String message = myMessages.get(commit);
+      if (message != null && message.toLowerCase().contains(text)) {
+        result.add(commit);
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private TIntHashSet filterByUser(@NotNull VcsLogUserFilter filter) throws IOException {
+    // the index doesn't know roots of commits, so it can only answer the filter if it is the same for all roots
+    Set<String> names = null;
+    for (VirtualFile root : myLogProviders.keySet()) {
+      Set<String> rootNames = ContainerUtil.newHashSet(filter.getUserNames(root));
+      if (names != null && !names.equals(rootNames)) return null;
+      names = rootNames;
+    }
+    if (names == null) return new TIntHashSet();
+
+    TIntHashSet result = new TIntHashSet();
+    for (VcsUser user : myUsers.getAllDataObjects(null)) {
+      if (matches(user, names)) {
+        TIntHashSet commits = myCommitsByUser.get(myUsers.tryEnumerate(user));
+        if (commits != null) {
+          result.addAll(commits.toArray());
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean matches(@NotNull VcsUser user, @NotNull Collection<String> names) {
+    for (String name : names) {
+      String lowerName = name.toLowerCase();
+      if (user.getName().toLowerCase().contains(lowerName) || user.getEmail().toLowerCase().contains(lowerName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @NotNull
+  private TIntHashSet filterByStructure(@NotNull VcsLogStructureFilter filter) throws IOException {
+    TIntHashSet result = new TIntHashSet();
+    for (VirtualFile file : filter.getFiles()) {
+      int pathId = myPaths.tryEnumerate(file.getPath());
+      if (pathId != 0) {
+        TIntHashSet commits = myCommitsByPath.get(pathId);
+        if (commits != null) {
+          result.addAll(commits.toArray());
+        }
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static TIntHashSet intersect(@Nullable TIntHashSet set, @NotNull final TIntHashSet other) {
+    if (set == null) return other;
+    final TIntHashSet result = new TIntHashSet();
+    set.forEach(new TIntProcedure() {
+      @Override
+      public boolean execute(int value) {
+        if (other.contains(value)) result.add(value);
+        return true;
+      }
+    });
+    return result;
+  }
+
+  private void markBroken(@NotNull IOException e) {
+    LOG.warn("Commit index is corrupted, it will be rebuilt", e);
+    myBroken = true;
+  }
+
+  public void flush() {
+    myMessages.force();
+    myCommitsByTrigram.force();
+    myUsers.force();
+    myCommitsByUser.force();
+    myPaths.force();
+    myCommitsByPath.force();
+  }
+
+  @Override
+  public void dispose() {
+    myDisposed = true;
+    myDataPackToIndex = null;
+    myIndexingQueue.clear();
+    for (Closeable storage : new Closeable[]{myMessages, myCommitsByTrigram, myUsers, myCommitsByUser, myPaths, myCommitsByPath}) {
+      try {
+        storage.close();
+      }
+      catch (IOException e) {
+        LOG.warn(e);
+      }
+    }
+    if (myBroken) {
+      FileUtil.delete(myIndexDir);
+    }
+  }
+
+  private static class CommitSetExternalizer implements DataExternalizer<TIntHashSet> {
+    private static final CommitSetExternalizer INSTANCE = new CommitSetExternalizer();
+
+    @Override
+    public void save(@NotNull DataOutput out, TIntHashSet value) throws IOException {
+      for (int commit : value.toArray()) {
+        DataInputOutputUtil.writeINT(out, commit);
+      }
+    }
+
+    @Override
+    public TIntHashSet read(@NotNull DataInput in) throws IOException {
+      // the value consists of chunks appended one after another
+      TIntHashSet result = new TIntHashSet();
+      while (((InputStream)in).available() > 0) {
+        result.add(DataInputOutputUtil.readINT(in));
+      }
+      return result;
+    }
+  }
+
+  private static class UserDescriptor implements KeyDescriptor<VcsUser> {
+    @Override
+    public void save(@NotNull DataOutput out, VcsUser value) throws IOException {
+      IOUtil.writeUTF(out, value.getName());
+      IOUtil.writeUTF(out, value.getEmail());
+    }
+
+    @Override
+    public VcsUser read(@NotNull DataInput in) throws IOException {
+      String name = IOUtil.readUTF(in);
+      String email = IOUtil.readUTF(in);
+      return new VcsUserImpl(name, email);
+    }
+
+    @Override
+    public int getHashCode(VcsUser value) {
+      return value.hashCode();
+    }
+
+    @Override
+    public boolean isEqual(VcsUser val1, VcsUser val2) {
+      return val1.equals(val2);
+    }
+  }
+}
@@ -52,6 +52,7 @@ public class VcsLogRefresherImpl implements VcsLogRefresher {
   @NotNull private final VcsUserRegistryImpl myUserRegistry;
   @NotNull private final Map<Integer, VcsCommitMetadata> myTopCommitsDetailsCache;
   @NotNull private final Consumer<Exception> myExceptionHandler;
+  @NotNull private final VcsLogGraphCache myGraphCache;
   private final int myRecentCommitCount;
 
   @NotNull private final SingleTaskController<RefreshRequest, DataPack> mySingleTaskController;
@@ -73,6 +74,7 @@ public class VcsLogRefresherImpl implements VcsLogRefresher {
     myTopCommitsDetailsCache = topCommitsDetailsCache;
     myExceptionHandler = exceptionHandler;
     myRecentCommitCount = recentCommitsCount;
+    myGraphCache = new VcsLogGraphCache(project, providers, hashMap);
 
     Consumer<DataPack> dataPackUpdater = new Consumer<DataPack>() {
       @Override
@@ -232,22 +234,24 @@ public class VcsLogRefresherImpl implements VcsLogRefresher {
       Map<VirtualFile, Set<VcsRef>> currentRefs = myCurrentDataPack.getRefsModel().getAllRefsByRoot();
       try {
         if (permanentGraph != null) {
-          int commitCount = myRecentCommitCount;
-          for (int attempt = 0; attempt <= 1; attempt++) {
-            loadLogAndRefs(roots, currentRefs, commitCount);
-            List<? extends GraphCommit<Integer>> compoundLog = multiRepoJoin(myLoadedInfo.getCommits());
-            Map<VirtualFile, Set<VcsRef>> allNewRefs = getAllNewRefs(myLoadedInfo, currentRefs);
-            List<GraphCommit<Integer>> joinedFullLog = join(compoundLog, permanentGraph.getAllCommits(), currentRefs, allNewRefs);
-            if (joinedFullLog == null) {
-              commitCount *= 5;
+          DataPack dataPack = joinRecentCommits(roots, permanentGraph.getAllCommits(), currentRefs, getRefIndices(currentRefs));
+          if (dataPack != null) {
+            return dataPack;
+          }
+        }
+        else if (roots.containsAll(myProviders.keySet())) {
+          // startup: take the log saved by the previous session and append commits made since then
+          VcsLogGraphCache.CachedLog cachedLog = myGraphCache.load();
+          if (cachedLog != null) {
+            Map<VirtualFile, Set<VcsRef>> noRefs = ContainerUtil.newHashMap();
+            for (VirtualFile root : myProviders.keySet()) {
+              noRefs.put(root, Collections.<VcsRef>emptySet());
             }
-            else {
-              return DataPack.build(joinedFullLog, allNewRefs, myProviders, myHashMap, true);
+            DataPack dataPack = joinRecentCommits(roots, cachedLog.getCommits(), noRefs, cachedLog.getHeads());
+            if (dataPack != null) {
+              return dataPack;
             }
           }
-          // couldn't join => need to reload everything; if 5000 commits is still not enough, it's worth reporting:
-          LOG.info("Couldn't join " + commitCount / 5 + " recent commits to the log (" +
-                   permanentGraph.getAllCommits().size() + " commits)");
         }
 
         return loadFullLog();
@@ -261,6 +265,48 @@ public class VcsLogRefresherImpl implements VcsLogRefresher {
       }
     }
 
+    @Nullable
+    private DataPack joinRecentCommits(@NotNull Collection<VirtualFile> roots,
+                                       @NotNull List<GraphCommit<Integer>> fullLog,
+                                       @NotNull Map<VirtualFile, Set<VcsRef>> currentRefs,
+                                       @NotNull Collection<Integer> currentRefIndices) throws VcsException {
+      int commitCount = myRecentCommitCount;
+      for (int attempt = 0; attempt <= 1; attempt++) {
+        loadLogAndRefs(roots, currentRefs, commitCount);
+        List<? extends GraphCommit<Integer>> compoundLog = multiRepoJoin(myLoadedInfo.getCommits());
+        Map<VirtualFile, Set<VcsRef>> allNewRefs = getAllNewRefs(myLoadedInfo, currentRefs);
+        List<GraphCommit<Integer>> joinedFullLog = join(compoundLog, fullLog, currentRefIndices, allNewRefs);
+        if (joinedFullLog == null) {
+          commitCount *= 5;
+        }
+        else {
+          return buildAndSave(joinedFullLog, allNewRefs);
+        }
+      }
+      // couldn't join => need to reload everything; if 5000 commits is still not enough, it's worth reporting:
+      LOG.info("Couldn't join " + commitCount / 5 + " recent commits to the log (" + fullLog.size() + " commits)");
+      return null;
+    }
+
+    @NotNull
+    private DataPack buildAndSave(@NotNull List<? extends GraphCommit<Integer>> commits, @NotNull Map<VirtualFile, Set<VcsRef>> refs) {
+      DataPack dataPack = DataPack.build(commits, refs, myProviders, myHashMap, true);
+      StopWatch sw = StopWatch.start("saving log");
+      myGraphCache.save(commits, refs);
+      sw.report();
+      return dataPack;
+    }
+
+    @NotNull
+    private Collection<Integer> getRefIndices(@NotNull Map<VirtualFile, Set<VcsRef>> refs) {
+      return ContainerUtil.map(ContainerUtil.concat(refs.values()), new Function<VcsRef, Integer>() {
+        @Override
+        public Integer fun(@NotNull VcsRef ref) {
+          return myHashMap.getCommitIndex(ref.getCommitHash());
+        }
+      });
+    }
+
     @NotNull
     private Map<VirtualFile, Set<VcsRef>> getAllNewRefs(@NotNull LogInfo newInfo,
                                                         @NotNull Map<VirtualFile, Set<VcsRef>> previousRefs) {
@@ -296,17 +342,10 @@ public class VcsLogRefresherImpl implements VcsLogRefresher {
     @Nullable
     private List<GraphCommit<Integer>> join(@NotNull List<? extends GraphCommit<Integer>> recentCommits,
                                             @NotNull List<GraphCommit<Integer>> fullLog,
-                                            @NotNull Map<VirtualFile, Set<VcsRef>> previousRefs,
+                                            @NotNull Collection<Integer> prevRefIndices,
                                             @NotNull Map<VirtualFile, Set<VcsRef>> newRefs) {
       StopWatch sw = StopWatch.start("joining new commits");
-      Function<VcsRef, Integer> ref2Int = new Function<VcsRef, Integer>() {
-        @Override
-        public Integer fun(@NotNull VcsRef ref) {
-          return myHashMap.getCommitIndex(ref.getCommitHash());
-        }
-      };
-      Collection<Integer> prevRefIndices = ContainerUtil.map(ContainerUtil.concat(previousRefs.values()), ref2Int);
-      Collection<Integer> newRefIndices = ContainerUtil.map(ContainerUtil.concat(newRefs.values()), ref2Int);
+      Collection<Integer> newRefIndices = getRefIndices(newRefs);
       try {
         List<GraphCommit<Integer>> commits = new VcsLogJoiner<Integer, GraphCommit<Integer>>().addCommits(fullLog, prevRefIndices,
                                                                                                           recentCommits,
@@ -330,7 +369,7 @@ public class VcsLogRefresherImpl implements VcsLogRefresher {
       StopWatch sw = StopWatch.start("full log reload");
       LogInfo logInfo = readFullLogFromVcs();
       List<? extends GraphCommit<Integer>> graphCommits = multiRepoJoin(logInfo.getCommits());
-      DataPack dataPack = DataPack.build(graphCommits, logInfo.getRefs(), myProviders, myHashMap, true);
+      DataPack dataPack = buildAndSave(graphCommits, logInfo.getRefs());
       sw.report();
       return dataPack;
     }
@@ -27,6 +27,8 @@ import com.intellij.util.io.*;
 import com.intellij.vcs.log.VcsUser;
 import com.intellij.vcs.log.VcsUserRegistry;
 import com.intellij.vcs.log.impl.VcsUserImpl;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -54,6 +56,8 @@ public class VcsUserRegistryImpl implements Disposable, VcsUserRegistry {
 
   @Nullable private final PersistentEnumerator<VcsUser> myPersistentEnumerator;
   @NotNull private final Interner<VcsUser> myInterner;
+  @NotNull private final TIntObjectHashMap<VcsUser> myUsersById = new TIntObjectHashMap<VcsUser>(); // guarded by itself
+  @NotNull private final TObjectIntHashMap<VcsUser> myIdsByUser = new TObjectIntHashMap<VcsUser>(); // guarded by myUsersById
 
   VcsUserRegistryImpl(@NotNull Project project) {
     final File mapFile = new File(USER_CACHE_APP_DIR, project.getName() + "." + project.getLocationHash());
@@ -89,7 +93,11 @@ public class VcsUserRegistryImpl implements Disposable, VcsUserRegistry {
   public void addUser(@NotNull VcsUser user) {
     try {
       if (myPersistentEnumerator != null) {
-        myPersistentEnumerator.enumerate(user);
+        int id = myPersistentEnumerator.enumerate(user);
+        synchronized (myUsersById) {
+          myUsersById.put(id, user);
+          myIdsByUser.put(user, id);
+        }
       }
     }
     catch (IOException e) {
@@ -97,6 +105,27 @@ public class VcsUserRegistryImpl implements Disposable, VcsUserRegistry {
     }
   }
 
+  /**
+   * Returns the persistent id of a user which has already been {@link #addUser(VcsUser) added} to the registry, or -1 if it has not.
+   * Doesn't access the persistent enumerator, so it is safe to call from the EDT.
+   */
+  public int getUserId(@NotNull VcsUser user) {
+    synchronized (myUsersById) {
+      return myIdsByUser.containsKey(user) ? myIdsByUser.get(user) : -1;
+    }
+  }
+
+  /**
+   * Returns the user by the id obtained from {@link #getUserId(VcsUser)}, or null if it is not known.
+   * Doesn't access the persistent enumerator, so it is safe to call from the EDT.
+   */
+  @Nullable
+  public VcsUser getUserById(int id) {
+    synchronized (myUsersById) {
+      return myUsersById.get(id);
+    }
+  }
+
   public void addUsers(@NotNull Collection<VcsUser> users) {
     for (VcsUser user : users) {
       addUser(user);
@@ -31,6 +31,7 @@ import com.intellij.vcs.log.graph.PermanentGraph;
 import com.intellij.vcs.log.graph.VisibleGraph;
 import com.intellij.vcs.log.impl.VcsLogFilterCollectionImpl;
 import com.intellij.vcs.log.impl.VcsLogUtil;
+import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -44,12 +45,15 @@ class VisiblePackBuilder {
   @NotNull private final Map<Integer, VcsCommitMetadata> myTopCommitsDetailsCache;
   @NotNull private final CommitDetailsGetter myCommitDetailsGetter;
   @NotNull private final Map<VirtualFile, VcsLogProvider> myLogProviders;
+  @Nullable private final VcsLogPersistentIndex myIndex;
 
   VisiblePackBuilder(@NotNull Map<VirtualFile, VcsLogProvider> providers,
                      @NotNull VcsLogHashMap hashMap,
                      @NotNull Map<Integer, VcsCommitMetadata> topCommitsDetailsCache,
-                     @NotNull CommitDetailsGetter detailsGetter) {
+                     @NotNull CommitDetailsGetter detailsGetter,
+                     @Nullable VcsLogPersistentIndex index) {
     myHashMap = hashMap;
+    myIndex = index;
     myTopCommitsDetailsCache = topCommitsDetailsCache;
     myCommitDetailsGetter = detailsGetter;
     myLogProviders = providers;
@@ -70,6 +74,11 @@ class VisiblePackBuilder {
     List<Hash> matchingCommits = null;
     boolean canRequestMore = false;
     if (!detailsFilters.isEmpty()) {
+      TIntHashSet indexedCommits = myIndex == null ? null : myIndex.filter(dataPack.getPermanentGraph(), filters);
+      if (indexedCommits != null) { // the index knows all commits, so there is nothing more to request
+        return Pair.create(createVisiblePack(dataPack, sortType, matchingHeads, indexedCommits), commitCount);
+      }
+
       if (commitCount == CommitCountStage.INITIAL) {
         matchingCommits = filterInMemory(dataPack.getPermanentGraph(), detailsFilters, matchingHeads);
         if (matchingCommits.size() < commitCount.getCount()) {
@@ -102,6 +111,23 @@ class VisiblePackBuilder {
     return Pair.create(new VisiblePack(dataPack, visibleGraph, canRequestMore), commitCount);
   }
 
+  @NotNull
+  private static VisiblePack createVisiblePack(@NotNull DataPack dataPack,
+                                               @NotNull PermanentGraph.SortType sortType,
+                                               @Nullable Set<Integer> matchingHeads,
+                                               @NotNull final TIntHashSet matchingCommits) {
+    if (matchesNothing(matchingHeads) || matchingCommits.isEmpty()) {
+      return new VisiblePack(dataPack, EmptyVisibleGraph.getInstance(), false);
+    }
+    VisibleGraph<Integer> visibleGraph = dataPack.getPermanentGraph().createVisibleGraph(sortType, matchingHeads, new Condition<Integer>() {
+      @Override
+      public boolean value(Integer commit) {
+        return matchingCommits.contains(commit);
+      }
+    });
+    return new VisiblePack(dataPack, visibleGraph, false);
+  }
+
   private static <T> boolean matchesNothing(@Nullable Collection<T> matchingSet) {
     return matchingSet != null && matchingSet.isEmpty();
   }
@@ -175,6 +201,7 @@ class VisiblePackBuilder {
   private List<Hash> filterInMemory(@NotNull PermanentGraph<Integer> permanentGraph,
                                     @NotNull List<VcsLogDetailsFilter> detailsFilters,
                                     @Nullable Set<Integer> matchingHeads) {
+    Condition<Integer> containedInMatchingHeads = matchingHeads == null ? null : permanentGraph.getContainedInBranchCondition(matchingHeads);
     List<Hash> result = ContainerUtil.newArrayList();
     for (GraphCommit<Integer> commit : permanentGraph.getAllCommits()) {
       VcsCommitMetadata data = getDetailsFromCache(commit.getId());
@@ -182,35 +209,24 @@ class VisiblePackBuilder {
         // no more continuous details in the cache
         break;
       }
-      if (matchesAllFilters(data, permanentGraph, detailsFilters, matchingHeads)) {
+      if (matchesAllFilters(data, commit.getId(), detailsFilters, containedInMatchingHeads)) {
         result.add(data.getId());
       }
     }
     return result;
   }
 
-  private boolean matchesAllFilters(@NotNull final VcsCommitMetadata commit,
-                                    @NotNull final PermanentGraph<Integer> permanentGraph,
-                                    @NotNull List<VcsLogDetailsFilter> detailsFilters,
-                                    @Nullable final Set<Integer> matchingHeads) {
+  private static boolean matchesAllFilters(@NotNull final VcsCommitMetadata commit,
+                                           int commitIndex,
+                                           @NotNull List<VcsLogDetailsFilter> detailsFilters,
+                                           @Nullable Condition<Integer> containedInMatchingHeads) {
     boolean matchesAllDetails = ContainerUtil.and(detailsFilters, new Condition<VcsLogDetailsFilter>() {
       @Override
       public boolean value(VcsLogDetailsFilter filter) {
         return filter.matches(commit);
       }
     });
-    return matchesAllDetails && matchesAnyHead(permanentGraph, commit, matchingHeads);
-  }
-
-  private boolean matchesAnyHead(@NotNull PermanentGraph<Integer> permanentGraph,
-                                 @NotNull VcsCommitMetadata commit,
-                                 @Nullable Set<Integer> matchingHeads) {
-    if (matchingHeads == null) {
-      return true;
-    }
-    // TODO O(n^2)
-    int commitIndex = myHashMap.getCommitIndex(commit.getId());
-    return ContainerUtil.intersects(permanentGraph.getContainingBranches(commitIndex), matchingHeads);
+    return matchesAllDetails && (containedInMatchingHeads == null || containedInMatchingHeads.value(commitIndex));
   }
 
   @Nullable